@@ -28,8 +28,10 @@ import de.tud.plt.r43ples.webservice.Configuration;
 import de.tud.plt.r43ples.webservice.Debug;
 import de.tud.plt.r43ples.webservice.Endpoint;
 import de.tud.plt.r43ples.webservice.ExceptionMapper;
+import de.tud.plt.r43ples.webservice.Jobs;
 import de.tud.plt.r43ples.webservice.Merging;
 import de.tud.plt.r43ples.webservice.Misc;
+import de.tud.plt.r43ples.webservice.Uploads;
 
 
 /**
@@ -110,7 +112,9 @@ public class R43plesService {
 					API.class, 
 					Configuration.class, 
 					Debug.class, 
-					Merging.class)
+					Merging.class,
+					Jobs.class,
+					Uploads.class)
 			.property(MustacheMvcFeature.TEMPLATE_BASE_PATH, "templates")
 			.register(MustacheMvcFeature.class)
 			.register(ExceptionMapper.class)
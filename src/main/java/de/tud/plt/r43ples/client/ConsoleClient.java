@@ -2,6 +2,8 @@ package de.tud.plt.r43ples.client;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
+import de.tud.plt.r43ples.core.BulkUpload;
+import de.tud.plt.r43ples.core.BulkUploadManager;
 import de.tud.plt.r43ples.core.R43plesCoreInterface;
 import de.tud.plt.r43ples.core.R43plesCoreSingleton;
 import de.tud.plt.r43ples.exception.InternalErrorException;
@@ -10,11 +12,14 @@ import de.tud.plt.r43ples.existentobjects.UpdateCommit;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import org.apache.commons.configuration.ConfigurationException;
-import org.apache.commons.io.FileUtils;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
 import org.apache.log4j.Logger;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 
 
 public class ConsoleClient {
@@ -67,10 +72,16 @@ public class ConsoleClient {
 
             logger.info("Graph created: " + args_client.graph);
         } else {
-            String addSet = readFile(args_client.add_set);
-            String deleteSet = readFile(args_client.delete_set);
+            // the change sets are streamed into the triplestore, so their size is not limited by the heap
+            BulkUpload upload = BulkUploadManager.getInstance().create(args_client.graph, args_client.branch, args_client.user, args_client.message);
+            if (upload == null) {
+                System.err.println("Too many open bulk uploads");
+                return;
+            }
+            loadFile(upload, args_client.add_set, true);
+            loadFile(upload, args_client.delete_set, false);
 
-            UpdateCommit commit1 = r43plesCore.createUpdateCommit(args_client.graph, addSet, deleteSet, args_client.user, args_client.message, args_client.branch);
+            UpdateCommit commit1 = upload.commit();
             String result = commit1.getGeneratedRevision().getRevisionIdentifier();
 
             logger.info("New Revision: " + result);
@@ -78,11 +89,16 @@ public class ConsoleClient {
     }
 
     /**
-     * @param filename
-     * @return
+     * Streams a change set file into the bulk upload. The language is derived from the file extension (default:
+     * N-Triples); gzip-compressed files are detected.
+     *
+     * @param upload the bulk upload
+     * @param filename the file name or null
+     * @param addSet true for the add set, false for the delete set
      * @throws IOException
+     * @throws InternalErrorException
      */
-    private static String readFile(String filename) throws IOException {
+    private static void loadFile(BulkUpload upload, String filename, boolean addSet) throws IOException, InternalErrorException {
         if (filename != null) {
             File inputFile = new File(filename);
 
@@ -92,9 +108,15 @@ public class ConsoleClient {
                                 + filename + "!");
                 System.exit(0);
             }
-            return FileUtils.readFileToString(inputFile);
-        } else
-            return "";
+            Lang lang = RDFLanguages.filenameToLang(filename.replaceFirst("\\.gz$", ""), Lang.NTRIPLES);
+            try (InputStream in = new FileInputStream(inputFile)) {
+                if (addSet) {
+                    upload.loadAddSet(in, lang);
+                } else {
+                    upload.loadDeleteSet(in, lang);
+                }
+            }
+        }
     }
 
 }
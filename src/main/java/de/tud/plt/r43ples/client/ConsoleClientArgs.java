@@ -12,10 +12,10 @@ public class ConsoleClientArgs {
   @Parameter(names = {"-n", "--new"}, description = "Creates new graph after deleting the graph when already existing")
   public boolean create;
   
-  @Parameter(names = {"-a", "--add-set"}, description = "add set file")
+  @Parameter(names = {"-a", "--add-set"}, description = "add set file (N-Triples, N-Quads or Turtle, optionally gzip-compressed)")
   public String add_set;
 
-  @Parameter(names = {"-d", "--delete-set"}, description = "delete set file")
+  @Parameter(names = {"-d", "--delete-set"}, description = "delete set file (N-Triples, N-Quads or Turtle, optionally gzip-compressed)")
   public String delete_set;
   
   @Parameter(names = {"-u", "--user"}, description = "user name")
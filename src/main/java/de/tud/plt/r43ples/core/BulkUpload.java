@@ -0,0 +1,477 @@
+package de.tud.plt.r43ples.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.sparql.core.Quad;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.apache.commons.io.input.CountingInputStream;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RiotException;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A bulk upload of large add and delete sets for a new revision of a branch.
+ *
+ * The change sets are streamed as N-Triples or N-Quads (optionally gzip-compressed) and piped into staging graphs of
+ * the triplestore in chunks of the configured size (configuration key upload.chunkSize), so the memory used by an
+ * upload does not depend on the size of the change sets. Each change set can be sent in several parts. The commit
+ * moves the staging graphs to the change sets of the new revision (see {@link StagedUpdateCommitDraft}).
+ */
+public class BulkUpload {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(BulkUpload.class);
+
+    /**
+     * The status of a bulk upload.
+     */
+    public enum Status {
+        /** The upload accepts change sets. **/
+        OPEN,
+        /** A change set is loaded. **/
+        LOADING,
+        /** The revision is created. **/
+        COMMITTING,
+        /** The revision was created. **/
+        COMMITTED,
+        /** Loading or committing failed; the staged change sets were dropped. **/
+        FAILED,
+        /** The upload was aborted; the staged change sets were dropped. **/
+        ABORTED
+    }
+
+    /** The upload identifier. **/
+    private final String id;
+    /** The graph name. **/
+    private final String graphName;
+    /** The branch the new revision is derived from. **/
+    private final String branch;
+    /** The user. **/
+    private final String user;
+    /** The commit message. **/
+    private final String commitMessage;
+    /** The staging graph of the add set. **/
+    private final String addSetGraphURI;
+    /** The staging graph of the delete set. **/
+    private final String deleteSetGraphURI;
+
+    /** The status. **/
+    private Status status = Status.OPEN;
+    /** The time the upload was created. **/
+    private final Date created = new Date();
+    /** The time the upload was committed, failed or aborted. **/
+    private Date finished;
+    /** The number of triples written to the staged add set. **/
+    private long addTriples = 0;
+    /** The number of triples written to the staged delete set. **/
+    private long deleteTriples = 0;
+    /** The number of bytes read by finished loads. **/
+    private long bytesRead = 0;
+    /** The stream of the running load or null. **/
+    private CountingInputStream currentInput;
+    /** The identifier of the created revision. **/
+    private String revision;
+    /** The error message. **/
+    private String message;
+
+
+    /**
+     * The constructor.
+     *
+     * @param id the upload identifier
+     * @param graphName the graph name
+     * @param branch the branch the new revision is derived from
+     * @param user the user
+     * @param commitMessage the commit message
+     */
+    protected BulkUpload(final String id, final String graphName, final String branch, final String user, final String commitMessage) {
+        this.id = id;
+        this.graphName = graphName;
+        this.branch = branch;
+        this.user = user;
+        this.commitMessage = commitMessage;
+        this.addSetGraphURI = graphName + "-upload-" + id + "-addSet";
+        this.deleteSetGraphURI = graphName + "-upload-" + id + "-deleteSet";
+    }
+
+    /**
+     * Streams triples into the staged add set.
+     *
+     * @param in the stream (gzip-compressed streams are detected)
+     * @param lang the language of the stream (N-Triples or N-Quads)
+     * @throws InternalErrorException
+     */
+    public void loadAddSet(final InputStream in, final Lang lang) throws InternalErrorException {
+        load(in, lang, true);
+    }
+
+    /**
+     * Streams triples into the staged delete set.
+     *
+     * @param in the stream (gzip-compressed streams are detected)
+     * @param lang the language of the stream (N-Triples or N-Quads)
+     * @throws InternalErrorException
+     */
+    public void loadDeleteSet(final InputStream in, final Lang lang) throws InternalErrorException {
+        load(in, lang, false);
+    }
+
+    /**
+     * Creates the new revision from the staged change sets.
+     *
+     * @return the created update commit
+     * @throws InternalErrorException
+     */
+    public UpdateCommit commit() throws InternalErrorException {
+        begin(Status.COMMITTING);
+        try {
+            UpdateCommit commit = R43plesCoreSingleton.getInstance().createStagedUpdateCommit(graphName, addSetGraphURI,
+                    deleteSetGraphURI, user, commitMessage, branch);
+            synchronized (this) {
+                revision = commit.getGeneratedRevision().getRevisionIdentifier();
+            }
+            end(Status.COMMITTED, null);
+            logger.info("Bulk upload " + id + " committed as revision " + revision + " of graph " + graphName);
+            return commit;
+        } catch (InternalErrorException | RuntimeException e) {
+            dropStagedGraphs();
+            end(Status.FAILED, e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * Aborts the upload and drops the staged change sets.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (status != Status.OPEN && status != Status.FAILED) {
+                throw new IllegalStateException("Bulk upload " + id + " can not be aborted while it is " + status);
+            }
+            status = Status.ABORTED;
+            finished = new Date();
+        }
+        dropStagedGraphs();
+        logger.info("Bulk upload " + id + " aborted");
+    }
+
+    /**
+     * Streams triples into a staging graph. If the stream can not be read or parsed, the upload fails and the staged
+     * change sets are dropped.
+     *
+     * @param in the stream
+     * @param lang the language of the stream
+     * @param addSet true for the add set, false for the delete set
+     * @throws InternalErrorException
+     */
+    private void load(final InputStream in, final Lang lang, final boolean addSet) throws InternalErrorException {
+        begin(Status.LOADING);
+        CountingInputStream counting = new CountingInputStream(in);
+        synchronized (this) {
+            currentInput = counting;
+        }
+        ChunkedLoader loader = new ChunkedLoader(addSet);
+        try {
+            RDFDataMgr.parse(loader, decompress(counting), lang);
+            loader.flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Bulk upload " + id + " failed", e);
+            finishLoad(counting);
+            dropStagedGraphs();
+            end(Status.FAILED, e.getMessage());
+            if (e instanceof RiotException) {
+                throw (RiotException) e;
+            }
+            throw new InternalErrorException("Bulk upload could not be read: " + e.getMessage());
+        }
+        finishLoad(counting);
+        end(Status.OPEN, null);
+    }
+
+    /**
+     * Decompresses a gzip-compressed stream. Other streams are returned unchanged.
+     *
+     * @param in the stream
+     * @return the decompressed stream
+     * @throws IOException
+     */
+    private static InputStream decompress(final InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 65536);
+        buffered.mark(2);
+        int magic = buffered.read() | (buffered.read() << 8);
+        buffered.reset();
+        if (magic == GZIPInputStream.GZIP_MAGIC) {
+            return new GZIPInputStream(buffered, 65536);
+        }
+        return buffered;
+    }
+
+    /**
+     * Changes the status at the start of a load or commit.
+     *
+     * @param newStatus the new status
+     */
+    private synchronized void begin(final Status newStatus) {
+        if (status != Status.OPEN) {
+            throw new IllegalStateException("Bulk upload " + id + " is " + status);
+        }
+        status = newStatus;
+    }
+
+    /**
+     * Changes the status at the end of a load or commit.
+     *
+     * @param newStatus the new status
+     * @param message the error message or null
+     */
+    private synchronized void end(final Status newStatus, final String message) {
+        status = newStatus;
+        this.message = message;
+        if (newStatus != Status.OPEN) {
+            finished = new Date();
+        }
+    }
+
+    /**
+     * Adds the bytes of a finished load to the number of read bytes.
+     *
+     * @param counting the stream of the load
+     */
+    private synchronized void finishLoad(final CountingInputStream counting) {
+        bytesRead += counting.getByteCount();
+        currentInput = null;
+    }
+
+    /**
+     * Adds written triples to the number of triples of a change set.
+     *
+     * @param addSet true for the add set, false for the delete set
+     * @param triples the number of written triples
+     */
+    private synchronized void addTriples(final boolean addSet, final int triples) {
+        if (addSet) {
+            addTriples += triples;
+        } else {
+            deleteTriples += triples;
+        }
+    }
+
+    /**
+     * Drops the staging graphs.
+     */
+    private void dropStagedGraphs() {
+        TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", addSetGraphURI));
+        TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", deleteSetGraphURI));
+    }
+
+    /**
+     * Checks if the upload is committed, failed or aborted.
+     *
+     * @return true if the upload is finished
+     */
+    protected synchronized boolean isFinished() {
+        return finished != null;
+    }
+
+    /**
+     * Creates the JSON representation of the upload.
+     *
+     * @return the JSON string
+     */
+    public String toJson() {
+        try {
+            return new ObjectMapper().writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the upload identifier.
+     *
+     * @return the identifier
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the graph name.
+     *
+     * @return the graph name
+     */
+    public String getGraphName() {
+        return graphName;
+    }
+
+    /**
+     * Get the branch the new revision is derived from.
+     *
+     * @return the branch
+     */
+    public String getBranch() {
+        return branch;
+    }
+
+    /**
+     * Get the status.
+     *
+     * @return the status
+     */
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the number of triples written to the staged add set.
+     *
+     * @return the number of triples
+     */
+    public synchronized long getAddTriples() {
+        return addTriples;
+    }
+
+    /**
+     * Get the number of triples written to the staged delete set.
+     *
+     * @return the number of triples
+     */
+    public synchronized long getDeleteTriples() {
+        return deleteTriples;
+    }
+
+    /**
+     * Get the number of bytes read so far (compressed bytes for gzip-compressed streams), including the running load.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getBytesRead() {
+        return bytesRead + (currentInput != null ? currentInput.getByteCount() : 0);
+    }
+
+    /**
+     * Get the time the upload was created.
+     *
+     * @return the time as xsd:dateTime
+     */
+    public synchronized String getCreated() {
+        return formatDate(created);
+    }
+
+    /**
+     * Get the time the upload was committed, failed or aborted.
+     *
+     * @return the time as xsd:dateTime or null
+     */
+    public synchronized String getFinished() {
+        return formatDate(finished);
+    }
+
+    /**
+     * Get the identifier of the created revision.
+     *
+     * @return the revision identifier or null if the upload is not committed
+     */
+    public synchronized String getRevision() {
+        return revision;
+    }
+
+    /**
+     * Get the error message.
+     *
+     * @return the message or null
+     */
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    /**
+     * Formats a date as xsd:dateTime in UTC.
+     *
+     * @param date the date or null
+     * @return the formatted date or null
+     */
+    private static String formatDate(final Date date) {
+        if (date == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+
+    /**
+     * Collects the parsed triples of a change set and writes them to the staging graph whenever a chunk is full.
+     */
+    private class ChunkedLoader extends StreamRDFBase {
+
+        /** True for the add set, false for the delete set. **/
+        private final boolean addSet;
+        /** The staging graph. **/
+        private final String graphURI;
+        /** The maximum number of triples of a chunk. **/
+        private final int chunkSize = Math.max(1, Config.upload_chunkSize);
+        /** The triples which are not written yet. **/
+        private List<Triple> chunk = new ArrayList<>();
+
+
+        /**
+         * The constructor.
+         *
+         * @param addSet true for the add set, false for the delete set
+         */
+        private ChunkedLoader(final boolean addSet) {
+            this.addSet = addSet;
+            this.graphURI = addSet ? addSetGraphURI : deleteSetGraphURI;
+        }
+
+        @Override
+        public void triple(final Triple triple) {
+            chunk.add(triple);
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void quad(final Quad quad) {
+            // quads have to belong to the default graph or to the graph of the upload
+            if (!quad.isTriple() && !quad.isDefaultGraph()
+                    && !(quad.getGraph().isURI() && quad.getGraph().getURI().equals(graphName))) {
+                throw new RiotException("Quad of graph " + quad.getGraph() + " does not belong to graph <" + graphName + ">");
+            }
+            triple(quad.asTriple());
+        }
+
+        /**
+         * Writes the collected triples to the staging graph.
+         */
+        private void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            TripleStoreInterfaceSingleton.get().insertTriples(graphURI, chunk);
+            addTriples(addSet, chunk.size());
+            chunk = new ArrayList<>();
+        }
+
+    }
+
+}
@@ -0,0 +1,109 @@
+package de.tud.plt.r43ples.core;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+/**
+ * Manages the bulk uploads.
+ *
+ * Finished uploads are kept for status requests until more than upload.maxUploads uploads exist. No further uploads
+ * are accepted while this number of uploads is open.
+ */
+public class BulkUploadManager {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(BulkUploadManager.class);
+
+    /** The singleton instance. **/
+    private static BulkUploadManager instance;
+
+    /** The uploads in the order they were created (key: upload identifier). **/
+    private final LinkedHashMap<String, BulkUpload> uploads = new LinkedHashMap<>();
+
+
+    /**
+     * The constructor.
+     */
+    private BulkUploadManager() {
+
+    }
+
+    /**
+     * Get the instance of the bulk upload manager.
+     *
+     * @return the instance
+     */
+    public static synchronized BulkUploadManager getInstance() {
+        if (instance == null) {
+            instance = new BulkUploadManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Creates a new bulk upload for a branch.
+     *
+     * @param graphName the graph name
+     * @param branch the branch the new revision is derived from
+     * @param user the user
+     * @param message the commit message
+     * @return the upload or null if too many uploads are open
+     * @throws InternalErrorException if the graph is not under version control or the branch does not exist
+     */
+    public synchronized BulkUpload create(final String graphName, final String branch, final String user, final String message) throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(graphName);
+        if (graph.getRevisionGraphUri() == null) {
+            throw new InternalErrorException("Graph <" + graphName + "> is not under version control");
+        }
+        if (!graph.hasBranch(branch.toLowerCase())) {
+            throw new InternalErrorException("Branch " + branch + " of graph <" + graphName + "> does not exist");
+        }
+
+        removeFinishedUploads();
+        int maxUploads = Math.max(1, Config.upload_maxUploads);
+        int openUploads = 0;
+        for (BulkUpload upload : uploads.values()) {
+            if (!upload.isFinished()) {
+                openUploads++;
+            }
+        }
+        if (openUploads >= maxUploads) {
+            logger.warn("Bulk upload rejected because " + openUploads + " uploads are open");
+            return null;
+        }
+
+        BulkUpload upload = new BulkUpload(UUID.randomUUID().toString(), graphName, branch.toLowerCase(), user, message);
+        uploads.put(upload.getId(), upload);
+        logger.info("Bulk upload " + upload.getId() + " created for branch " + branch + " of graph " + graphName);
+        return upload;
+    }
+
+    /**
+     * Get an upload.
+     *
+     * @param id the upload identifier
+     * @return the upload or null if it is unknown
+     */
+    public synchronized BulkUpload getUpload(final String id) {
+        return uploads.get(id);
+    }
+
+    /**
+     * Removes the oldest finished uploads while more uploads than configured are kept.
+     */
+    private void removeFinishedUploads() {
+        Iterator<BulkUpload> it = uploads.values().iterator();
+        while (uploads.size() >= Math.max(1, Config.upload_maxUploads) && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+            }
+        }
+    }
+
+}
@@ -1,10 +1,15 @@
 package de.tud.plt.r43ples.core;
 
 import de.tud.plt.r43ples.exception.OutdatedException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.CommitLock;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterface;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.text.DateFormat;
@@ -180,6 +185,15 @@ public class CommitDraft {
 		return formatDateString(timeStamp);
 	}
 
+	/**
+	 * Get the time stamp of the commit in milliseconds since the epoch.
+	 *
+	 * @return the time stamp of the commit
+	 */
+	protected long getTime() {
+		return timeStamp.getTime();
+	}
+
 	/**
 	 * Get the triplestore interface to use.
 	 *
@@ -199,6 +213,37 @@ public class CommitDraft {
 	}
 
 
+	/**
+	 * Adds the branches of the specified graph which are referenced by the identifier to the commit lock.
+	 * Nothing is added if the graph is not under revision control.
+	 *
+	 * @param lock the commit lock
+	 * @param graphName the graph name
+	 * @param identifier the branch name or the revision number of a branch head
+	 */
+	protected void addBranchLock(final CommitLock lock, final String graphName, final String identifier) {
+		String revisionGraphURI = new RevisionGraph(graphName).getRevisionGraphUri();
+		if (revisionGraphURI != null) {
+			for (String branchURI : RevisionGraphIndex.getInstance(revisionGraphURI).getBranchURIs(identifier)) {
+				lock.addBranch(revisionGraphURI, branchURI);
+			}
+		}
+	}
+
+	/**
+	 * Adds the revision graph of the specified graph to the commit lock so that the commit changes it exclusively.
+	 * Nothing is added if the graph is not under revision control.
+	 *
+	 * @param lock the commit lock
+	 * @param graphName the graph name
+	 */
+	protected void addRevisionGraphLock(final CommitLock lock, final String graphName) {
+		String revisionGraphURI = new RevisionGraph(graphName).getRevisionGraphUri();
+		if (revisionGraphURI != null) {
+			lock.addRevisionGraph(revisionGraphURI);
+		}
+	}
+
 	/**
 	 * Move the reference in the specified revision graph from the old revision to the new one.
 	 *
@@ -208,12 +253,50 @@ public class CommitDraft {
 	 * @param revisionUriNew uri of the new revision
 	 *  */
 	protected void moveBranchReference(final String revisionGraphURI, final String branchURI, final String revisionUriOld, final String revisionUriNew) {
+		UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+		moveBranchReference(batch, revisionGraphURI, branchURI, revisionUriOld, revisionUriNew);
+		executeUpdateBatch(batch, revisionGraphURI);
+	}
+
+	/**
+	 * Adds the statements for moving the reference in the specified revision graph from the old revision to the new
+	 * one to the update batch. The reference is moved in the revision graph index after the batch was written.
+	 *
+	 * @param batch the update batch
+	 * @param revisionGraphURI the revision graph URI in the triplestore
+	 * @param branchURI the URI of the branch
+	 * @param revisionUriOld uri of the old revision
+	 * @param revisionUriNew uri of the new revision
+	 *  */
+	protected void moveBranchReference(final UpdateBatch batch, final String revisionGraphURI, final String branchURI, final String revisionUriOld, final String revisionUriNew) {
 		// delete old reference and create new one
 		String query = Config.prefixes	+ String.format(""
 						+ "DELETE DATA { GRAPH <%1$s> { <%2$s> rmo:references <%3$s>. } };"
 						+ "INSERT DATA { GRAPH <%1$s> { <%2$s> rmo:references <%4$s>. } }",
 				revisionGraphURI, branchURI, revisionUriOld, revisionUriNew);
-		getTripleStoreInterface().executeUpdateQuery(query);
+		batch.add(query);
+		final RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+		final long time = timeStamp.getTime();
+		batch.addPostCommitAction(new Runnable() {
+			@Override
+			public void run() {
+				index.setRevisionTime(revisionUriNew, time);
+				index.moveReference(branchURI, revisionUriNew);
+			}
+		});
+	}
+
+	/**
+	 * Executes all statements of a commit collected in the update batch as one write.
+	 * The revision graph index is updated by the post-commit actions of the batch, so it is left unchanged if the
+	 * write fails. Branches whose overlay grew beyond the configured size are materialized afterwards.
+	 *
+	 * @param batch the update batch
+	 * @param revisionGraphURI the revision graph URI in the triplestore
+	 */
+	protected void executeUpdateBatch(final UpdateBatch batch, final String revisionGraphURI) {
+		batch.execute();
+		BranchOverlay.materializeOversizedOverlays(revisionGraphURI);
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,255 @@
+package de.tud.plt.r43ples.core;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.management.R43plesRequest;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * An asynchronous commit which is executed by the {@link CommitJobExecutor}. The job reports its status and the
+ * revisions it created.
+ */
+public class CommitJob {
+
+    /**
+     * The status of a commit job.
+     */
+    public enum Status {
+        /** The job waits for a thread or for preceding jobs on the same graphs. **/
+        QUEUED,
+        /** The commit is executed. **/
+        RUNNING,
+        /** The commit was created. **/
+        COMPLETED,
+        /** The commit failed. **/
+        FAILED
+    }
+
+    /** The job identifier. **/
+    private final String id;
+    /** The request of the commit. **/
+    private final R43plesRequest request;
+    /** The names of the graphs the request refers to. **/
+    private final List<String> graphNames;
+    /** The executor of the job. **/
+    private final CommitJobExecutor executor;
+
+    /** The status. **/
+    private Status status = Status.QUEUED;
+    /** The time the job was submitted. **/
+    private final Date submitted = new Date();
+    /** The time the commit was started or null. **/
+    private Date started;
+    /** The time the job was finished or null. **/
+    private Date finished;
+    /** The result or error message. **/
+    private String message;
+    /** The created revision numbers (key: graph name). **/
+    private final Map<String, List<String>> revisions = new LinkedHashMap<>();
+
+    /** States if the job was handed to a thread of the executor (guarded by the executor). **/
+    boolean dispatched = false;
+
+
+    /**
+     * The constructor.
+     *
+     * @param id the job identifier
+     * @param request the request of the commit
+     * @param graphNames the names of the graphs the request refers to
+     * @param executor the executor of the job
+     */
+    protected CommitJob(final String id, final R43plesRequest request, final List<String> graphNames, final CommitJobExecutor executor) {
+        this.id = id;
+        this.request = request;
+        this.graphNames = Collections.unmodifiableList(new ArrayList<>(graphNames));
+        this.executor = executor;
+    }
+
+    /**
+     * Marks the job as running.
+     */
+    protected synchronized void start() {
+        status = Status.RUNNING;
+        started = new Date();
+    }
+
+    /**
+     * Marks the job as completed.
+     *
+     * @param message the result message
+     */
+    protected synchronized void complete(final String message) {
+        status = Status.COMPLETED;
+        finished = new Date();
+        this.message = message;
+    }
+
+    /**
+     * Marks the job as failed.
+     *
+     * @param message the error message
+     */
+    protected synchronized void fail(final String message) {
+        status = Status.FAILED;
+        finished = new Date();
+        this.message = message;
+    }
+
+    /**
+     * Adds a revision created by the commit.
+     *
+     * @param revision the revision
+     */
+    protected synchronized void addRevision(final Revision revision) {
+        String graphName = revision.getRevisionGraph().getGraphName();
+        List<String> numbers = revisions.get(graphName);
+        if (numbers == null) {
+            numbers = new ArrayList<>();
+            revisions.put(graphName, numbers);
+        }
+        numbers.add(revision.getRevisionIdentifier());
+    }
+
+    /**
+     * Get the request of the commit.
+     *
+     * @return the request
+     */
+    R43plesRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Checks if the job is completed or failed.
+     *
+     * @return true if the job is finished
+     */
+    protected synchronized boolean isFinished() {
+        return finished != null;
+    }
+
+    /**
+     * Creates the JSON representation of the job.
+     *
+     * @return the JSON string
+     */
+    public String toJson() {
+        try {
+            return new ObjectMapper().writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the job identifier.
+     *
+     * @return the identifier
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the names of the graphs the request refers to. Jobs on the same graph are executed in the order they
+     * were submitted.
+     *
+     * @return the graph names
+     */
+    public List<String> getGraphNames() {
+        return graphNames;
+    }
+
+    /**
+     * Get the status.
+     *
+     * @return the status
+     */
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the number of jobs on the same graphs which have to be finished before this job starts.
+     *
+     * @return the number of preceding jobs (0 if the job already started)
+     */
+    public int getJobsAhead() {
+        return executor.getJobsAhead(this);
+    }
+
+    /**
+     * Get the time the job was submitted.
+     *
+     * @return the time as xsd:dateTime
+     */
+    public synchronized String getSubmitted() {
+        return formatDate(submitted);
+    }
+
+    /**
+     * Get the time the commit was started.
+     *
+     * @return the time as xsd:dateTime or null
+     */
+    public synchronized String getStarted() {
+        return formatDate(started);
+    }
+
+    /**
+     * Get the time the job was finished.
+     *
+     * @return the time as xsd:dateTime or null
+     */
+    public synchronized String getFinished() {
+        return formatDate(finished);
+    }
+
+    /**
+     * Get the result or error message.
+     *
+     * @return the message or null if the job is not finished
+     */
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    /**
+     * Get the revisions created by the commit.
+     *
+     * @return the revision numbers (key: graph name)
+     */
+    public synchronized Map<String, List<String>> getRevisions() {
+        Map<String, List<String>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : revisions.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * Formats a date as xsd:dateTime in UTC.
+     *
+     * @param date the date or null
+     * @return the formatted date or null
+     */
+    private static String formatDate(final Date date) {
+        if (date == null) {
+            return null;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(date);
+    }
+
+}
@@ -0,0 +1,336 @@
+package de.tud.plt.r43ples.core;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.exception.QueryErrorException;
+import de.tud.plt.r43ples.existentobjects.InitialCommit;
+import de.tud.plt.r43ples.existentobjects.MergeCommit;
+import de.tud.plt.r43ples.existentobjects.PickCommit;
+import de.tud.plt.r43ples.existentobjects.ReferenceCommit;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded executor for asynchronous commits.
+ *
+ * Commits (updates, graph creation and deletion, branches, tags, merges and picks) which are requested
+ * asynchronously are executed by a fixed number of threads (configuration key commit.async.threads), so long
+ * running commits do not block the threads of the web server. Every graph has a queue of the jobs which refer to it.
+ * A job is started when it is the first job in the queues of all its graphs, so jobs on the same graph are executed
+ * in the order they were submitted while jobs on different graphs run in parallel.
+ *
+ * Finished jobs are kept for status requests until more than commit.async.maxJobs jobs exist. No further jobs are
+ * accepted while this number of jobs is queued or running.
+ */
+public class CommitJobExecutor {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(CommitJobExecutor.class);
+
+    /** The pattern to find the graphs a request refers to. **/
+    private static final Pattern patternGraph = Pattern.compile("(GRAPH|FROM|INTO)\\s*<(?<graph>[^>]*)>", Pattern.CASE_INSENSITIVE);
+
+    /** The singleton instance. **/
+    private static CommitJobExecutor instance;
+
+    /** The executor of the jobs. **/
+    private final ExecutorService executor;
+    /** The jobs in the order they were submitted (key: job identifier). **/
+    private final LinkedHashMap<String, CommitJob> jobs = new LinkedHashMap<>();
+    /** The queued and running jobs of each graph in the order they were submitted (key: graph name). **/
+    private final HashMap<String, LinkedList<CommitJob>> graphQueues = new HashMap<>();
+    /** The number of queued and running jobs. **/
+    private int pendingJobs = 0;
+
+
+    /**
+     * The constructor.
+     *
+     * @param threads the number of threads
+     */
+    private CommitJobExecutor(final int threads) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, "r43ples-commit-job-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Get the instance of the commit job executor.
+     *
+     * @return the instance
+     */
+    public static synchronized CommitJobExecutor getInstance() {
+        if (instance == null) {
+            instance = new CommitJobExecutor(Math.max(1, Config.commit_async_threads));
+            logger.debug("Commit job executor started with " + Math.max(1, Config.commit_async_threads) + " threads");
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the executor after the queued jobs. The next call of {@link #getInstance()} creates a new executor with
+     * the current configuration.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.executor.shutdown();
+        }
+        instance = null;
+    }
+
+    /**
+     * Submits a commit request as job.
+     *
+     * @param request the request
+     * @return the job or null if too many jobs are pending
+     */
+    public synchronized CommitJob submit(final R43plesRequest request) {
+        if (pendingJobs >= Math.max(1, Config.commit_async_maxJobs)) {
+            logger.warn("Commit job rejected because " + pendingJobs + " jobs are pending");
+            return null;
+        }
+        CommitJob job = new CommitJob(UUID.randomUUID().toString(), request, getGraphNames(request.query_sparql), this);
+        jobs.put(job.getId(), job);
+        pendingJobs++;
+        for (String graphName : getQueueNames(job)) {
+            LinkedList<CommitJob> queue = graphQueues.get(graphName);
+            if (queue == null) {
+                queue = new LinkedList<>();
+                graphQueues.put(graphName, queue);
+            }
+            queue.add(job);
+        }
+        logger.info("Commit job " + job.getId() + " submitted for graphs " + job.getGraphNames());
+        dispatchIfReady(job);
+        removeFinishedJobs();
+        return job;
+    }
+
+    /**
+     * Get a job.
+     *
+     * @param id the job identifier
+     * @return the job or null if it is unknown
+     */
+    public synchronized CommitJob getJob(final String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Get the number of jobs on the same graphs which have to be finished before the job starts.
+     *
+     * @param job the job
+     * @return the number of preceding jobs
+     */
+    protected synchronized int getJobsAhead(final CommitJob job) {
+        if (job.dispatched) {
+            return 0;
+        }
+        Set<CommitJob> ahead = new HashSet<>();
+        for (String graphName : getQueueNames(job)) {
+            LinkedList<CommitJob> queue = graphQueues.get(graphName);
+            if (queue == null) {
+                continue;
+            }
+            for (CommitJob other : queue) {
+                if (other == job) {
+                    break;
+                }
+                ahead.add(other);
+            }
+        }
+        return ahead.size();
+    }
+
+    /**
+     * Hands the job to a thread if it is the first job in the queues of all its graphs.
+     *
+     * @param job the job
+     */
+    private void dispatchIfReady(final CommitJob job) {
+        if (job.dispatched) {
+            return;
+        }
+        for (String graphName : getQueueNames(job)) {
+            if (graphQueues.get(graphName).getFirst() != job) {
+                return;
+            }
+        }
+        job.dispatched = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                CommitJobExecutor.this.run(job);
+            }
+        });
+    }
+
+    /**
+     * Executes a job and starts the following jobs on its graphs afterwards.
+     *
+     * @param job the job
+     */
+    private void run(final CommitJob job) {
+        logger.info("Commit job " + job.getId() + " started");
+        job.start();
+        try {
+            execute(job);
+        } catch (InternalErrorException | RuntimeException e) {
+            logger.error("Commit job " + job.getId() + " failed", e);
+            job.fail(e.getMessage() != null ? e.getMessage() : e.toString());
+        } catch (Error e) {
+            job.fail(e.toString());
+            throw e;
+        } finally {
+            finish(job);
+        }
+    }
+
+    /**
+     * Removes a finished job from the queues of its graphs and starts the following jobs.
+     *
+     * @param job the job
+     */
+    private synchronized void finish(final CommitJob job) {
+        pendingJobs--;
+        List<CommitJob> next = new ArrayList<>();
+        for (String graphName : getQueueNames(job)) {
+            LinkedList<CommitJob> queue = graphQueues.get(graphName);
+            queue.remove(job);
+            if (queue.isEmpty()) {
+                graphQueues.remove(graphName);
+            } else {
+                next.add(queue.getFirst());
+            }
+        }
+        for (CommitJob nextJob : next) {
+            dispatchIfReady(nextJob);
+        }
+        logger.info("Commit job " + job.getId() + " finished with status " + job.getStatus());
+    }
+
+    /**
+     * Removes the oldest finished jobs while more jobs than configured are kept.
+     */
+    private void removeFinishedJobs() {
+        Iterator<CommitJob> it = jobs.values().iterator();
+        while (jobs.size() > Math.max(1, Config.commit_async_maxJobs) && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Executes the commit of a job.
+     *
+     * @param job the job
+     * @throws InternalErrorException
+     */
+    private static void execute(final CommitJob job) throws InternalErrorException {
+        R43plesRequest request = job.getRequest();
+        R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+        if (request.isUpdateQuery()) {
+            for (UpdateCommit commit : r43plesCore.createUpdateCommit(request)) {
+                job.addRevision(commit.getGeneratedRevision());
+            }
+            job.complete("Query executed");
+        } else if (request.isCreateGraphQuery()) {
+            InitialCommit commit = r43plesCore.createInitialCommit(request);
+            job.addRevision(commit.getGeneratedRevision());
+            job.complete("Graph <" + commit.getGeneratedRevision().getRevisionGraph().getGraphName() + "> successfully created");
+        } else if (request.isDropGraphQuery()) {
+            r43plesCore.sparqlDropGraph(request.query_r43ples);
+            job.complete("Graph successfully dropped");
+        } else if (request.isBranchOrTagQuery()) {
+            ReferenceCommit commit = r43plesCore.createReferenceCommit(request);
+            job.addRevision(commit.getUsedRevision());
+            job.complete("Tagging or branching successful");
+        } else if (request.isMergeQuery()) {
+            MergeCommit commit = r43plesCore.createMergeCommit(request);
+            if (commit.isHasConflict()) {
+                job.fail("Merge has conflicts");
+            } else {
+                if (commit.getGeneratedRevision() != null) {
+                    job.addRevision(commit.getGeneratedRevision());
+                }
+                job.complete("Merge successful");
+            }
+        } else if (request.isPickQuery()) {
+            PickCommit commit = r43plesCore.createPickCommit(request);
+            for (Revision revision : commit.getGeneratedRevisions()) {
+                job.addRevision(revision);
+            }
+            job.complete("Revision(s) successfully picked");
+        } else {
+            throw new QueryErrorException("No R43ples query detected");
+        }
+    }
+
+    /**
+     * Checks if a request creates a commit which can be executed as job.
+     *
+     * @param request the request
+     * @return true if the request creates a commit
+     */
+    public static boolean isCommitRequest(final R43plesRequest request) {
+        return request.isUpdateQuery() || request.isCreateGraphQuery() || request.isDropGraphQuery()
+                || request.isBranchOrTagQuery() || request.isMergeQuery() || request.isPickQuery();
+    }
+
+    /**
+     * Get the names of the graphs a query refers to.
+     *
+     * @param query the query
+     * @return the sorted graph names
+     */
+    private static List<String> getGraphNames(final String query) {
+        TreeSet<String> graphNames = new TreeSet<>();
+        Matcher m = patternGraph.matcher(query);
+        while (m.find()) {
+            graphNames.add(m.group("graph"));
+        }
+        return new ArrayList<>(graphNames);
+    }
+
+    /**
+     * Get the names of the queues of a job. A job without graph names is ordered in a common queue.
+     *
+     * @param job the job
+     * @return the queue names
+     */
+    private static List<String> getQueueNames(final CommitJob job) {
+        if (job.getGraphNames().isEmpty()) {
+            List<String> queueNames = new ArrayList<>();
+            queueNames.add("");
+            return queueNames;
+        }
+        return job.getGraphNames();
+    }
+
+}
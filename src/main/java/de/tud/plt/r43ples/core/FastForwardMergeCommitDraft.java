@@ -5,11 +5,15 @@ import de.tud.plt.r43ples.existentobjects.Branch;
 import de.tud.plt.r43ples.existentobjects.FastForwardMergeCommit;
 import de.tud.plt.r43ples.existentobjects.Path;
 import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
 import de.tud.plt.r43ples.optimization.PathCalculationInterface;
 import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.Iterator;
@@ -57,18 +61,23 @@ public class FastForwardMergeCommitDraft extends MergeCommitDraft {
      * @return the commit (has attribute which indicates if the commit was executed or not)
      */
     protected FastForwardMergeCommit createCommitInTripleStore() throws InternalErrorException {
-        String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
-        String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
-
-        Revision usedSourceRevision = new Revision(getRevisionGraph(), revisionUriFrom, false);
-        Revision usedTargetRevision = new Revision(getRevisionGraph(), revisionUriInto, false);
-
-        Branch usedSourceBranch = getRevisionGraph().getBranch(getBranchNameFrom(), true);
-        Branch usedTargetBranch = getRevisionGraph().getBranch(getBranchNameInto(), true);
-
-        fullGraphCopy(usedSourceBranch.getReferenceURI(), usedTargetBranch.getReferenceURI());
-
-        return addMetaInformation(usedSourceRevision, usedSourceBranch, usedTargetRevision, usedTargetBranch);
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addRevisionGraphLock(lock, getGraphName());
+        lock.acquire();
+        try {
+            String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
+            String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
+
+            Revision usedSourceRevision = new Revision(getRevisionGraph(), revisionUriFrom, false);
+            Revision usedTargetRevision = new Revision(getRevisionGraph(), revisionUriInto, false);
+
+            Branch usedSourceBranch = getRevisionGraph().getBranch(getBranchNameFrom(), true);
+            Branch usedTargetBranch = getRevisionGraph().getBranch(getBranchNameInto(), true);
+
+            return addMetaInformation(usedSourceRevision, usedSourceBranch, usedTargetRevision, usedTargetBranch);
+        } finally {
+            lock.release();
+        }
     }
 
     /**
@@ -107,14 +116,16 @@ public class FastForwardMergeCommitDraft extends MergeCommitDraft {
                 + String.format("INSERT DATA { GRAPH <%s> { %s } }", getRevisionGraph().getRevisionGraphUri(),
                 queryContent.toString());
 
-        getTripleStoreInterface().executeUpdateQuery(query);
+        UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+        batch.add(query);
 
-        updateBelongsTo(usedTargetBranch.getReferenceURI(), getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), usedTargetRevision, usedSourceRevision));
-        // Update the full graph of the target branch
-        fullGraphCopy(getRevisionGraph().getFullGraphUri(usedSourceBranch.getReferenceURI()), getRevisionGraph().getFullGraphUri(usedTargetBranch.getReferenceURI()));
+        updateBelongsTo(batch, usedTargetBranch.getReferenceURI(), getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), usedTargetRevision, usedSourceRevision));
+        // Update the full graph or the overlay of the target branch
+        BranchOverlay.replaceContent(batch, getRevisionGraph().getRevisionGraphUri(), usedSourceBranch.getReferenceURI(), usedTargetBranch.getReferenceURI());
 
         // Move branch to new revision
-        moveBranchReference(getRevisionGraph().getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), usedSourceRevision.getRevisionURI());
+        moveBranchReference(batch, getRevisionGraph().getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), usedSourceRevision.getRevisionURI());
+        executeUpdateBatch(batch, getRevisionGraph().getRevisionGraphUri());
         // Update the target branch object
         usedTargetBranch = getRevisionGraph().getBranch(getBranchNameInto(), true);
 
@@ -130,16 +141,30 @@ public class FastForwardMergeCommitDraft extends MergeCommitDraft {
      * @param path the path to update
      * */
     public void updateBelongsTo(String branchURI, Path path){
+        UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+        updateBelongsTo(batch, branchURI, path);
+        batch.execute();
+    }
 
+    /**
+     * Adds the statements for adding a new belongs to property to all revision along the specified path to the
+     * update batch.
+     *
+     * @param batch the update batch
+     * @param branchURI the branch URI
+     * @param path the path to update
+     * */
+    public void updateBelongsTo(UpdateBatch batch, String branchURI, Path path){
+        StringBuilder queryContent = new StringBuilder(1000);
         Iterator<Revision> revIte = path.getRevisionPath().iterator();
         while(revIte.hasNext()) {
             String revision = revIte.next().getRevisionURI();
-
-            String query = Config.prefixes + String.format("INSERT DATA { GRAPH <%s> { <%s> rmo:belongsTo <%s>. } };%n",
-                    getRevisionGraph().getRevisionGraphUri(), revision, branchURI);
-
-            TripleStoreInterfaceSingleton.get().executeUpdateQuery(query);
+            queryContent.append(String.format("<%s> rmo:belongsTo <%s>. %n", revision, branchURI));
         }
+
+        String query = Config.prefixes + String.format("INSERT DATA { GRAPH <%s> { %s } }",
+                getRevisionGraph().getRevisionGraphUri(), queryContent.toString());
+        batch.add(query);
     }
 
 }
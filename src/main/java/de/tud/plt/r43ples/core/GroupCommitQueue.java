@@ -0,0 +1,253 @@
+package de.tud.plt.r43ples.core;
+
+import com.hp.hpl.jena.graph.Triple;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesces concurrent data updates of the same branch into group commits.
+ *
+ * The first data update of a branch opens a group and waits for the configured window (configuration key
+ * commit.group.window) or until the group is full (commit.group.maxSize). All data updates of the branch which
+ * arrive in the meantime join the group. The first update then writes the whole group while holding the lock of the
+ * branch: every update still gets its own revision and commit in the order it joined the group, but all of them are
+ * written in one transaction of the triplestore and the user lookups are shared. The other updates wait for the
+ * result of the group. If the transaction fails, all updates of the group fail.
+ */
+public class GroupCommitQueue {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(GroupCommitQueue.class);
+
+    /** The singleton instance. **/
+    private static GroupCommitQueue instance;
+
+    /** The groups which accept further updates (key: revision graph URI and branch URI). **/
+    private final HashMap<String, Group> openGroups = new HashMap<>();
+
+    /** The number of written groups. **/
+    private long groups = 0;
+    /** The number of updates written by groups. **/
+    private long groupedCommits = 0;
+
+
+    /**
+     * The constructor.
+     */
+    private GroupCommitQueue() {
+
+    }
+
+    /**
+     * Get the instance of the group commit queue.
+     *
+     * @return the instance
+     */
+    public static synchronized GroupCommitQueue getInstance() {
+        if (instance == null) {
+            instance = new GroupCommitQueue();
+        }
+        return instance;
+    }
+
+    /**
+     * Adds a data update to the group of its branch and waits until the group is written.
+     *
+     * @param key the key of the group returned by {@link UpdateCommitDraft#getGroupCommitKey()}
+     * @param draft the prepared update commit draft
+     * @return the list with the created commit
+     * @throws InternalErrorException
+     */
+    protected ArrayList<UpdateCommit> commit(final String key, final UpdateCommitDraft draft) throws InternalErrorException {
+        Group group;
+        boolean leader = false;
+        synchronized (this) {
+            group = openGroups.get(key);
+            if (group == null) {
+                group = new Group();
+                openGroups.put(key, group);
+                leader = true;
+            }
+            group.drafts.add(draft);
+            if (group.drafts.size() >= Math.max(1, Config.commit_group_maxSize)) {
+                openGroups.remove(key);
+                group.close();
+            }
+        }
+
+        if (leader) {
+            group.awaitClose(Config.commit_group_window);
+            synchronized (this) {
+                if (openGroups.get(key) == group) {
+                    openGroups.remove(key);
+                }
+            }
+            write(group);
+        }
+        return group.awaitResult(draft);
+    }
+
+    /**
+     * Writes all updates of a closed group in one transaction and hands the results to the waiting updates.
+     *
+     * @param group the group
+     */
+    private void write(final Group group) {
+        List<UpdateCommitDraft> drafts = group.drafts;
+        logger.debug("Write group commit of " + drafts.size() + " updates");
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        drafts.get(0).addGroupCommitLock(lock);
+        lock.acquire();
+        try {
+            UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+            Set<Triple> addedBefore = new HashSet<>();
+            Set<Triple> deletedBefore = new HashSet<>();
+            HashMap<String, String> userURIs = new HashMap<>();
+            List<UpdateCommit> commits = new ArrayList<>(drafts.size());
+            String revisionGraphURI = null;
+            Revision previousRevision = null;
+            for (UpdateCommitDraft draft : drafts) {
+                // the revision graph index is only updated after the batch was written
+                UpdateCommit commit = draft.addGroupCommit(batch, addedBefore, deletedBefore, userURIs, previousRevision);
+                revisionGraphURI = commit.getRevisionGraph().getRevisionGraphUri();
+                previousRevision = commit.getGeneratedRevision();
+                commits.add(commit);
+            }
+            drafts.get(0).executeUpdateBatch(batch, revisionGraphURI);
+            synchronized (this) {
+                groups++;
+                groupedCommits += drafts.size();
+            }
+            group.complete(commits, null);
+        } catch (InternalErrorException | RuntimeException e) {
+            logger.error("Group commit of " + drafts.size() + " updates failed", e);
+            group.complete(null, e);
+        } catch (Error e) {
+            group.complete(null, new InternalErrorException("Group commit failed: " + e.getMessage()));
+            throw e;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Get the number of written groups.
+     *
+     * @return the number of groups
+     */
+    public synchronized long getGroups() {
+        return groups;
+    }
+
+    /**
+     * Get the number of updates which were written by groups.
+     *
+     * @return the number of grouped updates
+     */
+    public synchronized long getGroupedCommits() {
+        return groupedCommits;
+    }
+
+
+    /**
+     * The updates of one branch which are written together.
+     */
+    private static class Group {
+
+        /** The updates in the order they joined the group. **/
+        private final List<UpdateCommitDraft> drafts = new ArrayList<>();
+        /** States if the group accepts no further updates. **/
+        private boolean closed = false;
+        /** States if the group is written or failed. **/
+        private boolean completed = false;
+        /** The created commits in the order of the updates. **/
+        private List<UpdateCommit> commits;
+        /** The failure of the group. **/
+        private Exception failure;
+
+        /**
+         * Closes the group, so its leader does not wait for the end of the window.
+         */
+        private synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the window has elapsed or the group is closed.
+         *
+         * @param window the window in milliseconds
+         */
+        private synchronized void awaitClose(final long window) {
+            long deadline = System.currentTimeMillis() + window;
+            long remaining = window;
+            while (!closed && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * Hands the result of the group to the waiting updates.
+         *
+         * @param commits the created commits or null if the group failed
+         * @param failure the failure or null
+         */
+        private synchronized void complete(final List<UpdateCommit> commits, final Exception failure) {
+            this.commits = commits;
+            this.failure = failure;
+            this.completed = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the group is written.
+         *
+         * @param draft the update
+         * @return the list with the commit of the update
+         * @throws InternalErrorException
+         */
+        private synchronized ArrayList<UpdateCommit> awaitResult(final UpdateCommitDraft draft) throws InternalErrorException {
+            boolean interrupted = false;
+            while (!completed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // the update is part of the transaction anyway
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure instanceof InternalErrorException) {
+                throw (InternalErrorException) failure;
+            } else if (failure != null) {
+                throw (RuntimeException) failure;
+            }
+            ArrayList<UpdateCommit> result = new ArrayList<>();
+            result.add(commits.get(drafts.indexOf(draft)));
+            return result;
+        }
+
+    }
+
+}
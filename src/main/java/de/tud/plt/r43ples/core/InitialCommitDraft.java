@@ -6,9 +6,12 @@ import de.tud.plt.r43ples.existentobjects.Branch;
 import de.tud.plt.r43ples.existentobjects.InitialCommit;
 import de.tud.plt.r43ples.existentobjects.Revision;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
-import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.regex.Matcher;
@@ -72,22 +75,32 @@ public class InitialCommitDraft extends CommitDraft {
      * @return the list of created commits
      */
     protected InitialCommit createCommitInTripleStore() throws InternalErrorException {
-        String commitUri = getRevisionManagement().getNewCommitURI(revisionDraft.getRevisionGraph(), revisionDraft.getNewRevisionIdentifier());
-        String masterUri = getRevisionManagement().getNewMasterURI(revisionDraft.getRevisionGraph());
-
-        // Create graph
-        if (!getRevisionManagement().checkNamedGraphExistence(revisionDraft.getRevisionGraph().getGraphName())) {
-            getTripleStoreInterface().executeCreateGraph(revisionDraft.getRevisionGraph().getGraphName());
-        } else {
-            throw new InternalErrorException("The calculated revision graph is already in use.");
+        // new revision graphs are registered in the global revision graph
+        CommitLock lock = CommitLockManager.getInstance().createLock().addRevisionGraph(Config.revision_graph);
+        lock.acquire();
+        try {
+            String commitUri = getRevisionManagement().getNewCommitURI(revisionDraft.getRevisionGraph(), revisionDraft.getNewRevisionIdentifier());
+            String masterUri = getRevisionManagement().getNewMasterURI(revisionDraft.getRevisionGraph());
+
+            UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+
+            // Create graph
+            if (!getRevisionManagement().checkNamedGraphExistence(revisionDraft.getRevisionGraph().getGraphName())) {
+                batch.add("CREATE GRAPH <" + revisionDraft.getRevisionGraph().getGraphName() + ">");
+            } else {
+                throw new InternalErrorException("The calculated revision graph is already in use.");
+            }
+
+            addMetaInformation(revisionDraft, commitUri, masterUri, batch);
+
+            Revision generatedRevision = revisionDraft.createRevisionInTripleStore(batch);
+            executeUpdateBatch(batch, revisionDraft.getRevisionGraph().getRevisionGraphUri());
+            Branch generatedBranch = new Branch(revisionDraft.getRevisionGraph(), masterUri, false);
+
+            return new InitialCommit(revisionDraft.getRevisionGraph(), commitUri, getUser(), getTimeStamp(), getMessage(), generatedRevision, generatedBranch);
+        } finally {
+            lock.release();
         }
-
-        addMetaInformation(revisionDraft, commitUri, masterUri);
-
-        Revision generatedRevision = revisionDraft.createRevisionInTripleStore();
-        Branch generatedBranch = new Branch(revisionDraft.getRevisionGraph(), masterUri, false);
-
-        return new InitialCommit(revisionDraft.getRevisionGraph(), commitUri, getUser(), getTimeStamp(), getMessage(), generatedRevision, generatedBranch);
     }
 
     /**
@@ -120,9 +133,10 @@ public class InitialCommitDraft extends CommitDraft {
      * @param revisionDraft the revision draft
      * @param commitUri the commit URI
      * @param branchUri the branch URI
+     * @param batch the update batch the statements are added to
      * @throws InternalErrorException
      */
-    private void addMetaInformation(RevisionDraft revisionDraft, String commitUri, String branchUri) throws InternalErrorException {
+    private void addMetaInformation(RevisionDraft revisionDraft, String commitUri, String branchUri, UpdateBatch batch) throws InternalErrorException {
 
         String queryAddRevisionGraph = Config.prefixes + String.format(
                 "INSERT DATA { GRAPH <%1$s> {"
@@ -131,7 +145,7 @@ public class InitialCommitDraft extends CommitDraft {
                         + "    sddo:hasDefaultSDD sdd:defaultSDD."
                         + "} }",
                 Config.revision_graph, revisionDraft.getRevisionGraph().getGraphName(), revisionDraft.getRevisionGraph().getRevisionGraphUri());
-        TripleStoreInterfaceSingleton.get().executeUpdateQuery(queryAddRevisionGraph);
+        batch.add(queryAddRevisionGraph);
 
         // Create new revision
         String queryContent = String.format(
@@ -158,8 +172,24 @@ public class InitialCommitDraft extends CommitDraft {
 
         String queryRevision = Config.prefixes + String.format("INSERT DATA { GRAPH <%s> {%s} }", revisionDraft.getRevisionGraph().getRevisionGraphUri(), queryContent);
 
-        getTripleStoreInterface().executeUpdateQuery(queryRevision);
-
+        batch.add(queryRevision);
+
+        final String graphName = revisionDraft.getRevisionGraph().getGraphName();
+        final String revisionGraphURI = revisionDraft.getRevisionGraph().getRevisionGraphUri();
+        final String revisionURI = revisionDraft.getRevisionURI();
+        final String revisionNumber = revisionDraft.getNewRevisionIdentifier();
+        final String masterURI = branchUri;
+        final long time = getTime();
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                RevisionGraphIndex.registerRevisionGraphURI(graphName, revisionGraphURI);
+                RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+                index.addRevision(revisionURI, revisionNumber, null, null);
+                index.setRevisionTime(revisionURI, time);
+                index.addReference(masterURI, "master", graphName, revisionURI, true, true);
+            }
+        });
     }
 
 }
\ No newline at end of file
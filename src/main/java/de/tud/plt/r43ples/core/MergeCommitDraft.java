@@ -4,11 +4,14 @@ import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.MergeCommit;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
 import de.tud.plt.r43ples.optimization.PathCalculationInterface;
 import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.regex.Matcher;
@@ -175,44 +178,51 @@ public class MergeCommitDraft extends CommitDraft {
      * @return the created commit
      */
     protected MergeCommit createCommitInTripleStore() throws InternalErrorException {
-        // Select the right child element and create a corresponding commit using the createCommitInTripleStore method.
-        if (action.equals(MergeActions.MERGE)) {
-            String revisionGraphURI = getRevisionGraph().getRevisionGraphUri();
-            String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
-            String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
-
-            // Check the named graph existence
-            if (!getRevisionManagement().checkNamedGraphExistence(getGraphName())) {
-                logger.warn("Graph <" + getGraphName() + "> does not exist.");
-                throw new InternalErrorException("Graph <" + getGraphName() + "> does not exist.");
-            }
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addRevisionGraphLock(lock, getGraphName());
+        lock.acquire();
+        try {
+            // Select the right child element and create a corresponding commit using the createCommitInTripleStore method.
+            if (action.equals(MergeActions.MERGE)) {
+                String revisionGraphURI = getRevisionGraph().getRevisionGraphUri();
+                String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
+                String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
+
+                // Check the named graph existence
+                if (!getRevisionManagement().checkNamedGraphExistence(getGraphName())) {
+                    logger.warn("Graph <" + getGraphName() + "> does not exist.");
+                    throw new InternalErrorException("Graph <" + getGraphName() + "> does not exist.");
+                }
 
-            // Check if from and into are different revisions
-            if (revisionUriFrom.equals(revisionUriInto)) {
-                // Branches are equal - throw error
-                throw new InternalErrorException("Specified branches are equal");
-            }
+                // Check if from and into are different revisions
+                if (revisionUriFrom.equals(revisionUriInto)) {
+                    // Branches are equal - throw error
+                    throw new InternalErrorException("Specified branches are equal");
+                }
 
-            // Check if both are terminal nodes
-            if (!(getRevisionGraph().hasBranch(getBranchNameFrom()) && getRevisionGraph().hasBranch(getBranchNameInto()))) {
-                throw new InternalErrorException("No terminal nodes were used");
-            }
+                // Check if both are terminal nodes
+                if (!(getRevisionGraph().hasBranch(getBranchNameFrom()) && getRevisionGraph().hasBranch(getBranchNameInto()))) {
+                    throw new InternalErrorException("No terminal nodes were used");
+                }
 
-            // Check if the into revision is derived from the from revision and fast forward can be applied
-            String query = Config.prefixes
-                    + String.format("ASK { GRAPH <%s> { "
-                            + "<%s> prov:wasDerivedFrom+ <%s> ."
-                            + " }} ",
-                    revisionGraphURI, revisionUriFrom, revisionUriInto);
-            if (!getTripleStoreInterface().executeAskQuery(query)) {
-                ThreeWayMergeCommitDraft threeWayMergeCommit = new ThreeWayMergeCommitDraft(graphName, branchNameFrom, branchNameInto, getUser(), getMessage(), sdd, triples, type, with);
-                return threeWayMergeCommit.createCommitInTripleStore();
+                // Check if the into revision is derived from the from revision and fast forward can be applied
+                String query = Config.prefixes
+                        + String.format("ASK { GRAPH <%s> { "
+                                + "<%s> prov:wasDerivedFrom+ <%s> ."
+                                + " }} ",
+                        revisionGraphURI, revisionUriFrom, revisionUriInto);
+                if (!getTripleStoreInterface().executeAskQuery(query)) {
+                    ThreeWayMergeCommitDraft threeWayMergeCommit = new ThreeWayMergeCommitDraft(graphName, branchNameFrom, branchNameInto, getUser(), getMessage(), sdd, triples, type, with);
+                    return threeWayMergeCommit.createCommitInTripleStore();
+                } else {
+                    FastForwardMergeCommitDraft fastForwardMergeCommitDraft = new FastForwardMergeCommitDraft(graphName, branchNameFrom, branchNameInto, getUser(), getMessage(), sdd, triples, type, with);
+                    return fastForwardMergeCommitDraft.createCommitInTripleStore();
+                }
             } else {
-                FastForwardMergeCommitDraft fastForwardMergeCommitDraft = new FastForwardMergeCommitDraft(graphName, branchNameFrom, branchNameInto, getUser(), getMessage(), sdd, triples, type, with);
-                return fastForwardMergeCommitDraft.createCommitInTripleStore();
+                throw new QueryErrorException("Error in query: " + getRequest().query_sparql);
             }
-        } else {
-            throw new QueryErrorException("Error in query: " + getRequest().query_sparql);
+        } finally {
+            lock.release();
         }
     }
 
@@ -315,4 +325,14 @@ public class MergeCommitDraft extends CommitDraft {
         TripleStoreInterfaceSingleton.get().executeUpdateQuery(
                 "COPY GRAPH <" + sourceGraphURI + "> TO GRAPH <"+ targetGraphURI + ">");
     }
+
+    /**
+     * Adds the statement for copying a full graph from one branch to another to the update batch.
+     * @param batch the update batch
+     * @param sourceGraphURI the URI of the source graph
+     * @param targetGraphURI the URI of the target graph
+     * */
+    protected void fullGraphCopy(UpdateBatch batch, String sourceGraphURI, String targetGraphURI) {
+        batch.add("COPY GRAPH <" + sourceGraphURI + "> TO GRAPH <"+ targetGraphURI + ">");
+    }
 }
\ No newline at end of file
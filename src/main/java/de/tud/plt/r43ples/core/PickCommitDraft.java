@@ -3,11 +3,15 @@ package de.tud.plt.r43ples.core;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.*;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
 import de.tud.plt.r43ples.optimization.PathCalculationInterface;
 import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
@@ -133,49 +137,55 @@ public class PickCommitDraft extends CommitDraft {
      * @throws InternalErrorException
      */
     protected PickCommit createCommitInTripleStore() throws InternalErrorException {
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addRevisionGraphLock(lock, graphName);
+        lock.acquire();
+        try {
+            if (!getRevisionManagement().checkNamedGraphExistence(graphName)) {
+                logger.warn("Graph <" + graphName + "> does not exist.");
+                throw new InternalErrorException("Graph <" + graphName + "> does not exist.");
+            }
 
-        if (!getRevisionManagement().checkNamedGraphExistence(graphName)) {
-            logger.warn("Graph <" + graphName + "> does not exist.");
-            throw new InternalErrorException("Graph <" + graphName + "> does not exist.");
-        }
+            // Check if it is a valid target branch identifier
+            if (!(revisionGraph.hasBranch(targetBranchIdentifier))) {
+                throw new InternalErrorException("No terminal nodes were used");
+            }
 
-        // Check if it is a valid target branch identifier
-        if (!(revisionGraph.hasBranch(targetBranchIdentifier))) {
-            throw new InternalErrorException("No terminal nodes were used");
-        }
+            ArrayList<Revision> usedSourceRevisions = new ArrayList<>();
+            ArrayList<Revision> generatedRevisions = new ArrayList<>();
+
+            Branch usedTargetBranch = revisionGraph.getBranch(targetBranchIdentifier, true);
+            Revision usedTargetRevision = new Revision(revisionGraph, revisionGraph.getRevisionUri(targetBranchIdentifier), false);
+            Path path = null;
+            Revision startRevision = new Revision(revisionGraph, startRevisionIdentifier, true);
+            Revision endRevision;
+            if (endRevisionIdentifier != null) {
+                endRevision = new Revision(revisionGraph, endRevisionIdentifier, true);
+                path = pathCalculationInterface.getPathBetweenStartAndTargetRevision(revisionGraph, endRevision, startRevision);
+            }
 
-        ArrayList<Revision> usedSourceRevisions = new ArrayList<>();
-        ArrayList<Revision> generatedRevisions = new ArrayList<>();
-
-        Branch usedTargetBranch = revisionGraph.getBranch(targetBranchIdentifier, true);
-        Revision usedTargetRevision = new Revision(revisionGraph, revisionGraph.getRevisionUri(targetBranchIdentifier), false);
-        Path path = null;
-        Revision startRevision = new Revision(revisionGraph, startRevisionIdentifier, true);
-        Revision endRevision;
-        if (endRevisionIdentifier != null) {
-            endRevision = new Revision(revisionGraph, endRevisionIdentifier, true);
-            path = pathCalculationInterface.getPathBetweenStartAndTargetRevision(revisionGraph, endRevision, startRevision);
-        }
+            String commitURI = getRevisionManagement().getNewPickCommitURI(revisionGraph, startRevisionIdentifier, endRevisionIdentifier, targetBranchIdentifier, usedTargetRevision.getRevisionIdentifier());
 
-        String commitURI = getRevisionManagement().getNewPickCommitURI(revisionGraph, startRevisionIdentifier, endRevisionIdentifier, targetBranchIdentifier, usedTargetRevision.getRevisionIdentifier());
-
-        // Copy revisions
-        Revision generatedRevision = null;
-        if ((path == null) || (path.getRevisionPath().size() == 1)) {
-            generatedRevision = copyRevisionToTargetBranch(startRevision, usedTargetRevision, usedTargetBranch, commitURI);
-            usedSourceRevisions.add(startRevision);
-            generatedRevisions.add(generatedRevision);
-        } else {
-            Iterator<Revision> iteRev = path.getRevisionPath().iterator();
-            while(iteRev.hasNext()) {
-                Revision currentRevision = iteRev.next();
-                generatedRevision = copyRevisionToTargetBranch(currentRevision, usedTargetRevision, usedTargetBranch, commitURI);
-                usedSourceRevisions.add(currentRevision);
+            // Copy revisions
+            Revision generatedRevision = null;
+            if ((path == null) || (path.getRevisionPath().size() == 1)) {
+                generatedRevision = copyRevisionToTargetBranch(startRevision, usedTargetRevision, usedTargetBranch, commitURI);
+                usedSourceRevisions.add(startRevision);
                 generatedRevisions.add(generatedRevision);
+            } else {
+                Iterator<Revision> iteRev = path.getRevisionPath().iterator();
+                while(iteRev.hasNext()) {
+                    Revision currentRevision = iteRev.next();
+                    generatedRevision = copyRevisionToTargetBranch(currentRevision, usedTargetRevision, usedTargetBranch, commitURI);
+                    usedSourceRevisions.add(currentRevision);
+                    generatedRevisions.add(generatedRevision);
+                }
             }
-        }
 
-        return addMetaInformation(generatedRevision, usedTargetRevision, usedTargetBranch, commitURI, usedSourceRevisions, generatedRevisions);
+            return addMetaInformation(generatedRevision, usedTargetRevision, usedTargetBranch, commitURI, usedSourceRevisions, generatedRevisions);
+        } finally {
+            lock.release();
+        }
     }
 
     /**
@@ -215,10 +225,21 @@ public class PickCommitDraft extends CommitDraft {
                 + String.format("INSERT DATA { GRAPH <%s> { %s } }", revisionGraph.getRevisionGraphUri(),
                 queryContent.toString());
 
-        getTripleStoreInterface().executeUpdateQuery(query);
+        UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+        batch.add(query);
+        final RevisionGraphIndex index = revisionGraph.getIndex();
+        final String revisionURI = generatedRevision.getRevisionURI();
+        final String revisionNumber = generatedRevision.getRevisionIdentifier();
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.addRevision(revisionURI, revisionNumber, null, null);
+            }
+        });
 
         // Move source branch to new revision
-        moveBranchReference(revisionGraph.getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), generatedRevision.getRevisionURI());
+        moveBranchReference(batch, revisionGraph.getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), generatedRevision.getRevisionURI());
+        executeUpdateBatch(batch, revisionGraph.getRevisionGraphUri());
 
         // Update the target branch object
         usedTargetBranch = revisionGraph.getBranch(targetBranchIdentifier, true);
@@ -241,7 +262,8 @@ public class PickCommitDraft extends CommitDraft {
         String deleteSetContent = revisionToCopy.getDeleteSetContent();
 
         RevisionDraft revisionDraft = new RevisionDraft(getRevisionManagement(), revisionGraph, derivedFromRevision.getRevisionIdentifier(), addSetContent, deleteSetContent);
-        Revision generatedRevision = revisionDraft.createRevisionInTripleStore();
+        UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+        Revision generatedRevision = revisionDraft.createRevisionInTripleStore(batch);
 
         // Create the corresponding meta data
         StringBuilder queryContentInsert = new StringBuilder(1000);
@@ -257,7 +279,17 @@ public class PickCommitDraft extends CommitDraft {
         String query = Config.prefixes	+ String.format(""
                         + "INSERT DATA { GRAPH <%1$s> { %2$s } }",
                 revisionGraph.getRevisionGraphUri(), queryContentInsert.toString());
-        getTripleStoreInterface().executeUpdateQuery(query);
+        batch.add(query);
+        final RevisionGraphIndex index = revisionGraph.getIndex();
+        final String revisionURI = generatedRevision.getRevisionURI();
+        final String derivedFromURI = derivedFromRevision.getRevisionURI();
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.addDerivedFrom(revisionURI, derivedFromURI);
+            }
+        });
+        executeUpdateBatch(batch, revisionGraph.getRevisionGraphUri());
 
         return generatedRevision;
     }
@@ -0,0 +1,503 @@
+package de.tud.plt.r43ples.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryException;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.sparql.algebra.Algebra;
+import com.hp.hpl.jena.sparql.algebra.Op;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.exception.QueryErrorException;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.SparqlRewriter;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Describes how a SELECT, ASK or CONSTRUCT query on revisions would be evaluated without executing it: the resolved
+ * revision of every graph, the path to the next full graph, whether the revision has to be materialized, the change
+ * sets on the path with their sizes, the rewritten query, its algebra and the time spent in every step.
+ *
+ * The explanation is serialized as JSON.
+ */
+public class QueryExplanation {
+
+    /** The pattern of GRAPH and FROM clauses with a revision. **/
+    private static final Pattern patternRevisionClause = Pattern.compile(
+            "(?<type>FROM\\s+NAMED|FROM|GRAPH)\\s*<(?<graph>[^>\\?]*)(\\?|>)(\\s*REVISION\\s*\"|revision=)(?<revision>[^\">]+)(>|\")",
+            Pattern.DOTALL + Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
+
+    /** The query. **/
+    private final String query;
+    /** The evaluation of the query (query rewriting mode or engine of the classic evaluation). **/
+    private final String evaluation;
+    /** The query which would be passed to the triplestore (only for query rewriting). **/
+    private String rewrittenQuery;
+    /** The optimized algebra of the query which would be passed to the triplestore. **/
+    private String algebra;
+    /** The graphs of the query. **/
+    private final List<GraphExplanation> graphs = new ArrayList<>();
+    /** The time spent in every step in milliseconds. **/
+    private final LinkedHashMap<String, Double> timings = new LinkedHashMap<>();
+
+
+    /**
+     * The constructor.
+     *
+     * @param query the query
+     * @param evaluation the evaluation of the query
+     */
+    private QueryExplanation(final String query, final String evaluation) {
+        this.query = query;
+        this.evaluation = evaluation;
+    }
+
+    /**
+     * Explains the evaluation of a SELECT, ASK or CONSTRUCT query. The query itself is not executed.
+     *
+     * @param query the query
+     * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+     * @return the explanation
+     * @throws InternalErrorException
+     */
+    public static QueryExplanation explain(final String query, final boolean query_rewriting) throws InternalErrorException {
+        long start = System.nanoTime();
+        QueryExplanation explanation = new QueryExplanation(query,
+                query_rewriting ? "rewriting-" + Config.query_rewriting_mode : "classic-" + Config.revision_query_engine);
+
+        // parse the revision clauses
+        long step = System.nanoTime();
+        StringBuffer queryWithoutRevisions = new StringBuffer(query.length());
+        Matcher matcher = patternRevisionClause.matcher(query);
+        while (matcher.find()) {
+            String type = matcher.group("type").toUpperCase().startsWith("FROM NAMED") ? "GRAPH" : matcher.group("type").toUpperCase();
+            explanation.graphs.add(new GraphExplanation(type, matcher.group("graph"), matcher.group("revision")));
+            matcher.appendReplacement(queryWithoutRevisions,
+                    Matcher.quoteReplacement(matcher.group("type") + " <" + matcher.group("graph") + ">"));
+        }
+        matcher.appendTail(queryWithoutRevisions);
+        step = explanation.addTiming("parse", step);
+
+        // resolve the revisions and the paths to the next full graphs
+        for (GraphExplanation graph : explanation.graphs) {
+            graph.resolve(query_rewriting);
+        }
+        step = explanation.addTiming("resolve", step);
+
+        // count the triples of the change sets
+        for (GraphExplanation graph : explanation.graphs) {
+            for (ChangeSetExplanation changeSet : graph.changeSets) {
+                changeSet.count();
+                graph.estimatedChangeSetTriples += changeSet.addSetTriples + changeSet.deleteSetTriples;
+            }
+        }
+        step = explanation.addTiming("changeSets", step);
+
+        String triplestoreQuery;
+        if (query_rewriting) {
+            explanation.rewrittenQuery = SparqlRewriter.rewriteQuery(query);
+            triplestoreQuery = explanation.rewrittenQuery;
+            step = explanation.addTiming("rewrite", step);
+        } else {
+            triplestoreQuery = queryWithoutRevisions.toString();
+        }
+
+        try {
+            Query parsedQuery = QueryFactory.create(Config.getUserDefinedSparqlPrefixes() + triplestoreQuery);
+            Op op = Algebra.optimize(Algebra.compile(parsedQuery));
+            explanation.algebra = op.toString();
+        } catch (QueryException e) {
+            throw new QueryErrorException("Query could not be parsed: " + e.getMessage());
+        }
+        explanation.addTiming("algebra", step);
+        explanation.addTiming("total", start);
+        return explanation;
+    }
+
+    /**
+     * Adds the time since the start of a step.
+     *
+     * @param name the name of the step
+     * @param start the start of the step (see {@link System#nanoTime()})
+     * @return the end of the step
+     */
+    private long addTiming(final String name, final long start) {
+        long end = System.nanoTime();
+        timings.put(name, (end - start) / 1000 / 1000.0);
+        return end;
+    }
+
+    /**
+     * Serializes the explanation as JSON.
+     *
+     * @param asciiOnly true if all non-ASCII characters should be escaped, e.g. for HTTP headers
+     * @return the JSON string
+     */
+    public String toJson(final boolean asciiOnly) {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(JsonGenerator.Feature.ESCAPE_NON_ASCII, asciiOnly);
+        try {
+            return mapper.writeValueAsString(this);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the query.
+     *
+     * @return the query
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Get the evaluation of the query (query rewriting mode or engine of the classic evaluation).
+     *
+     * @return the evaluation
+     */
+    public String getEvaluation() {
+        return evaluation;
+    }
+
+    /**
+     * Get the query which would be passed to the triplestore.
+     *
+     * @return the rewritten query or null if query rewriting is disabled
+     */
+    public String getRewrittenQuery() {
+        return rewrittenQuery;
+    }
+
+    /**
+     * Get the optimized algebra of the query which would be passed to the triplestore.
+     *
+     * @return the algebra
+     */
+    public String getAlgebra() {
+        return algebra;
+    }
+
+    /**
+     * Get the graphs of the query.
+     *
+     * @return the graphs
+     */
+    public List<GraphExplanation> getGraphs() {
+        return graphs;
+    }
+
+    /**
+     * Get the time spent in every step in milliseconds.
+     *
+     * @return the timings (key: step)
+     */
+    public Map<String, Double> getTimings() {
+        return timings;
+    }
+
+
+    /**
+     * Describes the evaluation of a revision of a graph.
+     */
+    public static class GraphExplanation {
+
+        /** The type of the clause (FROM or GRAPH). **/
+        private final String type;
+        /** The graph name. **/
+        private final String graph;
+        /** The revision identifier or reference name of the query. **/
+        private final String revision;
+        /** The resolved revision number. **/
+        private String revisionNumber;
+        /** Specifies if the revision is referenced by a branch or tag. **/
+        private boolean reference;
+        /** The number of change sets on the path to the next full graph. **/
+        private int pathLength;
+        /** The full graph the evaluation starts at. **/
+        private String fullGraph;
+        /** The strategy which provides the content of the revision. **/
+        private String strategy;
+        /** Specifies if a full graph of the revision would be materialized. **/
+        private boolean materialization;
+        /** The change sets on the path to the next full graph. **/
+        private final List<ChangeSetExplanation> changeSets = new ArrayList<>();
+        /** The number of triples of all change sets. **/
+        private long estimatedChangeSetTriples;
+
+        /**
+         * The constructor.
+         *
+         * @param type the type of the clause (FROM or GRAPH)
+         * @param graph the graph name
+         * @param revision the revision identifier or reference name
+         */
+        private GraphExplanation(final String type, final String graph, final String revision) {
+            this.type = type;
+            this.graph = graph;
+            this.revision = revision;
+        }
+
+        /**
+         * Resolves the revision, the path to the next full graph and the strategy of the evaluation.
+         *
+         * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+         * @throws InternalErrorException
+         */
+        private void resolve(final boolean query_rewriting) throws InternalErrorException {
+            RevisionGraph revisionGraph = new RevisionGraph(graph);
+            revisionNumber = revisionGraph.getRevisionIdentifier(revision);
+            reference = revisionGraph.hasBranch(revision);
+            if (reference) {
+                String referenceURI = revisionGraph.getContentReferenceUri(revision);
+                fullGraph = revisionGraph.getIndex().getFullGraphURI(referenceURI);
+                if (revisionGraph.getIndex().isOverlay(referenceURI)) {
+                    strategy = "overlay";
+                    materialization = !query_rewriting && !type.equals("GRAPH");
+                } else {
+                    strategy = "fullGraph";
+                }
+                return;
+            }
+
+            LinkedList<Revision> path = PathCalculationSingleton.getInstance()
+                    .getPathToRevisionWithFullGraph(revisionGraph, revisionGraph.getRevision(revision)).getRevisionPath();
+            String lastRevisionNumber = path.getLast().getRevisionIdentifier();
+            fullGraph = revisionGraph.getIndex().getFullGraphURI(revisionGraph.getContentReferenceUri(lastRevisionNumber));
+            path.removeFirst();
+            pathLength = path.size();
+            for (Revision pathRevision : path) {
+                changeSets.add(new ChangeSetExplanation(pathRevision));
+            }
+
+            if (query_rewriting) {
+                strategy = "rewriting";
+            } else if (Config.revision_query_engine.equals("delta") && type.equals("GRAPH")) {
+                strategy = "delta";
+            } else if (MaterializedRevisionCache.getInstance().contains(graph, revisionNumber)) {
+                strategy = "materializedCache";
+            } else {
+                strategy = "materialize";
+                materialization = true;
+            }
+        }
+
+        /**
+         * Get the type of the clause (FROM or GRAPH).
+         *
+         * @return the type
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Get the graph name.
+         *
+         * @return the graph name
+         */
+        public String getGraph() {
+            return graph;
+        }
+
+        /**
+         * Get the revision identifier or reference name of the query.
+         *
+         * @return the revision
+         */
+        public String getRevision() {
+            return revision;
+        }
+
+        /**
+         * Get the resolved revision number.
+         *
+         * @return the revision number
+         */
+        public String getRevisionNumber() {
+            return revisionNumber;
+        }
+
+        /**
+         * Checks if the revision is referenced by a branch or tag.
+         *
+         * @return true if the revision is a reference
+         */
+        public boolean isReference() {
+            return reference;
+        }
+
+        /**
+         * Get the number of change sets on the path to the next full graph.
+         *
+         * @return the path length
+         */
+        public int getPathLength() {
+            return pathLength;
+        }
+
+        /**
+         * Get the full graph the evaluation starts at.
+         *
+         * @return the full graph URI
+         */
+        public String getFullGraph() {
+            return fullGraph;
+        }
+
+        /**
+         * Get the strategy which provides the content of the revision (fullGraph, overlay, rewriting, delta,
+         * materializedCache or materialize).
+         *
+         * @return the strategy
+         */
+        public String getStrategy() {
+            return strategy;
+        }
+
+        /**
+         * Checks if a full graph of the revision would be materialized.
+         *
+         * @return true if the revision would be materialized
+         */
+        public boolean isMaterialization() {
+            return materialization;
+        }
+
+        /**
+         * Get the change sets on the path to the next full graph.
+         *
+         * @return the change sets
+         */
+        public List<ChangeSetExplanation> getChangeSets() {
+            return changeSets;
+        }
+
+        /**
+         * Get the number of triples of all change sets.
+         *
+         * @return the number of triples
+         */
+        public long getEstimatedChangeSetTriples() {
+            return estimatedChangeSetTriples;
+        }
+    }
+
+
+    /**
+     * Describes the change sets of a revision on the path to the next full graph.
+     */
+    public static class ChangeSetExplanation {
+
+        /** The revision number. **/
+        private final String revisionNumber;
+        /** The add set URI. **/
+        private final String addSet;
+        /** The delete set URI. **/
+        private final String deleteSet;
+        /** The number of triples of the add set. **/
+        private long addSetTriples;
+        /** The number of triples of the delete set. **/
+        private long deleteSetTriples;
+
+        /**
+         * The constructor.
+         *
+         * @param revision the revision
+         */
+        private ChangeSetExplanation(final Revision revision) {
+            this.revisionNumber = revision.getRevisionIdentifier();
+            this.addSet = revision.getAddSetURI();
+            this.deleteSet = revision.getDeleteSetURI();
+        }
+
+        /**
+         * Counts the triples of the add and the delete set.
+         */
+        private void count() {
+            addSetTriples = countTriples(addSet);
+            deleteSetTriples = countTriples(deleteSet);
+        }
+
+        /**
+         * Counts the triples of a named graph.
+         *
+         * @param graphName the graph name (can be null)
+         * @return the number of triples
+         */
+        private static long countTriples(final String graphName) {
+            if (graphName == null) {
+                return 0;
+            }
+            String query = String.format(
+                      "SELECT (COUNT(*) AS ?count) %n"
+                    + "WHERE { GRAPH <%s> {?s ?p ?o} }", graphName);
+            ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+            if (results.hasNext()) {
+                return results.next().getLiteral("?count").getLong();
+            }
+            return 0;
+        }
+
+        /**
+         * Get the revision number.
+         *
+         * @return the revision number
+         */
+        public String getRevisionNumber() {
+            return revisionNumber;
+        }
+
+        /**
+         * Get the add set URI.
+         *
+         * @return the add set URI
+         */
+        public String getAddSet() {
+            return addSet;
+        }
+
+        /**
+         * Get the delete set URI.
+         *
+         * @return the delete set URI
+         */
+        public String getDeleteSet() {
+            return deleteSet;
+        }
+
+        /**
+         * Get the number of triples of the add set.
+         *
+         * @return the number of triples
+         */
+        public long getAddSetTriples() {
+            return addSetTriples;
+        }
+
+        /**
+         * Get the number of triples of the delete set.
+         *
+         * @return the number of triples
+         */
+        public long getDeleteSetTriples() {
+            return deleteSetTriples;
+        }
+    }
+
+}
@@ -5,12 +5,23 @@ import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.*;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
-import de.tud.plt.r43ples.management.RevisionManagementOriginal;
 import de.tud.plt.r43ples.management.SparqlRewriter;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.RevisionDelta;
+import de.tud.plt.r43ples.optimization.RevisionResolutionExecutor;
+import de.tud.plt.r43ples.triplestoreInterface.JenaTDBInterface;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import org.apache.log4j.Logger;
 
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -73,6 +84,13 @@ public class R43plesCore implements R43plesCoreInterface {
     @Override
     public ArrayList<UpdateCommit> createUpdateCommit(R43plesRequest request) throws InternalErrorException {
         UpdateCommitDraft updateCommitDraft = new UpdateCommitDraft(request);
+        if (Config.commit_group_window > 0) {
+            // small data updates of the same branch are written together
+            String groupKey = updateCommitDraft.getGroupCommitKey();
+            if (groupKey != null) {
+                return GroupCommitQueue.getInstance().commit(groupKey, updateCommitDraft);
+            }
+        }
         return updateCommitDraft.createCommitInTripleStore();
     }
 
@@ -94,6 +112,24 @@ public class R43plesCore implements R43plesCoreInterface {
         return updateCommitDraft.createCommitInTripleStore().get(0);
     }
 
+    /**
+     * Create a new update commit whose add and delete sets are staged in graphs of the triplestore.
+     *
+     * @param graphName the graph name
+     * @param addSetGraphURI the graph which contains the add set (moved to the add set of the new revision)
+     * @param deleteSetGraphURI the graph which contains the delete set (moved to the delete set of the new revision)
+     * @param user the user
+     * @param message the message
+     * @param derivedFromIdentifier the identifier of the branch from which the new revision should be derived from
+     * @return the created update commit
+     * @throws InternalErrorException
+     */
+    @Override
+    public UpdateCommit createStagedUpdateCommit(String graphName, String addSetGraphURI, String deleteSetGraphURI, String user, String message, String derivedFromIdentifier) throws InternalErrorException {
+        StagedUpdateCommitDraft stagedUpdateCommitDraft = new StagedUpdateCommitDraft(graphName, addSetGraphURI, deleteSetGraphURI, user, message, derivedFromIdentifier);
+        return stagedUpdateCommitDraft.createCommitInTripleStore().get(0);
+    }
+
     /**
      * Create a new reference commit.
      *
@@ -206,68 +242,218 @@ public class R43plesCore implements R43plesCoreInterface {
      */
     @Override
     public String getSparqlSelectConstructAskResponse(final R43plesRequest request, final boolean query_rewriting) throws InternalErrorException {
-        String result;
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writeSparqlSelectConstructAskResponse(request, query_rewriting, baos);
+        return baos.toString();
+    }
+
+    /**
+     * Writes the response of a SPARQL query (SELECT, CONSTRUCT, ASK) to the specified stream.
+     * Revisions which are specified by a point in time are resolved to revision numbers first.
+     *
+     * @param request the request
+     * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+     * @param out the stream the query response is written to
+     * @throws InternalErrorException
+     */
+    @Override
+    public void writeSparqlSelectConstructAskResponse(final R43plesRequest request, final boolean query_rewriting, final OutputStream out) throws InternalErrorException {
+        request.resolveRevisionTimes(null);
         if (query_rewriting) {
             String query_rewritten = SparqlRewriter.rewriteQuery(request.query_sparql);
-            result = TripleStoreInterfaceSingleton.get()
-                    .executeSelectConstructAskQuery(Config.getUserDefinedSparqlPrefixes() + query_rewritten, request.format);
+            TripleStoreInterfaceSingleton.get()
+                    .executeSelectConstructAskQuery(Config.getUserDefinedSparqlPrefixes() + query_rewritten, request.format, out);
         } else {
-            result = getSparqlSelectConstructAskResponseClassic(request.query_sparql, request.format);
+            writeSparqlSelectConstructAskResponseClassic(request.query_sparql, request.format, out);
         }
-        return result;
     }
 
     /**
-     * Get the response of a SPARQL query (SELECT, CONSTRUCT, ASK). Classic way.
+     * Explains the evaluation of a SPARQL query (SELECT, CONSTRUCT, ASK) without executing it.
+     *
+     * @param request the request
+     * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+     * @return the explanation
+     * @throws InternalErrorException
+     */
+    @Override
+    public QueryExplanation explainSparqlSelectConstructAskQuery(final R43plesRequest request, final boolean query_rewriting) throws InternalErrorException {
+        request.resolveRevisionTimes(null);
+        return QueryExplanation.explain(request.query_sparql, query_rewriting);
+    }
+
+    /**
+     * Writes the response of a SPARQL query (SELECT, CONSTRUCT, ASK) to the specified stream. Classic way.
+     *
+     * The revisions of all FROM and GRAPH clauses are resolved (and materialized if necessary) concurrently by the
+     * {@link RevisionResolutionExecutor} before the clauses are replaced by the resolved graphs.
      *
      * @param query the query
      * @param format the result format
-     * @return the query response
+     * @param out the stream the query response is written to
      * @throws InternalErrorException
      */
-    private String getSparqlSelectConstructAskResponseClassic(final String query, final String format)
+    private void writeSparqlSelectConstructAskResponseClassic(final String query, final String format, final OutputStream out)
             throws InternalErrorException {
         final Pattern patternSelectFromPart = Pattern.compile(
                 "(?<type>FROM|GRAPH)\\s*<(?<graph>[^>\\?]*)(\\?|>)(\\s*REVISION\\s*\"|revision=)(?<revision>([^\">]+))(>|\")",
                 Pattern.DOTALL + Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
 
-        String queryM = query;
+        // materialized revisions which have to be released after query execution
+        final List<String> acquiredGraphs = Collections.synchronizedList(new ArrayList<String>());
+        MaterializedRevisionCache cache = MaterializedRevisionCache.getInstance();
+        // branches which share the full graph of their base (key: reference URI; value: revision graph URI)
+        HashMap<String, String> overlayReferences = new HashMap<>();
+        List<RevisionResolution> overlayResolutions = new ArrayList<>();
+        // revisions which are evaluated on the fly by the TDB query engine (key: virtual graph URI)
+        HashMap<String, RevisionDelta> deltas = new HashMap<>();
+        final boolean deltaEngine = Config.revision_query_engine.equals("delta")
+                && TripleStoreInterfaceSingleton.get() instanceof JenaTDBInterface;
 
-        Matcher m = patternSelectFromPart.matcher(queryM);
-        while (m.find()) {
-            String graphName = m.group("graph");
-            String type = m.group("type");
-            String revisionNumber = m.group("revision").toLowerCase();
-            String newGraphName;
+        try {
+            // every distinct clause is resolved once (key: type, graph and revision)
+            LinkedHashMap<String, RevisionResolution> resolutions = new LinkedHashMap<>();
+            Matcher m = patternSelectFromPart.matcher(query);
+            while (m.find()) {
+                String type = m.group("type").toUpperCase();
+                String graphName = m.group("graph");
+                String revisionNumber = m.group("revision").toLowerCase();
+                String key = type + "\n" + graphName + "\n" + revisionNumber;
+                if (!resolutions.containsKey(key)) {
+                    resolutions.put(key, new RevisionResolution(type, graphName, revisionNumber, deltaEngine, acquiredGraphs));
+                }
+            }
+            RevisionResolutionExecutor.getInstance().invokeAll(new ArrayList<>(resolutions.values()));
 
-            RevisionGraph graph = new RevisionGraph(graphName);
+            for (RevisionResolution resolution : resolutions.values()) {
+                if (resolution.overlayReferenceURI != null) {
+                    overlayReferences.put(resolution.overlayReferenceURI, resolution.revisionGraphURI);
+                    overlayResolutions.add(resolution);
+                }
+                if (resolution.delta != null) {
+                    deltas.put(resolution.newGraphName, resolution.delta);
+                }
+            }
 
-            // if no revision number is declared use the MASTER as default
-            if (revisionNumber == null) {
-                revisionNumber = "master";
+            StringBuffer queryBuffer = new StringBuffer();
+            m = patternSelectFromPart.matcher(query);
+            while (m.find()) {
+                String type = m.group("type").toUpperCase();
+                RevisionResolution resolution = resolutions.get(type + "\n" + m.group("graph") + "\n" + m.group("revision").toLowerCase());
+                m.appendReplacement(queryBuffer, Matcher.quoteReplacement(m.group("type") + " <" + resolution.newGraphName + ">"));
             }
-            if (revisionNumber.equalsIgnoreCase("master")) {
+            m.appendTail(queryBuffer);
+
+            String queryM = Config.getUserDefinedSparqlPrefixes() + queryBuffer.toString();
+            if (!overlayReferences.isEmpty()) {
+                String queryRewritten = BranchOverlay.rewriteQuery(queryM, overlayReferences);
+                if (queryRewritten != null) {
+                    queryM = queryRewritten;
+                } else {
+                    // the query is evaluated on temporary copies of the revisions of the branches
+                    for (RevisionResolution resolution : overlayResolutions) {
+                        String copyGraphName = cache.acquire(resolution.graphName, resolution.overlayRevisionNumber);
+                        acquiredGraphs.add(copyGraphName);
+                        queryM = queryM.replace("<" + resolution.newGraphName + ">", "<" + copyGraphName + ">");
+                    }
+                }
+            }
+            if (!deltas.isEmpty()) {
+                ((JenaTDBInterface) TripleStoreInterfaceSingleton.get()).executeSelectConstructAskQuery(queryM, format, out, deltas);
+            } else {
+                TripleStoreInterfaceSingleton.get().executeSelectConstructAskQuery(queryM, format, out);
+            }
+        } finally {
+            synchronized (acquiredGraphs) {
+                for (String acquiredGraph : acquiredGraphs) {
+                    cache.release(acquiredGraph);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Resolves the revision of a FROM or GRAPH clause to the graph which is queried instead.
+     */
+    private static class RevisionResolution implements Callable<RevisionResolution> {
+
+        /** The type of the clause (FROM or GRAPH). **/
+        private final String type;
+        /** The graph name. **/
+        private final String graphName;
+        /** The revision identifier or reference name. **/
+        private final String revisionNumber;
+        /** Specifies if revisions can be evaluated on the fly by the TDB query engine. **/
+        private final boolean deltaEngine;
+        /** The materialized revisions which have to be released after query execution. **/
+        private final List<String> acquiredGraphs;
+
+        /** The graph which is queried instead. **/
+        private String newGraphName;
+        /** The reference URI if the revision is a branch which shares the full graph of its base. **/
+        private String overlayReferenceURI;
+        /** The revision graph URI of the overlay reference. **/
+        private String revisionGraphURI;
+        /** The number of the revision the overlay reference points to. **/
+        private String overlayRevisionNumber;
+        /** The delta if the revision is evaluated on the fly. **/
+        private RevisionDelta delta;
+
+        /**
+         * The constructor.
+         *
+         * @param type the type of the clause (FROM or GRAPH)
+         * @param graphName the graph name
+         * @param revisionNumber the revision identifier or reference name
+         * @param deltaEngine specifies if revisions can be evaluated on the fly by the TDB query engine
+         * @param acquiredGraphs the list the materialized revisions are added to
+         */
+        private RevisionResolution(final String type, final String graphName, final String revisionNumber,
+                                   final boolean deltaEngine, final List<String> acquiredGraphs) {
+            this.type = type;
+            this.graphName = graphName;
+            this.revisionNumber = revisionNumber;
+            this.deltaEngine = deltaEngine;
+            this.acquiredGraphs = acquiredGraphs;
+        }
+
+        @Override
+        public RevisionResolution call() throws InternalErrorException {
+            if (revisionNumber.equals("master")) {
                 // Respond with MASTER revision - nothing to be done - MASTER
                 // revisions are already created in the named graphs
                 newGraphName = graphName;
-            } else {
-                if (graph.hasBranch(revisionNumber)) {
-                    newGraphName = graph.getReferenceGraph(revisionNumber);
+                return this;
+            }
+            RevisionGraph graph = new RevisionGraph(graphName);
+            if (graph.hasBranch(revisionNumber)) {
+                String referenceURI = graph.getContentReferenceUri(revisionNumber);
+                if (type.equals("GRAPH") && graph.getIndex().isOverlay(referenceURI)) {
+                    // Resolved through base graph and overlay graphs after all graphs are replaced
+                    overlayReferenceURI = referenceURI;
+                    revisionGraphURI = graph.getRevisionGraphUri();
+                    overlayRevisionNumber = graph.getRevisionIdentifier(revisionNumber);
+                    newGraphName = graph.getIndex().getFullGraphURI(referenceURI);
+                } else if (graph.getIndex().isOverlay(referenceURI)) {
+                    // The default graph can not be rewritten, so the revision of the branch is copied and kept in cache
+                    newGraphName = MaterializedRevisionCache.getInstance().acquire(graphName, graph.getRevisionIdentifier(revisionNumber));
+                    acquiredGraphs.add(newGraphName);
                 } else {
-                    // Respond with specified revision, therefore the revision
-                    // must be generated - saved in graph <graphName-revisionNumber>
-                    newGraphName = graphName + "-" + revisionNumber;
-                    RevisionManagementOriginal.generateFullGraphOfRevision(graphName, revisionNumber, newGraphName);
+                    newGraphName = graph.getReferenceGraph(revisionNumber);
                 }
+            } else if (deltaEngine && type.equals("GRAPH")) {
+                // Respond with specified revision which is evaluated from the change sets during the query
+                newGraphName = graphName + "-delta-" + revisionNumber;
+                delta = RevisionDelta.create(graph, revisionNumber);
+            } else {
+                // Respond with specified revision, therefore the revision
+                // must be generated - saved in graph <graphName-revisionNumber> and kept in cache
+                newGraphName = MaterializedRevisionCache.getInstance().acquire(graphName, revisionNumber);
+                acquiredGraphs.add(newGraphName);
             }
-
-            queryM = m.replaceFirst(type + " <" + newGraphName + ">");
-            m = patternSelectFromPart.matcher(queryM);
-
+            return this;
         }
-        String response = TripleStoreInterfaceSingleton.get()
-                .executeSelectConstructAskQuery(Config.getUserDefinedSparqlPrefixes() + queryM, format);
-        return response;
     }
 
 }
\ No newline at end of file
@@ -5,6 +5,7 @@ import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.*;
 import de.tud.plt.r43ples.management.R43plesRequest;
 
+import java.io.OutputStream;
 import java.util.ArrayList;
 
 /**
@@ -61,6 +62,20 @@ public interface R43plesCoreInterface {
      */
     UpdateCommit createUpdateCommit(String graphName, String addSet, String deleteSet, String user, String message, String derivedFromIdentifier) throws InternalErrorException;
 
+    /**
+     * Create a new update commit whose add and delete sets are staged in graphs of the triplestore.
+     *
+     * @param graphName the graph name
+     * @param addSetGraphURI the graph which contains the add set (moved to the add set of the new revision)
+     * @param deleteSetGraphURI the graph which contains the delete set (moved to the delete set of the new revision)
+     * @param user the user
+     * @param message the message
+     * @param derivedFromIdentifier the identifier of the branch from which the new revision should be derived from
+     * @return the created update commit
+     * @throws InternalErrorException
+     */
+    UpdateCommit createStagedUpdateCommit(String graphName, String addSetGraphURI, String deleteSetGraphURI, String user, String message, String derivedFromIdentifier) throws InternalErrorException;
+
     /**
      * Create a new reference commit.
      *
@@ -135,4 +150,25 @@ public interface R43plesCoreInterface {
      * @throws InternalErrorException
      */
     String getSparqlSelectConstructAskResponse(final R43plesRequest request, final boolean query_rewriting) throws InternalErrorException;
-}
\ No newline at end of file
+
+    /**
+     * Writes the response of a SPARQL query (SELECT, CONSTRUCT, ASK) to the specified stream.
+     * The result is streamed from the triplestore without building it completely in memory.
+     *
+     * @param request the request
+     * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+     * @param out the stream the query response is written to
+     * @throws InternalErrorException
+     */
+    void writeSparqlSelectConstructAskResponse(final R43plesRequest request, final boolean query_rewriting, final OutputStream out) throws InternalErrorException;
+
+    /**
+     * Explains the evaluation of a SPARQL query (SELECT, CONSTRUCT, ASK) without executing it.
+     *
+     * @param request the request
+     * @param query_rewriting option if query rewriting should be enabled (true => enabled)
+     * @return the explanation
+     * @throws InternalErrorException
+     */
+    QueryExplanation explainSparqlSelectConstructAskQuery(final R43plesRequest request, final boolean query_rewriting) throws InternalErrorException;
+}
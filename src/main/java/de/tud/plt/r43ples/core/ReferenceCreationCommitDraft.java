@@ -4,9 +4,14 @@ import de.tud.plt.r43ples.exception.IdentifierAlreadyExistsException;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.*;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.regex.Matcher;
@@ -110,38 +115,47 @@ public class ReferenceCreationCommitDraft extends CommitDraft {
      * @return the created reference commit
      */
     protected ReferenceCommit createCommitInTripleStore() throws InternalErrorException {
-        RevisionGraph revisionGraph = new RevisionGraph(graphName);
-        String referenceURI;
-        String commitURI;
-        if (isBranch) {
-            referenceURI = getRevisionManagement().getNewBranchURI(revisionGraph, referenceName);
-            commitURI = getRevisionManagement().getNewBranchCommitURI(revisionGraph, referenceName);
-        } else {
-            referenceURI = getRevisionManagement().getNewTagURI(revisionGraph, referenceName);
-            commitURI = getRevisionManagement().getNewTagCommitURI(revisionGraph, referenceName);
-        }
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addRevisionGraphLock(lock, graphName);
+        lock.acquire();
+        try {
+            RevisionGraph revisionGraph = new RevisionGraph(graphName);
+            String referenceURI;
+            String commitURI;
+            if (isBranch) {
+                referenceURI = getRevisionManagement().getNewBranchURI(revisionGraph, referenceName);
+                commitURI = getRevisionManagement().getNewBranchCommitURI(revisionGraph, referenceName);
+            } else {
+                referenceURI = getRevisionManagement().getNewTagURI(revisionGraph, referenceName);
+                commitURI = getRevisionManagement().getNewTagCommitURI(revisionGraph, referenceName);
+            }
 
-        addMetaInformation(referenceURI, commitURI);
+            addMetaInformation(referenceURI, commitURI);
 
-        Revision usedRevision = new Revision(revisionGraph, revisionIdentifier, true);
-        Reference generatedReference;
-        if (isBranch) {
-            generatedReference = new Branch(revisionGraph, referenceName, referenceURI);
-        } else {
-            generatedReference = new Tag(revisionGraph, referenceName, referenceURI);
-        }
+            Revision usedRevision = new Revision(revisionGraph, revisionIdentifier, true);
+            Reference generatedReference;
+            if (isBranch) {
+                generatedReference = new Branch(revisionGraph, referenceName, referenceURI);
+            } else {
+                generatedReference = new Tag(revisionGraph, referenceName, referenceURI);
+            }
 
-        return new ReferenceCommit(revisionGraph, commitURI, getUser(), getTimeStamp(), getMessage(), usedRevision, generatedReference);
+            return new ReferenceCommit(revisionGraph, commitURI, getUser(), getTimeStamp(), getMessage(), usedRevision, generatedReference);
+        } finally {
+            lock.release();
+        }
     }
 
     /**
      * Creates a new full graph for the new reference and and adds the necessary meta data.
+     * A new branch shares the full graph of an existing reference of the revision if copy-on-write branches are
+     * enabled.
      *
      * @param referenceURI the reference URI
      * @param commitURI the commit URI
      * @throws InternalErrorException
      */
-    private void addMetaInformation(String referenceURI, String commitURI) throws InternalErrorException {
+    private void addMetaInformation(final String referenceURI, String commitURI) throws InternalErrorException {
         if (isBranch) {
             logger.info("Create new branch '" + referenceName + "' for graph " + graphName);
         } else {
@@ -160,7 +174,7 @@ public class ReferenceCreationCommitDraft extends CommitDraft {
         } else {
             // General variables
             String referenceTypeUri = isBranch ? "rmo:Branch" : "rmo:Tag";
-            String revisionUri = graph.getRevisionUri(revisionIdentifier);
+            final String revisionUri = graph.getRevisionUri(revisionIdentifier);
             String personUri = RevisionManagementOriginal.getUserURI(getUser());
 
             // Create a new commit (activity)
@@ -182,13 +196,28 @@ public class ReferenceCreationCommitDraft extends CommitDraft {
                             + "	rdfs:label \"%s\". ",
                     referenceURI, referenceTypeUri, referenceURI, revisionUri, revisionUri, referenceName);
 
-            // Update full graph of branch
-            RevisionManagementOriginal.generateFullGraphOfRevision(graphName, revisionIdentifier, referenceURI);
+            UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+            String sourceReferenceURI = graph.getIndex().getContentReferenceURI(revisionIdentifier);
+            if (isBranch && BranchOverlay.isEnabled() && sourceReferenceURI != null) {
+                // Share the full graph of the revision (copy on write)
+                BranchOverlay.createOverlay(batch, revisionGraph, referenceURI, sourceReferenceURI);
+            } else {
+                // Update full graph of branch
+                RevisionManagementOriginal.generateFullGraphOfRevision(graphName, revisionIdentifier, referenceURI);
+            }
 
             // Execute queries
             String query = Config.prefixes
                     + String.format("INSERT DATA { GRAPH <%s> { %s } } ;", revisionGraph, queryContent);
-            getTripleStoreInterface().executeUpdateQuery(query);
+            batch.add(query);
+            final RevisionGraphIndex index = graph.getIndex();
+            batch.addPostCommitAction(new Runnable() {
+                @Override
+                public void run() {
+                    index.addReference(referenceURI, referenceName, referenceURI, revisionUri, isBranch, false);
+                }
+            });
+            executeUpdateBatch(batch, revisionGraph);
         }
     }
 
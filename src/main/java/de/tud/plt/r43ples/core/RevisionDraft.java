@@ -4,8 +4,11 @@ import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.existentobjects.Revision;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.RevisionNumberAllocator;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterface;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 /**
@@ -21,6 +24,10 @@ public class RevisionDraft {
     private Logger logger = Logger.getLogger(RevisionDraft.class);
     /** The revision identifier of the revision from which the new one should be derive from. **/
     private String derivedFromRevisionIdentifier;
+    /** The URI of the revision from which the new one should be derive from. **/
+    private String derivedFromRevisionURI;
+    /** The revision from which the new one should be derive from (null until it is requested). **/
+    private Revision derivedFromRevision;
     /** The derived from identifier. (The revision identifier of the revision or the reference identifier from which the new revision should be derive from.) **/
     private String derivedFromIdentifier;
     /** The revision identifier of the revision which should be created. **/
@@ -31,6 +38,8 @@ public class RevisionDraft {
     private String addSetURI;
     /** The DELETE set URI. */
     private String deleteSetURI;
+    /** The URI of the reference which provides the content the revision is derived from (null for the initial revision). **/
+    private String referenceURI;
     /** The referenced full graph. **/
     private String referenceFullGraph;
     /** The add set as N-Triples. **/
@@ -61,13 +70,38 @@ public class RevisionDraft {
      * @throws InternalErrorException
      */
     public RevisionDraft(RevisionManagement revisionManagement, RevisionGraph revisionGraph, String derivedFromIdentifier, String addSet, String deleteSet) throws InternalErrorException {
+        this(revisionManagement, revisionGraph, derivedFromIdentifier, null, addSet, deleteSet);
+    }
+
+    /**
+     * The constructor. Add and delete sets can be specified which are associated with this revision.
+     * The new revision is derived from the specified revision instead of the revision referenced by the derived from
+     * identifier. Used for revisions whose parent is created in the same update batch and is therefore not known by
+     * the revision graph index yet.
+     *
+     * @param revisionManagement the current revision management instance
+     * @param revisionGraph the revision graph
+     * @param derivedFromIdentifier the reference identifier of the branch which provides the content
+     * @param derivedFromRevision the revision from which the new revision should be derived from (null for the revision referenced by the identifier)
+     * @param addSet the add set of the revision as N-Triples
+     * @param deleteSet the delete set of the revision as N-Triples
+     * @throws InternalErrorException
+     */
+    public RevisionDraft(RevisionManagement revisionManagement, RevisionGraph revisionGraph, String derivedFromIdentifier, Revision derivedFromRevision, String addSet, String deleteSet) throws InternalErrorException {
         // Dependencies
         this.tripleStoreInterface = TripleStoreInterfaceSingleton.get();
 
         this.revisionManagement = revisionManagement;
         this.revisionGraph = revisionGraph;
         this.revisionGraphURI = this.revisionGraph.getRevisionGraphUri();
-		this.derivedFromRevisionIdentifier = revisionGraph.getRevisionIdentifier(derivedFromIdentifier);
+        if (derivedFromRevision != null) {
+            this.derivedFromRevision = derivedFromRevision;
+            this.derivedFromRevisionIdentifier = derivedFromRevision.getRevisionIdentifier();
+            this.derivedFromRevisionURI = derivedFromRevision.getRevisionURI();
+        } else {
+            this.derivedFromRevisionIdentifier = revisionGraph.getRevisionIdentifier(derivedFromIdentifier);
+            this.derivedFromRevisionURI = revisionGraph.getRevisionUri(derivedFromRevisionIdentifier);
+        }
 		this.derivedFromIdentifier = derivedFromIdentifier;
      	this.newRevisionIdentifier = revisionGraph.getNextRevisionIdentifier();
 
@@ -75,7 +109,8 @@ public class RevisionDraft {
 		this.addSetURI = this.revisionManagement.getNewAddSetURI(revisionGraph, newRevisionIdentifier);
 		this.deleteSetURI = this.revisionManagement.getNewDeleteSetURI(revisionGraph, newRevisionIdentifier);
 
-		this.referenceFullGraph = revisionGraph.getReferenceGraph(derivedFromIdentifier);
+		this.referenceURI = revisionGraph.getContentReferenceUri(derivedFromIdentifier);
+		this.referenceFullGraph = revisionGraph.getIndex().getFullGraphURI(referenceURI);
 
 		this.addSet = addSet;
 		this.deleteSet = deleteSet;
@@ -97,6 +132,7 @@ public class RevisionDraft {
         this.revisionGraph = revisionGraph;
         this.revisionGraphURI = this.revisionGraph.getRevisionGraphUri();
         this.derivedFromRevisionIdentifier = revisionGraph.getRevisionIdentifier(derivedFromIdentifier);
+        this.derivedFromRevisionURI = revisionGraph.getRevisionUri(derivedFromRevisionIdentifier);
         this.derivedFromIdentifier = derivedFromIdentifier;
         this.newRevisionIdentifier = revisionGraph.getNextRevisionIdentifier();
 
@@ -104,7 +140,8 @@ public class RevisionDraft {
         this.addSetURI = this.revisionManagement.getNewAddSetURI(revisionGraph, newRevisionIdentifier);
         this.deleteSetURI = this.revisionManagement.getNewDeleteSetURI(revisionGraph, newRevisionIdentifier);
 
-        this.referenceFullGraph = revisionGraph.getReferenceGraph(derivedFromIdentifier);
+        this.referenceURI = revisionGraph.getContentReferenceUri(derivedFromIdentifier);
+        this.referenceFullGraph = revisionGraph.getIndex().getFullGraphURI(referenceURI);
 
         this.addSet = null;
         this.deleteSet = null;
@@ -147,28 +184,54 @@ public class RevisionDraft {
      * @return the created revision
      */
     public Revision createRevisionInTripleStore() throws InternalErrorException {
+        UpdateBatch batch = tripleStoreInterface.createUpdateBatch();
+        Revision revision = createRevisionInTripleStore(batch);
+        batch.execute();
+        BranchOverlay.materializeOversizedOverlays(revisionGraphURI);
+        return revision;
+    }
+
+    /**
+     * Adds the statements for creating the revision draft as a new revision and for updating the referenced full
+     * graph to the specified update batch. Does not update any meta data.
+     *
+     * @param batch the update batch
+     * @return the created revision
+     */
+    public Revision createRevisionInTripleStore(UpdateBatch batch) throws InternalErrorException {
         logger.info("Create new revision for graph " + revisionGraph.getGraphName() + ".");
 
-        if (addSet!=null && !addSet.isEmpty()) {
-            // Update full graph of branch
-            RevisionManagementOriginal.executeINSERT(referenceFullGraph, addSet);
+        boolean hasAddSet = addSet!=null && !addSet.isEmpty();
+        boolean hasDeleteSet = deleteSet!=null && !deleteSet.isEmpty();
 
+        if (hasAddSet) {
             // Create new graph with addSet-newRevisionNumber
             logger.debug("Create new graph with name " + addSetURI + ".");
-            tripleStoreInterface.executeUpdateQuery(String.format("CREATE SILENT GRAPH <%s>%n", addSetURI));
-            RevisionManagementOriginal.executeINSERT(addSetURI, addSet);
+            batch.add(String.format("CREATE SILENT GRAPH <%s>%n", addSetURI));
+            RevisionManagementOriginal.executeINSERT(batch, addSetURI, addSet);
         }
 
-        if (deleteSet!=null && !deleteSet.isEmpty()) {
-            // Update full graph of branch
-            RevisionManagementOriginal.executeDELETE(referenceFullGraph, deleteSet);
-
+        if (hasDeleteSet) {
             // Create new graph with deleteSet-newRevisionNumber
             logger.debug("Create new graph with name " + deleteSetURI + ".");
-            tripleStoreInterface.executeUpdateQuery(String.format("CREATE SILENT GRAPH <%s>%n", deleteSetURI));
-            RevisionManagementOriginal.executeINSERT(deleteSetURI, deleteSet);
+            batch.add(String.format("CREATE SILENT GRAPH <%s>%n", deleteSetURI));
+            RevisionManagementOriginal.executeINSERT(batch, deleteSetURI, deleteSet);
         }
 
+        if (referenceURI != null && (revisionGraph.getIndex().isOverlay(referenceURI)
+                || !revisionGraph.getIndex().getOverlayReferenceURIs(referenceFullGraph).isEmpty())) {
+            // Update overlay of branch or full graph shared with other branches
+            BranchOverlay.applyChangeSet(batch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+        } else {
+            // Update full graph of branch
+            if (hasAddSet)
+                RevisionManagementOriginal.executeINSERT(batch, referenceFullGraph, addSet);
+            if (hasDeleteSet)
+                RevisionManagementOriginal.executeDELETE(batch, referenceFullGraph, deleteSet);
+        }
+
+        RevisionNumberAllocator.persist(batch, revisionGraph.getGraphName(), newRevisionIdentifier);
+
         return new Revision(revisionGraph, newRevisionIdentifier, revisionURI, addSetURI, deleteSetURI);
     }
 
@@ -240,6 +303,28 @@ public class RevisionDraft {
         return derivedFromRevisionIdentifier;
     }
 
+    /**
+     * Get the URI of the revision from which the new one is derived.
+     *
+     * @return the derived from revision URI
+     */
+    public String getDerivedFromRevisionURI() {
+        return derivedFromRevisionURI;
+    }
+
+    /**
+     * Get the revision from which the new one is derived.
+     *
+     * @return the derived from revision
+     * @throws InternalErrorException
+     */
+    public Revision getDerivedFromRevision() throws InternalErrorException {
+        if (derivedFromRevision == null) {
+            derivedFromRevision = new Revision(revisionGraph, derivedFromRevisionURI, false);
+        }
+        return derivedFromRevision;
+    }
+
     /**
      * Get the derived from identifier. (The revision identifier of the revision or the reference identifier from which the new revision should be derive from.)
      *
@@ -249,6 +334,15 @@ public class RevisionDraft {
         return derivedFromIdentifier;
     }
 
+    /**
+     * Get the URI of the reference which provides the content the revision is derived from.
+     *
+     * @return the reference URI
+     */
+    public String getReferenceURI() {
+        return referenceURI;
+    }
+
     /**
      * Get the referenced full graph.
      *
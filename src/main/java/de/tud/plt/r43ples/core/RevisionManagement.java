@@ -1,16 +1,12 @@
 package de.tud.plt.r43ples.core;
 
-import com.hp.hpl.jena.query.QuerySolution;
-import com.hp.hpl.jena.query.ResultSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
-import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.optimization.GraphURIIndex;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterface;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import org.apache.log4j.Logger;
 
-import java.util.ArrayList;
-
 /**
  * Provides access to the basic revision graph which stores all references to sub revision graphs.
  *
@@ -39,51 +35,15 @@ public class RevisionManagement {
 
     }
 
-    /**
-     * Get all named graphs URIs by querying the main revision graph.
-     *
-     * @return the list of named graphs URIs
-     */
-    private ArrayList<String> getAllNamedGraphsURIs() {
-        this.logger.debug("Get all named graph URIs.");
-
-        ArrayList<String> uriList = new ArrayList<>();
-
-        String query = Config.prefixes + String.format(""
-                + "SELECT DISTINCT ?uri\n"
-                + "WHERE {\n"
-                + "  GRAPH <%s> {\n"
-                + "    ?graph a rmo:Graph;\n"
-                + "      rmo:hasRevisionGraph ?uriGraph.\n"
-                + "  }\n"
-                + "  GRAPH ?uriGraph {\n"
-                + "    { bind( ?uriGraph as ?uri) }\n"
-                + "    UNION\n"
-                + "    { ?ref rmo:fullGraph ?uri. }\n"
-                + "    UNION\n"
-                + "    { ?rev rmo:addSet ?uri. }\n"
-                + "    UNION\n"
-                + "    { ?rev rmo:deleteSet ?uri }\n"
-                + "  }\n"
-                + "}\n", Config.revision_graph);
-        this.logger.debug(query);
-        ResultSet resultSet = tripleStoreInterface.executeSelectQuery(query);
-        while (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            uriList.add(qs.getResource("?uri").toString());
-        }
-
-        return uriList;
-    }
-
     /**
      * Checks if a named graph URI is already used by R43ples.
+     * The lookup is answered by the in-memory graph URI index.
      *
      * @param namedGraphURI the named graph URI to check
      * @return true if the named graph URI is already in use
      */
     protected boolean checkNamedGraphExistence(String namedGraphURI) {
-        return getAllNamedGraphsURIs().contains(namedGraphURI);
+        return GraphURIIndex.getInstance().contains(namedGraphURI);
     }
 
     /**
@@ -0,0 +1,90 @@
+package de.tud.plt.r43ples.core;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
+import de.tud.plt.r43ples.optimization.ChangeSetNormalizer;
+import de.tud.plt.r43ples.optimization.RevisionNumberAllocator;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+
+/**
+ * Collection of information for creating a new update commit whose add and delete sets are already staged in graphs
+ * of the triplestore (e.g. by a {@link BulkUpload}). The staged graphs become the change sets of the new revision and
+ * are normalized by the triplestore, so the change sets are never loaded into memory.
+ */
+public class StagedUpdateCommitDraft extends UpdateCommitDraft {
+
+    /** The logger. **/
+    private Logger logger = Logger.getLogger(StagedUpdateCommitDraft.class);
+
+    /** The graph name. **/
+    private final String graphName;
+    /** The graph which contains the staged add set. **/
+    private final String addSetGraphURI;
+    /** The graph which contains the staged delete set. **/
+    private final String deleteSetGraphURI;
+    /** The identifier of the branch the new revision is derived from. **/
+    private final String derivedFromIdentifier;
+
+
+    /**
+     * The constructor.
+     *
+     * @param graphName the graph name
+     * @param addSetGraphURI the graph which contains the staged add set
+     * @param deleteSetGraphURI the graph which contains the staged delete set
+     * @param user the user
+     * @param message the message
+     * @param derivedFromIdentifier the identifier of the branch from which the new revision should be derived from
+     * @throws InternalErrorException
+     */
+    protected StagedUpdateCommitDraft(String graphName, String addSetGraphURI, String deleteSetGraphURI, String user, String message, String derivedFromIdentifier) throws InternalErrorException {
+        super(graphName, null, null, user, message, derivedFromIdentifier);
+        this.graphName = graphName;
+        this.addSetGraphURI = addSetGraphURI;
+        this.deleteSetGraphURI = deleteSetGraphURI;
+        this.derivedFromIdentifier = derivedFromIdentifier;
+    }
+
+    /**
+     * Creates the commit draft as a new commit in the triplestore and creates the corresponding revision.
+     * The staged graphs are moved to the change sets of the new revision.
+     *
+     * @return the list with the created commit
+     */
+    @Override
+    protected ArrayList<UpdateCommit> createCommitInTripleStore() throws InternalErrorException {
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addBranchLock(lock, graphName, derivedFromIdentifier);
+        lock.acquire();
+        try {
+            RevisionGraph graph = new RevisionGraph(graphName);
+            if (!graph.hasBranch(derivedFromIdentifier)) {
+                throw new InternalErrorException("Revision is not referenced by a branch");
+            }
+            // the head of the branch is read while holding the lock
+            RevisionDraft revisionDraft = new RevisionDraft(getRevisionManagement(), graph, derivedFromIdentifier);
+            logger.info("Create new revision for graph " + graphName + " from staged change sets.");
+
+            UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+            batch.add(String.format("MOVE SILENT <%s> TO <%s>", addSetGraphURI, revisionDraft.getAddSetURI()));
+            batch.add(String.format("MOVE SILENT <%s> TO <%s>", deleteSetGraphURI, revisionDraft.getDeleteSetURI()));
+            ChangeSetNormalizer.normalizeAndApplyInStore(batch, graph.getRevisionGraphUri(), revisionDraft.getReferenceURI(),
+                    revisionDraft.getAddSetURI(), revisionDraft.getDeleteSetURI());
+            RevisionNumberAllocator.persist(batch, graphName, revisionDraft.getNewRevisionIdentifier());
+
+            ArrayList<UpdateCommit> commitList = new ArrayList<>();
+            commitList.add(addMetaInformation(revisionDraft, batch));
+            executeUpdateBatch(batch, graph.getRevisionGraphUri());
+            return commitList;
+        } finally {
+            lock.release();
+        }
+    }
+
+}
@@ -6,11 +6,16 @@ import com.hp.hpl.jena.util.FileUtils;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.existentobjects.*;
 import de.tud.plt.r43ples.iohelper.JenaModelManagement;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
 import de.tud.plt.r43ples.mergingUI.MergeQueryTypeEnum;
 import de.tud.plt.r43ples.mergingUI.SDDTripleStateEnum;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.Iterator;
@@ -52,75 +57,81 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
      * @return the commit (has attribute which indicates if the commit was executed or not)
      */
     protected ThreeWayMergeCommit createCommitInTripleStore() throws InternalErrorException {
-
-        String revisionGraphURI = getRevisionGraph().getRevisionGraphUri();
-        String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
-        String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
-
-        // Differ between MERGE query with specified SDD and without SDD
-        String usedSDDURI = getRevisionGraph().getSDD(getSdd());
-
-        // Get the common revision with shortest path
-        Revision commonRevision = this.getPathCalculationInterface().getCommonRevisionWithShortestPath(getRevisionGraph(), new Revision(getRevisionGraph(), revisionUriFrom, false), new Revision(getRevisionGraph(), revisionUriInto, false));
-
-        // Create the revision progress for from and into
-        String namedGraphUriFrom = getRevisionManagement().getTemporaryRevisionProgressFromURI(getRevisionGraph());
-        String namedGraphUriInto = getRevisionManagement().getTemporaryRevisionProgressIntoURI(getRevisionGraph());
-        String namedGraphUriDiff = getRevisionManagement().getTemporaryDifferenceModelURI(getRevisionGraph());
-        String uriA = "http://eatld.et.tu-dresden.de/branch-from";
-        String uriB = "http://eatld.et.tu-dresden.de/branch-into";
-
-        Revision fromRevision = new Revision(getRevisionGraph(), revisionUriFrom, false);
-        Revision intoRevision = new Revision(getRevisionGraph(), revisionUriInto, false);
-
-        createRevisionProgresses(revisionGraphURI, getGraphName(),
-                this.getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), commonRevision, fromRevision),
-                namedGraphUriFrom, uriA,
-                this.getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), commonRevision, intoRevision),
-                namedGraphUriInto, uriB, commonRevision);
-
-        // Create difference model
-        createDifferenceTripleModel(getGraphName(), namedGraphUriDiff, namedGraphUriFrom, uriA, namedGraphUriInto, uriB,
-                usedSDDURI);
-
-        // The created revision
-        Revision revision;
-
-        // Differ between the different merge queries
-        if ((getType() != null) && (getType().equals(MergeTypes.AUTO)) && !isWith()) {
-            logger.debug("AUTO MERGE query detected");
-            // Create the merged revision
-            revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.AUTO);
-            return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
-        } else if ((getType() != null) && (getType().equals(MergeTypes.MANUAL)) && isWith()) {
-            logger.debug("MANUAL MERGE query detected");
-            // Create the merged revision
-            revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.MANUAL);
-            return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
-        } else if ((getType() == null) && isWith()) {
-            logger.debug("MERGE WITH query detected");
-            // Create the merged revision
-            revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.WITH);
-            return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
-        } else if ((getType() == null) && !isWith()) {
-            logger.debug("MERGE query detected");
-            // Check if difference model contains conflicts
-            String queryASK = String.format("ASK { %n" + "	GRAPH <%s> { %n"
-                    + " 	?ref <http://eatld.et.tu-dresden.de/sddo#isConflicting> \"true\"^^<http://www.w3.org/2001/XMLSchema#boolean> . %n"
-                    + "	} %n" + "}", namedGraphUriDiff);
-            if (getTripleStoreInterface().executeAskQuery(queryASK)) {
-                // Difference model contains conflicts
-                // Return the conflict model to the client
-                String conflictModel = RevisionManagementOriginal.getContentOfGraph(namedGraphUriDiff, "text/turtle");
-                return new ThreeWayMergeCommit(getRevisionGraph(), null,null, null, null, fromRevision, null, intoRevision, null, null, null, true, conflictModel, namedGraphUriDiff);
-            } else {
-                // Difference model contains no conflicts
+        CommitLock lock = CommitLockManager.getInstance().createLock();
+        addRevisionGraphLock(lock, getGraphName());
+        lock.acquire();
+        try {
+            String revisionGraphURI = getRevisionGraph().getRevisionGraphUri();
+            String revisionUriFrom = getRevisionGraph().getRevisionUri(getBranchNameFrom());
+            String revisionUriInto = getRevisionGraph().getRevisionUri(getBranchNameInto());
+
+            // Differ between MERGE query with specified SDD and without SDD
+            String usedSDDURI = getRevisionGraph().getSDD(getSdd());
+
+            // Get the common revision with shortest path
+            Revision commonRevision = this.getPathCalculationInterface().getCommonRevisionWithShortestPath(getRevisionGraph(), new Revision(getRevisionGraph(), revisionUriFrom, false), new Revision(getRevisionGraph(), revisionUriInto, false));
+
+            // Create the revision progress for from and into
+            String namedGraphUriFrom = getRevisionManagement().getTemporaryRevisionProgressFromURI(getRevisionGraph());
+            String namedGraphUriInto = getRevisionManagement().getTemporaryRevisionProgressIntoURI(getRevisionGraph());
+            String namedGraphUriDiff = getRevisionManagement().getTemporaryDifferenceModelURI(getRevisionGraph());
+            String uriA = "http://eatld.et.tu-dresden.de/branch-from";
+            String uriB = "http://eatld.et.tu-dresden.de/branch-into";
+
+            Revision fromRevision = new Revision(getRevisionGraph(), revisionUriFrom, false);
+            Revision intoRevision = new Revision(getRevisionGraph(), revisionUriInto, false);
+
+            createRevisionProgresses(revisionGraphURI, getGraphName(),
+                    this.getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), commonRevision, fromRevision),
+                    namedGraphUriFrom, uriA,
+                    this.getPathCalculationInterface().getPathBetweenStartAndTargetRevision(getRevisionGraph(), commonRevision, intoRevision),
+                    namedGraphUriInto, uriB, commonRevision);
+
+            // Create difference model
+            createDifferenceTripleModel(getGraphName(), namedGraphUriDiff, namedGraphUriFrom, uriA, namedGraphUriInto, uriB,
+                    usedSDDURI);
+
+            // The created revision
+            Revision revision;
+
+            // Differ between the different merge queries
+            if ((getType() != null) && (getType().equals(MergeTypes.AUTO)) && !isWith()) {
+                logger.debug("AUTO MERGE query detected");
+                // Create the merged revision
+                revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.AUTO);
+                return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
+            } else if ((getType() != null) && (getType().equals(MergeTypes.MANUAL)) && isWith()) {
+                logger.debug("MANUAL MERGE query detected");
+                // Create the merged revision
+                revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.MANUAL);
+                return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
+            } else if ((getType() == null) && isWith()) {
+                logger.debug("MERGE WITH query detected");
                 // Create the merged revision
-                revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.COMMON);
+                revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.WITH);
                 return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
+            } else if ((getType() == null) && !isWith()) {
+                logger.debug("MERGE query detected");
+                // Check if difference model contains conflicts
+                String queryASK = String.format("ASK { %n" + "	GRAPH <%s> { %n"
+                        + " 	?ref <http://eatld.et.tu-dresden.de/sddo#isConflicting> \"true\"^^<http://www.w3.org/2001/XMLSchema#boolean> . %n"
+                        + "	} %n" + "}", namedGraphUriDiff);
+                if (getTripleStoreInterface().executeAskQuery(queryASK)) {
+                    // Difference model contains conflicts
+                    // Return the conflict model to the client
+                    String conflictModel = RevisionManagementOriginal.getContentOfGraph(namedGraphUriDiff, "text/turtle");
+                    return new ThreeWayMergeCommit(getRevisionGraph(), null,null, null, null, fromRevision, null, intoRevision, null, null, null, true, conflictModel, namedGraphUriDiff);
+                } else {
+                    // Difference model contains no conflicts
+                    // Create the merged revision
+                    revision = createMergedRevision(namedGraphUriDiff, MergeQueryTypeEnum.COMMON);
+                    return addMetaInformation(revision, namedGraphUriDiff, commonRevision, fromRevision, intoRevision);
+                }
+            } else {
+                throw new InternalErrorException("This is not a valid MERGE query");
             }
-        } else {
-            throw new InternalErrorException("This is not a valid MERGE query");
+        } finally {
+            lock.release();
         }
     }
 
@@ -177,10 +188,25 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
                 + String.format("INSERT DATA { GRAPH <%s> { %s } }", getRevisionGraph().getRevisionGraphUri(),
                 queryContent.toString());
 
-        getTripleStoreInterface().executeUpdateQuery(query);
+        UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+        batch.add(query);
+        final RevisionGraphIndex index = getRevisionGraph().getIndex();
+        final String revisionURI = generatedRevision.getRevisionURI();
+        final String revisionNumber = generatedRevision.getRevisionIdentifier();
+        final String addSetURI = generatedRevision.getAddSetURI();
+        final String deleteSetURI = generatedRevision.getDeleteSetURI();
+        final String sourceRevisionURI = usedSourceRevision.getRevisionURI();
+        final String targetRevisionURI = usedTargetRevision.getRevisionURI();
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.addRevision(revisionURI, revisionNumber, addSetURI, deleteSetURI, sourceRevisionURI, targetRevisionURI);
+            }
+        });
 
         // Move branch to new revision
-        moveBranchReference(getRevisionGraph().getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), generatedRevision.getRevisionURI());
+        moveBranchReference(batch, getRevisionGraph().getRevisionGraphUri(), usedTargetBranch.getReferenceURI(), usedTargetRevision.getRevisionURI(), generatedRevision.getRevisionURI());
+        executeUpdateBatch(batch, getRevisionGraph().getRevisionGraphUri());
         // Update the target branch object
         usedTargetBranch = getRevisionGraph().getBranch(getBranchNameInto(), true);
 
@@ -204,18 +230,22 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
         getTripleStoreInterface().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", graphNameOfMerged));
         getTripleStoreInterface().executeCreateGraph(graphNameOfMerged);
 
-        // Get the full graph name of branch A
-        String graphNameOfBranchA = getRevisionGraph().getReferenceGraph(getBranchNameFrom());
-        // Get the full graph name of branch B
-        String graphNameOfBranchB = getRevisionGraph().getReferenceGraph(getBranchNameInto());
+        // Get the content of the branches (branches which share the full graph of their base are matched
+        // against base graph and overlay graphs)
+        String revisionGraphURI = getRevisionGraph().getRevisionGraphUri();
+        String referenceOfBranchA = getRevisionGraph().getContentReferenceUri(getBranchNameFrom());
+        String referenceOfBranchB = getRevisionGraph().getContentReferenceUri(getBranchNameInto());
+        String contentOfBranchA = BranchOverlay.getContentPattern(revisionGraphURI, referenceOfBranchA, "?s ?p ?o");
+        String contentOfBranchB = BranchOverlay.getContentPattern(revisionGraphURI, referenceOfBranchB, "?s ?p ?o");
 
         if (type.equals(MergeQueryTypeEnum.MANUAL)) {
             // Manual merge query
             RevisionManagementOriginal.executeINSERT(graphNameOfMerged, getTriples());
         } else {
             // Copy graph B to temporary merged graph
-            String queryCopy = String.format("COPY <%s> TO <%s>", graphNameOfBranchB, graphNameOfMerged);
-            getTripleStoreInterface().executeUpdateQuery(queryCopy);
+            UpdateBatch batchCopy = getTripleStoreInterface().createUpdateBatch();
+            BranchOverlay.copyContent(batchCopy, revisionGraphURI, referenceOfBranchB, graphNameOfMerged);
+            batchCopy.execute();
 
             // Get the triples from branch A which should be added to/removed from the merged revision
             String triplesToAdd = "";
@@ -323,9 +353,9 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
                         + "WHERE { %n"
                         + "	GRAPH <%s> { ?s ?p ?o } %n"
                         + "	FILTER NOT EXISTS { "
-                        + "		GRAPH <%s> { ?s ?p ?o } %n"
+                        + "		%s %n"
                         + "	} %n"
-                        + "}", graphNameOfMerged, graphNameOfBranchA);
+                        + "}", graphNameOfMerged, contentOfBranchA);
 
         String addedTriples = getTripleStoreInterface().executeConstructQuery(queryAddedTriples, FileUtils.langNTriple);
 
@@ -334,9 +364,9 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
                         + "WHERE { %n"
                         + "	GRAPH <%s> { ?s ?p ?o } %n"
                         + "	FILTER NOT EXISTS { %n"
-                        + "		GRAPH <%s> { ?s ?p ?o } %n"
+                        + "		%s %n"
                         + "	} %n"
-                        + "}", graphNameOfMerged, graphNameOfBranchB);
+                        + "}", graphNameOfMerged, contentOfBranchB);
 
         addedTriples += getTripleStoreInterface().executeConstructQuery(queryAddedTriples, FileUtils.langNTriple);
 
@@ -344,22 +374,22 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
         String queryRemovedTriples = String.format(
                 "CONSTRUCT {?s ?p ?o} %n"
                         + "WHERE { %n"
-                        + "	GRAPH <%s> { ?s ?p ?o } %n"
+                        + "	%s %n"
                         + "	FILTER NOT EXISTS { %n"
                         + "		GRAPH <%s> { ?s ?p ?o } %n"
                         + "	} %n"
-                        + "}", graphNameOfBranchA, graphNameOfMerged);
+                        + "}", contentOfBranchA, graphNameOfMerged);
 
         String deletedTriples = getTripleStoreInterface().executeConstructQuery(queryRemovedTriples, FileUtils.langNTriple);
 
         queryRemovedTriples = String.format(
                 "CONSTRUCT {?s ?p ?o} %n"
                         + "WHERE { %n"
-                        + "	GRAPH <%s> { ?s ?p ?o } %n"
+                        + "	%s %n"
                         + "	FILTER NOT EXISTS { %n"
                         + "		GRAPH <%s> { ?s ?p ?o } %n"
                         + "	} %n"
-                        + "}", graphNameOfBranchB, graphNameOfMerged);
+                        + "}", contentOfBranchB, graphNameOfMerged);
 
         deletedTriples += getTripleStoreInterface().executeConstructQuery(queryRemovedTriples, FileUtils.langNTriple);
 
@@ -392,11 +422,17 @@ public class ThreeWayMergeCommitDraft extends MergeCommitDraft {
         }
 
         // Get the full graph name of common revision or create full revision graph of common revision
-        String fullGraphNameCommonRevision;
+        String fullGraphNameCommonRevision = null;
         Boolean tempGraphWasCreated = false;
         try {
-            fullGraphNameCommonRevision = graph.getReferenceGraph(commonRevision.getRevisionIdentifier());
+            String referenceURI = graph.getContentReferenceUri(commonRevision.getRevisionIdentifier());
+            if (!graph.getIndex().isOverlay(referenceURI)) {
+                fullGraphNameCommonRevision = graph.getFullGraphUri(referenceURI);
+            }
         } catch (InternalErrorException e) {
+            // The common revision has no reference
+        }
+        if (fullGraphNameCommonRevision == null) {
             // Create a temporary full graph
             // TODO move to new RevisionManagement
             fullGraphNameCommonRevision = graphName + "RM-TEMP-REVISION-PROGRESS-FULLGRAPH";
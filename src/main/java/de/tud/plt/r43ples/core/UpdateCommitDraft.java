@@ -1,17 +1,33 @@
 package de.tud.plt.r43ples.core;
 
-import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.QueryParseException;
+import com.hp.hpl.jena.sparql.core.Quad;
+import com.hp.hpl.jena.sparql.modify.request.UpdateData;
+import com.hp.hpl.jena.sparql.modify.request.UpdateDataInsert;
+import com.hp.hpl.jena.update.Update;
+import com.hp.hpl.jena.update.UpdateFactory;
+import com.hp.hpl.jena.update.UpdateRequest;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.exception.OutdatedException;
 import de.tud.plt.r43ples.existentobjects.Revision;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
 import de.tud.plt.r43ples.existentobjects.UpdateCommit;
 import de.tud.plt.r43ples.management.*;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.ChangeSetNormalizer;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+import de.tud.plt.r43ples.optimization.RevisionNumberAllocator;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,9 +44,29 @@ public class UpdateCommitDraft extends CommitDraft {
 
 	/** The pattern modifier. **/
 	private final int patternModifier = Pattern.DOTALL + Pattern.MULTILINE + Pattern.CASE_INSENSITIVE;
+	/** The pattern to find the INSERT and DELETE clauses. **/
+	private final Pattern patternUpdateRevision = Pattern.compile("(?<action>INSERT|DELETE)(?<data>\\s*DATA)?\\s*\\{",
+			patternModifier);
+	/** The pattern to find the WHERE clause. **/
+	private final Pattern patternWhere = Pattern.compile("WHERE\\s*\\{", patternModifier);
+	/** The pattern to find graph patterns on a revision. **/
+	private final Pattern patternGraphWithRevision = Pattern
+			.compile("GRAPH\\s*<(?<graph>[^>]*)>\\s*REVISION\\s*\"(?<revision>[^\"]*)\"\\s*\\{", patternModifier);
 
 	/** The revision draft. **/
 	private RevisionDraft revisionDraft;
+	/** The graph name (only if created with add and delete sets or prepared for a group commit). **/
+	private String graphName;
+	/** The add set as N-Triples (only if created with add and delete sets). **/
+	private String addSet;
+	/** The delete set as N-Triples (only if created with add and delete sets). **/
+	private String deleteSet;
+	/** The identifier of the branch the new revision is derived from (only if created with add and delete sets or prepared for a group commit). **/
+	private String derivedFromIdentifier;
+	/** The triples inserted by the request (only if prepared for a group commit). **/
+	private Set<Triple> addTriples;
+	/** The triples deleted by the request (only if prepared for a group commit). **/
+	private Set<Triple> deleteTriples;
 	/** States if this commit draft was created by a request or add and delete sets. (true => request, false => add/delete sets) **/
 	private boolean isCreatedWithRequest;
 
@@ -60,7 +96,10 @@ public class UpdateCommitDraft extends CommitDraft {
 	 */
 	protected UpdateCommitDraft(String graphName, String addSet, String deleteSet, String user, String message, String derivedFromIdentifier) throws InternalErrorException {
 		super(null);
-		this.revisionDraft = new RevisionDraft(getRevisionManagement(), new RevisionGraph(graphName), derivedFromIdentifier, addSet, deleteSet);
+		this.graphName = graphName;
+		this.addSet = addSet;
+		this.deleteSet = deleteSet;
+		this.derivedFromIdentifier = derivedFromIdentifier;
 		this.setUser(user);
 		this.setMessage(message);
 		this.isCreatedWithRequest = false;
@@ -72,40 +111,199 @@ public class UpdateCommitDraft extends CommitDraft {
 	 * @return the list of created commits
 	 */
 	protected ArrayList<UpdateCommit> createCommitInTripleStore() throws InternalErrorException {
+		CommitLock lock = CommitLockManager.getInstance().createLock();
 		if (!isCreatedWithRequest) {
-			revisionDraft.createRevisionInTripleStore();
-			ArrayList<UpdateCommit> commitList = new ArrayList<>();
-			commitList.add(addMetaInformation(revisionDraft));
-			return commitList;
+			addBranchLock(lock, graphName, derivedFromIdentifier);
+			lock.acquire();
+			try {
+				// the head of the branch is read while holding the lock
+				revisionDraft = new RevisionDraft(getRevisionManagement(), new RevisionGraph(graphName), derivedFromIdentifier, addSet, deleteSet);
+				UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+				revisionDraft.createRevisionInTripleStore(batch);
+				ArrayList<UpdateCommit> commitList = new ArrayList<>();
+				commitList.add(addMetaInformation(revisionDraft, batch));
+				executeUpdateBatch(batch, revisionDraft.getRevisionGraph().getRevisionGraphUri());
+				return commitList;
+			} finally {
+				lock.release();
+			}
 		} else {
-			return this.updateChangeSetsByRewrittenQuery();
+			addRequestLocks(lock);
+			lock.acquire();
+			try {
+				return this.updateChangeSetsByRewrittenQuery();
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+	/**
+	 * Checks if the request can be written by a group commit and extracts its triples. Only requests which consist
+	 * of INSERT DATA and DELETE DATA clauses on one branch of one graph (referenced by its name) without blank nodes
+	 * can be grouped.
+	 *
+	 * @return the key of the group (revision graph URI and branch URI) or null if the request can not be grouped
+	 */
+	protected String getGroupCommitKey() {
+		if (!isCreatedWithRequest) {
+			return null;
+		}
+		String query = getRequest().query_sparql;
+		if (patternWhere.matcher(query).find()) {
+			return null;
+		}
+		String graphName = null;
+		String branchName = null;
+		Matcher m = patternUpdateRevision.matcher(query);
+		while (m.find()) {
+			if (m.group("data") == null) {
+				return null;
+			}
+			Matcher m2a = patternGraphWithRevision.matcher(getStringEnclosedinBraces(query, m.end()));
+			while (m2a.find()) {
+				if (graphName == null) {
+					graphName = m2a.group("graph");
+					branchName = m2a.group("revision").toLowerCase();
+				} else if (!graphName.equals(m2a.group("graph")) || !branchName.equals(m2a.group("revision").toLowerCase())) {
+					return null;
+				}
+			}
+		}
+		if (graphName == null) {
+			return null;
+		}
+		String revisionGraphURI = new RevisionGraph(graphName).getRevisionGraphUri();
+		if (revisionGraphURI == null) {
+			return null;
+		}
+		// a revision number would not reference the branch any more after the first commit of the group
+		RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+		List<String> branchURIs = index.getBranchURIs(branchName);
+		if (!index.hasReference(branchName) || branchURIs.size() != 1) {
+			return null;
+		}
+
+		UpdateRequest updateRequest;
+		try {
+			updateRequest = UpdateFactory.create(patternGraphWithRevision.matcher(query).replaceAll("GRAPH <${graph}> {"));
+		} catch (QueryParseException e) {
+			return null;
+		}
+		Set<Triple> addTriples = new LinkedHashSet<>();
+		Set<Triple> deleteTriples = new LinkedHashSet<>();
+		for (Update update : updateRequest.getOperations()) {
+			if (!(update instanceof UpdateData)) {
+				return null;
+			}
+			for (Quad quad : ((UpdateData) update).getQuads()) {
+				if (!quad.getGraph().isURI() || !quad.getGraph().getURI().equals(graphName)
+						|| quad.getSubject().isBlank() || quad.getObject().isBlank()) {
+					return null;
+				}
+				if (update instanceof UpdateDataInsert) {
+					addTriples.add(quad.asTriple());
+				} else {
+					deleteTriples.add(quad.asTriple());
+				}
+			}
+		}
+		this.graphName = graphName;
+		this.derivedFromIdentifier = branchName;
+		this.addTriples = addTriples;
+		this.deleteTriples = deleteTriples;
+		return revisionGraphURI + " " + branchURIs.get(0);
+	}
+
+	/**
+	 * Adds the branch of a request prepared for a group commit to the commit lock.
+	 *
+	 * @param lock the commit lock
+	 */
+	protected void addGroupCommitLock(CommitLock lock) {
+		addBranchLock(lock, graphName, derivedFromIdentifier);
+	}
+
+	/**
+	 * Adds the statements for the revision of a request prepared for a group commit to the update batch of the
+	 * group. The change set is normalized against the content of the branch including the changes of the preceding
+	 * commits of the group, which are not written yet. The new revision is derived from the revision of the
+	 * preceding commit, because the branch is only moved in the revision graph index after the group was written.
+	 *
+	 * @param batch the update batch of the group
+	 * @param addedBefore the triples added by the preceding commits of the group
+	 * @param deletedBefore the triples deleted by the preceding commits of the group
+	 * @param userURIs the URIs of the users of the group (key: user name)
+	 * @param previousRevision the revision created by the preceding commit of the group (null for the first commit)
+	 * @return the created commit
+	 * @throws InternalErrorException
+	 */
+	protected UpdateCommit addGroupCommit(UpdateBatch batch, Set<Triple> addedBefore, Set<Triple> deletedBefore,
+			Map<String, String> userURIs, Revision previousRevision) throws InternalErrorException {
+		RevisionGraph graph = new RevisionGraph(graphName);
+		if (!graph.hasBranch(derivedFromIdentifier)) {
+			throw new InternalErrorException("Revision is not referenced by a branch");
+		}
+		ChangeSetNormalizer.normalize(graph.getRevisionGraphUri(), graph.getContentReferenceUri(derivedFromIdentifier),
+				addTriples, deleteTriples, addedBefore, deletedBefore);
+		revisionDraft = new RevisionDraft(getRevisionManagement(), graph, derivedFromIdentifier, previousRevision,
+				ChangeSetNormalizer.toNTriples(addTriples), ChangeSetNormalizer.toNTriples(deleteTriples));
+		revisionDraft.createRevisionInTripleStore(batch);
+
+		String personUri = userURIs.get(getUser());
+		if (personUri == null) {
+			personUri = RevisionManagementOriginal.getUserURI(getUser());
+			userURIs.put(getUser(), personUri);
+		}
+		return addMetaInformation(revisionDraft, batch, personUri);
+	}
+
+	/**
+	 * Adds the locks needed by the rewritten query of the request. The branches of the INSERT and DELETE clauses
+	 * are locked. The branches of the WHERE clause are locked as well, so their heads do not move while the WHERE
+	 * clause is evaluated on their full graphs.
+	 *
+	 * @param lock the commit lock
+	 */
+	private void addRequestLocks(CommitLock lock) {
+		String query = getRequest().query_sparql;
+		Matcher m = patternUpdateRevision.matcher(query);
+		while (m.find()) {
+			Matcher m2a = patternGraphWithRevision.matcher(getStringEnclosedinBraces(query, m.end()));
+			while (m2a.find()) {
+				addBranchLock(lock, m2a.group("graph"), m2a.group("revision").toLowerCase());
+			}
+		}
+		Matcher m1 = patternWhere.matcher(query);
+		if (m1.find()) {
+			Matcher m1a = patternGraphWithRevision.matcher(getStringEnclosedinBraces(query, m1.end()));
+			while (m1a.find()) {
+				addBranchLock(lock, m1a.group("graph"), m1a.group("revision").toLowerCase());
+			}
 		}
 	}
 
 	/**
 	 * Updates the change sets by a rewritten SPARQL query of the request.
+	 * The WHERE clause is evaluated directly on the full graphs of branch heads. Branches which share the full graph
+	 * of their base are evaluated on their base graph and overlay graphs (see {@link BranchOverlay}). Other revisions,
+	 * and branches whose pattern can not be rewritten for their overlay, are taken from the
+	 * {@link MaterializedRevisionCache}, so the content of a graph is only copied if it is not stored in a graph.
 	 *
 	 * @return the list of created commits
 	 * @throws InternalErrorException
 	 */
 	private ArrayList<UpdateCommit> updateChangeSetsByRewrittenQuery() throws InternalErrorException {
 
-		final Pattern patternUpdateRevision = Pattern.compile("(?<action>INSERT|DELETE)(?<data>\\s*DATA)?\\s*\\{",
-				patternModifier);
-		final Pattern patternWhere = Pattern.compile("WHERE\\s*\\{", patternModifier);
-
-		final Pattern patternEmptyGraphPattern = Pattern.compile("GRAPH\\s*<(?<graph>[^>]*)>\\s*\\{\\s*\\}",
-				patternModifier);
-		final Pattern patternGraphWithRevision = Pattern
-				.compile("GRAPH\\s*<(?<graph>[^>]*)>\\s*REVISION\\s*\"(?<revision>[^\"]*)\"\\s*\\{", patternModifier);
-
 		logger.debug("SPARQL Update detected");
 
 		// I. Take over prefixes and other head stuff
 		String queryRewritten;
+		String prologue;
 		Matcher m = patternUpdateRevision.matcher(getRequest().query_sparql);
 		if (m.find()) {
-			queryRewritten = getRequest().query_sparql.substring(0, m.start());
+			prologue = getRequest().query_sparql.substring(0, m.start());
+			queryRewritten = prologue;
 			if (m.group("data") != null)
 				queryRewritten += "INSERT DATA {";
 			else
@@ -152,87 +350,135 @@ public class UpdateCommitDraft extends CommitDraft {
 		queryRewritten += "}";
 
 		// III. Rewrite where clause
-		Matcher m1 = patternWhere.matcher(getRequest().query_sparql);
-		if (m1.find()) {
-			queryRewritten += "WHERE {";
-			String whereClause = getStringEnclosedinBraces(getRequest().query_sparql, m1.end());
+		// materialized revisions which have to be released after the update
+		List<String> acquiredGraphs = new ArrayList<>();
+		try {
+			Matcher m1 = patternWhere.matcher(getRequest().query_sparql);
+			if (m1.find()) {
+				queryRewritten += "WHERE {";
+				String whereClause = getStringEnclosedinBraces(getRequest().query_sparql, m1.end());
+
+				Matcher m1a = patternGraphWithRevision.matcher(whereClause);
+				while (m1a.find()) {
+					String graphName = m1a.group("graph");
+					String revisionName = m1a.group("revision").toLowerCase();
+					RevisionGraph graph = new RevisionGraph(graphName);
+					String GraphClause = getStringEnclosedinBraces(whereClause, m1a.end());
+					String whereGraphName = null;
+					if (graph.hasBranch(revisionName)) {
+						// the head of a branch is already stored as full graph or as overlay of its base graph
+						String referenceURI = graph.getContentReferenceUri(revisionName);
+						if (!graph.getIndex().isOverlay(referenceURI)) {
+							whereGraphName = graph.getFullGraphUri(referenceURI);
+						} else {
+							String overlayClause = BranchOverlay.rewriteGraphPattern(prologue, GraphClause,
+									graph.getRevisionGraphUri(), referenceURI);
+							if (overlayClause != null) {
+								queryRewritten += overlayClause;
+								continue;
+							}
+							revisionName = graph.getRevisionIdentifier(revisionName);
+						}
+					}
+					if (whereGraphName == null) {
+						whereGraphName = MaterializedRevisionCache.getInstance().acquire(graphName, revisionName);
+						acquiredGraphs.add(whereGraphName);
+					}
+					queryRewritten += String.format("GRAPH <%s> { %s }", whereGraphName, GraphClause);
+				}
+				queryRewritten += "}";
+			}
 
-			Matcher m1a = patternGraphWithRevision.matcher(whereClause);
-			while (m1a.find()) {
-				String graphName = m1a.group("graph");
-				String revisionName = m1a.group("revision").toLowerCase();
-				// TODO: replace generateFullGraphOfRevision with query
-				// rewriting option
-				String tempGraphName = graphName + "-temp";
-				RevisionManagementOriginal.generateFullGraphOfRevision(graphName, revisionName, tempGraphName);
-				String GraphClause = getStringEnclosedinBraces(whereClause, m1a.end());
-				queryRewritten += String.format("GRAPH <%s> { %s }", tempGraphName, GraphClause);
+			return executeRewrittenQuery(queryRewritten, revList);
+		} finally {
+			for (String acquiredGraph : acquiredGraphs) {
+				MaterializedRevisionCache.getInstance().release(acquiredGraph);
 			}
-			queryRewritten += "}";
 		}
+	}
+
+	/**
+	 * Executes the rewritten update query which fills the change sets and creates the new revisions.
+	 *
+	 * @param queryRewritten the rewritten query
+	 * @param revList the drafts of the new revisions
+	 * @return the list of created commits
+	 * @throws InternalErrorException
+	 */
+	private ArrayList<UpdateCommit> executeRewrittenQuery(String queryRewritten, List<RevisionDraft> revList) throws InternalErrorException {
+		final Pattern patternEmptyGraphPattern = Pattern.compile("GRAPH\\s*<(?<graph>[^>]*)>\\s*\\{\\s*\\}",
+				patternModifier);
 
 		logger.debug("Rewritten query for update: " + queryRewritten);
 
 		// (IIIa) Remove empty insert clauses which otherwise will lead to
 		// errors
-		m = patternEmptyGraphPattern.matcher(queryRewritten);
+		Matcher m = patternEmptyGraphPattern.matcher(queryRewritten);
 		queryRewritten = m.replaceAll("");
 
 		// IV. Execute rewritten query (updating changesets)
-		getTripleStoreInterface().executeUpdateQuery(queryRewritten);
+		// the change sets are normalized in the same write afterwards, so a failed commit leaves no change sets
+		UpdateBatch batch = getTripleStoreInterface().createUpdateBatch();
+		batch.add(queryRewritten);
 
 		// V. add changesets to full graph and add meta information in revision
 		// graphs
 		ArrayList<UpdateCommit> commitList = new ArrayList<>();
 		for (RevisionDraft draft : revList) {
-			addNewRevisionFromChangeSet(draft);
+			addNewRevisionFromChangeSet(draft, batch);
 			// add meta information to R43ples
-			commitList.add(addMetaInformation(draft));
+			commitList.add(addMetaInformation(draft, batch));
+		}
+		batch.execute();
+		for (RevisionDraft draft : revList) {
+			BranchOverlay.materializeOversizedOverlays(draft.getRevisionGraph().getRevisionGraphUri());
 		}
 		return commitList;
 	}
 
 	/**
 	 * Add new revision from existing changeset in triplestore.
-	 * Applies changeset to full graph.
+	 * Normalizes the changeset in memory and applies it to full graph or to the overlay of the branch.
 	 *
 	 * @param draft the revision draft
+	 * @param batch the update batch the statements are added to
 	 * @throws InternalErrorException
 	 */
-	private void addNewRevisionFromChangeSet(RevisionDraft draft) throws InternalErrorException {
-		// remove doubled data
+	private void addNewRevisionFromChangeSet(RevisionDraft draft, UpdateBatch batch) throws InternalErrorException {
+		// remove doubled data and merge change sets into reference graph
 		// (already existing triples in add set; not existing triples in delete set)
-		getTripleStoreInterface().executeUpdateQuery(String.format(
-				"DELETE { GRAPH <%s> { ?s ?p ?o. } } WHERE { GRAPH <%s> { ?s ?p ?o. } }",
-				draft.getAddSetURI(), draft.getReferenceFullGraph()));
-		getTripleStoreInterface().executeUpdateQuery(String.format(
-				"DELETE { GRAPH <%s> { ?s ?p ?o. } } WHERE { GRAPH <%s> { ?s ?p ?o. } MINUS { GRAPH <%s> { ?s ?p ?o. } } }",
-				draft.getDeleteSetURI(), draft.getDeleteSetURI(), draft.getReferenceFullGraph()));
-
-		// merge change sets into reference graph
-		// (copy add set to reference graph; remove delete set from reference graph)
-		getTripleStoreInterface().executeUpdateQuery(String.format(
-				"INSERT { GRAPH <%s> { ?s ?p ?o. } } WHERE { GRAPH <%s> { ?s ?p ?o. } }",
-				draft.getReferenceFullGraph(), draft.getAddSetURI()));
-		getTripleStoreInterface().executeUpdateQuery(String.format(
-				"DELETE { GRAPH <%s> { ?s ?p ?o. } } WHERE { GRAPH <%s> { ?s ?p ?o. } }",
-				draft.getReferenceFullGraph(), draft.getDeleteSetURI()));
+		ChangeSetNormalizer.normalizeAndApply(batch, draft.getRevisionGraph().getRevisionGraphUri(), draft.getReferenceURI(),
+				draft.getAddSetURI(), draft.getDeleteSetURI());
+
+		RevisionNumberAllocator.persist(batch, draft.getRevisionGraph().getGraphName(), draft.getNewRevisionIdentifier());
 	}
 
 	/**
 	 * Adds meta information for commit and revision to the revision graph.
 	 *
 	 * @param draft the revision draft
+	 * @param batch the update batch the statements are added to
 	 * @return the created commit
 	 * @throws InternalErrorException
 	 */
-	private UpdateCommit addMetaInformation(RevisionDraft draft) throws InternalErrorException {
-		String personUri = RevisionManagementOriginal.getUserURI(getUser());
+	protected UpdateCommit addMetaInformation(RevisionDraft draft, UpdateBatch batch) throws InternalErrorException {
+		return addMetaInformation(draft, batch, RevisionManagementOriginal.getUserURI(getUser()));
+	}
 
-		String revisionUri = draft.getRevisionURI();
+	/**
+	 * Adds meta information for commit and revision to the revision graph.
+	 *
+	 * @param draft the revision draft
+	 * @param batch the update batch the statements are added to
+	 * @param personUri the URI of the user
+	 * @return the created commit
+	 * @throws InternalErrorException
+	 */
+	private UpdateCommit addMetaInformation(RevisionDraft draft, UpdateBatch batch, String personUri) throws InternalErrorException {
+		final String revisionUri = draft.getRevisionURI();
 		String commitUri = getRevisionManagement().getNewCommitURI(draft.getRevisionGraph(), draft.getNewRevisionIdentifier());
 		String branchUri = draft.getRevisionGraph().getBranchUri(draft.getDerivedFromIdentifier());
-		String revUriOld = draft.getRevisionGraph().getRevisionUri(draft.getDerivedFromRevisionIdentifier());
+		final String revUriOld = draft.getDerivedFromRevisionURI();
 
 		// Create a new commit (activity)
 		StringBuilder queryContent = new StringBuilder(1000);
@@ -259,29 +505,26 @@ public class UpdateCommitDraft extends CommitDraft {
 				+ String.format("INSERT DATA { GRAPH <%s> { %s } }", draft.getRevisionGraph().getRevisionGraphUri(),
 				queryContent.toString());
 
-		getTripleStoreInterface().executeUpdateQuery(query);
+		batch.add(query);
+		final RevisionGraphIndex index = draft.getRevisionGraph().getIndex();
+		final String revisionNumber = draft.getNewRevisionIdentifier();
+		final String addSetURI = draft.getAddSetURI();
+		final String deleteSetURI = draft.getDeleteSetURI();
+		batch.addPostCommitAction(new Runnable() {
+			@Override
+			public void run() {
+				index.addRevision(revisionUri, revisionNumber, addSetURI, deleteSetURI, revUriOld);
+			}
+		});
 
-		// Move branch to new revision
+		// Move branch to new revision (the branch references the revision the new one is derived from)
 		String branchIdentifier = draft.getDerivedFromIdentifier(); //or revisionNumber //TODO
-		String oldRevisionUri = draft.getRevisionGraph().getRevisionUri(branchIdentifier);
-
-		String queryBranch = Config.prefixes + String.format(""
-						+ "SELECT ?branch "
-						+ "WHERE { GRAPH <%s> {"
-						+ "	?branch a rmo:Branch; "
-						+ "		rmo:references <%s>."
-						+ "	{?branch rdfs:label \"%s\"} UNION {<%s> rmo:revisionNumber \"%s\"}"
-						+ "} }",
-				draft.getRevisionGraph().getRevisionGraphUri(), oldRevisionUri, branchIdentifier, oldRevisionUri,
-				branchIdentifier);
-		QuerySolution sol = getTripleStoreInterface().executeSelectQuery(queryBranch).next();
-		String branchName = sol.getResource("?branch").toString();
-		moveBranchReference(draft.getRevisionGraph().getRevisionGraphUri(), branchName, oldRevisionUri, revisionUri);
-
-		Revision newRevision = new Revision(draft.getRevisionGraph(), draft.getNewRevisionIdentifier(), revisionUri, draft.getAddSetURI(), draft.getDeleteSetURI());
-		newRevision.getDerivedFromRevision();
-
-		return new UpdateCommit(draft.getRevisionGraph(), commitUri, getUser(), getTimeStamp(), getMessage(), newRevision.getDerivedFromRevision(), newRevision);
+		String branchName = index.getBranchURIs(branchIdentifier).get(0);
+		moveBranchReference(batch, draft.getRevisionGraph().getRevisionGraphUri(), branchName, revUriOld, revisionUri);
+
+		Revision newRevision = new Revision(draft.getRevisionGraph(), revisionNumber, revisionUri, addSetURI, deleteSetURI);
+
+		return new UpdateCommit(draft.getRevisionGraph(), commitUri, getUser(), getTimeStamp(), getMessage(), draft.getDerivedFromRevision(), newRevision);
 	}
 
 	/**
@@ -124,17 +124,9 @@ public class Reference {
      */
     private String calculateReferenceURI(String referenceIdentifier) throws InternalErrorException {
         logger.info("Calculate the branch URI for current branch " + referenceIdentifier + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?uri "
-                + "WHERE { GRAPH  <%s> {"
-                + "	?uri a rmo:Reference; "
-                + "	 rdfs:label \"%s\". "
-                + "} }", revisionGraphURI, referenceIdentifier);
-        this.logger.debug(query);
-        ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            return qs.getResource("?uri").toString();
+        String uri = revisionGraph.getIndex().getReferenceURI(referenceIdentifier);
+        if (uri != null) {
+            return uri;
         } else {
             throw new InternalErrorException("No reference URI found for reference " + referenceIdentifier + ".");
         }
@@ -149,17 +141,9 @@ public class Reference {
      */
     private String calculateReferenceIdentifier(String referenceURI) throws InternalErrorException {
         logger.info("Calculate the reference identifier for current branch URI " + referenceURI + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?id "
-                + "WHERE { GRAPH  <%s> {"
-                + "	<%s> a rmo:Branch; "
-                + "	 rdfs:label ?id. "
-                + "} }", revisionGraphURI, referenceURI);
-        this.logger.debug(query);
-        ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            return qs.getLiteral("?id").toString();
+        String id = revisionGraph.getIndex().getBranchLabel(referenceURI);
+        if (id != null) {
+            return id;
         } else {
             throw new InternalErrorException("No reference identifier found for reference URI " + referenceURI + ".");
         }
@@ -5,6 +5,7 @@ import com.hp.hpl.jena.query.ResultSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.iohelper.JenaModelManagement;
 import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterface;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import org.apache.log4j.Logger;
@@ -99,17 +100,16 @@ public class Revision {
     public Revision getDerivedFromRevision() throws InternalErrorException {
         //TODO merged revisions will have two derived from revisions
         logger.info("Get derived from revision of revision " + revisionIdentifier + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?rev "
-                + "WHERE { GRAPH  <%s> {"
-                + "	<%s> prov:wasDerivedFrom ?rev. "
-                + "	?rev a rmo:Revision. "
-                + "} }", revisionGraphURI, revisionURI);
-        this.logger.debug(query);
-        ResultSet resultSet = tripleStoreInterface.executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            return new Revision(revisionGraph, qs.getResource("?rev").toString(), false);
+        RevisionGraphIndex index = revisionGraph.getIndex();
+        String derivedFromURI = null;
+        for (String uri : index.getDerivedFrom(revisionURI)) {
+            if (index.isRevision(uri)) {
+                derivedFromURI = uri;
+                break;
+            }
+        }
+        if (derivedFromURI != null) {
+            return new Revision(revisionGraph, derivedFromURI, false);
         } else {
             throw new InternalErrorException("No derived from revision found for revision " + revisionIdentifier + ".");
         }
@@ -241,19 +241,12 @@ public class Revision {
      */
     private void calculateAdditionalInformation() throws InternalErrorException {
         logger.info("Get additional information of current revision " + revisionIdentifier + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?addSetURI ?deleteSetURI "
-                + "WHERE { GRAPH  <%s> {"
-                + "	<%s> a rmo:Revision; "
-                + "	 rmo:addSet ?addSetURI; "
-                + "  rmo:deleteSet ?deleteSetURI. "
-                + "} }", revisionGraphURI, revisionURI);
-        this.logger.debug(query);
-        ResultSet resultSet = tripleStoreInterface.executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            addSetURI = qs.getResource("?addSetURI").toString();
-            deleteSetURI = qs.getResource("?deleteSetURI").toString();
+        RevisionGraphIndex index = revisionGraph.getIndex();
+        String addSet = index.getAddSetURI(revisionURI);
+        String deleteSet = index.getDeleteSetURI(revisionURI);
+        if (index.isRevision(revisionURI) && (addSet != null) && (deleteSet != null)) {
+            addSetURI = addSet;
+            deleteSetURI = deleteSet;
         } else {
             //TODO Check if add and delete sets are optional for first revision
 //            throw new InternalErrorException("No additional information found for revision " + revisionIdentifier + ".");
@@ -269,17 +262,9 @@ public class Revision {
      */
     private String calculateRevisionURI(String revisionIdentifier) throws InternalErrorException {
         logger.info("Calculate the revision URI for current revision " + revisionIdentifier + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?uri "
-                + "WHERE { GRAPH  <%s> {"
-                + "	?uri a rmo:Revision; "
-                + "	 rmo:revisionNumber \"%s\". "
-                + "} }", revisionGraphURI, revisionIdentifier);
-        this.logger.debug(query);
-        ResultSet resultSet = tripleStoreInterface.executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            return qs.getResource("?uri").toString();
+        String uri = revisionGraph.getIndex().getRevisionURIOfNumber(revisionIdentifier);
+        if (uri != null) {
+            return uri;
         } else {
             throw new InternalErrorException("No revision URI found for revision " + revisionIdentifier + ".");
         }
@@ -294,17 +279,9 @@ public class Revision {
      */
     private String calculateRevisionIdentifier(String revisionURI) throws InternalErrorException {
         logger.info("Calculate the revision identifier for current revision URI " + revisionURI + ".");
-        String query = Config.prefixes + String.format(""
-                + "SELECT ?id "
-                + "WHERE { GRAPH  <%s> {"
-                + "	<%s> a rmo:Revision; "
-                + "	 rmo:revisionNumber ?id. "
-                + "} }", revisionGraphURI, revisionURI);
-        this.logger.debug(query);
-        ResultSet resultSet = tripleStoreInterface.executeSelectQuery(query);
-        if (resultSet.hasNext()) {
-            QuerySolution qs = resultSet.next();
-            return qs.getLiteral("?id").toString();
+        String id = revisionGraph.getIndex().getRevisionNumber(revisionURI);
+        if (id != null) {
+            return id;
         } else {
             throw new InternalErrorException("No revision identifier found for revision URI " + revisionURI + ".");
         }
@@ -3,12 +3,21 @@ package de.tud.plt.r43ples.existentobjects;
 import com.hp.hpl.jena.query.QuerySolution;
 import com.hp.hpl.jena.query.ResultSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.QueryResultCache;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+import de.tud.plt.r43ples.optimization.RevisionNumberAllocator;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 
 /**
  * The class RevisionGraph provides functionality for one named graph which is managed by R43ples
@@ -71,6 +80,9 @@ public class RevisionGraph {
 	 * @return uri of the revision graph for this graph
 	 */
 	public String getRevisionGraphUri() {
+		if (revisionGraphURI == null) {
+			revisionGraphURI = RevisionGraphIndex.getRevisionGraphURI(graphName);
+		}
 		if (revisionGraphURI == null) {
 			String query = String.format(
 					"SELECT ?revisionGraph "
@@ -83,6 +95,7 @@ public class RevisionGraph {
 			if (results.hasNext()) {
 				QuerySolution qs = results.next();
 				revisionGraphURI = qs.getResource("?revisionGraph").toString();
+				RevisionGraphIndex.registerRevisionGraphURI(graphName, revisionGraphURI);
 			} else {
 				return null;
 			}
@@ -91,6 +104,15 @@ public class RevisionGraph {
 		return revisionGraphURI;
 	}
 
+	/**
+	 * Get the in-memory index of this revision graph which answers the revision and reference lookups.
+	 *
+	 * @return the revision graph index
+	 */
+	public RevisionGraphIndex getIndex() {
+		return RevisionGraphIndex.getInstance(this.getRevisionGraphUri());
+	}
+
 	/**
 	 * Checks if the graph has a branch with the given identifier
 	 * 
@@ -99,15 +121,7 @@ public class RevisionGraph {
 	 * @return true if specified revision of the graph is a branch
 	 */
 	public boolean hasBranch(final String identifier) {
-		String revisionGraph = this.getRevisionGraphUri();
-		String queryASK = Config.prefixes
-				+ String.format(""
-						+ "ASK { GRAPH <%s> { " 
-						+ " ?rev a rmo:Revision. "
-						+ " ?ref a rmo:Reference; rmo:references ?rev ."
-						+ " { ?rev rmo:revisionNumber \"%s\"} UNION { ?ref rdfs:label \"%s\"} }} ",
-						revisionGraph, identifier, identifier);
-		return TripleStoreInterfaceSingleton.get().executeAskQuery(queryASK);
+		return this.getIndex().hasBranch(identifier);
 	}
 	
 	
@@ -119,16 +133,14 @@ public class RevisionGraph {
 	 * @return true when branch already exists elsewhere false
 	 */
 	public boolean hasReference(final String referenceName) {
-		String revisionGraph = this.getRevisionGraphUri();
-		String queryASK = Config.prefixes
-				+ String.format("ASK { GRAPH <%s> { ?ref a rmo:Reference; rdfs:label \"%s\".  }} ",
-						revisionGraph, referenceName);
-		return TripleStoreInterfaceSingleton.get().executeAskQuery(queryASK);
+		return this.getIndex().hasReference(referenceName);
 	}
 	
 	/**
 	 * Get the graph URI containing the full copy of a reference for a given
-	 * reference name or revision number
+	 * reference name or revision number. For a branch which shares the full graph of its base
+	 * (see {@link BranchOverlay}) this is the base graph, the overlay graphs of the branch have to be
+	 * applied by the caller.
 	 * 
 	 * @param referenceIdentifier
 	 *            reference name or revision number
@@ -136,21 +148,21 @@ public class RevisionGraph {
 	 * @throws InternalErrorException 
 	 */
 	public String getReferenceGraph(final String referenceIdentifier) throws InternalErrorException {
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes + String.format("" 
-				+ "SELECT ?graph " 
-				+ "WHERE { GRAPH  <%s> {" 
-				+ "	?ref a rmo:Reference; "
-				+ "		rmo:references ?rev;" 
-				+ "		rmo:fullGraph ?graph."
-				+ " ?rev a rmo:Revision."
-				+ "	{?ref rdfs:label \"%s\"} UNION {?rev rmo:revisionNumber \"%s\"}" 
-				+ "} }", revisionGraph, referenceIdentifier, referenceIdentifier);
-		this.logger.debug(query);
-		ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		if (resultSet.hasNext()) {
-			QuerySolution qs = resultSet.next();
-			return qs.getResource("?graph").toString();
+		return getFullGraphUri(getContentReferenceUri(referenceIdentifier));
+	}
+	
+	/**
+	 * Get the URI of the reference which provides the content for a given reference name or revision number.
+	 * 
+	 * @param referenceIdentifier
+	 *            reference name or revision number
+	 * @return URI of the reference
+	 * @throws InternalErrorException 
+	 */
+	public String getContentReferenceUri(final String referenceIdentifier) throws InternalErrorException {
+		String referenceURI = this.getIndex().getContentReferenceURI(referenceIdentifier);
+		if (referenceURI != null) {
+			return referenceURI;
 		} else {
 			throw new InternalErrorException("No reference graph found for graph <"+graphName+"> and identifier \""+ referenceIdentifier+"\"");
 		}
@@ -165,17 +177,9 @@ public class RevisionGraph {
 	public Revision getMasterRevision() throws InternalErrorException{
         logger.info("Get MASTER revision of graph " + graphName);
 
-		String revisionGraph = this.getRevisionGraphUri();
-		String queryString = Config.prefixes + String.format(""
-				+ "SELECT ?revisionNumber "
-				+ "WHERE { GRAPH <%s> {"
-				+ "	?master a rmo:Master; rmo:references ?revision . "
-				+ " ?revision rmo:revisionNumber ?revisionNumber ."
-				+ "} }", revisionGraph);
-		ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(queryString);
-		if (results.hasNext()){
-			QuerySolution qs = results.next();
-			return this.getRevision(qs.getLiteral("?revisionNumber").toString());
+		String revisionNumber = this.getIndex().getMasterRevisionNumber();
+		if (revisionNumber != null){
+			return this.getRevision(revisionNumber);
 		}
 		else {
             throw new InternalErrorException("No master for graph <" + this.graphName + "> available");
@@ -184,40 +188,12 @@ public class RevisionGraph {
 	
 	/**
 	 * Returns new unique revision identifier for this graph.
+	 * Every call reserves a new number, so it has to be called once per new revision.
 	 *
 	 * @return new revision identifier
-	 * @throws InternalErrorException 
 	 */
-	public String getNextRevisionIdentifier() throws InternalErrorException {
-		//
-		int nextNumber;
-		
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes
-				+ String.format(
-					"SELECT ?nr "
-					+ "WHERE { GRAPH <%s> {"
-					+ "	?rev a rmo:Revision; rmo:revisionNumber ?nr ."
-					+ " } "
-					+ "}ORDER BY DESC(xsd:integer(?nr))", revisionGraph);
-		try {
-			ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-			QuerySolution qs = results.next();
-			nextNumber = qs.getLiteral("?nr").getInt()+1;
-		}
-		catch (Exception e){
-			nextNumber = 0;
-		}
-		
-		int count = 0;
-		while (this.hasRevisionNumber(""+nextNumber)){
-			nextNumber++;
-			count++;
-			if (count==100)
-				throw new InternalErrorException("No new revision number found");
-		}
-		
-		return ""+nextNumber;
+	public String getNextRevisionIdentifier() {
+		return "" + RevisionNumberAllocator.allocate(this);
 	}
 	
 	/**
@@ -226,40 +202,58 @@ public class RevisionGraph {
 	 * 
 	 */
 	public void purgeRevisionInformation() {
-		logger.info("Purge revision information of graph " + graphName);
-		// Drop all full graphs as well as add and delete sets which are related
-		// to specified graph
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes	+ String.format(""
-				+ "SELECT DISTINCT ?graph "
-				+ "WHERE { GRAPH <%s> {"
-				+ " {?rev rmo:addSet ?graph}" 
-				+ " UNION {?rev rmo:deleteSet ?graph}"
-				+ " UNION {?ref rmo:fullGraph ?graph}"
-				+ "} }", revisionGraph);
-				
-		ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		while (results.hasNext()) {
-			QuerySolution qs = results.next();
-			if (qs.get("?graph").isResource()) {
-					String graph = qs.getResource("graph").toString();
-					TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + graph + ">");
-					logger.debug("Graph deleted: " + graph);
+		// the revision graph is also unregistered from the global revision graph
+		CommitLock lock = CommitLockManager.getInstance().createLock().addRevisionGraph(Config.revision_graph);
+		if (this.getRevisionGraphUri() != null) {
+			lock.addRevisionGraph(this.getRevisionGraphUri());
+		}
+		lock.acquire();
+		try {
+			logger.info("Purge revision information of graph " + graphName);
+			// Drop all full graphs as well as add and delete sets which are related
+			// to specified graph
+			String revisionGraph = this.getRevisionGraphUri();
+			String query = Config.prefixes	+ String.format(""
+					+ "SELECT DISTINCT ?graph "
+					+ "WHERE { { GRAPH <%s> {"
+					+ " {?rev rmo:addSet ?graph}" 
+					+ " UNION {?rev rmo:deleteSet ?graph}"
+					+ " UNION {?ref rmo:fullGraph ?graph}"
+					+ "} } UNION { GRAPH <%s> {"
+					+ " {?ref rmo:overlayAddSet ?graph}"
+					+ " UNION {?ref rmo:overlayDeleteSet ?graph}"
+					+ "} } }", revisionGraph, BranchOverlay.getOverlayGraphURI(revisionGraph));
+
+			ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+			while (results.hasNext()) {
+				QuerySolution qs = results.next();
+				if (qs.get("?graph").isResource()) {
+						String graph = qs.getResource("graph").toString();
+						TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + graph + ">");
+						logger.debug("Graph deleted: " + graph);
+				}
 			}
+			TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", revisionGraph));
+			TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", BranchOverlay.getOverlayGraphURI(revisionGraph)));
+
+			// Remove information from revision graph
+			String queryDelete = Config.prefixes + String.format(
+						   	"DELETE { "
+							+ "GRAPH <%s> {	<%s> ?p ?o.}"
+							+ "}" 
+							+ "WHERE {"
+							+ "	GRAPH <%s> { <%s> a rmo:Graph; ?p ?o.}" 
+							+ "}"
+							, Config.revision_graph, graphName, Config.revision_graph, graphName);
+
+			TripleStoreInterfaceSingleton.get().executeUpdateQuery(queryDelete);
+			RevisionGraphIndex.invalidate(revisionGraph);
+			RevisionNumberAllocator.reset(graphName);
+			MaterializedRevisionCache.getInstance().invalidate(graphName);
+			QueryResultCache.getInstance().invalidate(graphName);
+		} finally {
+			lock.release();
 		}
-		TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", revisionGraph));
-		
-		// Remove information from revision graph
-		String queryDelete = Config.prefixes + String.format(
-					   	"DELETE { "
-						+ "GRAPH <%s> {	<%s> ?p ?o.}"
-						+ "}" 
-						+ "WHERE {"
-						+ "	GRAPH <%s> { <%s> a rmo:Graph; ?p ?o.}" 
-						+ "}"
-						, Config.revision_graph, graphName, Config.revision_graph, graphName);
-		
-		TripleStoreInterfaceSingleton.get().executeUpdateQuery(queryDelete);
 	}
 	
 	/**
@@ -270,22 +264,7 @@ public class RevisionGraph {
 		logger.info("Get all branch names of graph "+ graphName);
 		ArrayList<String> list = new ArrayList<String>();	
 		if (graphName != null) {
-			String revisionGraph = this.getRevisionGraphUri();
-			String sparqlQuery = Config.prefixes
-					+ String.format(
-					  "SELECT DISTINCT ?label %n"
-					+ "FROM <%s> %n"
-					+ "WHERE { %n"
-					+ "	?branch a rmo:Branch ;"
-					+ "		rdfs:label ?label . "
-					+ "} %n"
-					+ "ORDER BY ?label", revisionGraph);
-			
-			ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(sparqlQuery);
-			while (results.hasNext()) {
-				QuerySolution qs = results.next();
-				list.add(qs.getLiteral("label").toString());
-			}		
+			list = this.getIndex().getAllBranchNames();
 		}
 		logger.debug("All branches: " +list);
 		return list;
@@ -301,23 +280,13 @@ public class RevisionGraph {
 	 * @throws InternalErrorException 
 	 */
 	public String getBranchUri(final String referenceIdentifier) throws InternalErrorException {
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes
-				+ String.format("SELECT ?ref " 
-						+ "WHERE { GRAPH <%s> {"
-						+ "	?ref a rmo:Branch; rmo:references ?rev."
-						+ " ?rev a rmo:Revision."
-						+ "	{?rev rmo:revisionNumber \"%s\".} UNION {?ref rdfs:label \"%s\" .}"
-						+ "} }",
-						revisionGraph, referenceIdentifier, referenceIdentifier);
-		ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		if (resultSet.hasNext()) {
-			QuerySolution qs = resultSet.next();
-			if (resultSet.hasNext()) {
+		List<String> branches = this.getIndex().getBranchURIs(referenceIdentifier);
+		if (!branches.isEmpty()) {
+			if (branches.size() > 1) {
 				throw new InternalErrorException("Identifier is not unique for specified graph name: "
 						+ referenceIdentifier);
 			}
-			return qs.getResource("?ref").toString();
+			return branches.get(0);
 		} else {
 			throw new InternalErrorException("No Revision or Reference found with identifier: "
 					+ referenceIdentifier);
@@ -345,21 +314,13 @@ public class RevisionGraph {
 	 * @throws InternalErrorException 
 	 */
 	public String getRevisionUri(final String revisionIdentifier) throws InternalErrorException {
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes
-				+ String.format(
-						"SELECT ?rev WHERE { GRAPH <%s> {"
-							+ "{?rev a rmo:Revision; rmo:revisionNumber \"%s\" .}"
-							+ "UNION {?rev a rmo:Revision. ?ref a rmo:Reference; rmo:references ?rev; rdfs:label \"%s\" .}"
-							+ "} }", revisionGraph, revisionIdentifier, revisionIdentifier);
-		ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		if (resultSet.hasNext()) {
-			QuerySolution qs = resultSet.next();
-			if (resultSet.hasNext()) {
+		List<String> revisions = this.getIndex().getRevisionURIs(revisionIdentifier);
+		if (!revisions.isEmpty()) {
+			if (revisions.size() > 1) {
 				logger.error("Identifier not unique: " + revisionIdentifier);
 				throw new InternalErrorException("Identifier not unique: " + revisionIdentifier);
 			}
-			return qs.getResource("?rev").toString();
+			return revisions.get(0);
 		} else {
 			logger.error("No Revision or Reference found with identifier: " + revisionIdentifier);
 			throw new InternalErrorException("No Revision or Reference found with identifier: "
@@ -390,68 +351,68 @@ public class RevisionGraph {
 	 * @throws InternalErrorException 
 	 */
 	public String getRevisionIdentifier(final String identifier) throws InternalErrorException {
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = Config.prefixes + String.format(""
-				+ "SELECT ?revNumber WHERE { GRAPH <%s> {"
-				+ "	?rev a rmo:Revision; rmo:revisionNumber ?revNumber."
-				+ "	{?rev rmo:revisionNumber \"%s\".} UNION {?ref a rmo:Reference; rmo:references ?rev; rdfs:label \"%s\".}"
-				+ "} }", 
-				revisionGraph, identifier, identifier);
-		ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		if (resultSet.hasNext()) {
-			QuerySolution qs = resultSet.next();
-			if (resultSet.hasNext()) {
+		List<String> revisions = this.getIndex().getRevisionURIs(identifier);
+		if (!revisions.isEmpty()) {
+			if (revisions.size() > 1) {
 				throw new InternalErrorException("Identifier not unique: " + identifier);
 			}
-			return qs.getLiteral("?revNumber").toString();
+			return this.getIndex().getRevisionNumber(revisions.get(0));
 		} else {
 			throw new InternalErrorException("No Revision or Reference found with identifier: "
 					+ identifier);
 		}
 	}
 
-		
+
+	/**
+	 * Get the revision number the specified reference pointed to at the specified point in time
+	 * 
+	 * @param referenceName
+	 *            name of the reference
+	 * @param time
+	 *            point in time
+	 * @return revision number
+	 * @throws InternalErrorException
+	 */
+	public String getRevisionIdentifierAtTime(final String referenceName, final Date time) throws InternalErrorException {
+		String referenceURI = this.getIndex().getReferenceURI(referenceName);
+		if (referenceURI == null) {
+			throw new InternalErrorException("No Reference found with name: " + referenceName);
+		}
+		String revisionURI = this.getIndex().getRevisionURIAtTime(referenceURI, time.getTime());
+		if (revisionURI == null) {
+			throw new InternalErrorException("No revision of reference " + referenceName + " exists at " + time);
+		}
+		return this.getIndex().getRevisionNumber(revisionURI);
+	}
+
 	/**
-	 * checks whether the revision number already exist
-	 * @param revisionNumber
-	 * @return boolean*/
-
-	private boolean hasRevisionNumber(final String revisionNumber) {
-		String revisionGraph = this.getRevisionGraphUri();
-		String queryASK = Config.prefixes
-				+ String.format(""
-						+ "ASK {"
-						+ "	GRAPH <%1$s> { " 
-						+ " 	{ ?rev a rmo:Revision; rmo:revisionNumber \"%2$s\". }"
-						+ "		UNION "
-						+ "		{?rev a rmo:Revision. ?ref a rmo:Reference; rmo:references ?rev; rdfs:label \"%2$s\" .}"
-						+ "} } ",
-						revisionGraph, revisionNumber);
-		return TripleStoreInterfaceSingleton.get().executeAskQuery(queryASK);
+	 * Get the time of the commit which generated the specified revision
+	 * 
+	 * @param revisionIdentifier
+	 *            revision number
+	 * @return time of the commit or null if it is not known
+	 * @throws InternalErrorException
+	 */
+	public Date getRevisionTime(final String revisionIdentifier) throws InternalErrorException {
+		Long time = this.getIndex().getRevisionTime(this.getRevisionUri(revisionIdentifier));
+		return (time != null) ? new Date(time) : null;
 	}
-	
+
+
 	/**
-	 * Get the URI of the full graph of the specified branch if it exists. Otherwise return null
+	 * Get the URI of the full graph of the specified branch if it exists. Otherwise return null.
+	 * For a branch which shares the full graph of its base the base graph is returned.
 
 	 * @param branchURI
 	 * @return URI of the full graph
 	 */
 	public String getFullGraphUri(final String branchURI) {
-		String revisionGraph = this.getRevisionGraphUri();
-		String query = String.format(
-				  "SELECT ?fullGraphURI %n"
-			    + "WHERE { GRAPH <%s> {%n"
-				+ "	<%s> <http://eatld.et.tu-dresden.de/rmo#fullGraph> ?fullGraphURI . %n"
-				+ "} }", revisionGraph, branchURI);
-			
-		ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
-		
-		if (results.hasNext()) {
-			QuerySolution qs = results.next();
-			return qs.getResource("?fullGraphURI").toString();
-		} else {
-			return null;
+		RevisionGraphIndex index = this.getIndex();
+		if (index.isOverlay(branchURI)) {
+			return index.getBaseGraphURI(branchURI);
 		}
+		return index.getFullGraphURI(branchURI);
 	}
 	
 	
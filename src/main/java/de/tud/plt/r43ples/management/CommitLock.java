@@ -0,0 +1,162 @@
+package de.tud.plt.r43ples.management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+
+
+/**
+ * The set of locks one commit holds while it reads the current heads and writes its changes.
+ *
+ * The revision graphs and branches are added first. {@link #acquire()} then locks all of them at once in a global
+ * order (revision graph URI, graph lock, stripe index) so that commits on several graphs can not deadlock. The locks
+ * are reentrant, so a thread which already holds a commit lock can acquire a lock on the same graphs again.
+ *
+ * <pre>
+ * CommitLock lock = CommitLockManager.getInstance().createLock().addBranch(revisionGraphURI, branchURI);
+ * lock.acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     lock.release();
+ * }
+ * </pre>
+ */
+public class CommitLock {
+
+	/** The commit lock manager. **/
+	private final CommitLockManager manager;
+	/** The branches which are changed (key: revision graph URI; value: branch URIs). **/
+	private final TreeMap<String, TreeSet<String>> branches = new TreeMap<>();
+	/** The revision graphs whose structure is changed. **/
+	private final TreeSet<String> revisionGraphs = new TreeSet<>();
+	/** The locks which are currently held in order of acquisition. **/
+	private final List<Lock> heldLocks = new ArrayList<>();
+
+
+	/**
+	 * The constructor.
+	 *
+	 * @param manager the commit lock manager
+	 */
+	protected CommitLock(final CommitLockManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * Adds a branch which is moved by the commit.
+	 *
+	 * @param revisionGraphURI the revision graph URI
+	 * @param branchURI the branch URI
+	 * @return this commit lock
+	 */
+	public CommitLock addBranch(final String revisionGraphURI, final String branchURI) {
+		TreeSet<String> branchURIs = branches.get(revisionGraphURI);
+		if (branchURIs == null) {
+			branchURIs = new TreeSet<>();
+			branches.put(revisionGraphURI, branchURIs);
+		}
+		branchURIs.add(branchURI);
+		return this;
+	}
+
+	/**
+	 * Adds a revision graph which is changed exclusively by the commit.
+	 *
+	 * @param revisionGraphURI the revision graph URI
+	 * @return this commit lock
+	 */
+	public CommitLock addRevisionGraph(final String revisionGraphURI) {
+		revisionGraphs.add(revisionGraphURI);
+		return this;
+	}
+
+	/**
+	 * Acquires all locks. Blocks until no other commit holds a conflicting lock.
+	 */
+	public void acquire() {
+		TreeSet<String> revisionGraphURIs = new TreeSet<>(revisionGraphs);
+		revisionGraphURIs.addAll(branches.keySet());
+
+		long start = System.nanoTime();
+		boolean contended = false;
+		CommitLockManager.GraphLock contendedGraphLock = null;
+		boolean acquired = false;
+		while (!acquired) {
+			acquired = true;
+			for (String revisionGraphURI : revisionGraphURIs) {
+				CommitLockManager.GraphLock graphLock = manager.getGraphLock(revisionGraphURI);
+				if (revisionGraphs.contains(revisionGraphURI)) {
+					if (lock(graphLock.getLock().writeLock())) {
+						contended = true;
+						contendedGraphLock = graphLock;
+					}
+					continue;
+				}
+
+				if (lock(graphLock.getLock().readLock())) {
+					contended = true;
+					contendedGraphLock = graphLock;
+				}
+				TreeSet<Integer> stripeIndexes = getStripeIndexes(graphLock, branches.get(revisionGraphURI));
+				for (int stripeIndex : stripeIndexes) {
+					if (lock(graphLock.getStripe(stripeIndex))) {
+						contended = true;
+						contendedGraphLock = graphLock;
+					}
+				}
+				// a branch could have been materialized while waiting for its stripe
+				if (!stripeIndexes.equals(getStripeIndexes(graphLock, branches.get(revisionGraphURI)))) {
+					release();
+					acquired = false;
+					break;
+				}
+			}
+		}
+		manager.recordWait(contendedGraphLock, System.nanoTime() - start, contended);
+	}
+
+	/**
+	 * Releases all held locks.
+	 */
+	public void release() {
+		for (int i = heldLocks.size() - 1; i >= 0; i--) {
+			heldLocks.get(i).unlock();
+		}
+		heldLocks.clear();
+	}
+
+	/**
+	 * Locks the specified lock and remembers it for the release.
+	 *
+	 * @param lock the lock
+	 * @return true if the lock was held by another thread
+	 */
+	private boolean lock(final Lock lock) {
+		boolean contended = false;
+		if (!lock.tryLock()) {
+			contended = true;
+			lock.lock();
+		}
+		heldLocks.add(lock);
+		return contended;
+	}
+
+	/**
+	 * Get the stripe indexes of the specified branches in ascending order.
+	 *
+	 * @param graphLock the lock of the revision graph
+	 * @param branchURIs the branch URIs
+	 * @return the stripe indexes
+	 */
+	private TreeSet<Integer> getStripeIndexes(final CommitLockManager.GraphLock graphLock, final TreeSet<String> branchURIs) {
+		TreeSet<Integer> stripeIndexes = new TreeSet<>();
+		for (String branchURI : branchURIs) {
+			stripeIndexes.add(graphLock.getStripeIndex(branchURI));
+		}
+		return stripeIndexes;
+	}
+
+}
@@ -0,0 +1,223 @@
+package de.tud.plt.r43ples.management;
+
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+
+
+/**
+ * Manages the write locks of the commit pipeline.
+ *
+ * Every revision graph has a read-write lock and a fixed number of lock stripes (configuration key
+ * commit.lock.stripes). Commits which only move branches hold the read lock of the revision graph and the stripes of
+ * their branches. Commits on different graphs or on branches which map to different stripes therefore run in
+ * parallel while commits on the same branch are serialized. Commits which change the structure of a revision graph
+ * (new references, merges, picks, purges) hold its write lock.
+ *
+ * Branches which share the full graph of their base are mapped to the stripe of the base because commits on the base
+ * rebase their overlays.
+ *
+ * The time commits wait for their locks is recorded in total and per revision graph.
+ */
+public class CommitLockManager {
+
+	/** The logger. **/
+	private static Logger logger = Logger.getLogger(CommitLockManager.class);
+
+	/** The singleton instance. **/
+	private static CommitLockManager instance;
+
+	/** The locks of the revision graphs (key: revision graph URI). **/
+	private final HashMap<String, GraphLock> graphLocks = new HashMap<>();
+
+	/** The number of acquired commit locks. **/
+	private long acquisitions = 0;
+	/** The number of acquired commit locks which had to wait for another commit. **/
+	private long contendedAcquisitions = 0;
+	/** The total wait time of all commit locks in nanoseconds. **/
+	private long waitNanos = 0;
+	/** The maximum wait time of a commit lock in nanoseconds. **/
+	private long maxWaitNanos = 0;
+
+
+	/**
+	 * The constructor.
+	 */
+	private CommitLockManager() {
+
+	}
+
+	/**
+	 * Get the instance of the commit lock manager.
+	 *
+	 * @return the instance
+	 */
+	public static synchronized CommitLockManager getInstance() {
+		if (instance == null) {
+			instance = new CommitLockManager();
+		}
+		return instance;
+	}
+
+	/**
+	 * Creates a new commit lock. The locks of the commit have to be added before it is acquired.
+	 *
+	 * @return the commit lock
+	 */
+	public CommitLock createLock() {
+		return new CommitLock(this);
+	}
+
+	/**
+	 * Get the lock of the specified revision graph.
+	 *
+	 * @param revisionGraphURI the revision graph URI
+	 * @return the lock of the revision graph
+	 */
+	protected synchronized GraphLock getGraphLock(final String revisionGraphURI) {
+		GraphLock graphLock = graphLocks.get(revisionGraphURI);
+		if (graphLock == null) {
+			graphLock = new GraphLock(revisionGraphURI, Math.max(1, Config.commit_lock_stripes));
+			graphLocks.put(revisionGraphURI, graphLock);
+		}
+		return graphLock;
+	}
+
+	/**
+	 * Records the wait time of an acquired commit lock.
+	 *
+	 * @param graphLock the lock of the revision graph the commit waited for or null
+	 * @param nanos the wait time in nanoseconds
+	 * @param contended states if the commit had to wait for another commit
+	 */
+	protected synchronized void recordWait(final GraphLock graphLock, final long nanos, final boolean contended) {
+		acquisitions++;
+		waitNanos += nanos;
+		maxWaitNanos = Math.max(maxWaitNanos, nanos);
+		if (contended) {
+			contendedAcquisitions++;
+			if (graphLock != null) {
+				graphLock.waitNanos += nanos;
+			}
+			logger.debug("Commit waited " + nanos / 1000000 + " ms for its locks");
+		}
+	}
+
+	/**
+	 * Get the number of acquired commit locks.
+	 *
+	 * @return the number of acquisitions
+	 */
+	public synchronized long getAcquisitions() {
+		return acquisitions;
+	}
+
+	/**
+	 * Get the number of acquired commit locks which had to wait for another commit.
+	 *
+	 * @return the number of contended acquisitions
+	 */
+	public synchronized long getContendedAcquisitions() {
+		return contendedAcquisitions;
+	}
+
+	/**
+	 * Get the total time commits waited for their locks.
+	 *
+	 * @return the wait time in milliseconds
+	 */
+	public synchronized long getWaitTime() {
+		return waitNanos / 1000000;
+	}
+
+	/**
+	 * Get the maximum time a commit waited for its locks.
+	 *
+	 * @return the wait time in milliseconds
+	 */
+	public synchronized long getMaxWaitTime() {
+		return maxWaitNanos / 1000000;
+	}
+
+	/**
+	 * Get the total time commits waited for locks of the specified revision graph.
+	 *
+	 * @param revisionGraphURI the revision graph URI
+	 * @return the wait time in milliseconds
+	 */
+	public synchronized long getWaitTime(final String revisionGraphURI) {
+		GraphLock graphLock = graphLocks.get(revisionGraphURI);
+		return graphLock == null ? 0 : graphLock.waitNanos / 1000000;
+	}
+
+
+	/**
+	 * The read-write lock and the lock stripes of one revision graph.
+	 */
+	protected static class GraphLock {
+
+		/** The revision graph URI. **/
+		private final String revisionGraphURI;
+		/** The lock of the revision graph. **/
+		private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+		/** The lock stripes of the branches. **/
+		private final ReentrantLock[] stripes;
+		/** The total wait time for locks of this revision graph in nanoseconds. **/
+		private long waitNanos = 0;
+
+		/**
+		 * The constructor.
+		 *
+		 * @param revisionGraphURI the revision graph URI
+		 * @param stripeCount the number of lock stripes
+		 */
+		private GraphLock(final String revisionGraphURI, final int stripeCount) {
+			this.revisionGraphURI = revisionGraphURI;
+			this.stripes = new ReentrantLock[stripeCount];
+			for (int i = 0; i < stripeCount; i++) {
+				stripes[i] = new ReentrantLock();
+			}
+		}
+
+		/**
+		 * Get the lock of the revision graph.
+		 *
+		 * @return the read-write lock
+		 */
+		protected ReentrantReadWriteLock getLock() {
+			return lock;
+		}
+
+		/**
+		 * Get the lock stripe with the specified index.
+		 *
+		 * @param index the stripe index
+		 * @return the lock stripe
+		 */
+		protected ReentrantLock getStripe(final int index) {
+			return stripes[index];
+		}
+
+		/**
+		 * Get the index of the lock stripe of a branch. Branches which share the full graph of their base use the
+		 * stripe of the base. The result can change when a branch is materialized and has to be checked again after
+		 * the stripe was locked.
+		 *
+		 * @param branchURI the branch URI
+		 * @return the stripe index
+		 */
+		protected int getStripeIndex(final String branchURI) {
+			RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+			String key = index.isOverlay(branchURI) ? index.getBaseGraphURI(branchURI) : index.getFullGraphURI(branchURI);
+			if (key == null) {
+				key = branchURI;
+			}
+			return (key.hashCode() & Integer.MAX_VALUE) % stripes.length;
+		}
+	}
+
+}
@@ -26,6 +26,14 @@ public class Config {
 	public static String triplestore_url;
 	public static String triplestore_user;
 	public static String triplestore_password;
+	/** The update endpoint of a http triplestore (defaults to triplestore_url). **/
+	public static String triplestore_update_url;
+	/** The maximum number of pooled connections per route to a http triplestore. **/
+	public static int triplestore_http_maxConnectionsPerRoute;
+	/** The connect timeout for a http triplestore in milliseconds. **/
+	public static int triplestore_http_connectTimeout;
+	/** The socket timeout for a http triplestore in milliseconds (0 means infinite). **/
+	public static int triplestore_http_socketTimeout;
 	
 	
 	// Service settings
@@ -49,6 +57,36 @@ public class Config {
 	public static String sdd_graph;
 	/** The path to the SDD graph default content. **/
 	public static String sdd_graph_defaultContent;
+	/** The maximum number of triples of all cached full graphs of revisions (0 disables the cache). **/
+	public static long revision_cache_maxTriples;
+	/** The maximum number of triples in the overlay of a branch which shares the full graph of its base before it is materialized (0 materializes every new branch). **/
+	public static long branch_overlay_maxTriples;
+	/** The maximum number of commits on the base which rebase the overlay of a branch before it is materialized. **/
+	public static int branch_overlay_maxRebases;
+	/** The number of lock stripes per revision graph which serialize commits on the same branch. **/
+	public static int commit_lock_stripes;
+	/** The time in milliseconds a group commit waits for further data updates of the same branch (0 disables group commits). **/
+	public static long commit_group_window;
+	/** The maximum number of data updates which are written by one group commit. **/
+	public static int commit_group_maxSize;
+	/** The number of threads which execute asynchronous commits. **/
+	public static int commit_async_threads;
+	/** The maximum number of asynchronous commit jobs which are queued or kept for status requests. **/
+	public static int commit_async_maxJobs;
+	/** The number of triples of a bulk upload which are written to the triplestore at once. **/
+	public static int upload_chunkSize;
+	/** The maximum number of bulk uploads which are open or kept for status requests. **/
+	public static int upload_maxUploads;
+	/** The rewriting mode of queries on older revisions (path or values). **/
+	public static String query_rewriting_mode;
+	/** The maximum number of cached rewritten queries (0 disables the cache). **/
+	public static int query_cache_maxEntries;
+	/** The evaluation of queries on older revisions without query rewriting (delta or materialize). **/
+	public static String revision_query_engine;
+	/** The maximum number of threads which resolve the revisions of a query concurrently (1 resolves them one after another). **/
+	public static int revision_resolution_threads;
+	/** The maximum number of bytes of all cached results of queries which are pinned to revision numbers (0 disables the cache). **/
+	public static long query_result_cache_maxBytes;
 	
 	
 	public static HashMap<String, String> user_defined_prefixes = new HashMap<String, String>();
@@ -73,6 +111,10 @@ public class Config {
 			triplestore_url = config.getString("triplestore.url");
 			triplestore_user = config.getString("triplestore.user");
 			triplestore_password = config.getString("triplestore.password");
+			triplestore_update_url = config.getString("triplestore.update.url", triplestore_url);
+			triplestore_http_maxConnectionsPerRoute = config.getInt("triplestore.http.maxConnectionsPerRoute", 20);
+			triplestore_http_connectTimeout = config.getInt("triplestore.http.connectTimeout", 10000);
+			triplestore_http_socketTimeout = config.getInt("triplestore.http.socketTimeout", 300000);
 			
 			service_host = config.getString("service.host");
 			service_port = config.getInt("service.port");
@@ -86,6 +128,22 @@ public class Config {
 			sdd_graph = config.getString("sdd.graph");
 			sdd_graph_defaultContent = config.getString("sdd.graph.defaultContent");
 			
+			revision_cache_maxTriples = config.getLong("revision.cache.maxTriples", 1000000);
+			branch_overlay_maxTriples = config.getLong("branch.overlay.maxTriples", 0);
+			branch_overlay_maxRebases = config.getInt("branch.overlay.maxRebases", 10);
+			commit_lock_stripes = config.getInt("commit.lock.stripes", 16);
+			commit_group_window = config.getLong("commit.group.window", 0);
+			commit_group_maxSize = config.getInt("commit.group.maxSize", 100);
+			commit_async_threads = config.getInt("commit.async.threads", 2);
+			commit_async_maxJobs = config.getInt("commit.async.maxJobs", 1000);
+			upload_chunkSize = config.getInt("upload.chunkSize", 10000);
+			upload_maxUploads = config.getInt("upload.maxUploads", 100);
+			query_rewriting_mode = config.getString("query.rewriting.mode", "values");
+			query_cache_maxEntries = config.getInt("query.cache.maxEntries", 1000);
+			revision_query_engine = config.getString("revision.query.engine", "delta");
+			revision_resolution_threads = config.getInt("revision.resolution.threads", 4);
+			query_result_cache_maxBytes = config.getLong("query.result.cache.maxBytes", 67108864);
+			
 			Iterator<String> it = config.getKeys("prefix");
 			while ( it.hasNext()) {
 				String prefix = it.next();
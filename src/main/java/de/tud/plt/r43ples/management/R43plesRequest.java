@@ -1,7 +1,14 @@
 package de.tud.plt.r43ples.management;
 
+import java.util.Date;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.exception.QueryErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+
 
 /**
  * Provides information of a request received by R43ples.
@@ -40,6 +47,14 @@ public class R43plesRequest {
 	private final Pattern patternPickQuery =  Pattern.compile(
 			"PICK\\s*GRAPH\\s*<([^>]*?)>\\s*REVISION\\s*\"([^\"]*?)\"\\s*(TO\\s*REVISION\\s*\"([^\"]*?)\"\\s*)?INTO\\s*BRANCH\\s*\"([^\"]*?)\"",
 			patternModifier);
+	/** Pattern for revisions at a point in time (REVISION "master" AT "2026-01-01T00:00:00"). **/
+	private final static Pattern patternRevisionAtTime = Pattern.compile(
+			"(?<type>FROM\\s+NAMED|FROM|GRAPH)\\s*<(?<graph>[^>]*)>\\s*REVISION\\s*(\"(?<reference>[^\"]*)\"\\s*)?AT\\s*\"(?<time>[^\"]*)\"(\\^\\^(<[^>]*>|[\\w-]*:\\w+))?",
+			patternModifier);
+	/** Pattern for revisions which are specified by an identifier. **/
+	private final static Pattern patternRevision = Pattern.compile(
+			"(?<type>FROM\\s+NAMED|FROM|GRAPH)\\s*<(?<graph>[^>]*)>\\s*REVISION\\s*\"(?<revision>[^\"]*)\"",
+			patternModifier);
 	
 	/** The original query received by R43ples. **/
 	public final String query_r43ples;
@@ -49,6 +64,8 @@ public class R43plesRequest {
 	public String query_sparql;
 	/** revision information as RDF model string **/
 	public String revisionInformation = null;
+	/** The commit time of the newest revision which was resolved by its time (null if no revision was resolved). **/
+	public Date mementoDatetime = null;
 
 
     /**
@@ -78,6 +95,83 @@ public class R43plesRequest {
 		this.query_sparql = query;
 	}
 
+	/**
+	 * Resolves the revisions which are specified by a point in time to revision numbers in the SPARQL query.
+	 * A clause REVISION "branch" AT "dateTime" (the reference defaults to master) is replaced by the number of the
+	 * revision the branch pointed to at that time. If a point in time is specified (e.g. by the Accept-Datetime
+	 * header), every clause REVISION "branch" is resolved in the same way. Revision numbers are kept.
+	 *
+	 * @param datetime the point in time all references are resolved at (null only resolves the AT clauses)
+	 * @throws InternalErrorException
+	 */
+	public void resolveRevisionTimes(final Date datetime) throws InternalErrorException {
+		StringBuffer sb = new StringBuffer();
+		Matcher m = patternRevisionAtTime.matcher(query_sparql);
+		while (m.find()) {
+			String reference = (m.group("reference") != null) ? m.group("reference") : "master";
+			Long time = RevisionGraphIndex.parseDateTime(m.group("time"));
+			if (time == null) {
+				throw new QueryErrorException("Invalid date time: " + m.group("time"));
+			}
+			String revision = resolveRevisionAtTime(m.group("graph"), reference, new Date(time));
+			m.appendReplacement(sb, Matcher.quoteReplacement(
+					String.format("%s <%s> REVISION \"%s\"", m.group("type"), m.group("graph"), revision)));
+		}
+		m.appendTail(sb);
+		query_sparql = sb.toString();
+
+		if (datetime != null) {
+			sb = new StringBuffer();
+			m = patternRevision.matcher(query_sparql);
+			while (m.find()) {
+				RevisionGraph graph = new RevisionGraph(m.group("graph"));
+				String revision = m.group("revision");
+				if (!graph.hasReference(revision) || !graph.hasBranch(revision)) {
+					m.appendReplacement(sb, Matcher.quoteReplacement(m.group()));
+				} else {
+					m.appendReplacement(sb, Matcher.quoteReplacement(String.format("%s <%s> REVISION \"%s\"",
+							m.group("type"), m.group("graph"), resolveRevisionAtTime(m.group("graph"), revision, datetime))));
+				}
+			}
+			m.appendTail(sb);
+			query_sparql = sb.toString();
+		}
+	}
+
+	/**
+	 * Resolves the revision a reference pointed to at a point in time and records its commit time.
+	 *
+	 * @param graphName the graph name
+	 * @param reference the reference name
+	 * @param datetime the point in time
+	 * @return the revision number
+	 * @throws InternalErrorException
+	 */
+	private String resolveRevisionAtTime(final String graphName, final String reference, final Date datetime) throws InternalErrorException {
+		RevisionGraph graph = new RevisionGraph(graphName);
+		String revision = graph.getRevisionIdentifierAtTime(reference, datetime);
+		Date time = graph.getRevisionTime(revision);
+		if (time != null && (mementoDatetime == null || time.after(mementoDatetime))) {
+			mementoDatetime = time;
+		}
+		return revision;
+	}
+
+	/**
+	 * Resolves the revisions of a SPARQL query which are specified by a point in time to revision numbers.
+	 *
+	 * @param query the SPARQL query
+	 * @param datetime the point in time all references are resolved at (null only resolves the AT clauses)
+	 * @return the SPARQL query with revision numbers
+	 * @throws InternalErrorException
+	 * @see #resolveRevisionTimes(Date)
+	 */
+	public static String resolveRevisionTimes(final String query, final Date datetime) throws InternalErrorException {
+		R43plesRequest request = new R43plesRequest(query, null);
+		request.resolveRevisionTimes(datetime);
+		return request.query_sparql;
+	}
+
     /**
      * Test if the SPARQL query is a SELECT, ASK or CONSTRUCT query.
      *
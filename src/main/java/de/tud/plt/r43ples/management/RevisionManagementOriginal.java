@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.LinkedList;
 
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.optimization.BranchOverlay;
 import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
 import org.apache.log4j.Logger;
 
@@ -16,6 +17,7 @@ import com.hp.hpl.jena.query.ResultSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.existentobjects.Revision;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
 
 /**
  * This class provides methods for interaction with graphs.
@@ -85,9 +87,9 @@ public class RevisionManagementOriginal {
 
 		// Copy branch to temporary graph
 		String number = list.removeLast().getRevisionIdentifier();
-		TripleStoreInterfaceSingleton.get().executeUpdateQuery(
-				"COPY GRAPH <" + graph.getReferenceGraph(number) + "> TO GRAPH <"
-						+ tempGraphName + ">");
+		UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+		BranchOverlay.copyContent(batch, graph.getRevisionGraphUri(), graph.getContentReferenceUri(number), tempGraphName);
+		batch.execute();
 
 		while (!list.isEmpty()) {
 			// add- und delete-sets could be extracted from revision tree information
@@ -121,10 +123,21 @@ public class RevisionManagementOriginal {
 	 *            the data to insert as N-Triples
 	 */
 	public static void executeINSERT(final String graphName, final String dataSetAsNTriples) {
-
-		String insertQueryTemplate = "INSERT DATA { GRAPH <%s> { %s } }";
-		
-		splitAndExecuteBigQuery(graphName, dataSetAsNTriples, insertQueryTemplate);
+		UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+		executeINSERT(batch, graphName, dataSetAsNTriples);
+		batch.execute();
+	}
+	
+	/**
+	 * Add the insertion of the data into the graph to the specified update batch.
+	 * The triplestore interface decides how the data is written (e.g. split into INSERT DATA statements).
+	 * 
+	 * @param batch the update batch
+	 * @param graphName the graph name
+	 * @param dataSetAsNTriples the data to insert as N-Triples
+	 */
+	public static void executeINSERT(final UpdateBatch batch, final String graphName, final String dataSetAsNTriples) {
+		batch.insertData(graphName, dataSetAsNTriples);
 	}
 	
 	/**
@@ -134,10 +147,21 @@ public class RevisionManagementOriginal {
 	 * @param dataSetAsNTriples the data to insert as N-Triples 
 	 */
 	public static void executeDELETE(final String graphName, final String dataSetAsNTriples) {
-
-		String deleteQueryTemplate = "DELETE DATA { GRAPH <%s> { %s } }";
-		
-		splitAndExecuteBigQuery(graphName, dataSetAsNTriples, deleteQueryTemplate);
+		UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+		executeDELETE(batch, graphName, dataSetAsNTriples);
+		batch.execute();
+	}
+	
+	/**
+	 * Add the deletion of the data from the graph to the specified update batch.
+	 * The triplestore interface decides how the data is written (e.g. split into DELETE DATA statements).
+	 * 
+	 * @param batch the update batch
+	 * @param graphName the graph name
+	 * @param dataSetAsNTriples the data to delete as N-Triples 
+	 */
+	public static void executeDELETE(final UpdateBatch batch, final String graphName, final String dataSetAsNTriples) {
+		batch.deleteData(graphName, dataSetAsNTriples);
 	}
 	
 	
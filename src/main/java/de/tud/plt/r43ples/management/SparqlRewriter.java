@@ -1,13 +1,19 @@
 package de.tud.plt.r43ples.management;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
 import de.tud.plt.r43ples.optimization.PathCalculationSingleton;
+import de.tud.plt.r43ples.optimization.RevisionResolutionExecutor;
+import de.tud.plt.r43ples.optimization.RewrittenQueryCache;
 import org.apache.log4j.Logger;
 
 import com.hp.hpl.jena.graph.Node;
@@ -17,30 +23,69 @@ import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.sparql.core.TriplePath;
 import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.expr.E_BNode;
 import com.hp.hpl.jena.sparql.expr.E_Equals;
+import com.hp.hpl.jena.sparql.expr.E_Exists;
+import com.hp.hpl.jena.sparql.expr.E_LessThanOrEqual;
+import com.hp.hpl.jena.sparql.expr.E_LogicalAnd;
+import com.hp.hpl.jena.sparql.expr.E_NotExists;
 import com.hp.hpl.jena.sparql.expr.E_OneOf;
+import com.hp.hpl.jena.sparql.expr.E_Random;
+import com.hp.hpl.jena.sparql.expr.E_SameTerm;
+import com.hp.hpl.jena.sparql.expr.E_StrUUID;
+import com.hp.hpl.jena.sparql.expr.E_UUID;
 import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprFunction;
+import com.hp.hpl.jena.sparql.expr.ExprFunction1;
+import com.hp.hpl.jena.sparql.expr.ExprFunction2;
+import com.hp.hpl.jena.sparql.expr.ExprFunction3;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionN;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp;
 import com.hp.hpl.jena.sparql.expr.ExprList;
 import com.hp.hpl.jena.sparql.expr.ExprVar;
+import com.hp.hpl.jena.sparql.expr.NodeValue;
 import com.hp.hpl.jena.sparql.path.P_Link;
 import com.hp.hpl.jena.sparql.path.P_ZeroOrMore1;
 import com.hp.hpl.jena.sparql.syntax.Element;
+import com.hp.hpl.jena.sparql.syntax.ElementBind;
+import com.hp.hpl.jena.sparql.syntax.ElementData;
+import com.hp.hpl.jena.sparql.syntax.ElementExists;
 import com.hp.hpl.jena.sparql.syntax.ElementFilter;
 import com.hp.hpl.jena.sparql.syntax.ElementGroup;
 import com.hp.hpl.jena.sparql.syntax.ElementMinus;
 import com.hp.hpl.jena.sparql.syntax.ElementNamedGraph;
+import com.hp.hpl.jena.sparql.syntax.ElementNotExists;
+import com.hp.hpl.jena.sparql.syntax.ElementOptional;
 import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementSubQuery;
 import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
 import com.hp.hpl.jena.sparql.syntax.ElementUnion;
 import com.hp.hpl.jena.sparql.util.ExprUtils;
 import com.hp.hpl.jena.vocabulary.RDF;
 
 import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.exception.QueryErrorException;
 import de.tud.plt.r43ples.existentobjects.Revision;
 
 /**
  * Rewrites SPARQL queries in order to reflect old revisions.
  * 
+ * The change sets on the path from the queried revision to the next full graph are joined in one of two modes
+ * (configuration key query.rewriting.mode):
+ * <ul>
+ * <li>path: the change sets are selected in the revision graph by a prov:wasDerivedFrom* property path and filters over
+ * the revision path, which the triplestore evaluates for every triple pattern</li>
+ * <li>values: the revision path is already known when the query is rewritten, so the graphs of the change sets are
+ * bound directly by VALUES blocks together with their position on the path</li>
+ * </ul>
+ * 
+ * In mode values, every triple of a revision is matched in exactly one graph, so the rewritten query only contains
+ * DISTINCT if the original query asked for it. Mode path may join a triple in several graphs and therefore always
+ * returns distinct solutions.
+ * 
  * @author Markus Graube
  *
  */
@@ -67,119 +112,323 @@ public class SparqlRewriter {
 	private LinkedList<String> graphs = new LinkedList<String>();
 	private ExprList expression_list_revision_path = new ExprList();
 	private Expr last_revision;
+	private LinkedList<Revision> revision_path = new LinkedList<Revision>();
+	private String last_revision_full_graph;
+	/** overlay graphs of the branch at the end of the path which shares last_revision_full_graph as base graph (null if it has its own full graph) */
+	private String last_revision_overlay_add_set;
+	private String last_revision_overlay_delete_set;
+	/** references the rewritten query depends on (key: revision graph URI; value: reference URIs) */
+	private HashMap<String, HashSet<String>> references = new HashMap<String, HashSet<String>>();
+	/** resolved revisions of the query (key: graph name and revision identifier) */
+	private HashMap<String, ResolvedRevision> resolved_revisions = new HashMap<String, ResolvedRevision>();
 	private String revisionNumber;
 	private RevisionGraph graph;
+	/** true if the triple patterns of the current graph have to be rewritten to the change sets of a revision */
+	private boolean revised = false;
+	/** filter conjuncts of the enclosing groups which restrict every triple pattern that is a mandatory part of them */
+	private LinkedList<Expr> pushdown_filters = new LinkedList<Expr>();
 	
+	/**
+	 * Rewrites the query or returns the rewritten query from the {@link RewrittenQueryCache} if none of the
+	 * references it depends on moved since it was rewritten. Revisions which are specified by a point in time are
+	 * resolved to revision numbers first.
+	 * 
+	 * @param query_r43ples the R43ples query
+	 * @return the rewritten query
+	 * @throws InternalErrorException
+	 */
 	public static String rewriteQuery(final String query_r43ples) throws InternalErrorException {
+		RewrittenQueryCache cache = RewrittenQueryCache.getInstance();
+		String query_resolved = R43plesRequest.resolveRevisionTimes(query_r43ples, null);
+		String key = RewrittenQueryCache.getKey(query_resolved);
+		String query_rewritten = cache.get(key);
+		if (query_rewritten != null) {
+			logger.debug("Rewritten query taken from cache");
+			return query_rewritten;
+		}
+		long version = cache.getVersion();
 		SparqlRewriter sr = new SparqlRewriter();
-		return sr.rewrite(query_r43ples);
+		query_rewritten = sr.rewrite(query_resolved);
+		cache.put(key, query_rewritten, sr.references, version);
+		return query_rewritten;
+	}
+	
+	/**
+	 * Records a reference the rewritten query depends on.
+	 * 
+	 * @param graph the revision graph
+	 * @param referenceURI the reference URI (null is ignored)
+	 */
+	private void addReference(final RevisionGraph graph, final String referenceURI) {
+		if (referenceURI == null)
+			return;
+		HashSet<String> graphReferences = references.get(graph.getRevisionGraphUri());
+		if (graphReferences == null) {
+			graphReferences = new HashSet<String>();
+			references.put(graph.getRevisionGraphUri(), graphReferences);
+		}
+		graphReferences.add(referenceURI);
 	}
 	
 	
 	
 	/** updates last_revision and expression_list_revision_path by pulling first item of revisionNumber and graphName
 	 * 
-	 * @return false if revisionNumber is still a branch, otherwise true
+	 * @return false if revisionNumber is still a branch with its own full graph, otherwise true
 	 */
 	private boolean updateRevision() throws InternalErrorException {
 		revisionNumber = revisions.removeFirst();
 		String graphName = graphs.removeFirst();
-		graph = new RevisionGraph(graphName);
-		if (graph.hasBranch(revisionNumber))
+		ResolvedRevision resolved = resolved_revisions.get(graphName + "\n" + revisionNumber);
+		graph = resolved.graph;
+		addReference(graph, resolved.contentReferenceURI);
+		last_revision_overlay_add_set = resolved.overlayAddSetURI;
+		last_revision_overlay_delete_set = resolved.overlayDeleteSetURI;
+		if (resolved.path == null) {
+			revised = false;
 			return false;
+		}
 		else {
-			Revision revision = graph.getRevision(revisionNumber);
-			LinkedList<Revision> list = PathCalculationSingleton.getInstance().getPathToRevisionWithFullGraph(graph, revision)
-					.getRevisionPath();
+			LinkedList<Revision> list = new LinkedList<Revision>(resolved.path);
 
 			logger.debug("Path to revision: " + list.toString());
+			// the full graph of the last revision is joined by the rewritten query
+			last_revision_full_graph = resolved.fullGraphURI;
 			last_revision = ExprUtils.nodeToExpr(NodeFactory.createURI(list.getLast().getRevisionURI()));
 			list.removeFirst();
+			revision_path = list;
+			expression_list_revision_path = new ExprList();
 			for (Revision ns : list) {
 				expression_list_revision_path.add(ExprUtils.nodeToExpr(NodeFactory.createURI(ns.getRevisionURI())));
 			}
+			revised = true;
 			return true;
 		}
 	}
 	
+	/**
+	 * Resolves all revisions of the query concurrently by the {@link RevisionResolutionExecutor}. Every distinct
+	 * revision of a graph is resolved once.
+	 * 
+	 * @throws InternalErrorException
+	 */
+	private void resolveRevisions() throws InternalErrorException {
+		List<ResolvedRevision> tasks = new LinkedList<ResolvedRevision>();
+		Iterator<String> itGraphs = graphs.iterator();
+		Iterator<String> itRevisions = revisions.iterator();
+		while (itGraphs.hasNext()) {
+			String graphName = itGraphs.next();
+			String revisionNumber = itRevisions.next();
+			String key = graphName + "\n" + revisionNumber;
+			if (!resolved_revisions.containsKey(key)) {
+				ResolvedRevision resolved = new ResolvedRevision(graphName, revisionNumber);
+				resolved_revisions.put(key, resolved);
+				tasks.add(resolved);
+			}
+		}
+		RevisionResolutionExecutor.getInstance().invokeAll(tasks);
+	}
+	
+	/**
+	 * Rewrites an R43ples query into a SPARQL query on the full graphs and change sets of the revision graphs.
+	 * 
+	 * Revisions can be specified by GRAPH, FROM and FROM NAMED clauses. A FROM clause with a revision makes the
+	 * revision the default graph of the query, a FROM NAMED clause with a revision is used by all GRAPH clauses of the
+	 * graph which do not specify a revision themselves.
+	 * 
+	 * @param r43ples_query the R43ples query
+	 * @return the rewritten query
+	 * @throws InternalErrorException
+	 */
 	public String rewrite(final String r43ples_query) throws InternalErrorException {
 		
+		final Pattern pattern0 = Pattern.compile("FROM\\s+(?<named>NAMED\\s+)?<(?<graph>[^>]*)>\\s*REVISION\\s*\"(?<revision>[^\"]*)\"", Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
 		final Pattern pattern1 = Pattern.compile("GRAPH\\s*<(?<graph>\\S*)>\\s*\\{", Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
 		final Pattern pattern2 = Pattern.compile("GRAPH\\s*<(?<graph>\\S*)>\\s*REVISION\\s*\"(?<revision>\\S*)\"", Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
-				
 		
-		Matcher m1 = pattern1.matcher(r43ples_query);
-		String query_sparql = m1.replaceAll("GRAPH <$1> REVISION \"master\" {");
+		// the dataset clauses with revisions are removed and resolved by the rewriting
+		String default_graph = null;
+		HashMap<String, String> named_graph_revisions = new HashMap<String, String>();
+		Matcher m0 = pattern0.matcher(r43ples_query);
+		StringBuffer sb = new StringBuffer();
+		while (m0.find()) {
+			String graphName = m0.group("graph");
+			String referenceName = m0.group("revision");
+			if (m0.group("named") != null) {
+				named_graph_revisions.put(graphName, referenceName);
+			} else if (default_graph != null) {
+				throw new QueryErrorException("Query rewriting supports only one FROM clause with a revision");
+			} else {
+				default_graph = graphName;
+				addRevision(graphName, referenceName);
+			}
+			m0.appendReplacement(sb, "");
+		}
+		m0.appendTail(sb);
+		
+		Matcher m1 = pattern1.matcher(sb.toString());
+		sb = new StringBuffer();
+		while (m1.find()) {
+			String graphName = m1.group("graph");
+			String referenceName = named_graph_revisions.containsKey(graphName) ? named_graph_revisions.get(graphName) : "master";
+			m1.appendReplacement(sb, Matcher.quoteReplacement("GRAPH <" + graphName + "> REVISION \"" + referenceName + "\" {"));
+		}
+		m1.appendTail(sb);
+		String query_sparql = sb.toString();
 				
 		Matcher m2 = pattern2.matcher(query_sparql);
 		
 		while (m2.find()) {
 			String graphName = m2.group("graph");
-			String referenceName = m2.group("revision").toLowerCase();
-			RevisionGraph graph = new RevisionGraph(graphName);
-			
-			String revisionNumber = graph.getRevisionIdentifier(referenceName);
-			graphs.add(graphName);
-			revisions.add(revisionNumber);
+			addRevision(graphName, m2.group("revision"));
 
-			query_sparql = m2.replaceFirst("GRAPH <"+graphName+">");
+			query_sparql = m2.replaceFirst(Matcher.quoteReplacement("GRAPH <"+graphName+">"));
 			m2 = pattern2.matcher(query_sparql);
 		}
 
+		resolveRevisions();
+
 		// creates the Query
 		Query query_new = QueryFactory.create(query_sparql);
-		Element el_orginal = query_new.getQueryPattern();
+		if (default_graph != null) {
+			// the default graph is queried as the named graph of its revision
+			query_new.setQueryPattern(new ElementNamedGraph(NodeFactory.createURI(default_graph), query_new.getQueryPattern()));
+		}
 
 		// Do the rewriting and store the modified elements
-		Element el_modified = getRewrittenElement(el_orginal);
-		
-		// force distinct in order to avoid duplicate entries due to multiple graph joins 
-		query_new.setDistinct(true);
-		query_new.setQueryPattern(el_modified);
+		rewriteQueryPattern(query_new);
 		query_sparql = query_new.serialize();
 		logger.debug("Rewritten query: \n" + query_sparql);
 		return query_sparql;
 	}
-
 	
 	/**
+	 * Resolves the revision of a graph and appends it to the revisions which are consumed by the rewriting in order
+	 * of their appearance in the query.
+	 * 
+	 * @param graphName the graph name
+	 * @param referenceName the revision identifier or reference name
+	 * @throws InternalErrorException
+	 */
+	private void addRevision(final String graphName, final String referenceName) throws InternalErrorException {
+		RevisionGraph graph = new RevisionGraph(graphName);
+		String revisionNumber = graph.getRevisionIdentifier(referenceName.toLowerCase());
+		addReference(graph, graph.getIndex().getReferenceURI(referenceName.toLowerCase()));
+		graphs.add(graphName);
+		revisions.add(revisionNumber);
+	}
+	
+	/**
+	 * Rewrites the pattern of a query or subquery.
+	 * 
+	 * @param query the query which is modified
+	 * @throws InternalErrorException
+	 */
+	private void rewriteQueryPattern(final Query query) throws InternalErrorException {
+		Element el_modified = getRewrittenElementWithoutPushdown(query.getQueryPattern());
+		
+		if (query.isSelectType() && query.isQueryResultStar()) {
+			// keep the variables introduced by the rewriting out of the result
+			List<Var> vars = query.getProjectVars();
+			query.setQueryResultStar(false);
+			for (Var var : vars)
+				query.addResultVar(var);
+		}
+		if (!Config.query_rewriting_mode.equals("values")) {
+			// force distinct in order to avoid duplicate entries due to multiple graph joins 
+			query.setDistinct(true);
+		}
+		query.setQueryPattern(el_modified);
+	}
+
+	/**
+	 * Rewrites an element of the query. The triple patterns inside of a GRAPH clause which refers to a revision
+	 * without a reference are rewritten to the full graph and the change sets of the revision; the graph of a
+	 * revision with a reference is replaced by its full graph. A branch which shares the full graph of its base is
+	 * rewritten like a revision without a reference to the base graph and its overlay graphs. All other elements are copied and their content is
+	 * rewritten recursively.
+	 * 
 	 * @param el_orginal
 	 * @return rewritten element group
 	 */
 	private Element getRewrittenElement(final Element el_orginal) throws InternalErrorException {
 		if (el_orginal.getClass().equals(ElementNamedGraph.class)) {
 			ElementNamedGraph ng_original = (ElementNamedGraph) el_orginal;
-			ElementGroup eg_original = (ElementGroup) ng_original.getElement();
-			if (updateRevision())
-				return getRewrittenElement(eg_original);
-			else {
-				ElementNamedGraph ng_new;
-				try {
-					ng_new = new ElementNamedGraph(NodeFactory.createURI(graph.getReferenceGraph(revisionNumber)), eg_original);
-					return ng_new;
-				} catch (InternalErrorException e) {
-					e.printStackTrace();
-					return null;
+			Node graphNode = ng_original.getGraphNameNode();
+			
+			// the graph in the GRAPH clause is valid for its content only
+			boolean revised_outer = revised;
+			String revisionNumber_outer = revisionNumber;
+			RevisionGraph graph_outer = graph;
+			Expr last_revision_outer = last_revision;
+			ExprList expression_list_revision_path_outer = expression_list_revision_path;
+			LinkedList<Revision> revision_path_outer = revision_path;
+			String last_revision_full_graph_outer = last_revision_full_graph;
+			String last_revision_overlay_add_set_outer = last_revision_overlay_add_set;
+			String last_revision_overlay_delete_set_outer = last_revision_overlay_delete_set;
+			try {
+				if (!graphNode.isURI() || graphs.isEmpty() || !graphs.getFirst().equals(graphNode.getURI())) {
+					// graph variables and graphs without revision information are not rewritten
+					revised = false;
+					return new ElementNamedGraph(graphNode, getRewrittenElement(ng_original.getElement()));
 				}
+				if (updateRevision())
+					return getRewrittenElement(ng_original.getElement());
+				else
+					return new ElementNamedGraph(NodeFactory.createURI(graph.getReferenceGraph(revisionNumber)),
+							getRewrittenElement(ng_original.getElement()));
+			} finally {
+				revised = revised_outer;
+				revisionNumber = revisionNumber_outer;
+				graph = graph_outer;
+				last_revision = last_revision_outer;
+				expression_list_revision_path = expression_list_revision_path_outer;
+				revision_path = revision_path_outer;
+				last_revision_full_graph = last_revision_full_graph_outer;
+				last_revision_overlay_add_set = last_revision_overlay_add_set_outer;
+				last_revision_overlay_delete_set = last_revision_overlay_delete_set_outer;
 			}
 		} 
 		else if (el_orginal.getClass().equals(ElementGroup.class)) {
 			ElementGroup elementgroup = (ElementGroup) el_orginal;
 			
-			ElementGroup eg_modified = new ElementGroup();
+			// the filters of the group restrict all triple patterns of the group and its mandatory subgroups
+			LinkedList<Expr> pushdown_filters_outer = pushdown_filters;
+			pushdown_filters = new LinkedList<Expr>(pushdown_filters_outer);
 			for (Element el : elementgroup.getElements()) {
-				Element el_mod = getRewrittenElement(el);
-				expand(eg_modified, el_mod);
+				if (el.getClass().equals(ElementFilter.class))
+					addPushdownFilters(((ElementFilter) el).getExpr());
+			}
+			try {
+				ElementGroup eg_modified = new ElementGroup();
+				for (Element el : elementgroup.getElements()) {
+					Element el_mod = getRewrittenElement(el);
+					expand(eg_modified, el_mod);
+				}
+				return eg_modified;
+			} finally {
+				pushdown_filters = pushdown_filters_outer;
 			}
-			return eg_modified;
 		} 
 		else if (el_orginal.getClass().equals(ElementMinus.class)) {
 			ElementMinus elementMinus = (ElementMinus) el_orginal;
 			ElementGroup elementgroup = (ElementGroup) elementMinus.getMinusElement();
-			Element minusPart = getRewrittenElement(elementgroup);
+			Element minusPart = getRewrittenElementWithoutPushdown(elementgroup);
 			ElementMinus em = new ElementMinus(minusPart);
 			return em;
 		}
+		else if (el_orginal.getClass().equals(ElementOptional.class)) {
+			ElementOptional elementOptional = (ElementOptional) el_orginal;
+			return new ElementOptional(getRewrittenElementWithoutPushdown(elementOptional.getOptionalElement()));
+		}
+		else if (el_orginal.getClass().equals(ElementExists.class)) {
+			ElementExists elementExists = (ElementExists) el_orginal;
+			return new ElementExists(getRewrittenElementWithoutPushdown(elementExists.getElement()));
+		}
+		else if (el_orginal.getClass().equals(ElementNotExists.class)) {
+			ElementNotExists elementNotExists = (ElementNotExists) el_orginal;
+			return new ElementNotExists(getRewrittenElementWithoutPushdown(elementNotExists.getElement()));
+		}
 		else if (el_orginal.getClass().equals(ElementUnion.class)) {
 			ElementUnion elementUnion = (ElementUnion) el_orginal;
 			List<Element> elements = elementUnion.getElements();
@@ -188,7 +437,26 @@ public class SparqlRewriter {
 				elementModified.addElement(getRewrittenElement(el));
 			return elementModified;
 		}
+		else if (el_orginal.getClass().equals(ElementSubQuery.class)) {
+			Query subquery = ((ElementSubQuery) el_orginal).getQuery();
+			rewriteQueryPattern(subquery);
+			return new ElementSubQuery(subquery);
+		}
+		else if (el_orginal.getClass().equals(ElementFilter.class)) {
+			ElementFilter elementFilter = (ElementFilter) el_orginal;
+			return new ElementFilter(getRewrittenExpr(elementFilter.getExpr()));
+		}
+		else if (el_orginal.getClass().equals(ElementBind.class)) {
+			ElementBind elementBind = (ElementBind) el_orginal;
+			return new ElementBind(elementBind.getVar(), getRewrittenExpr(elementBind.getExpr()));
+		}
+		else if (el_orginal.getClass().equals(ElementData.class)) {
+			// inline data does not refer to any graph
+			return el_orginal;
+		}
 		else if (el_orginal.getClass().equals(ElementPathBlock.class)){
+			if (!revised)
+				return el_orginal;
 			ElementPathBlock epb = (ElementPathBlock) el_orginal;
 			Iterator<TriplePath> itPatternElts = epb.patternElts();
 
@@ -196,7 +464,25 @@ public class SparqlRewriter {
 			while (itPatternElts.hasNext()) {
 				TriplePath triplePath = itPatternElts.next();
 				statement_i += 1;
-				ElementGroup eg = getRewrittenTriplePath(triplePath);
+				
+				// constants of equality filters are placed into the triple pattern and bound to their variables
+				HashMap<Var, Node> constants = getPushdownConstants(triplePath.asTriple());
+				Triple triple = substitute(triplePath.asTriple(), constants);
+				if (!constants.isEmpty()) {
+					ElementData data_constants = new ElementData();
+					BindingMap binding = BindingFactory.create();
+					for (Var var : constants.keySet()) {
+						data_constants.add(var);
+						binding.add(var, constants.get(var));
+					}
+					data_constants.add(binding);
+					eg_modified.addElement(data_constants);
+				}
+				
+				// the overlay graphs of a branch are only known to the rewriting, not to the revision graph
+				ElementGroup eg = (Config.query_rewriting_mode.equals("values") || last_revision_overlay_add_set != null)
+						? getRewrittenTriplePathWithValues(triple, getPushdownFilters(triple))
+						: getRewrittenTriplePath(triple, getPushdownFilters(triple));
 				expand(eg_modified, eg);
 			}
 			return eg_modified;
@@ -205,17 +491,67 @@ public class SparqlRewriter {
 			return el_orginal;
 		}
 	}
+	
+	/**
+	 * Rewrites the graph patterns of EXISTS and NOT EXISTS inside of an expression.
+	 * 
+	 * @param expr the expression
+	 * @return the rewritten expression or the expression itself if it does not contain graph patterns
+	 * @throws InternalErrorException
+	 */
+	private Expr getRewrittenExpr(final Expr expr) throws InternalErrorException {
+		if (expr instanceof E_Exists) {
+			return new E_Exists(getRewrittenElementWithoutPushdown(((E_Exists) expr).getElement()));
+		}
+		else if (expr instanceof E_NotExists) {
+			return new E_NotExists(getRewrittenElementWithoutPushdown(((E_NotExists) expr).getElement()));
+		}
+		else if (expr instanceof ExprFunction1) {
+			ExprFunction1 function = (ExprFunction1) expr;
+			Expr arg = getRewrittenExpr(function.getArg());
+			return (arg == function.getArg()) ? expr : function.copy(arg);
+		}
+		else if (expr instanceof ExprFunction2) {
+			ExprFunction2 function = (ExprFunction2) expr;
+			Expr arg1 = getRewrittenExpr(function.getArg1());
+			Expr arg2 = getRewrittenExpr(function.getArg2());
+			return (arg1 == function.getArg1() && arg2 == function.getArg2()) ? expr : function.copy(arg1, arg2);
+		}
+		else if (expr instanceof ExprFunction3) {
+			ExprFunction3 function = (ExprFunction3) expr;
+			Expr arg1 = getRewrittenExpr(function.getArg1());
+			Expr arg2 = getRewrittenExpr(function.getArg2());
+			Expr arg3 = getRewrittenExpr(function.getArg3());
+			return (arg1 == function.getArg1() && arg2 == function.getArg2() && arg3 == function.getArg3())
+					? expr : function.copy(arg1, arg2, arg3);
+		}
+		else if (expr instanceof ExprFunctionN) {
+			ExprFunctionN function = (ExprFunctionN) expr;
+			ExprList args = new ExprList();
+			boolean changed = false;
+			for (Expr arg : function.getArgs()) {
+				Expr arg_modified = getRewrittenExpr(arg);
+				changed |= (arg_modified != arg);
+				args.add(arg_modified);
+			}
+			return changed ? function.copy(args) : expr;
+		}
+		else {
+			return expr;
+		}
+	}
 
 	/**
-	 * @param triplePath
+	 * @param triple
+	 * @param filters the filters which are evaluated directly on the matches of the triple
 	 * @return rewritten triple path element
 	 */
-	private ElementGroup getRewrittenTriplePath(TriplePath triplePath) {
+	private ElementGroup getRewrittenTriplePath(Triple triple, List<Expr> filters) {
 		{
 			ElementGroup eg_modified = new ElementGroup();
 			
 			ElementTriplesBlock block_triple_path = new ElementTriplesBlock();
-			block_triple_path.addTriple(triplePath.asTriple());
+			block_triple_path.addTriple(triple);
 			
 
 			Node g_delete_set_full_graph = Var.alloc("g_delete_set_full_graph_" + statement_i);
@@ -260,13 +596,274 @@ public class SparqlRewriter {
 			eg_minus.addElement(new ElementNamedGraph(g_add_set, block_triple_path));
 			eg_minus.addElement(new ElementNamedGraph(g_revisiongraph, eg_revisiongraph2));
 			
-			eg_modified.addElement(new ElementNamedGraph(g_delete_set_full_graph, block_triple_path));
+			eg_modified.addElement(getSourcePattern(g_delete_set_full_graph, block_triple_path, filters));
 			eg_modified.addElement(new ElementNamedGraph(g_revisiongraph, eg_revisiongraph));
 			eg_modified.addElement(new ElementMinus(eg_minus));
 			return eg_modified;
 		}
 	}
 	
+	/**
+	 * Rewrites a triple path by binding the graphs of the revision path directly.
+	 * 
+	 * The triple is looked up in the full graph and in the delete sets of the path. Every graph is ranked by its
+	 * position on the path (counted from the queried revision); the full graph is ranked behind all delete sets. A
+	 * triple found in a graph is not part of the queried revision if it is in an add set at the same or a lower
+	 * position. It is also skipped if a delete set at a lower position contains it, because it is returned for that
+	 * delete set. Every triple is therefore returned only once and the rewritten query needs no DISTINCT.
+	 * 
+	 * If the full graph is the base graph of a branch overlay, the overlay graphs are one more position behind the
+	 * path: the overlay add set is ranked like a delete set and the overlay delete set like an add set.
+	 * 
+	 * The check only depends on the matched graph, which is bound to its rank inside of the check. So the check and
+	 * the filters are placed in one group with the GRAPH pattern, apart from the VALUES block of the graphs. ARQ
+	 * loses filters of a group with several patterns when it places a filter of an enclosing UNION into it.
+	 * 
+	 * @param triple
+	 * @param filters the filters which are evaluated directly on the matches of the triple
+	 * @return rewritten triple path element
+	 */
+	private ElementGroup getRewrittenTriplePathWithValues(Triple triple, List<Expr> filters) {
+		ElementGroup eg_modified = new ElementGroup();
+
+		ElementTriplesBlock block_triple_path = new ElementTriplesBlock();
+		block_triple_path.addTriple(triple);
+
+		Var var_g_delete_set_full_graph = Var.alloc("g_delete_set_full_graph_" + statement_i);
+		Var var_rank_delete_set_full_graph = Var.alloc("rank_delete_set_full_graph_" + statement_i);
+		Var var_g_change_set = Var.alloc("g_change_set_" + statement_i);
+		Var var_rank_change_set = Var.alloc("rank_change_set_" + statement_i);
+
+		ElementData data_delete_set_full_graph = new ElementData();
+		data_delete_set_full_graph.add(var_g_delete_set_full_graph);
+		data_delete_set_full_graph.add(BindingFactory.binding(var_g_delete_set_full_graph,
+				NodeFactory.createURI(last_revision_full_graph)));
+
+		int layers = revision_path.size() + (last_revision_overlay_add_set != null ? 1 : 0);
+
+		// delete set at position k: rank 2k; full graph: rank behind all delete sets
+		ElementData data_rank = new ElementData();
+		data_rank.add(var_g_delete_set_full_graph);
+		data_rank.add(var_rank_delete_set_full_graph);
+		data_rank.add(getBinding(var_g_delete_set_full_graph, last_revision_full_graph,
+				var_rank_delete_set_full_graph, 2 * layers + 2));
+
+		// add set at position k: rank 2k; delete set at position k: rank 2k+1
+		ElementData data_change_set = new ElementData();
+		data_change_set.add(var_g_change_set);
+		data_change_set.add(var_rank_change_set);
+
+		int position = 1;
+		for (Revision revision : revision_path) {
+			data_delete_set_full_graph.add(BindingFactory.binding(var_g_delete_set_full_graph,
+					NodeFactory.createURI(revision.getDeleteSetURI())));
+			data_rank.add(getBinding(var_g_delete_set_full_graph, revision.getDeleteSetURI(),
+					var_rank_delete_set_full_graph, 2 * position));
+			data_change_set.add(getBinding(var_g_change_set, revision.getAddSetURI(), var_rank_change_set, 2 * position));
+			data_change_set.add(getBinding(var_g_change_set, revision.getDeleteSetURI(), var_rank_change_set, 2 * position + 1));
+			position++;
+		}
+		if (last_revision_overlay_add_set != null) {
+			data_delete_set_full_graph.add(BindingFactory.binding(var_g_delete_set_full_graph,
+					NodeFactory.createURI(last_revision_overlay_add_set)));
+			data_rank.add(getBinding(var_g_delete_set_full_graph, last_revision_overlay_add_set,
+					var_rank_delete_set_full_graph, 2 * position));
+			data_change_set.add(getBinding(var_g_change_set, last_revision_overlay_delete_set, var_rank_change_set, 2 * position));
+			data_change_set.add(getBinding(var_g_change_set, last_revision_overlay_add_set, var_rank_change_set, 2 * position + 1));
+		}
+
+		ElementGroup eg_source = new ElementGroup();
+		eg_source.addElement(new ElementNamedGraph(var_g_delete_set_full_graph, block_triple_path));
+		for (Expr filter : filters)
+			eg_source.addElementFilter(new ElementFilter(filter));
+		if (layers > 0) {
+			ElementGroup eg_change_set = new ElementGroup();
+			eg_change_set.addElement(data_rank);
+			eg_change_set.addElement(data_change_set);
+			eg_change_set.addElementFilter(new ElementFilter(new E_LessThanOrEqual(new ExprVar(var_rank_change_set),
+					new ExprVar(var_rank_delete_set_full_graph))));
+			eg_change_set.addElement(new ElementNamedGraph(var_g_change_set, block_triple_path));
+			eg_source.addElementFilter(new ElementFilter(new E_NotExists(eg_change_set)));
+		}
+
+		eg_modified.addElement(data_delete_set_full_graph);
+		eg_modified.addElement(eg_source.getElements().size() == 1 ? eg_source.getElements().get(0) : eg_source);
+		return eg_modified;
+	}
+
+	/**
+	 * Creates the pattern which matches a triple in the full graph or a delete set. The filters are evaluated
+	 * directly on these matches, so the triples are pruned before they are joined with the change sets.
+	 * 
+	 * @param graphNode the graph node
+	 * @param block_triple_path the triple
+	 * @param filters the filters which only refer to variables of the triple
+	 * @return the pattern
+	 */
+	private static Element getSourcePattern(Node graphNode, ElementTriplesBlock block_triple_path, List<Expr> filters) {
+		ElementNamedGraph ng_source = new ElementNamedGraph(graphNode, block_triple_path);
+		if (filters.isEmpty())
+			return ng_source;
+		ElementGroup eg_source = new ElementGroup();
+		eg_source.addElement(ng_source);
+		for (Expr filter : filters)
+			eg_source.addElementFilter(new ElementFilter(filter));
+		return eg_source;
+	}
+	
+	/**
+	 * Rewrites an element without the filters of the enclosing groups. Used for elements whose triple patterns are
+	 * not restricted by these filters (OPTIONAL, MINUS, EXISTS, subqueries).
+	 * 
+	 * @param el_orginal
+	 * @return rewritten element
+	 * @throws InternalErrorException
+	 */
+	private Element getRewrittenElementWithoutPushdown(final Element el_orginal) throws InternalErrorException {
+		LinkedList<Expr> pushdown_filters_outer = pushdown_filters;
+		pushdown_filters = new LinkedList<Expr>();
+		try {
+			return getRewrittenElement(el_orginal);
+		} finally {
+			pushdown_filters = pushdown_filters_outer;
+		}
+	}
+	
+	/**
+	 * Adds the conjuncts of a filter expression which can be evaluated on single triple patterns to the pushdown
+	 * filters. Graph patterns and non-deterministic functions are excluded.
+	 * 
+	 * @param expr the filter expression
+	 */
+	private void addPushdownFilters(final Expr expr) {
+		if (expr instanceof E_LogicalAnd) {
+			addPushdownFilters(((E_LogicalAnd) expr).getArg1());
+			addPushdownFilters(((E_LogicalAnd) expr).getArg2());
+		}
+		else if (isPushable(expr)) {
+			pushdown_filters.add(expr);
+		}
+	}
+	
+	/**
+	 * Checks if an expression can be copied into a rewritten triple pattern.
+	 * 
+	 * @param expr the expression
+	 * @return true if the expression neither contains graph patterns nor non-deterministic functions
+	 */
+	private static boolean isPushable(final Expr expr) {
+		if (expr instanceof ExprFunctionOp || expr instanceof E_Random || expr instanceof E_BNode
+				|| expr instanceof E_UUID || expr instanceof E_StrUUID)
+			return false;
+		if (expr instanceof ExprFunction) {
+			for (Expr arg : ((ExprFunction) expr).getArgs()) {
+				if (!isPushable(arg))
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Get the constants of the pushdown filters which restrict variables of a triple to a single term. These are
+	 * sameTerm filters and equality filters on IRIs, for which equality is the same as identity.
+	 * 
+	 * @param triple the triple
+	 * @return the constants (key: variable)
+	 */
+	private HashMap<Var, Node> getPushdownConstants(final Triple triple) {
+		HashMap<Var, Node> constants = new HashMap<Var, Node>();
+		Set<Var> vars = getVars(triple);
+		for (Expr expr : pushdown_filters) {
+			if (!(expr instanceof E_Equals) && !(expr instanceof E_SameTerm))
+				continue;
+			Expr arg1 = ((ExprFunction2) expr).getArg1();
+			Expr arg2 = ((ExprFunction2) expr).getArg2();
+			Expr arg_var = arg1.isVariable() ? arg1 : arg2;
+			Expr arg_constant = arg1.isVariable() ? arg2 : arg1;
+			if (!arg_var.isVariable() || !arg_constant.isConstant())
+				continue;
+			Node constant = arg_constant.getConstant().asNode();
+			Var var = arg_var.asVar();
+			if ((constant.isURI() || (expr instanceof E_SameTerm && constant.isLiteral()))
+					&& vars.contains(var) && !constants.containsKey(var))
+				constants.put(var, constant);
+		}
+		return constants;
+	}
+	
+	/**
+	 * Get the pushdown filters which only refer to variables of a triple.
+	 * 
+	 * @param triple the triple
+	 * @return the filters
+	 */
+	private List<Expr> getPushdownFilters(final Triple triple) {
+		List<Expr> filters = new LinkedList<Expr>();
+		Set<Var> vars = getVars(triple);
+		for (Expr expr : pushdown_filters) {
+			Set<Var> vars_filter = expr.getVarsMentioned();
+			if (!vars_filter.isEmpty() && vars.containsAll(vars_filter))
+				filters.add(expr);
+		}
+		return filters;
+	}
+	
+	/**
+	 * Get the variables of a triple.
+	 * 
+	 * @param triple the triple
+	 * @return the variables
+	 */
+	private static Set<Var> getVars(final Triple triple) {
+		Set<Var> vars = new HashSet<Var>();
+		for (Node node : new Node[] { triple.getSubject(), triple.getPredicate(), triple.getObject() }) {
+			if (Var.isVar(node))
+				vars.add(Var.alloc(node));
+		}
+		return vars;
+	}
+	
+	/**
+	 * Replaces variables of a triple by constants.
+	 * 
+	 * @param triple the triple
+	 * @param constants the constants (key: variable)
+	 * @return the triple with the constants
+	 */
+	private static Triple substitute(final Triple triple, final HashMap<Var, Node> constants) {
+		return new Triple(substitute(triple.getSubject(), constants), substitute(triple.getPredicate(), constants),
+				substitute(triple.getObject(), constants));
+	}
+	
+	/**
+	 * Replaces a variable by its constant.
+	 * 
+	 * @param node the node
+	 * @param constants the constants (key: variable)
+	 * @return the constant or the node itself
+	 */
+	private static Node substitute(final Node node, final HashMap<Var, Node> constants) {
+		Node constant = Var.isVar(node) ? constants.get(Var.alloc(node)) : null;
+		return (constant != null) ? constant : node;
+	}
+	
+	/**
+	 * Creates a VALUES row which binds a graph together with its rank on the revision path.
+	 * 
+	 * @param var_graph the graph variable
+	 * @param graphURI the graph URI
+	 * @param var_rank the rank variable
+	 * @param rank the rank on the revision path
+	 * @return the binding
+	 */
+	private static Binding getBinding(Var var_graph, String graphURI, Var var_rank, int rank) {
+		BindingMap binding = BindingFactory.create();
+		binding.add(var_graph, NodeFactory.createURI(graphURI));
+		binding.add(var_rank, NodeValue.makeInteger(rank).asNode());
+		return binding;
+	}
+
 	private static ElementGroup expand(ElementGroup eg, final Element el) {
 		if (el.getClass().equals(ElementGroup.class))
 			for (Element el_new : ((ElementGroup) el).getElements())
@@ -276,4 +873,69 @@ public class SparqlRewriter {
 		return eg;
 	}
 
+
+	/**
+	 * Resolves a revision of a graph: the branch check and, for revisions without a reference, the path to the next
+	 * full graph.
+	 */
+	private static class ResolvedRevision implements Callable<ResolvedRevision> {
+		
+		private final String graphName;
+		private final String revisionNumber;
+		
+		/** the revision graph */
+		private RevisionGraph graph;
+		/** the content reference whose full graph is queried */
+		private String contentReferenceURI;
+		/** the path to the next revision with a full graph (null if the revision is a branch) */
+		private LinkedList<Revision> path;
+		/** the full graph at the end of the path */
+		private String fullGraphURI;
+		/** the overlay graphs if the content reference shares the full graph of its base (null otherwise) */
+		private String overlayAddSetURI;
+		private String overlayDeleteSetURI;
+		
+		/**
+		 * @param graphName the graph name
+		 * @param revisionNumber the revision identifier
+		 */
+		private ResolvedRevision(final String graphName, final String revisionNumber) {
+			this.graphName = graphName;
+			this.revisionNumber = revisionNumber;
+		}
+		
+		@Override
+		public ResolvedRevision call() throws InternalErrorException {
+			graph = new RevisionGraph(graphName);
+			if (graph.hasBranch(revisionNumber)) {
+				contentReferenceURI = graph.getContentReferenceUri(revisionNumber);
+				if (graph.getIndex().isOverlay(contentReferenceURI)) {
+					// the branch is rewritten to its base graph and overlay graphs like a revision without changes
+					path = new LinkedList<Revision>();
+					path.add(graph.getRevision(revisionNumber));
+					resolveOverlay();
+				}
+				return this;
+			}
+			Revision revision = graph.getRevision(revisionNumber);
+			path = PathCalculationSingleton.getInstance().getPathToRevisionWithFullGraph(graph, revision).getRevisionPath();
+			String lastRevisionNumber = path.getLast().getRevisionIdentifier();
+			contentReferenceURI = graph.getContentReferenceUri(lastRevisionNumber);
+			fullGraphURI = graph.getReferenceGraph(lastRevisionNumber);
+			if (graph.getIndex().isOverlay(contentReferenceURI)) {
+				resolveOverlay();
+			}
+			return this;
+		}
+		
+		/**
+		 * Resolves the base graph and the overlay graphs of the content reference.
+		 */
+		private void resolveOverlay() {
+			fullGraphURI = graph.getIndex().getBaseGraphURI(contentReferenceURI);
+			overlayAddSetURI = graph.getIndex().getOverlayAddSetURI(contentReferenceURI);
+			overlayDeleteSetURI = graph.getIndex().getOverlayDeleteSetURI(contentReferenceURI);
+		}
+	}
+
 }
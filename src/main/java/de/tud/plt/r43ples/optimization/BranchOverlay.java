@@ -0,0 +1,672 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.query.QueryParseException;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.sparql.core.TriplePath;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.expr.E_NotExists;
+import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprFunction;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp;
+import com.hp.hpl.jena.sparql.syntax.*;
+import de.tud.plt.r43ples.management.CommitLock;
+import de.tud.plt.r43ples.management.CommitLockManager;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copy-on-write branches which share the full graph of another reference.
+ *
+ * A new branch does not get a copy of the full graph of its revision. It records the full graph it was created from
+ * as base graph and two overlay graphs with the triples it adds to and removes from the base graph:
+ * content = (base graph - overlay delete set) + overlay add set. The overlay add set is disjoint with the base graph
+ * and the overlay delete set is a subset of it. Commits on such a branch only change its overlay graphs. Commits on
+ * the base change the base graph and rebase the overlay graphs of all branches sharing it.
+ *
+ * The overlay state is stored in a graph next to the revision graph, so the revision graph itself still records the
+ * (empty) full graph of the branch. A branch is materialized into its full graph when its overlay graphs exceed the
+ * configured number of triples (configuration key branch.overlay.maxTriples), when commits on its base rebased it
+ * more often than configured (configuration key branch.overlay.maxRebases), so the cost of a commit on the base does
+ * not keep growing with the number of branches, or when a caller needs a graph with the complete content. Branches
+ * only share full graphs if branch.overlay.maxTriples is set, because other readers of the full graph of a branch
+ * (e.g. plain SPARQL queries) see it empty until it is materialized.
+ */
+public class BranchOverlay {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(BranchOverlay.class);
+
+    /** The triple pattern used in the generated queries. **/
+    private static final String TRIPLE = "?s ?p ?o.";
+
+
+    /**
+     * The constructor.
+     */
+    private BranchOverlay() {
+
+    }
+
+    /**
+     * Checks if new branches should share the full graph of their revision.
+     *
+     * @return true if copy-on-write branches are enabled
+     */
+    public static boolean isEnabled() {
+        return Config.branch_overlay_maxTriples > 0;
+    }
+
+    /**
+     * Get the URI of the graph which stores the overlay state of the branches of a revision graph.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @return the overlay graph URI
+     */
+    public static String getOverlayGraphURI(final String revisionGraphURI) {
+        return revisionGraphURI + "-overlays";
+    }
+
+    /**
+     * Adds the statements for creating the overlay of a new branch to the update batch. The content of the new
+     * branch is the content of the source reference.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the new branch
+     * @param sourceReferenceURI the URI of the reference which provides the content
+     */
+    public static void createOverlay(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI, final String sourceReferenceURI) {
+        final RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        final String overlayAddSetURI = referenceURI + "-overlay-addSet";
+        final String overlayDeleteSetURI = referenceURI + "-overlay-deleteSet";
+        final String baseGraphURI;
+
+        batch.add(String.format("DROP SILENT GRAPH <%s>", overlayAddSetURI));
+        batch.add(String.format("DROP SILENT GRAPH <%s>", overlayDeleteSetURI));
+        if (index.isOverlay(sourceReferenceURI)) {
+            // share the base of the source and take over its changes
+            baseGraphURI = index.getBaseGraphURI(sourceReferenceURI);
+            batch.add(String.format("ADD SILENT GRAPH <%s> TO GRAPH <%s>", index.getOverlayAddSetURI(sourceReferenceURI), overlayAddSetURI));
+            batch.add(String.format("ADD SILENT GRAPH <%s> TO GRAPH <%s>", index.getOverlayDeleteSetURI(sourceReferenceURI), overlayDeleteSetURI));
+            markOverlayChanged(batch, index, referenceURI);
+        } else {
+            baseGraphURI = index.getFullGraphURI(sourceReferenceURI);
+        }
+        logger.debug("Branch <" + referenceURI + "> shares the full graph <" + baseGraphURI + ">");
+
+        batch.add(Config.prefixes + String.format(""
+                        + "INSERT DATA { GRAPH <%s> { "
+                        + "<%s> rmo:baseGraph <%s>; "
+                        + "	rmo:overlayAddSet <%s>; "
+                        + "	rmo:overlayDeleteSet <%s>. "
+                        + "} }",
+                getOverlayGraphURI(revisionGraphURI), referenceURI, baseGraphURI, overlayAddSetURI, overlayDeleteSetURI));
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.setOverlay(referenceURI, baseGraphURI, overlayAddSetURI, overlayDeleteSetURI);
+            }
+        });
+    }
+
+    /**
+     * Get a graph pattern which matches the triple pattern against the content of a reference.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     * @param triplePattern the triple pattern
+     * @return the graph pattern
+     */
+    public static String getContentPattern(final String revisionGraphURI, final String referenceURI, final String triplePattern) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        if (index.isOverlay(referenceURI)) {
+            return String.format("{ GRAPH <%s> { %s } } UNION { GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    index.getOverlayAddSetURI(referenceURI), triplePattern,
+                    index.getBaseGraphURI(referenceURI), triplePattern,
+                    index.getOverlayDeleteSetURI(referenceURI), triplePattern);
+        } else {
+            return String.format("GRAPH <%s> { %s }", index.getFullGraphURI(referenceURI), triplePattern);
+        }
+    }
+
+    /**
+     * Adds the statements for copying the content of a reference into the target graph to the update batch.
+     * The target graph is replaced.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     * @param targetGraphURI the target graph URI
+     */
+    public static void copyContent(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI, final String targetGraphURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        if (index.isOverlay(referenceURI)) {
+            batch.add(String.format("DROP SILENT GRAPH <%s>", targetGraphURI));
+            batch.add(String.format("ADD SILENT GRAPH <%s> TO GRAPH <%s>", index.getBaseGraphURI(referenceURI), targetGraphURI));
+            batch.add(String.format("DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    targetGraphURI, TRIPLE, index.getOverlayDeleteSetURI(referenceURI), TRIPLE));
+            batch.add(String.format("ADD SILENT GRAPH <%s> TO GRAPH <%s>", index.getOverlayAddSetURI(referenceURI), targetGraphURI));
+        } else {
+            batch.add(String.format("COPY GRAPH <%s> TO GRAPH <%s>", index.getFullGraphURI(referenceURI), targetGraphURI));
+        }
+    }
+
+    /**
+     * Adds the statements for applying a change set to the content of a reference to the update batch.
+     * The new content is (content + add set) - delete set. The change set graphs must not be changed by the
+     * statements which follow in the batch.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     * @param addSetURI the graph with the added triples
+     * @param deleteSetURI the graph with the deleted triples
+     */
+    public static void applyChangeSet(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI, final String addSetURI, final String deleteSetURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        if (index.isOverlay(referenceURI)) {
+            String baseGraphURI = index.getBaseGraphURI(referenceURI);
+            String overlayAddSetURI = index.getOverlayAddSetURI(referenceURI);
+            String overlayDeleteSetURI = index.getOverlayDeleteSetURI(referenceURI);
+            // added triples are either restored in the base graph or added to it
+            batch.add(String.format(
+                    "DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    overlayDeleteSetURI, TRIPLE, addSetURI, TRIPLE, deleteSetURI, TRIPLE));
+            batch.add(String.format(
+                    "INSERT { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    overlayAddSetURI, TRIPLE, addSetURI, TRIPLE, deleteSetURI, TRIPLE, baseGraphURI, TRIPLE));
+            // deleted triples are either removed from the added triples or hidden in the base graph
+            batch.add(String.format("DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    overlayAddSetURI, TRIPLE, deleteSetURI, TRIPLE));
+            batch.add(String.format("INSERT { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } GRAPH <%s> { %s } }",
+                    overlayDeleteSetURI, TRIPLE, deleteSetURI, TRIPLE, baseGraphURI, TRIPLE));
+            markOverlayChanged(batch, index, referenceURI);
+        } else {
+            String fullGraphURI = index.getFullGraphURI(referenceURI);
+            rebaseOverlays(batch, revisionGraphURI, fullGraphURI, addSetURI, deleteSetURI, null);
+            batch.add(String.format("INSERT { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    fullGraphURI, TRIPLE, addSetURI, TRIPLE));
+            batch.add(String.format("DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    fullGraphURI, TRIPLE, deleteSetURI, TRIPLE));
+        }
+    }
+
+    /**
+     * Adds the statements for keeping the content of all branches which share the base graph unchanged while the
+     * change set is applied to the base graph. The statements have to be executed before the base graph is changed
+     * to (base graph + add set) - delete set.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param baseGraphURI the base graph URI
+     * @param addSetURI the graph with the triples which will be added to the base graph
+     * @param deleteSetURI the graph with the triples which will be deleted from the base graph
+     * @param excludedReferenceURI the URI of a branch which should not be rebased (can be null)
+     */
+    public static void rebaseOverlays(final UpdateBatch batch, final String revisionGraphURI, final String baseGraphURI, final String addSetURI, final String deleteSetURI, final String excludedReferenceURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        for (String referenceURI : index.getOverlayReferenceURIs(baseGraphURI)) {
+            if (referenceURI.equals(excludedReferenceURI)) {
+                continue;
+            }
+            logger.debug("Rebase overlay of branch <" + referenceURI + ">");
+            String overlayAddSetURI = index.getOverlayAddSetURI(referenceURI);
+            String overlayDeleteSetURI = index.getOverlayDeleteSetURI(referenceURI);
+            // triples new in the base graph have to be hidden unless the branch added them itself
+            batch.add(String.format(
+                    "INSERT { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } "
+                            + "FILTER NOT EXISTS { GRAPH <%s> { %s } } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    overlayDeleteSetURI, TRIPLE, addSetURI, TRIPLE, deleteSetURI, TRIPLE, baseGraphURI, TRIPLE, overlayAddSetURI, TRIPLE));
+            batch.add(String.format(
+                    "DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    overlayAddSetURI, TRIPLE, addSetURI, TRIPLE, deleteSetURI, TRIPLE));
+            // triples removed from the base graph have to be added unless the branch deleted them itself
+            batch.add(String.format(
+                    "INSERT { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } GRAPH <%s> { %s } FILTER NOT EXISTS { GRAPH <%s> { %s } } }",
+                    overlayAddSetURI, TRIPLE, deleteSetURI, TRIPLE, baseGraphURI, TRIPLE, overlayDeleteSetURI, TRIPLE));
+            batch.add(String.format("DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    overlayDeleteSetURI, TRIPLE, deleteSetURI, TRIPLE));
+            markOverlayRebased(batch, index, referenceURI);
+        }
+    }
+
+    /**
+     * Adds the statements for replacing the content of the target branch by the content of the source branch to the
+     * update batch. Used by fast forward merges.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param sourceReferenceURI the URI of the source branch
+     * @param targetReferenceURI the URI of the target branch
+     */
+    public static void replaceContent(final UpdateBatch batch, final String revisionGraphURI, final String sourceReferenceURI, final String targetReferenceURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        if (index.isOverlay(targetReferenceURI)) {
+            // the target shares the base of the source afterwards
+            batch.add(Config.prefixes + String.format(
+                    "DELETE WHERE { GRAPH <%s> { <%s> ?p ?o. } }", getOverlayGraphURI(revisionGraphURI), targetReferenceURI));
+            removeOverlay(batch, index, targetReferenceURI);
+            createOverlay(batch, revisionGraphURI, targetReferenceURI, sourceReferenceURI);
+            return;
+        }
+
+        String targetGraphURI = index.getFullGraphURI(targetReferenceURI);
+        if (index.isOverlay(sourceReferenceURI) && targetGraphURI.equals(index.getBaseGraphURI(sourceReferenceURI))) {
+            // the changes of the source are applied to the shared base graph, its overlay graphs become empty
+            String overlayAddSetURI = index.getOverlayAddSetURI(sourceReferenceURI);
+            String overlayDeleteSetURI = index.getOverlayDeleteSetURI(sourceReferenceURI);
+            rebaseOverlays(batch, revisionGraphURI, targetGraphURI, overlayAddSetURI, overlayDeleteSetURI, sourceReferenceURI);
+            batch.add(String.format("ADD SILENT GRAPH <%s> TO GRAPH <%s>", overlayAddSetURI, targetGraphURI));
+            batch.add(String.format("DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } }",
+                    targetGraphURI, TRIPLE, overlayDeleteSetURI, TRIPLE));
+            batch.add(String.format("DROP SILENT GRAPH <%s>", overlayAddSetURI));
+            batch.add(String.format("DROP SILENT GRAPH <%s>", overlayDeleteSetURI));
+        } else {
+            // the branches sharing the target lose their base
+            for (String referenceURI : index.getOverlayReferenceURIs(targetGraphURI)) {
+                materialize(batch, revisionGraphURI, referenceURI);
+            }
+            copyContent(batch, revisionGraphURI, sourceReferenceURI, targetGraphURI);
+        }
+    }
+
+    /**
+     * Materializes the content of a branch into its own full graph and removes its overlay.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     */
+    public static void materialize(final String revisionGraphURI, final String referenceURI) {
+        // commits on the base rebase the overlay of the branch
+        CommitLock lock = CommitLockManager.getInstance().createLock().addBranch(revisionGraphURI, referenceURI);
+        lock.acquire();
+        try {
+            UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+            materialize(batch, revisionGraphURI, referenceURI);
+            batch.execute();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Adds the statements for materializing the content of a branch into its own full graph and for removing its
+     * overlay to the update batch.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     */
+    public static void materialize(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        if (!index.isOverlay(referenceURI)) {
+            return;
+        }
+        logger.info("Materialize full graph of branch <" + referenceURI + ">");
+        copyContent(batch, revisionGraphURI, referenceURI, index.getFullGraphURI(referenceURI));
+        batch.add(String.format("DROP SILENT GRAPH <%s>", index.getOverlayAddSetURI(referenceURI)));
+        batch.add(String.format("DROP SILENT GRAPH <%s>", index.getOverlayDeleteSetURI(referenceURI)));
+        batch.add(String.format(
+                "DELETE WHERE { GRAPH <%s> { <%s> ?p ?o. } }", getOverlayGraphURI(revisionGraphURI), referenceURI));
+        removeOverlay(batch, index, referenceURI);
+    }
+
+    /**
+     * Materializes all branches of the revision graph whose overlay graphs were changed and exceed the configured
+     * number of triples or were rebased more often than configured. Has to be called after the changes were written.
+     *
+     * @param revisionGraphURI the revision graph URI
+     */
+    public static void materializeOversizedOverlays(final String revisionGraphURI) {
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        for (String referenceURI : index.pollChangedOverlays()) {
+            if (!index.isOverlay(referenceURI)) {
+                continue;
+            }
+            int rebases = index.getOverlayRebases(referenceURI);
+            if (rebases > Config.branch_overlay_maxRebases) {
+                logger.debug("Overlay of branch <" + referenceURI + "> was rebased " + rebases + " times");
+                materialize(revisionGraphURI, referenceURI);
+                continue;
+            }
+            long triples = countTriples(index.getOverlayAddSetURI(referenceURI))
+                    + countTriples(index.getOverlayDeleteSetURI(referenceURI));
+            if (triples > Config.branch_overlay_maxTriples) {
+                logger.debug("Overlay of branch <" + referenceURI + "> contains " + triples + " triples");
+                materialize(revisionGraphURI, referenceURI);
+            }
+        }
+    }
+
+    /**
+     * Rewrites a query so that the named graph patterns on the full graphs of the specified branches match against
+     * their base graph and overlay graphs instead. Every triple pattern t inside such a named graph pattern is
+     * replaced by { GRAPH overlayAddSet { t } } UNION { GRAPH base { t } FILTER NOT EXISTS { GRAPH overlayDeleteSet { t } } }.
+     *
+     * @param queryString the query which uses the full graphs of the branches
+     * @param referenceURIs the URIs of the branches (key: reference URI; value: revision graph URI)
+     * @return the rewritten query or null if the query contains patterns which can not be rewritten (e.g. property
+     *      paths, blank nodes, sub queries or FROM clauses on the branches); the branches have to be materialized then
+     */
+    public static String rewriteQuery(final String queryString, final Map<String, String> referenceURIs) {
+        Map<String, String[]> overlays = getOverlays(referenceURIs);
+        Query query = QueryFactory.create(queryString);
+        for (String graphURI : overlays.keySet()) {
+            if (query.getGraphURIs().contains(graphURI) || query.getNamedGraphURIs().contains(graphURI)) {
+                return null;
+            }
+        }
+        Element element = rewriteElement(query.getQueryPattern(), overlays, null);
+        if (element == null) {
+            logger.debug("Query can not be rewritten for overlays of branches " + referenceURIs.keySet());
+            return null;
+        }
+        query.setQueryPattern(element);
+        return query.serialize();
+    }
+
+    /**
+     * Rewrites a group graph pattern which is evaluated on the content of a branch (e.g. the WHERE clause of an
+     * update) to a pattern on its base graph and overlay graphs. See {@link #rewriteQuery(String, Map)}.
+     *
+     * @param prologue the prefix declarations used by the pattern
+     * @param graphPattern the content of the group graph pattern
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the branch
+     * @return the rewritten group graph pattern or null if the pattern can not be rewritten
+     */
+    public static String rewriteGraphPattern(final String prologue, final String graphPattern, final String revisionGraphURI, final String referenceURI) {
+        Map<String, String[]> overlays = getOverlays(Collections.singletonMap(referenceURI, revisionGraphURI));
+        String fullGraphURI = RevisionGraphIndex.getInstance(revisionGraphURI).getFullGraphURI(referenceURI);
+        Query query;
+        try {
+            query = QueryFactory.create(String.format("%s SELECT * WHERE { GRAPH <%s> { %s } }", prologue, fullGraphURI, graphPattern));
+        } catch (QueryParseException e) {
+            logger.debug("Graph pattern can not be parsed for overlay of branch <" + referenceURI + ">: " + e.getMessage());
+            return null;
+        }
+        Element element = rewriteElement(query.getQueryPattern(), overlays, null);
+        if (element == null) {
+            logger.debug("Graph pattern can not be rewritten for overlay of branch <" + referenceURI + ">");
+            return null;
+        }
+        return element.toString();
+    }
+
+    /**
+     * Get the base graphs and overlay graphs of the branches which share the full graph of their base.
+     *
+     * @param referenceURIs the URIs of the branches (key: reference URI; value: revision graph URI)
+     * @return the base and overlay graphs (key: full graph URI of the branch)
+     */
+    private static Map<String, String[]> getOverlays(final Map<String, String> referenceURIs) {
+        HashMap<String, String[]> overlays = new HashMap<>();
+        for (Map.Entry<String, String> entry : referenceURIs.entrySet()) {
+            RevisionGraphIndex index = RevisionGraphIndex.getInstance(entry.getValue());
+            String referenceURI = entry.getKey();
+            if (index.isOverlay(referenceURI)) {
+                overlays.put(index.getFullGraphURI(referenceURI), new String[] {
+                        index.getBaseGraphURI(referenceURI),
+                        index.getOverlayAddSetURI(referenceURI),
+                        index.getOverlayDeleteSetURI(referenceURI)});
+            }
+        }
+        return overlays;
+    }
+
+    /**
+     * Rewrites an element of a query.
+     *
+     * @param element the element
+     * @param overlays the base and overlay graphs (key: full graph URI of the branch)
+     * @param overlay the base and overlay graphs of the enclosing named graph pattern or null if it is no branch overlay
+     * @return the rewritten element or null if the element can not be rewritten
+     */
+    private static Element rewriteElement(final Element element, final Map<String, String[]> overlays, final String[] overlay) {
+        if (element instanceof ElementNamedGraph) {
+            ElementNamedGraph namedGraph = (ElementNamedGraph) element;
+            Node graphNode = namedGraph.getGraphNameNode();
+            String[] graphOverlay = graphNode.isURI() ? overlays.get(graphNode.getURI()) : null;
+            Element inner = rewriteElement(namedGraph.getElement(), overlays, graphOverlay);
+            if (inner == null) {
+                return null;
+            }
+            return (graphOverlay != null) ? inner : new ElementNamedGraph(graphNode, inner);
+        }
+        else if (element instanceof ElementGroup) {
+            ElementGroup group = new ElementGroup();
+            for (Element el : ((ElementGroup) element).getElements()) {
+                if (overlay != null && (el instanceof ElementPathBlock || el instanceof ElementTriplesBlock)) {
+                    for (Triple triple : getTriples(el)) {
+                        if (triple == null || isBlankNode(triple.getSubject()) || isBlankNode(triple.getPredicate()) || isBlankNode(triple.getObject())) {
+                            return null;
+                        }
+                        group.addElement(getOverlayElement(triple, overlay));
+                    }
+                } else {
+                    Element rewritten = rewriteElement(el, overlays, overlay);
+                    if (rewritten == null) {
+                        return null;
+                    }
+                    group.addElement(rewritten);
+                }
+            }
+            return group;
+        }
+        else if (element instanceof ElementUnion) {
+            ElementUnion union = new ElementUnion();
+            for (Element el : ((ElementUnion) element).getElements()) {
+                Element rewritten = rewriteElement(el, overlays, overlay);
+                if (rewritten == null) {
+                    return null;
+                }
+                union.addElement(rewritten);
+            }
+            return union;
+        }
+        else if (element instanceof ElementOptional) {
+            Element rewritten = rewriteElement(((ElementOptional) element).getOptionalElement(), overlays, overlay);
+            return (rewritten != null) ? new ElementOptional(rewritten) : null;
+        }
+        else if (element instanceof ElementMinus) {
+            Element rewritten = rewriteElement(((ElementMinus) element).getMinusElement(), overlays, overlay);
+            return (rewritten != null) ? new ElementMinus(rewritten) : null;
+        }
+        else if (element instanceof ElementFilter) {
+            // patterns inside of EXISTS would not be rewritten
+            boolean hasPattern = containsPattern(((ElementFilter) element).getExpr());
+            return (hasPattern && (overlay != null || mentionsOverlay(element, overlays))) ? null : element;
+        }
+        else if (overlay == null && (element instanceof ElementPathBlock || element instanceof ElementTriplesBlock)) {
+            return element;
+        }
+        else if (element instanceof ElementBind || element instanceof ElementData) {
+            return element;
+        }
+        else {
+            return (overlay == null && !mentionsOverlay(element, overlays)) ? element : null;
+        }
+    }
+
+    /**
+     * Get the pattern which matches a triple pattern against base graph and overlay graphs.
+     *
+     * @param triple the triple pattern
+     * @param overlay the base graph, the overlay add set and the overlay delete set
+     * @return the pattern
+     */
+    private static Element getOverlayElement(final Triple triple, final String[] overlay) {
+        ElementGroup added = new ElementGroup();
+        added.addElement(new ElementNamedGraph(NodeFactory.createURI(overlay[1]), getTriplesBlock(triple)));
+
+        ElementGroup deleted = new ElementGroup();
+        deleted.addElement(new ElementNamedGraph(NodeFactory.createURI(overlay[2]), getTriplesBlock(triple)));
+        ElementGroup base = new ElementGroup();
+        base.addElement(new ElementNamedGraph(NodeFactory.createURI(overlay[0]), getTriplesBlock(triple)));
+        base.addElementFilter(new ElementFilter(new E_NotExists(deleted)));
+
+        ElementUnion union = new ElementUnion();
+        union.addElement(added);
+        union.addElement(base);
+        return union;
+    }
+
+    /**
+     * Get a group which contains only the specified triple pattern.
+     *
+     * @param triple the triple pattern
+     * @return the group
+     */
+    private static ElementGroup getTriplesBlock(final Triple triple) {
+        ElementGroup group = new ElementGroup();
+        group.addTriplePattern(triple);
+        return group;
+    }
+
+    /**
+     * Get the triple patterns of a block. Property paths are returned as null.
+     *
+     * @param element the block
+     * @return list of triple patterns
+     */
+    private static List<Triple> getTriples(final Element element) {
+        List<Triple> triples = new ArrayList<>();
+        if (element instanceof ElementTriplesBlock) {
+            triples.addAll(((ElementTriplesBlock) element).getPattern().getList());
+        } else {
+            Iterator<TriplePath> it = ((ElementPathBlock) element).patternElts();
+            while (it.hasNext()) {
+                TriplePath triplePath = it.next();
+                triples.add(triplePath.isTriple() ? triplePath.asTriple() : null);
+            }
+        }
+        return triples;
+    }
+
+    /**
+     * Checks if the node is a blank node or a blank node variable of the query.
+     *
+     * @param node the node
+     * @return true if the node is a blank node
+     */
+    private static boolean isBlankNode(final Node node) {
+        return node.isBlank() || (node.isVariable() && Var.isBlankNodeVar(node));
+    }
+
+    /**
+     * Checks if the expression contains a graph pattern (EXISTS or NOT EXISTS).
+     *
+     * @param expr the expression
+     * @return true if the expression contains a graph pattern
+     */
+    private static boolean containsPattern(final Expr expr) {
+        if (expr instanceof ExprFunctionOp) {
+            return true;
+        }
+        if (expr instanceof ExprFunction) {
+            for (Expr arg : ((ExprFunction) expr).getArgs()) {
+                if (containsPattern(arg)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if the element refers to the full graph of one of the branches.
+     *
+     * @param element the element
+     * @param overlays the base and overlay graphs (key: full graph URI of the branch)
+     * @return true if the element refers to one of the full graphs
+     */
+    private static boolean mentionsOverlay(final Element element, final Map<String, String[]> overlays) {
+        String elementString = element.toString();
+        for (String graphURI : overlays.keySet()) {
+            if (elementString.contains("<" + graphURI + ">")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the post-commit action which marks the overlay graphs of a reference as changed to the update batch.
+     *
+     * @param batch the update batch
+     * @param index the revision graph index
+     * @param referenceURI the reference URI
+     */
+    private static void markOverlayChanged(final UpdateBatch batch, final RevisionGraphIndex index, final String referenceURI) {
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.markOverlayChanged(referenceURI);
+            }
+        });
+    }
+
+    /**
+     * Adds the post-commit action which marks the overlay graphs of a reference as rebased to the update batch.
+     *
+     * @param batch the update batch
+     * @param index the revision graph index
+     * @param referenceURI the reference URI
+     */
+    private static void markOverlayRebased(final UpdateBatch batch, final RevisionGraphIndex index, final String referenceURI) {
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.markOverlayRebased(referenceURI);
+            }
+        });
+    }
+
+    /**
+     * Adds the post-commit action which removes the overlay of a reference from the index to the update batch.
+     *
+     * @param batch the update batch
+     * @param index the revision graph index
+     * @param referenceURI the reference URI
+     */
+    private static void removeOverlay(final UpdateBatch batch, final RevisionGraphIndex index, final String referenceURI) {
+        batch.addPostCommitAction(new Runnable() {
+            @Override
+            public void run() {
+                index.removeOverlay(referenceURI);
+            }
+        });
+    }
+
+    /**
+     * Counts the triples of a named graph.
+     *
+     * @param graphName the graph name
+     * @return the number of triples
+     */
+    private static long countTriples(final String graphName) {
+        String query = String.format(
+                  "SELECT (COUNT(*) AS ?count) %n"
+                + "WHERE { GRAPH <%s> {?s ?p ?o} }", graphName);
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        if (results.hasNext()) {
+            return results.next().getLiteral("?count").getLong();
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,287 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.apache.jena.riot.out.NodeFmtLib;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Normalizes the change sets of a commit in memory before they are applied to the content of a reference.
+ *
+ * The add set and the delete set are loaded into hash-based triple sets. Only their triples are looked up in the
+ * content of the reference, in blocks of bound triple patterns which the triplestore answers from its indexes. Triples
+ * of the add set which the reference already contains and triples of the delete set which it does not contain are
+ * removed from the change sets, and only the normalized change sets are written to the full graph. So a commit costs
+ * O(|change set| * log |graph|) instead of several scans of the full graph.
+ *
+ * Change sets with blank nodes can not be looked up by their triples. They are normalized by SPARQL updates instead.
+ */
+public class ChangeSetNormalizer {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(ChangeSetNormalizer.class);
+
+    /** The triple pattern used in the generated queries. **/
+    private static final String TRIPLE = "?s ?p ?o.";
+    /** The maximum number of triples which are looked up by one query. **/
+    private static final int LOOKUP_SIZE = 500;
+
+
+    /**
+     * The constructor.
+     */
+    private ChangeSetNormalizer() {
+
+    }
+
+    /**
+     * Adds a step for normalizing the change set and for applying it to the content of the reference to the update
+     * batch. The step is run in the write of the batch, so the change set graphs may be filled by the preceding
+     * operations of the batch and the lookups read the same state the normalized change set is applied to.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the reference the change set is applied to
+     * @param addSetURI the graph with the added triples
+     * @param deleteSetURI the graph with the deleted triples
+     */
+    public static void normalizeAndApply(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI,
+                                         final String addSetURI, final String deleteSetURI) {
+        batch.addStep(new UpdateBatch.Step() {
+            @Override
+            public void run(UpdateBatch stepBatch) {
+                normalizeAndApplyInMemory(stepBatch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+            }
+        });
+    }
+
+    /**
+     * Adds the statements for normalizing the change set in memory and for applying it to the content of the
+     * reference to the update batch. The change set graphs have to be filled in the triplestore already.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the reference the change set is applied to
+     * @param addSetURI the graph with the added triples
+     * @param deleteSetURI the graph with the deleted triples
+     */
+    private static void normalizeAndApplyInMemory(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI,
+                                                  final String addSetURI, final String deleteSetURI) {
+        Set<Triple> addSet = loadTriples(addSetURI);
+        Set<Triple> deleteSet = loadTriples(deleteSetURI);
+        if (containsBlankNodes(addSet) || containsBlankNodes(deleteSet)) {
+            logger.debug("Change set of <" + referenceURI + "> contains blank nodes");
+            normalizeAndApplyBySparql(batch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+            return;
+        }
+
+        // already existing triples in add set; not existing triples in delete set
+        Set<Triple> redundantAdditions = getContainedTriples(revisionGraphURI, referenceURI, addSet);
+        Set<Triple> deletions = getContainedTriples(revisionGraphURI, referenceURI, deleteSet);
+        addSet.removeAll(redundantAdditions);
+        deleteSet.removeAll(deletions);
+        Set<Triple> redundantDeletions = deleteSet;
+        Set<Triple> additions = addSet;
+        logger.debug(String.format("Normalized change set of <%s>: %d additions, %d deletions, %d redundant triples",
+                referenceURI, additions.size(), deletions.size(), redundantAdditions.size() + redundantDeletions.size()));
+
+        if (!redundantAdditions.isEmpty()) {
+            batch.deleteData(addSetURI, toNTriples(redundantAdditions));
+        }
+        if (!redundantDeletions.isEmpty()) {
+            batch.deleteData(deleteSetURI, toNTriples(redundantDeletions));
+        }
+
+        RevisionGraphIndex index = RevisionGraphIndex.getInstance(revisionGraphURI);
+        String fullGraphURI = index.getFullGraphURI(referenceURI);
+        if (index.isOverlay(referenceURI) || !index.getOverlayReferenceURIs(fullGraphURI).isEmpty()) {
+            // the overlay graphs are updated from the normalized change set graphs
+            BranchOverlay.applyChangeSet(batch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+        } else {
+            if (!additions.isEmpty()) {
+                batch.insertData(fullGraphURI, toNTriples(additions));
+            }
+            if (!deletions.isEmpty()) {
+                batch.deleteData(fullGraphURI, toNTriples(deletions));
+            }
+        }
+    }
+
+    /**
+     * Adds the statements for normalizing the change set and for applying it to the content of the reference to the
+     * update batch without loading the change set into memory. Used for bulk uploads whose change sets may be larger
+     * than the available memory; the triplestore evaluates the normalization on the whole content of the reference.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the reference the change set is applied to
+     * @param addSetURI the graph with the added triples
+     * @param deleteSetURI the graph with the deleted triples
+     */
+    public static void normalizeAndApplyInStore(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI,
+                                                final String addSetURI, final String deleteSetURI) {
+        normalizeAndApplyBySparql(batch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+    }
+
+    /**
+     * Normalizes a change set which is given in memory. Used by group commits whose preceding commits are not
+     * written yet, so their changes of the content are passed as well and take precedence over the triplestore.
+     * The triples of the normalized change set are added to the changes of the preceding commits afterwards.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the reference the change set is applied to
+     * @param addSet the added triples; triples which are already contained are removed
+     * @param deleteSet the deleted triples; triples which are not contained are removed
+     * @param addedBefore the triples added by the preceding commits which are not written yet
+     * @param deletedBefore the triples deleted by the preceding commits which are not written yet
+     */
+    public static void normalize(final String revisionGraphURI, final String referenceURI, final Set<Triple> addSet,
+                                 final Set<Triple> deleteSet, final Set<Triple> addedBefore, final Set<Triple> deletedBefore) {
+        Set<Triple> lookup = new HashSet<>();
+        for (Triple triple : addSet) {
+            if (!addedBefore.contains(triple) && !deletedBefore.contains(triple)) {
+                lookup.add(triple);
+            }
+        }
+        for (Triple triple : deleteSet) {
+            if (!addedBefore.contains(triple) && !deletedBefore.contains(triple)) {
+                lookup.add(triple);
+            }
+        }
+        Set<Triple> contained = getContainedTriples(revisionGraphURI, referenceURI, lookup);
+        contained.addAll(addedBefore);
+        addSet.removeAll(contained);
+        deleteSet.retainAll(contained);
+
+        // additions are applied before deletions
+        deletedBefore.removeAll(addSet);
+        addedBefore.addAll(addSet);
+        addedBefore.removeAll(deleteSet);
+        deletedBefore.addAll(deleteSet);
+    }
+
+    /**
+     * Adds the statements for normalizing the change set by SPARQL updates which are evaluated on the whole content of
+     * the reference and for applying it to the update batch.
+     *
+     * @param batch the update batch
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the URI of the reference the change set is applied to
+     * @param addSetURI the graph with the added triples
+     * @param deleteSetURI the graph with the deleted triples
+     */
+    private static void normalizeAndApplyBySparql(final UpdateBatch batch, final String revisionGraphURI, final String referenceURI,
+                                                  final String addSetURI, final String deleteSetURI) {
+        String referenceContent = BranchOverlay.getContentPattern(revisionGraphURI, referenceURI, TRIPLE);
+        batch.add(String.format(
+                "DELETE { GRAPH <%s> { %s } } WHERE { %s }",
+                addSetURI, TRIPLE, referenceContent));
+        batch.add(String.format(
+                "DELETE { GRAPH <%s> { %s } } WHERE { GRAPH <%s> { %s } MINUS { %s } }",
+                deleteSetURI, TRIPLE, deleteSetURI, TRIPLE, referenceContent));
+        BranchOverlay.applyChangeSet(batch, revisionGraphURI, referenceURI, addSetURI, deleteSetURI);
+    }
+
+    /**
+     * Loads all triples of a graph.
+     *
+     * @param graphURI the graph URI
+     * @return the triples
+     */
+    private static Set<Triple> loadTriples(final String graphURI) {
+        Set<Triple> triples = new HashSet<>();
+        TripleStoreInterfaceSingleton.get().executeConstructQuery(String.format(
+                "CONSTRUCT { %s } WHERE { GRAPH <%s> { %s } }", TRIPLE, graphURI, TRIPLE), triples);
+        return triples;
+    }
+
+    /**
+     * Get the triples which are contained in the content of the reference.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     * @param triples the triples to look up
+     * @return the contained triples
+     */
+    private static Set<Triple> getContainedTriples(final String revisionGraphURI, final String referenceURI, final Collection<Triple> triples) {
+        Set<Triple> contained = new HashSet<>();
+        if (triples.isEmpty()) {
+            return contained;
+        }
+        String referenceContent = BranchOverlay.getContentPattern(revisionGraphURI, referenceURI, TRIPLE);
+        List<Triple> block = new ArrayList<>(LOOKUP_SIZE);
+        for (Triple triple : triples) {
+            block.add(triple);
+            if (block.size() == LOOKUP_SIZE) {
+                lookupTriples(referenceContent, block, contained);
+                block.clear();
+            }
+        }
+        if (!block.isEmpty()) {
+            lookupTriples(referenceContent, block, contained);
+        }
+        return contained;
+    }
+
+    /**
+     * Looks up a block of triples in the content of a reference. The triples are bound by VALUES, so every triple
+     * pattern is evaluated with all positions bound.
+     *
+     * @param referenceContent the graph pattern of the content of the reference
+     * @param triples the triples to look up
+     * @param contained the set the contained triples are added to
+     */
+    private static void lookupTriples(final String referenceContent, final List<Triple> triples, final Set<Triple> contained) {
+        StringBuilder values = new StringBuilder();
+        for (Triple triple : triples) {
+            values.append(String.format("(%s %s %s)%n", NodeFmtLib.str(triple.getSubject()),
+                    NodeFmtLib.str(triple.getPredicate()), NodeFmtLib.str(triple.getObject())));
+        }
+        String query = String.format("SELECT ?s ?p ?o WHERE { VALUES (?s ?p ?o) { %s } %s }", values, referenceContent);
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        while (results.hasNext()) {
+            QuerySolution qs = results.next();
+            contained.add(Triple.create(qs.get("s").asNode(), qs.get("p").asNode(), qs.get("o").asNode()));
+        }
+    }
+
+    /**
+     * Checks if any triple contains a blank node.
+     *
+     * @param triples the triples
+     * @return true if a blank node is contained
+     */
+    private static boolean containsBlankNodes(final Collection<Triple> triples) {
+        for (Triple triple : triples) {
+            if (triple.getSubject().isBlank() || triple.getObject().isBlank()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Serializes triples as N-Triples.
+     *
+     * @param triples the triples
+     * @return the N-Triples
+     */
+    public static String toNTriples(final Collection<Triple> triples) {
+        StringBuilder sb = new StringBuilder();
+        for (Triple triple : triples) {
+            sb.append(String.format("%s %s %s .%n", NodeFmtLib.str(triple.getSubject()),
+                    NodeFmtLib.str(triple.getPredicate()), NodeFmtLib.str(triple.getObject())));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,218 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.apache.log4j.Logger;
+
+import java.util.BitSet;
+import java.util.HashSet;
+
+/**
+ * In-memory index of all named graph URIs which are allocated by R43ples (revision graphs, full graphs, add and delete
+ * sets and overlay graphs of all revised graphs).
+ *
+ * The index is seeded with one query on first access and afterwards maintained by the revision graph indexes whenever
+ * the commit drafts register new revisions, references or overlays. Most lookups are made for new URIs which are not
+ * allocated yet. A Bloom filter in front of the hash set answers them without a lookup in the set.
+ */
+public class GraphURIIndex {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(GraphURIIndex.class);
+
+    /** The number of Bloom filter bits per allocated URI. **/
+    private static final int BITS_PER_URI = 10;
+    /** The number of hash functions of the Bloom filter. **/
+    private static final int HASH_FUNCTIONS = 7;
+    /** The minimal number of URIs the Bloom filter is sized for. **/
+    private static final int MIN_CAPACITY = 1024;
+
+    /** The singleton instance. **/
+    private static GraphURIIndex instance;
+
+    /** States if the index was already seeded from the triplestore. **/
+    private boolean loaded = false;
+    /** The allocated graph URIs. **/
+    private final HashSet<String> uris = new HashSet<>();
+    /** The Bloom filter of the allocated graph URIs. **/
+    private BitSet bloomFilter;
+    /** The number of URIs the Bloom filter is sized for. **/
+    private int capacity;
+
+
+    /**
+     * The constructor.
+     */
+    private GraphURIIndex() {
+
+    }
+
+    /**
+     * Get the instance of the graph URI index.
+     *
+     * @return the instance
+     */
+    public static synchronized GraphURIIndex getInstance() {
+        if (instance == null) {
+            instance = new GraphURIIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Checks if a named graph URI is already allocated by R43ples.
+     *
+     * @param graphURI the graph URI
+     * @return true if the graph URI is in use
+     */
+    public synchronized boolean contains(final String graphURI) {
+        ensureLoaded();
+        if (!mightContain(graphURI)) {
+            return false;
+        }
+        return uris.contains(graphURI);
+    }
+
+    /**
+     * Adds allocated graph URIs to the index. Updates on an index which was not seeded yet are ignored because the
+     * seeding will read the current state from the triplestore anyway.
+     *
+     * @param graphURIs the graph URIs (null values are ignored)
+     */
+    public synchronized void add(final String... graphURIs) {
+        if (!loaded) {
+            return;
+        }
+        for (String graphURI : graphURIs) {
+            if (graphURI != null && uris.add(graphURI)) {
+                if (uris.size() > capacity) {
+                    rebuildBloomFilter();
+                } else {
+                    addToBloomFilter(graphURI);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the index. It will be seeded again from the triplestore on next access. Has to be called if graphs were
+     * removed, e.g. when the revision information of a graph was purged.
+     */
+    public synchronized void invalidate() {
+        loaded = false;
+        uris.clear();
+        bloomFilter = null;
+    }
+
+    /**
+     * Get the number of allocated graph URIs.
+     *
+     * @return the number of graph URIs
+     */
+    public synchronized int size() {
+        ensureLoaded();
+        return uris.size();
+    }
+
+    /**
+     * Seeds the index with all graph URIs referenced by the revision graphs if this was not done yet.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        String query = Config.prefixes + String.format(""
+                + "SELECT DISTINCT ?uriGraph ?uri\n"
+                + "WHERE {\n"
+                + "  GRAPH <%s> {\n"
+                + "    ?graph a rmo:Graph;\n"
+                + "      rmo:hasRevisionGraph ?uriGraph.\n"
+                + "  }\n"
+                + "  BIND(IRI(CONCAT(STR(?uriGraph), \"-overlays\")) AS ?overlayGraph)\n"
+                + "  OPTIONAL {\n"
+                + "    { GRAPH ?uriGraph { ?ref rmo:fullGraph ?uri. } }\n"
+                + "    UNION\n"
+                + "    { GRAPH ?uriGraph { ?rev rmo:addSet ?uri. } }\n"
+                + "    UNION\n"
+                + "    { GRAPH ?uriGraph { ?rev rmo:deleteSet ?uri. } }\n"
+                + "    UNION\n"
+                + "    { GRAPH ?overlayGraph { ?ref rmo:overlayAddSet ?uri. } }\n"
+                + "    UNION\n"
+                + "    { GRAPH ?overlayGraph { ?ref rmo:overlayDeleteSet ?uri. } }\n"
+                + "  }\n"
+                + "}\n", Config.revision_graph);
+        ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        while (resultSet.hasNext()) {
+            QuerySolution qs = resultSet.next();
+            uris.add(qs.getResource("?uriGraph").toString());
+            if (qs.get("?uri") != null && qs.get("?uri").isURIResource()) {
+                uris.add(qs.getResource("?uri").toString());
+            }
+        }
+        rebuildBloomFilter();
+        loaded = true;
+        logger.debug("Graph URI index seeded with " + uris.size() + " graph URIs");
+    }
+
+    /**
+     * Sizes the Bloom filter for twice the current number of URIs and adds all of them.
+     */
+    private void rebuildBloomFilter() {
+        capacity = Math.max(MIN_CAPACITY, uris.size() * 2);
+        bloomFilter = new BitSet(capacity * BITS_PER_URI);
+        for (String graphURI : uris) {
+            addToBloomFilter(graphURI);
+        }
+    }
+
+    /**
+     * Sets the Bloom filter bits of a URI.
+     *
+     * @param graphURI the graph URI
+     */
+    private void addToBloomFilter(final String graphURI) {
+        int bits = capacity * BITS_PER_URI;
+        int h1 = graphURI.hashCode();
+        int h2 = secondaryHash(h1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            bloomFilter.set(((h1 + i * h2) & Integer.MAX_VALUE) % bits);
+        }
+    }
+
+    /**
+     * Checks the Bloom filter bits of a URI.
+     *
+     * @param graphURI the graph URI
+     * @return false if the URI is definitely not allocated
+     */
+    private boolean mightContain(final String graphURI) {
+        int bits = capacity * BITS_PER_URI;
+        int h1 = graphURI.hashCode();
+        int h2 = secondaryHash(h1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            if (!bloomFilter.get(((h1 + i * h2) & Integer.MAX_VALUE) % bits)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Derives a second independent hash value for double hashing (finalizer of MurmurHash3).
+     *
+     * @param hash the hash code of the URI
+     * @return the second hash value
+     */
+    private static int secondaryHash(final int hash) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h | 1;
+    }
+
+}
@@ -0,0 +1,310 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU store of materialized full graphs of revisions which are not referenced by a branch or tag.
+ *
+ * Revisions are immutable, so a full graph once rebuilt from the add and delete sets can be reused by all following
+ * queries against the same revision. The size of the store is limited by the number of triples of all materialized
+ * graphs (configuration key revision.cache.maxTriples). The least recently used graphs are dropped from the
+ * triplestore when the limit is exceeded. Graphs which are currently used by a query are never dropped. Different
+ * revisions can be rebuilt concurrently.
+ */
+public class MaterializedRevisionCache {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(MaterializedRevisionCache.class);
+
+    /** The singleton instance. **/
+    private static MaterializedRevisionCache instance;
+
+    /** The cached full graphs in access order (key: full graph URI). **/
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The locks of the full graphs which are currently rebuilt (key: full graph URI). **/
+    private final HashMap<String, GenerationLock> generationLocks = new HashMap<>();
+    /** The number of triples of all cached full graphs. **/
+    private long cachedTriples = 0;
+
+    /** The number of cache hits. **/
+    private long hits = 0;
+    /** The number of cache misses. **/
+    private long misses = 0;
+    /** The number of evicted full graphs. **/
+    private long evictions = 0;
+
+
+    /**
+     * The constructor.
+     */
+    private MaterializedRevisionCache() {
+
+    }
+
+    /**
+     * Get the instance of the materialized revision cache.
+     *
+     * @return the instance
+     */
+    public static synchronized MaterializedRevisionCache getInstance() {
+        if (instance == null) {
+            instance = new MaterializedRevisionCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the full graph of the specified revision. The full graph is rebuilt only if it is not available in the
+     * cache. The returned graph is pinned and will not be evicted until {@link #release(String)} was called.
+     *
+     * Concurrent requests for the same revision wait until the first one has rebuilt it.
+     *
+     * @param graphName the graph name
+     * @param revisionNumber the revision number
+     * @return the URI of the graph which contains the full content of the revision
+     * @throws InternalErrorException
+     */
+    public String acquire(final String graphName, final String revisionNumber) throws InternalErrorException {
+        String fullGraphName = graphName + "-" + revisionNumber;
+        if (pin(fullGraphName)) {
+            return fullGraphName;
+        }
+
+        Object generationLock = getGenerationLock(fullGraphName);
+        try {
+            synchronized (generationLock) {
+                // the revision could have been rebuilt while waiting for the lock
+                if (pin(fullGraphName)) {
+                    return fullGraphName;
+                }
+                RevisionManagementOriginal.generateFullGraphOfRevision(graphName, revisionNumber, fullGraphName);
+                long triples = (Config.revision_cache_maxTriples > 0) ? countTriples(fullGraphName) : 0;
+                synchronized (this) {
+                    misses++;
+                    if (Config.revision_cache_maxTriples > 0) {
+                        Entry entry = new Entry(graphName, triples);
+                        entry.pins++;
+                        entries.put(fullGraphName, entry);
+                        cachedTriples += entry.triples;
+                        logger.debug("Materialized revision <" + fullGraphName + "> with " + entry.triples + " triples");
+                        evict();
+                    }
+                }
+                return fullGraphName;
+            }
+        } finally {
+            releaseGenerationLock(fullGraphName);
+        }
+    }
+
+    /**
+     * Checks if the full graph of the specified revision is available in the cache.
+     *
+     * @param graphName the graph name
+     * @param revisionNumber the revision number
+     * @return true if the full graph is cached
+     */
+    public synchronized boolean contains(final String graphName, final String revisionNumber) {
+        return entries.containsKey(graphName + "-" + revisionNumber);
+    }
+
+    /**
+     * Pins the full graph of a revision if it is available in the cache.
+     *
+     * @param fullGraphName the full graph URI
+     * @return true if the full graph is cached
+     */
+    private synchronized boolean pin(final String fullGraphName) {
+        Entry entry = entries.get(fullGraphName);
+        if (entry == null) {
+            return false;
+        }
+        hits++;
+        entry.pins++;
+        logger.debug("Materialized revision cache hit for <" + fullGraphName + ">");
+        return true;
+    }
+
+    /**
+     * Get the lock which serializes the rebuilding of a full graph. Has to be released by
+     * {@link #releaseGenerationLock(String)}.
+     *
+     * @param fullGraphName the full graph URI
+     * @return the lock
+     */
+    private synchronized Object getGenerationLock(final String fullGraphName) {
+        GenerationLock lock = generationLocks.get(fullGraphName);
+        if (lock == null) {
+            lock = new GenerationLock();
+            generationLocks.put(fullGraphName, lock);
+        }
+        lock.users++;
+        return lock;
+    }
+
+    /**
+     * Releases the lock which serializes the rebuilding of a full graph.
+     *
+     * @param fullGraphName the full graph URI
+     */
+    private synchronized void releaseGenerationLock(final String fullGraphName) {
+        GenerationLock lock = generationLocks.get(fullGraphName);
+        if (lock != null && --lock.users == 0) {
+            generationLocks.remove(fullGraphName);
+        }
+    }
+
+    /**
+     * Releases a full graph which was acquired before. The graph can be evicted afterwards.
+     *
+     * @param fullGraphName the full graph URI returned by {@link #acquire(String, String)}
+     */
+    public synchronized void release(final String fullGraphName) {
+        Entry entry = entries.get(fullGraphName);
+        if (entry != null && entry.pins > 0) {
+            entry.pins--;
+        }
+        evict();
+    }
+
+    /**
+     * Drops all cached full graphs of the specified graph. Has to be called when the revision information of the
+     * graph is removed because revision numbers can be reused afterwards.
+     *
+     * @param graphName the graph name
+     */
+    public synchronized void invalidate(final String graphName) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().graphName.equals(graphName)) {
+                it.remove();
+                cachedTriples -= e.getValue().triples;
+                TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + e.getKey() + ">");
+            }
+        }
+    }
+
+    /**
+     * Drops all cached full graphs.
+     */
+    public synchronized void invalidateAll() {
+        for (String fullGraphName : new ArrayList<>(entries.keySet())) {
+            TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + fullGraphName + ">");
+        }
+        entries.clear();
+        cachedTriples = 0;
+    }
+
+    /**
+     * Forgets all cached full graphs without dropping them, e.g. when the triplestore is closed.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        cachedTriples = 0;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of evicted full graphs.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of triples of all cached full graphs.
+     *
+     * @return the number of triples
+     */
+    public synchronized long getCachedTriples() {
+        return cachedTriples;
+    }
+
+    /**
+     * Drops the least recently used full graphs which are not pinned until the triple limit is satisfied.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (cachedTriples > Config.revision_cache_maxTriples && it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().pins == 0) {
+                it.remove();
+                cachedTriples -= e.getValue().triples;
+                evictions++;
+                logger.debug("Evict materialized revision <" + e.getKey() + ">");
+                TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + e.getKey() + ">");
+            }
+        }
+    }
+
+    /**
+     * Counts the triples of a named graph.
+     *
+     * @param graphName the graph name
+     * @return the number of triples
+     */
+    private long countTriples(final String graphName) {
+        String query = String.format(
+                  "SELECT (COUNT(*) AS ?count) %n"
+                + "WHERE { GRAPH <%s> {?s ?p ?o} }", graphName);
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        if (results.hasNext()) {
+            return results.next().getLiteral("?count").getLong();
+        }
+        return 0;
+    }
+
+
+    /**
+     * Lock which serializes the rebuilding of a full graph.
+     */
+    private static class GenerationLock {
+        private int users = 0;
+    }
+
+    /**
+     * Cache entry of a materialized full graph.
+     */
+    private static class Entry {
+        private final String graphName;
+        private final long triples;
+        private int pins = 0;
+
+        private Entry(String graphName, long triples) {
+            this.graphName = graphName;
+            this.triples = triples;
+        }
+    }
+
+}
@@ -28,7 +28,7 @@ public class PathCalculationSingleton {
      *
      * @return the instance of the path calculation implementation
      */
-    public static PathCalculationInterface getInstance() {
+    public static synchronized PathCalculationInterface getInstance() {
         if (pathCalculation!=null)
             return pathCalculation;
         else {
@@ -0,0 +1,477 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.Query;
+import com.hp.hpl.jena.query.QueryException;
+import com.hp.hpl.jena.query.QueryFactory;
+import com.hp.hpl.jena.sparql.expr.Expr;
+import com.hp.hpl.jena.sparql.expr.ExprFunction;
+import com.hp.hpl.jena.sparql.expr.ExprFunctionOp;
+import com.hp.hpl.jena.sparql.syntax.Element;
+import com.hp.hpl.jena.sparql.syntax.ElementBind;
+import com.hp.hpl.jena.sparql.syntax.ElementData;
+import com.hp.hpl.jena.sparql.syntax.ElementExists;
+import com.hp.hpl.jena.sparql.syntax.ElementFilter;
+import com.hp.hpl.jena.sparql.syntax.ElementGroup;
+import com.hp.hpl.jena.sparql.syntax.ElementMinus;
+import com.hp.hpl.jena.sparql.syntax.ElementNamedGraph;
+import com.hp.hpl.jena.sparql.syntax.ElementNotExists;
+import com.hp.hpl.jena.sparql.syntax.ElementOptional;
+import com.hp.hpl.jena.sparql.syntax.ElementPathBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementSubQuery;
+import com.hp.hpl.jena.sparql.syntax.ElementTriplesBlock;
+import com.hp.hpl.jena.sparql.syntax.ElementUnion;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import org.apache.log4j.Logger;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded LRU cache of serialized results of queries which pin every graph to a revision number.
+ *
+ * The content of a revision never changes, so a SELECT, ASK or CONSTRUCT query whose graphs all carry a REVISION
+ * clause naming a revision number (not a branch or tag) always produces the same result. Such results are stored
+ * together with a strong entity tag, keyed by the query, the result format and the pinned revisions. The size of the
+ * cache is limited by the number of bytes of all stored results (configuration key query.result.cache.maxBytes). An
+ * entry is only dropped when the revised graph it depends on is purged.
+ */
+public class QueryResultCache {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(QueryResultCache.class);
+
+    /** The pattern of GRAPH and FROM clauses with a revision. **/
+    private static final Pattern patternRevisionClause = Pattern.compile(
+            "(?<type>FROM\\s+NAMED|FROM|GRAPH)\\s*<(?<graph>[^>\\?]*)(\\?|>)(\\s*REVISION\\s*\"|revision=)(?<revision>[^\">]+)(>|\")",
+            Pattern.DOTALL + Pattern.MULTILINE + Pattern.CASE_INSENSITIVE);
+    /** The pattern of all GRAPH and FROM keywords. **/
+    private static final Pattern patternGraphClause = Pattern.compile("\\b(FROM|GRAPH)\\b", Pattern.CASE_INSENSITIVE);
+
+    /** The singleton instance. **/
+    private static QueryResultCache instance;
+
+    /** The cached results in access order (key: see {@link #getKey(String, String, boolean, Map)}). **/
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The number of bytes of all cached results. **/
+    private long cachedBytes = 0;
+    /** The number of invalidations, used to detect results which were evaluated while a graph was purged. **/
+    private long version = 0;
+
+    /** The number of cache hits. **/
+    private long hits = 0;
+    /** The number of cache misses. **/
+    private long misses = 0;
+    /** The number of evicted results. **/
+    private long evictions = 0;
+
+
+    /**
+     * The constructor.
+     */
+    private QueryResultCache() {
+
+    }
+
+    /**
+     * Get the instance of the query result cache.
+     *
+     * @return the instance
+     */
+    public static synchronized QueryResultCache getInstance() {
+        if (instance == null) {
+            instance = new QueryResultCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the revisions a query is pinned to. A query is pinned if every FROM and GRAPH clause carries a revision
+     * which is a revision number and all triple patterns are evaluated on these revisions.
+     *
+     * @param query the R43ples query
+     * @return the pinned revision numbers (key: graph name) or null if the query is not pinned
+     */
+    public static TreeMap<String, TreeSet<String>> getPinnedRevisions(final String query) {
+        TreeMap<String, TreeSet<String>> pinnedRevisions = new TreeMap<>();
+        int clauses = 0;
+        Matcher matcher = patternRevisionClause.matcher(query);
+        StringBuffer queryWithoutRevisions = new StringBuffer(query.length());
+        while (matcher.find()) {
+            String graphName = matcher.group("graph");
+            TreeSet<String> revisions = pinnedRevisions.get(graphName);
+            if (revisions == null) {
+                revisions = new TreeSet<>();
+                pinnedRevisions.put(graphName, revisions);
+            }
+            revisions.add(matcher.group("revision"));
+            clauses++;
+            matcher.appendReplacement(queryWithoutRevisions,
+                    Matcher.quoteReplacement(matcher.group("type") + " <" + graphName + ">"));
+        }
+        matcher.appendTail(queryWithoutRevisions);
+
+        // every clause has to carry a revision
+        int allClauses = 0;
+        Matcher graphMatcher = patternGraphClause.matcher(query);
+        while (graphMatcher.find()) {
+            allClauses++;
+        }
+        if (clauses == 0 || clauses != allClauses) {
+            return null;
+        }
+
+        Query parsedQuery;
+        try {
+            parsedQuery = QueryFactory.create(Config.getUserDefinedSparqlPrefixes() + queryWithoutRevisions);
+        } catch (QueryException e) {
+            return null;
+        }
+        if (parsedQuery.getGraphURIs().size() > 1 || parsedQuery.getQueryPattern() == null
+                || !isPinned(parsedQuery.getQueryPattern(), !parsedQuery.getGraphURIs().isEmpty())
+                || (parsedQuery.hasHaving() && !isPinned(parsedQuery.getHavingExprs(), false))) {
+            return null;
+        }
+
+        for (Map.Entry<String, TreeSet<String>> entry : pinnedRevisions.entrySet()) {
+            RevisionGraph graph = new RevisionGraph(entry.getKey());
+            for (String revision : entry.getValue()) {
+                try {
+                    if (graph.hasReference(revision) || !revision.equals(graph.getRevisionIdentifier(revision))) {
+                        return null;
+                    }
+                } catch (InternalErrorException e) {
+                    // unknown revisions are reported by the evaluation of the query
+                    return null;
+                }
+            }
+        }
+        return pinnedRevisions;
+    }
+
+    /**
+     * Checks if all triple patterns of an element are evaluated on a named graph.
+     *
+     * @param element the element
+     * @param inGraph true if the element is evaluated on a named graph
+     * @return true if the element only accesses named graphs
+     */
+    private static boolean isPinned(final Element element, final boolean inGraph) {
+        if (element instanceof ElementPathBlock || element instanceof ElementTriplesBlock) {
+            return inGraph;
+        } else if (element instanceof ElementData) {
+            return true;
+        } else if (element instanceof ElementGroup) {
+            return isPinnedElements(((ElementGroup) element).getElements(), inGraph);
+        } else if (element instanceof ElementUnion) {
+            return isPinnedElements(((ElementUnion) element).getElements(), inGraph);
+        } else if (element instanceof ElementNamedGraph) {
+            ElementNamedGraph namedGraph = (ElementNamedGraph) element;
+            return namedGraph.getGraphNameNode().isURI() && isPinned(namedGraph.getElement(), true);
+        } else if (element instanceof ElementOptional) {
+            return isPinned(((ElementOptional) element).getOptionalElement(), inGraph);
+        } else if (element instanceof ElementMinus) {
+            return isPinned(((ElementMinus) element).getMinusElement(), inGraph);
+        } else if (element instanceof ElementExists) {
+            return isPinned(((ElementExists) element).getElement(), inGraph);
+        } else if (element instanceof ElementNotExists) {
+            return isPinned(((ElementNotExists) element).getElement(), inGraph);
+        } else if (element instanceof ElementFilter) {
+            return isPinned(((ElementFilter) element).getExpr(), inGraph);
+        } else if (element instanceof ElementBind) {
+            return isPinned(((ElementBind) element).getExpr(), inGraph);
+        } else if (element instanceof ElementSubQuery) {
+            Query subQuery = ((ElementSubQuery) element).getQuery();
+            return isPinned(subQuery.getQueryPattern(), inGraph)
+                    && (!subQuery.hasHaving() || isPinned(subQuery.getHavingExprs(), inGraph));
+        }
+        // SERVICE and all other elements access data outside of the revisions
+        return false;
+    }
+
+    /**
+     * Checks if all triple patterns of the elements are evaluated on a named graph.
+     *
+     * @param elements the elements
+     * @param inGraph true if the elements are evaluated on a named graph
+     * @return true if the elements only access named graphs
+     */
+    private static boolean isPinnedElements(final Collection<Element> elements, final boolean inGraph) {
+        for (Element element : elements) {
+            if (!isPinned(element, inGraph)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if all EXISTS and NOT EXISTS patterns of the expressions are evaluated on a named graph.
+     *
+     * @param exprs the expressions
+     * @param inGraph true if the expressions are evaluated on a named graph
+     * @return true if the expressions only access named graphs
+     */
+    private static boolean isPinned(final Collection<Expr> exprs, final boolean inGraph) {
+        for (Expr expr : exprs) {
+            if (!isPinned(expr, inGraph)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if all EXISTS and NOT EXISTS patterns of an expression are evaluated on a named graph.
+     *
+     * @param expr the expression
+     * @param inGraph true if the expression is evaluated on a named graph
+     * @return true if the expression only accesses named graphs
+     */
+    private static boolean isPinned(final Expr expr, final boolean inGraph) {
+        if (expr instanceof ExprFunctionOp) {
+            return isPinned(((ExprFunctionOp) expr).getElement(), inGraph);
+        } else if (expr instanceof ExprFunction) {
+            return isPinned(((ExprFunction) expr).getArgs(), inGraph);
+        }
+        return true;
+    }
+
+    /**
+     * Get the cache key of a pinned query. The key consists of the result format, the query evaluation, the pinned
+     * revisions and the normalized query.
+     *
+     * @param query the query
+     * @param format the result format
+     * @param query_rewriting true if the query is evaluated by query rewriting
+     * @param pinnedRevisions the pinned revisions of the query (see {@link #getPinnedRevisions(String)})
+     * @return the cache key
+     */
+    public static String getKey(final String query, final String format, final boolean query_rewriting,
+                                final Map<String, ? extends Set<String>> pinnedRevisions) {
+        StringBuilder key = new StringBuilder();
+        key.append(format).append('\n');
+        key.append(query_rewriting ? "rewriting" : Config.revision_query_engine).append('\n');
+        for (Map.Entry<String, ? extends Set<String>> entry : pinnedRevisions.entrySet()) {
+            key.append('<').append(entry.getKey()).append('>').append(entry.getValue()).append('\n');
+        }
+        key.append(RewrittenQueryCache.getKey(query));
+        return key.toString();
+    }
+
+    /**
+     * Get the cached result of a key.
+     *
+     * @param key the cache key
+     * @return the cached result or null if it is not cached
+     */
+    public synchronized CachedResult get(final String key) {
+        CachedResult result = entries.get(key);
+        if (result == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return result;
+    }
+
+    /**
+     * Get the current version of the cache. The version has to be read before a query is evaluated and passed to
+     * {@link #put(String, Set, byte[], long)}.
+     *
+     * @return the version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stores a result. The result is not stored if it exceeds the size of the cache or if a graph was purged since the
+     * specified version was read.
+     *
+     * @param key the cache key
+     * @param graphNames the graphs the result depends on
+     * @param result the serialized result
+     * @param version the version of the cache before the query was evaluated
+     * @return the result together with its entity tag
+     */
+    public synchronized CachedResult put(final String key, final Set<String> graphNames, final byte[] result, final long version) {
+        CachedResult cachedResult = new CachedResult(result, graphNames);
+        if (result.length > Config.query_result_cache_maxBytes || version != this.version) {
+            return cachedResult;
+        }
+        CachedResult previous = entries.put(key, cachedResult);
+        if (previous != null) {
+            cachedBytes -= previous.result.length;
+        }
+        cachedBytes += result.length;
+        Iterator<CachedResult> it = entries.values().iterator();
+        while (cachedBytes > Config.query_result_cache_maxBytes && it.hasNext()) {
+            cachedBytes -= it.next().result.length;
+            it.remove();
+            evictions++;
+        }
+        return cachedResult;
+    }
+
+    /**
+     * Drops all results which depend on the specified graph. Has to be called when a revised graph is purged.
+     *
+     * @param graphName the graph name
+     */
+    public synchronized void invalidate(final String graphName) {
+        version++;
+        Iterator<CachedResult> it = entries.values().iterator();
+        while (it.hasNext()) {
+            CachedResult result = it.next();
+            if (result.graphNames.contains(graphName)) {
+                cachedBytes -= result.result.length;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all results.
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+        cachedBytes = 0;
+        logger.debug("Query result cache cleared");
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of evicted results.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the number of bytes of all cached results.
+     *
+     * @return the number of bytes
+     */
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * Get the number of cached results.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * A serialized query result and its strong entity tag.
+     */
+    public static class CachedResult {
+
+        /** The serialized result. **/
+        private final byte[] result;
+        /** The entity tag (SHA-256 of the result). **/
+        private final String entityTag;
+        /** The graphs the result depends on. **/
+        private final HashSet<String> graphNames;
+
+        /**
+         * The constructor.
+         *
+         * @param result the serialized result
+         * @param graphNames the graphs the result depends on
+         */
+        private CachedResult(final byte[] result, final Set<String> graphNames) {
+            this.result = result;
+            this.entityTag = getEntityTag(result);
+            this.graphNames = new HashSet<>(graphNames);
+        }
+
+        /**
+         * Get the serialized result.
+         *
+         * @return the result
+         */
+        public byte[] getResult() {
+            return result;
+        }
+
+        /**
+         * Get the serialized result as string.
+         *
+         * @return the result
+         */
+        public String getResultAsString() {
+            try {
+                return new String(result, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Get the strong entity tag of the result (without quotes).
+         *
+         * @return the entity tag
+         */
+        public String getEntityTag() {
+            return entityTag;
+        }
+
+        /**
+         * Calculates the entity tag of a result.
+         *
+         * @param result the serialized result
+         * @return the hex encoded SHA-256 hash of the result
+         */
+        private static String getEntityTag(final byte[] result) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(result);
+                StringBuilder entityTag = new StringBuilder(digest.length * 2);
+                for (byte b : digest) {
+                    entityTag.append(String.format("%02x", b & 0xff));
+                }
+                return entityTag.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+}
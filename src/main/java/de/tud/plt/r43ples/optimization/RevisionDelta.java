@@ -0,0 +1,110 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Describes the content of a revision as the nearest full graph and the change sets on the path from the revision to
+ * this full graph. The content is evaluated by a {@link RevisionDeltaGraph} without materializing the revision.
+ *
+ * The change sets are ordered by their position on the path. Position 1 belongs to the revision which was derived
+ * from the described revision, the last position to the revision of the full graph.
+ *
+ * If the path ends at a branch which shares the full graph of its base (see {@link BranchOverlay}), the base graph is
+ * used as full graph and the overlay graphs of the branch are the first layer on top of it: they follow the change
+ * sets of the path, the overlay delete set as add set and the overlay add set as delete set.
+ */
+public class RevisionDelta {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(RevisionDelta.class);
+
+    /** The full graph the path ends at. **/
+    private final String fullGraphURI;
+    /** The add sets of the revisions on the path in order of their position. **/
+    private final List<String> addSetURIs;
+    /** The delete sets of the revisions on the path in order of their position. **/
+    private final List<String> deleteSetURIs;
+
+
+    /**
+     * The constructor.
+     *
+     * @param fullGraphURI the full graph the path ends at
+     * @param addSetURIs the add sets of the revisions on the path in order of their position
+     * @param deleteSetURIs the delete sets of the revisions on the path in order of their position
+     */
+    public RevisionDelta(final String fullGraphURI, final List<String> addSetURIs, final List<String> deleteSetURIs) {
+        this.fullGraphURI = fullGraphURI;
+        this.addSetURIs = Collections.unmodifiableList(new ArrayList<>(addSetURIs));
+        this.deleteSetURIs = Collections.unmodifiableList(new ArrayList<>(deleteSetURIs));
+    }
+
+    /**
+     * Creates the delta of the specified revision along the shortest path to a revision with a full graph.
+     *
+     * @param revisionGraph the revision graph
+     * @param revisionIdentifier the revision identifier
+     * @return the delta of the revision
+     * @throws InternalErrorException
+     */
+    public static RevisionDelta create(final RevisionGraph revisionGraph, final String revisionIdentifier) throws InternalErrorException {
+        Revision revision = revisionGraph.getRevision(revisionIdentifier);
+        LinkedList<Revision> path = PathCalculationSingleton.getInstance()
+                .getPathToRevisionWithFullGraph(revisionGraph, revision).getRevisionPath();
+        logger.debug("Path to revision: " + path.toString());
+
+        RevisionGraphIndex index = revisionGraph.getIndex();
+        String referenceURI = revisionGraph.getContentReferenceUri(path.getLast().getRevisionIdentifier());
+        boolean overlay = index.isOverlay(referenceURI);
+        String fullGraphURI = overlay ? index.getBaseGraphURI(referenceURI) : index.getFullGraphURI(referenceURI);
+        path.removeFirst();
+        List<String> addSetURIs = new ArrayList<>(path.size() + 1);
+        List<String> deleteSetURIs = new ArrayList<>(path.size() + 1);
+        for (Revision pathRevision : path) {
+            addSetURIs.add(pathRevision.getAddSetURI());
+            deleteSetURIs.add(pathRevision.getDeleteSetURI());
+        }
+        if (overlay) {
+            // (base graph - overlay delete set) + overlay add set
+            addSetURIs.add(index.getOverlayDeleteSetURI(referenceURI));
+            deleteSetURIs.add(index.getOverlayAddSetURI(referenceURI));
+        }
+        return new RevisionDelta(fullGraphURI, addSetURIs, deleteSetURIs);
+    }
+
+    /**
+     * Get the full graph the path ends at.
+     *
+     * @return the full graph URI
+     */
+    public String getFullGraphURI() {
+        return fullGraphURI;
+    }
+
+    /**
+     * Get the add sets of the revisions on the path in order of their position.
+     *
+     * @return the add set URIs
+     */
+    public List<String> getAddSetURIs() {
+        return addSetURIs;
+    }
+
+    /**
+     * Get the delete sets of the revisions on the path in order of their position.
+     *
+     * @return the delete set URIs
+     */
+    public List<String> getDeleteSetURIs() {
+        return deleteSetURIs;
+    }
+
+}
@@ -0,0 +1,50 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.core.DatasetGraphWrapper;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dataset graph which provides revisions of revised graphs as additional virtual named graphs. All other graphs are
+ * taken from the wrapped dataset graph.
+ *
+ * Queries on this dataset graph are evaluated by the general ARQ query engine. Its BGP stage matches the triple
+ * patterns inside of a virtual graph one by one against the {@link RevisionDeltaGraph} of the revision.
+ */
+public class RevisionDeltaDatasetGraph extends DatasetGraphWrapper {
+
+    /** The virtual graphs of the revisions (key: virtual graph name). **/
+    private final HashMap<Node, Graph> revisionGraphs = new HashMap<>();
+
+
+    /**
+     * The constructor.
+     *
+     * @param datasetGraph the wrapped dataset graph of an active transaction
+     * @param deltas the deltas of the revisions (key: virtual graph URI)
+     */
+    public RevisionDeltaDatasetGraph(final DatasetGraph datasetGraph, final Map<String, RevisionDelta> deltas) {
+        super(datasetGraph);
+        for (Map.Entry<String, RevisionDelta> entry : deltas.entrySet()) {
+            revisionGraphs.put(NodeFactory.createURI(entry.getKey()),
+                    new RevisionDeltaGraph(datasetGraph, entry.getValue()));
+        }
+    }
+
+    @Override
+    public boolean containsGraph(final Node graphNode) {
+        return revisionGraphs.containsKey(graphNode) || super.containsGraph(graphNode);
+    }
+
+    @Override
+    public Graph getGraph(final Node graphNode) {
+        Graph graph = revisionGraphs.get(graphNode);
+        return (graph != null) ? graph : super.getGraph(graphNode);
+    }
+
+}
@@ -0,0 +1,106 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.NullIterator;
+
+import java.util.List;
+
+/**
+ * Read-only graph which evaluates the content of a revision on the fly from the nearest full graph and the change
+ * sets on the path to it (see {@link RevisionDelta}).
+ *
+ * A triple is part of the revision if it is contained in the full graph or in a delete set of the path and was not
+ * added by a revision at the same or a lower position. The full graph is ranked behind all delete sets. The result of
+ * a lookup streams the matching triples of the delete sets and the full graph. Every triple is only returned by the
+ * source with the lowest position which contains it, so the result is free of duplicates. The checks are index
+ * lookups in the underlying graphs, so a triple pattern costs about as much as on a materialized graph.
+ */
+public class RevisionDeltaGraph extends GraphBase {
+
+    /** The sources of the triples: the delete sets in order of their position followed by the full graph. **/
+    private final Graph[] sources;
+    /** The add sets in order of their position. **/
+    private final Graph[] addSets;
+
+
+    /**
+     * The constructor. The graphs are taken from the dataset graph, so the graph can only be used as long as the
+     * transaction of the dataset graph is active.
+     *
+     * @param datasetGraph the dataset graph
+     * @param delta the delta of the revision
+     */
+    public RevisionDeltaGraph(final DatasetGraph datasetGraph, final RevisionDelta delta) {
+        List<String> deleteSetURIs = delta.getDeleteSetURIs();
+        List<String> addSetURIs = delta.getAddSetURIs();
+        sources = new Graph[deleteSetURIs.size() + 1];
+        addSets = new Graph[addSetURIs.size()];
+        for (int i = 0; i < deleteSetURIs.size(); i++) {
+            sources[i] = getGraph(datasetGraph, deleteSetURIs.get(i));
+            addSets[i] = getGraph(datasetGraph, addSetURIs.get(i));
+        }
+        sources[deleteSetURIs.size()] = getGraph(datasetGraph, delta.getFullGraphURI());
+    }
+
+    @Override
+    protected ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
+        ExtendedIterator<Triple> result = NullIterator.instance();
+        for (int i = 0; i < sources.length; i++) {
+            if (sources[i] == null) {
+                continue;
+            }
+            final int position = i;
+            result = result.andThen(sources[i].find(m.getMatchSubject(), m.getMatchPredicate(), m.getMatchObject())
+                    .filterKeep(new Filter<Triple>() {
+                        @Override
+                        public boolean accept(final Triple triple) {
+                            return isContainedAt(triple, position);
+                        }
+                    }));
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a triple found in the source at the specified index belongs to the revision and is returned by this
+     * source.
+     *
+     * @param triple the triple
+     * @param position the index of the source
+     * @return true if the triple is returned by the source
+     */
+    private boolean isContainedAt(final Triple triple, final int position) {
+        // returned by a source with a lower position
+        for (int i = 0; i < position; i++) {
+            if (sources[i] != null && sources[i].contains(triple)) {
+                return false;
+            }
+        }
+        // added by a revision at the same or a lower position
+        for (int i = 0; i <= position && i < addSets.length; i++) {
+            if (addSets[i] != null && addSets[i].contains(triple)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a named graph of the dataset graph.
+     *
+     * @param datasetGraph the dataset graph
+     * @param graphURI the graph URI (can be null)
+     * @return the graph or null if the URI is null
+     */
+    private static Graph getGraph(final DatasetGraph datasetGraph, final String graphURI) {
+        return (graphURI == null) ? null : datasetGraph.getGraph(NodeFactory.createURI(graphURI));
+    }
+
+}
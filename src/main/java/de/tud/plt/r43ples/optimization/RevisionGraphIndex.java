@@ -0,0 +1,1069 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+import com.hp.hpl.jena.vocabulary.RDF;
+import com.hp.hpl.jena.vocabulary.RDFS;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.apache.log4j.Logger;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resident in-memory index of one revision graph.
+ * Holds revisions, references, add and delete set URIs as well as the prov:wasDerivedFrom edges, so that the
+ * lookups of RevisionGraph, Revision and Reference can be answered without querying the triplestore.
+ *
+ * The index is loaded lazily with one CONSTRUCT query on first access and is afterwards updated in place by the
+ * commit drafts whenever they write meta information. The updates are post-commit actions of the update batch of the
+ * commit, so they are only applied after the write succeeded. Updates on an index which was not loaded yet are ignored
+ * because the lazy load will read the current state from the triplestore anyway.
+ *
+ * New add sets, delete sets, full graphs and overlay graphs are also registered in the {@link GraphURIIndex}. Moved
+ * references drop the rewritten queries which depend on them from the {@link RewrittenQueryCache}.
+ *
+ * Branches which share the full graph of another reference (see {@link BranchOverlay}) are indexed together with
+ * their base graph and overlay graphs. This state is read from the overlay graph of the revision graph.
+ *
+ * Every revision is indexed with the prov:atTime of the commit which generated it. For every reference a sorted time
+ * index of its history is built on the first lookup by time. It is extended when a commit moves the reference to a
+ * revision derived from its last one, so the revision valid at a point in time is found by binary search.
+ */
+public class RevisionGraphIndex {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(RevisionGraphIndex.class);
+
+    private static final String rmo = "http://eatld.et.tu-dresden.de/rmo#";
+    private static final String prov = "http://www.w3.org/ns/prov#";
+    /** Pattern for the lexical form of xsd:dateTime and xsd:date. **/
+    private static final Pattern patternDateTime = Pattern.compile(
+            "(?<date>\\d{4}-\\d{2}-\\d{2})(?:(?<time>T\\d{2}:\\d{2}:\\d{2})(?<fraction>\\.\\d+)?)?(?<zone>Z|[+-]\\d{2}:\\d{2})?");
+
+    /** All loaded indexes (key: revision graph URI). **/
+    private static final HashMap<String, RevisionGraphIndex> indexes = new HashMap<>();
+    /** The revision graph URIs of the revised graphs (key: graph name). **/
+    private static final HashMap<String, String> revisionGraphURIs = new HashMap<>();
+
+    /** The revision graph URI. **/
+    private final String revisionGraphURI;
+    /** States if the index was already loaded from the triplestore. **/
+    private boolean loaded = false;
+
+    /** The revisions (key: revision URI). **/
+    private final HashMap<String, RevisionEntry> revisions = new HashMap<>();
+    /** The revision URIs (key: revision number). **/
+    private final HashMap<String, List<String>> revisionsByNumber = new HashMap<>();
+    /** The references (key: reference URI). **/
+    private final HashMap<String, ReferenceEntry> references = new HashMap<>();
+    /** The reference URIs (key: reference label). **/
+    private final HashMap<String, List<String>> referencesByLabel = new HashMap<>();
+    /** The references whose overlay graphs were changed since the last poll. **/
+    private final HashSet<String> changedOverlays = new HashSet<>();
+    /** The number of commits on the base which rebased the overlay of a reference since it was loaded (key: reference URI). **/
+    private final HashMap<String, Integer> overlayRebases = new HashMap<>();
+    /** The time indexes of the references (key: reference URI). **/
+    private final HashMap<String, TimeIndex> timeIndexes = new HashMap<>();
+
+
+    /**
+     * The constructor.
+     *
+     * @param revisionGraphURI the revision graph URI
+     */
+    private RevisionGraphIndex(String revisionGraphURI) {
+        this.revisionGraphURI = revisionGraphURI;
+    }
+
+    /**
+     * Get the index of the specified revision graph. The index itself is loaded on first lookup.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @return the index of the revision graph
+     */
+    public static synchronized RevisionGraphIndex getInstance(String revisionGraphURI) {
+        if (revisionGraphURI == null) {
+            // graph is not under revision control - provide an empty index which is not registered
+            RevisionGraphIndex empty = new RevisionGraphIndex(null);
+            empty.loaded = true;
+            return empty;
+        }
+        RevisionGraphIndex index = indexes.get(revisionGraphURI);
+        if (index == null) {
+            index = new RevisionGraphIndex(revisionGraphURI);
+            indexes.put(revisionGraphURI, index);
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index of the specified revision graph. It will be reloaded from the triplestore on next access.
+     *
+     * @param revisionGraphURI the revision graph URI
+     */
+    public static synchronized void invalidate(String revisionGraphURI) {
+        if (revisionGraphURI != null) {
+            logger.debug("Invalidate revision graph index of <" + revisionGraphURI + ">");
+            indexes.remove(revisionGraphURI);
+            revisionGraphURIs.values().remove(revisionGraphURI);
+            GraphURIIndex.getInstance().invalidate();
+            RewrittenQueryCache.getInstance().invalidate(revisionGraphURI);
+        }
+    }
+
+    /**
+     * Drops all indexes and revision number counters. Necessary if the triplestore was changed without using the
+     * commit drafts.
+     */
+    public static synchronized void invalidateAll() {
+        logger.debug("Invalidate all revision graph indexes");
+        indexes.clear();
+        revisionGraphURIs.clear();
+        GraphURIIndex.getInstance().invalidate();
+        RevisionNumberAllocator.resetAll();
+        RewrittenQueryCache.getInstance().invalidateAll();
+        QueryResultCache.getInstance().invalidateAll();
+    }
+
+    /**
+     * Get the known revision graph URI of a revised graph.
+     *
+     * @param graphName the graph name
+     * @return the revision graph URI or null if it is not known yet
+     */
+    public static synchronized String getRevisionGraphURI(String graphName) {
+        return revisionGraphURIs.get(graphName);
+    }
+
+    /**
+     * Registers the revision graph URI of a revised graph.
+     *
+     * @param graphName the graph name
+     * @param revisionGraphURI the revision graph URI
+     */
+    public static synchronized void registerRevisionGraphURI(String graphName, String revisionGraphURI) {
+        revisionGraphURIs.put(graphName, revisionGraphURI);
+        GraphURIIndex.getInstance().add(revisionGraphURI);
+    }
+
+
+    /**
+     * Loads the whole revision graph with one query into the index if this was not done before.
+     */
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        logger.info("Load revision graph index of <" + revisionGraphURI + ">");
+        String query = String.format(
+                  "CONSTRUCT {?s ?p ?o} %n"
+                + "WHERE { GRAPH <%s> {?s ?p ?o} }", revisionGraphURI);
+        Model model = TripleStoreInterfaceSingleton.get().executeConstructQuery(query);
+
+        HashMap<String, Long> commitTimes = new HashMap<>();
+        HashMap<String, List<String>> generatedByCommit = new HashMap<>();
+        StmtIterator it = model.listStatements();
+        while (it.hasNext()) {
+            Statement st = it.next();
+            String subject = st.getSubject().toString();
+            String predicate = st.getPredicate().getURI();
+            RDFNode object = st.getObject();
+
+            if (predicate.equals(RDF.type.getURI()) && object.isURIResource()) {
+                String type = object.asResource().getURI();
+                if (type.equals(rmo + "Revision")) {
+                    getOrCreateRevision(subject).isRevision = true;
+                } else if (type.equals(rmo + "Reference")) {
+                    getOrCreateReference(subject).isReference = true;
+                } else if (type.equals(rmo + "Branch")) {
+                    getOrCreateReference(subject).isBranch = true;
+                } else if (type.equals(rmo + "Master")) {
+                    getOrCreateReference(subject).isMaster = true;
+                }
+            } else if (predicate.equals(rmo + "revisionNumber") && object.isLiteral()) {
+                getOrCreateRevision(subject).number = object.asLiteral().getLexicalForm();
+            } else if (predicate.equals(rmo + "addSet")) {
+                getOrCreateRevision(subject).addSetURI = object.toString();
+            } else if (predicate.equals(rmo + "deleteSet")) {
+                getOrCreateRevision(subject).deleteSetURI = object.toString();
+            } else if (predicate.equals(prov + "wasDerivedFrom")) {
+                getOrCreateRevision(subject).derivedFrom.add(object.toString());
+            } else if (predicate.equals(rmo + "references")) {
+                getOrCreateReference(subject).revisionURI = object.toString();
+            } else if (predicate.equals(rmo + "fullGraph")) {
+                getOrCreateReference(subject).fullGraphURI = object.toString();
+            } else if (predicate.equals(RDFS.label.getURI()) && object.isLiteral()) {
+                getOrCreateReference(subject).label = object.asLiteral().getLexicalForm();
+            } else if (predicate.equals(prov + "atTime") && object.isLiteral()) {
+                Long time = parseDateTime(object.asLiteral().getLexicalForm());
+                if (time != null) {
+                    commitTimes.put(subject, time);
+                }
+            } else if (predicate.equals(prov + "generated")) {
+                addToMultiMap(generatedByCommit, subject, object.toString());
+            }
+        }
+        for (Map.Entry<String, List<String>> commit : generatedByCommit.entrySet()) {
+            Long time = commitTimes.get(commit.getKey());
+            for (String uri : commit.getValue()) {
+                RevisionEntry revision = revisions.get(uri);
+                if (time != null && revision != null && (revision.time == null || time < revision.time)) {
+                    revision.time = time;
+                }
+            }
+        }
+
+        String overlayQuery = String.format(
+                  "CONSTRUCT {?s ?p ?o} %n"
+                + "WHERE { GRAPH <%s> {?s ?p ?o} }", BranchOverlay.getOverlayGraphURI(revisionGraphURI));
+        it = TripleStoreInterfaceSingleton.get().executeConstructQuery(overlayQuery).listStatements();
+        while (it.hasNext()) {
+            Statement st = it.next();
+            String predicate = st.getPredicate().getURI();
+            if (predicate.equals(rmo + "baseGraph")) {
+                getOrCreateReference(st.getSubject().toString()).baseGraphURI = st.getObject().toString();
+            } else if (predicate.equals(rmo + "overlayAddSet")) {
+                getOrCreateReference(st.getSubject().toString()).overlayAddSetURI = st.getObject().toString();
+            } else if (predicate.equals(rmo + "overlayDeleteSet")) {
+                getOrCreateReference(st.getSubject().toString()).overlayDeleteSetURI = st.getObject().toString();
+            }
+        }
+
+        for (RevisionEntry revision : revisions.values()) {
+            addToMultiMap(revisionsByNumber, revision.number, revision.uri);
+        }
+        for (ReferenceEntry reference : references.values()) {
+            addToMultiMap(referencesByLabel, reference.label, reference.uri);
+        }
+        loaded = true;
+        logger.debug("Revision graph index of <" + revisionGraphURI + "> contains " + revisions.size()
+                + " revisions and " + references.size() + " references");
+    }
+
+
+    /**
+     * Get the revision URIs for a given reference name or revision number.
+     *
+     * @param identifier reference name or revision number
+     * @return list of matching revision URIs (empty if there is none)
+     */
+    public synchronized List<String> getRevisionURIs(String identifier) {
+        ensureLoaded();
+        LinkedHashSet<String> result = new LinkedHashSet<>();
+        for (String uri : getList(revisionsByNumber, identifier)) {
+            if (revisions.get(uri).isRevision) {
+                result.add(uri);
+            }
+        }
+        for (String refURI : getList(referencesByLabel, identifier)) {
+            ReferenceEntry reference = references.get(refURI);
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isReference && revision != null && revision.isRevision) {
+                result.add(revision.uri);
+            }
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Get the revision URI of a revision number (references are not considered).
+     *
+     * @param revisionNumber the revision number
+     * @return the revision URI or null
+     */
+    public synchronized String getRevisionURIOfNumber(String revisionNumber) {
+        ensureLoaded();
+        for (String uri : getList(revisionsByNumber, revisionNumber)) {
+            if (revisions.get(uri).isRevision) {
+                return uri;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the revision number of a revision.
+     *
+     * @param revisionURI the revision URI
+     * @return the revision number or null
+     */
+    public synchronized String getRevisionNumber(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        if (revision != null && revision.isRevision) {
+            return revision.number;
+        }
+        return null;
+    }
+
+    /**
+     * Get the add set URI of a revision.
+     *
+     * @param revisionURI the revision URI
+     * @return the add set URI or null
+     */
+    public synchronized String getAddSetURI(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        return (revision != null) ? revision.addSetURI : null;
+    }
+
+    /**
+     * Get the delete set URI of a revision.
+     *
+     * @param revisionURI the revision URI
+     * @return the delete set URI or null
+     */
+    public synchronized String getDeleteSetURI(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        return (revision != null) ? revision.deleteSetURI : null;
+    }
+
+    /**
+     * Checks if the URI identifies a revision (typed as rmo:Revision).
+     *
+     * @param revisionURI the revision URI
+     * @return true if the revision exists
+     */
+    public synchronized boolean isRevision(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        return revision != null && revision.isRevision;
+    }
+
+    /**
+     * Get the revisions the specified revision was derived from (prov:wasDerivedFrom).
+     *
+     * @param revisionURI the revision URI
+     * @return list of revision URIs
+     */
+    public synchronized List<String> getDerivedFrom(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        if (revision == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(revision.derivedFrom);
+    }
+
+    /**
+     * Get the highest integer revision number of this revision graph.
+     *
+     * @return the highest revision number or -1 if there is no revision
+     */
+    public synchronized int getMaxRevisionNumber() {
+        ensureLoaded();
+        int max = -1;
+        for (RevisionEntry revision : revisions.values()) {
+            if (revision.isRevision && revision.number != null) {
+                try {
+                    max = Math.max(max, Integer.parseInt(revision.number));
+                } catch (NumberFormatException e) {
+                    // revision numbers which are no integers are ignored
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Checks if the graph has a branch with the given identifier.
+     *
+     * @param identifier revision number or branch or tag name of the graph
+     * @return true if specified revision of the graph is a branch
+     */
+    public synchronized boolean hasBranch(String identifier) {
+        ensureLoaded();
+        for (ReferenceEntry reference : references.values()) {
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isReference && revision != null && revision.isRevision
+                    && (identifier.equals(revision.number) || identifier.equals(reference.label))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the revision graph has a reference with the specified name.
+     *
+     * @param referenceName the reference name to check
+     * @return true when the reference exists
+     */
+    public synchronized boolean hasReference(String referenceName) {
+        ensureLoaded();
+        return getReferenceURI(referenceName) != null;
+    }
+
+    /**
+     * Get the URI of a reference (rmo:Reference) with the specified name.
+     *
+     * @param referenceName the reference name
+     * @return the reference URI or null
+     */
+    public synchronized String getReferenceURI(String referenceName) {
+        ensureLoaded();
+        for (String uri : getList(referencesByLabel, referenceName)) {
+            if (references.get(uri).isReference) {
+                return uri;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the label of a branch.
+     *
+     * @param branchURI the branch URI
+     * @return the label or null if the URI is no branch
+     */
+    public synchronized String getBranchLabel(String branchURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(branchURI);
+        if (reference != null && reference.isBranch) {
+            return reference.label;
+        }
+        return null;
+    }
+
+    /**
+     * Get the full graph URI of a reference for a given reference name or revision number.
+     * The full graph of a reference which shares the full graph of its base is empty until it is materialized.
+     *
+     * @param identifier reference name or revision number
+     * @return the full graph URI or null
+     */
+    public synchronized String getReferenceGraph(String identifier) {
+        String referenceURI = getContentReferenceURI(identifier);
+        return (referenceURI != null) ? references.get(referenceURI).fullGraphURI : null;
+    }
+
+    /**
+     * Get the URI of the reference which provides the content for a given reference name or revision number.
+     * A reference with the specified label is preferred over a reference of the specified revision number. Among
+     * the references of a revision number the ones with a materialized full graph are preferred.
+     *
+     * @param identifier reference name or revision number
+     * @return the reference URI or null
+     */
+    public synchronized String getContentReferenceURI(String identifier) {
+        ensureLoaded();
+        for (String uri : getList(referencesByLabel, identifier)) {
+            ReferenceEntry reference = references.get(uri);
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isReference && reference.fullGraphURI != null && revision != null && revision.isRevision) {
+                return reference.uri;
+            }
+        }
+        String overlayReferenceURI = null;
+        for (ReferenceEntry reference : references.values()) {
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isReference && reference.fullGraphURI != null && revision != null && revision.isRevision
+                    && identifier.equals(revision.number)) {
+                if (reference.baseGraphURI == null) {
+                    return reference.uri;
+                } else if (overlayReferenceURI == null) {
+                    overlayReferenceURI = reference.uri;
+                }
+            }
+        }
+        return overlayReferenceURI;
+    }
+
+    /**
+     * Get the full graph URI of the specified reference.
+     *
+     * @param referenceURI the reference URI
+     * @return the full graph URI or null
+     */
+    public synchronized String getFullGraphURI(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return (reference != null) ? reference.fullGraphURI : null;
+    }
+
+    /**
+     * Get the revision URI referenced by the specified reference.
+     *
+     * @param referenceURI the reference URI
+     * @return the referenced revision URI or null
+     */
+    public synchronized String getReferencedRevisionURI(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return (reference != null) ? reference.revisionURI : null;
+    }
+
+    /**
+     * Checks if the specified reference shares the full graph of its base instead of having its own.
+     *
+     * @param referenceURI the reference URI
+     * @return true if the content of the reference is given by base graph and overlay graphs
+     */
+    public synchronized boolean isOverlay(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return reference != null && reference.baseGraphURI != null;
+    }
+
+    /**
+     * Get the base graph of a reference which shares the full graph of its base.
+     *
+     * @param referenceURI the reference URI
+     * @return the base graph URI or null if the reference is materialized
+     */
+    public synchronized String getBaseGraphURI(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return (reference != null) ? reference.baseGraphURI : null;
+    }
+
+    /**
+     * Get the graph with the triples a reference adds to its base graph.
+     *
+     * @param referenceURI the reference URI
+     * @return the overlay add set URI or null if the reference is materialized
+     */
+    public synchronized String getOverlayAddSetURI(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return (reference != null) ? reference.overlayAddSetURI : null;
+    }
+
+    /**
+     * Get the graph with the triples a reference removes from its base graph.
+     *
+     * @param referenceURI the reference URI
+     * @return the overlay delete set URI or null if the reference is materialized
+     */
+    public synchronized String getOverlayDeleteSetURI(String referenceURI) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        return (reference != null) ? reference.overlayDeleteSetURI : null;
+    }
+
+    /**
+     * Get the URIs of all references which use the specified graph as base graph.
+     *
+     * @param baseGraphURI the base graph URI
+     * @return list of reference URIs
+     */
+    public synchronized List<String> getOverlayReferenceURIs(String baseGraphURI) {
+        ensureLoaded();
+        List<String> result = new ArrayList<>();
+        for (ReferenceEntry reference : references.values()) {
+            if (reference.isReference && baseGraphURI.equals(reference.baseGraphURI)) {
+                result.add(reference.uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the URIs of all references which share the full graph of another reference.
+     *
+     * @return list of reference URIs
+     */
+    public synchronized List<String> getOverlayReferenceURIs() {
+        ensureLoaded();
+        List<String> result = new ArrayList<>();
+        for (ReferenceEntry reference : references.values()) {
+            if (reference.baseGraphURI != null) {
+                result.add(reference.uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the revision number of the revision referenced by the MASTER branch.
+     *
+     * @return the revision number or null
+     */
+    public synchronized String getMasterRevisionNumber() {
+        ensureLoaded();
+        for (ReferenceEntry reference : references.values()) {
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isMaster && revision != null && revision.number != null) {
+                return revision.number;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the URIs of all branches which match the given reference name or revision number.
+     *
+     * @param identifier reference name or revision number
+     * @return list of branch URIs
+     */
+    public synchronized List<String> getBranchURIs(String identifier) {
+        ensureLoaded();
+        List<String> result = new ArrayList<>();
+        for (ReferenceEntry reference : references.values()) {
+            RevisionEntry revision = revisions.get(reference.revisionURI);
+            if (reference.isBranch && revision != null && revision.isRevision
+                    && (identifier.equals(revision.number) || identifier.equals(reference.label))) {
+                result.add(reference.uri);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the names of all branches, sorted by name.
+     *
+     * @return list of branch names
+     */
+    public synchronized ArrayList<String> getAllBranchNames() {
+        ensureLoaded();
+        TreeSet<String> names = new TreeSet<>();
+        for (ReferenceEntry reference : references.values()) {
+            if (reference.isBranch && reference.label != null) {
+                names.add(reference.label);
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+
+    /**
+     * Get the revision a reference pointed to at the specified point in time. This is the newest revision of the
+     * history of the currently referenced revision which was committed before or at the specified time.
+     *
+     * @param referenceURI the reference URI
+     * @param time the point in time in milliseconds since the epoch
+     * @return the revision URI or null if the first revision was committed later
+     */
+    public synchronized String getRevisionURIAtTime(String referenceURI, long time) {
+        ensureLoaded();
+        ReferenceEntry reference = references.get(referenceURI);
+        if (reference == null || reference.revisionURI == null) {
+            return null;
+        }
+        TimeIndex timeIndex = timeIndexes.get(referenceURI);
+        if (timeIndex == null) {
+            timeIndex = buildTimeIndex(reference.revisionURI);
+            timeIndexes.put(referenceURI, timeIndex);
+        }
+        return timeIndex.get(time);
+    }
+
+    /**
+     * Get the time of the commit which generated a revision.
+     *
+     * @param revisionURI the revision URI
+     * @return the time in milliseconds since the epoch or null if it is not known
+     */
+    public synchronized Long getRevisionTime(String revisionURI) {
+        ensureLoaded();
+        RevisionEntry revision = revisions.get(revisionURI);
+        return (revision != null) ? revision.time : null;
+    }
+
+    /**
+     * Builds the time index of the history of a revision. The history follows the prov:wasDerivedFrom edges and takes
+     * the most recently committed predecessor of merged revisions, as the order of the edges is not stored.
+     *
+     * @param revisionURI the revision URI the index ends at
+     * @return the time index
+     */
+    private TimeIndex buildTimeIndex(String revisionURI) {
+        ArrayList<RevisionEntry> path = new ArrayList<>();
+        HashSet<String> visited = new HashSet<>();
+        RevisionEntry revision = revisions.get(revisionURI);
+        while (revision != null && visited.add(revision.uri)) {
+            path.add(revision);
+            RevisionEntry predecessor = null;
+            for (String uri : revision.derivedFrom) {
+                RevisionEntry candidate = revisions.get(uri);
+                if (candidate != null && (predecessor == null || (candidate.time != null
+                        && (predecessor.time == null || candidate.time > predecessor.time)))) {
+                    predecessor = candidate;
+                }
+            }
+            revision = predecessor;
+        }
+        TimeIndex timeIndex = new TimeIndex();
+        for (int i = path.size() - 1; i >= 0; i--) {
+            if (path.get(i).time != null) {
+                timeIndex.add(path.get(i).time, path.get(i).uri);
+            }
+        }
+        return timeIndex;
+    }
+
+    /**
+     * Parses an xsd:dateTime. Date times without time zone are interpreted in the local time zone as the commit
+     * drafts write them.
+     *
+     * @param lexicalForm the lexical form (e.g. 2026-01-01T00:00:00, 2026-01-01T00:00:00.000+01:00 or 2026-01-01)
+     * @return the time in milliseconds since the epoch or null if the lexical form is no valid date time
+     */
+    public static Long parseDateTime(String lexicalForm) {
+        Matcher m = patternDateTime.matcher(lexicalForm.trim());
+        if (!m.matches()) {
+            return null;
+        }
+        String pattern = (m.group("time") != null) ? "yyyy-MM-dd'T'HH:mm:ss" : "yyyy-MM-dd";
+        String value = m.group("date") + ((m.group("time") != null) ? m.group("time") : "");
+        if (m.group("zone") != null) {
+            pattern += "XXX";
+            value += m.group("zone").equals("Z") ? "+00:00" : m.group("zone");
+        }
+        SimpleDateFormat format = new SimpleDateFormat(pattern);
+        format.setLenient(false);
+        try {
+            long time = format.parse(value).getTime();
+            if (m.group("fraction") != null) {
+                // the canonical form of xsd:dateTime drops trailing zeros of the fractional seconds
+                time += Math.round(Double.parseDouble("0" + m.group("fraction")) * 1000);
+            }
+            return time;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+
+    /**
+     * Adds a revision to the index or completes an existing entry.
+     *
+     * @param revisionURI the revision URI
+     * @param revisionNumber the revision number
+     * @param addSetURI the add set URI (can be null)
+     * @param deleteSetURI the delete set URI (can be null)
+     * @param derivedFromURIs the revisions from which the new one was derived
+     */
+    public synchronized void addRevision(String revisionURI, String revisionNumber, String addSetURI, String deleteSetURI, String... derivedFromURIs) {
+        GraphURIIndex.getInstance().add(addSetURI, deleteSetURI);
+        if (!loaded) {
+            return;
+        }
+        RevisionEntry revision = getOrCreateRevision(revisionURI);
+        revision.isRevision = true;
+        if (revisionNumber != null && !revisionNumber.equals(revision.number)) {
+            if (revision.number != null) {
+                getList(revisionsByNumber, revision.number).remove(revisionURI);
+            }
+            revision.number = revisionNumber;
+            addToMultiMap(revisionsByNumber, revisionNumber, revisionURI);
+        }
+        if (addSetURI != null) {
+            revision.addSetURI = addSetURI;
+        }
+        if (deleteSetURI != null) {
+            revision.deleteSetURI = deleteSetURI;
+        }
+        for (String derivedFromURI : derivedFromURIs) {
+            revision.derivedFrom.add(derivedFromURI);
+        }
+    }
+
+    /**
+     * Sets the time of the commit which generated a revision if it is not known yet.
+     *
+     * @param revisionURI the revision URI
+     * @param time the time in milliseconds since the epoch
+     */
+    public synchronized void setRevisionTime(String revisionURI, long time) {
+        if (!loaded) {
+            return;
+        }
+        RevisionEntry revision = getOrCreateRevision(revisionURI);
+        if (revision.time == null) {
+            revision.time = time;
+        }
+    }
+
+    /**
+     * Adds a prov:wasDerivedFrom edge to the index.
+     *
+     * @param revisionURI the revision URI
+     * @param derivedFromURI the URI of the revision from which the revision was derived
+     */
+    public synchronized void addDerivedFrom(String revisionURI, String derivedFromURI) {
+        if (!loaded) {
+            return;
+        }
+        getOrCreateRevision(revisionURI).derivedFrom.add(derivedFromURI);
+    }
+
+    /**
+     * Adds a reference to the index.
+     *
+     * @param referenceURI the reference URI
+     * @param label the reference name
+     * @param fullGraphURI the full graph URI of the reference
+     * @param revisionURI the referenced revision
+     * @param isBranch states if the reference is a branch (branch => true; tag => false)
+     * @param isMaster states if the reference is the MASTER branch
+     */
+    public synchronized void addReference(String referenceURI, String label, String fullGraphURI, String revisionURI, boolean isBranch, boolean isMaster) {
+        GraphURIIndex.getInstance().add(fullGraphURI);
+        if (!loaded) {
+            return;
+        }
+        ReferenceEntry reference = getOrCreateReference(referenceURI);
+        timeIndexes.remove(referenceURI);
+        reference.isReference = true;
+        reference.isBranch = isBranch;
+        reference.isMaster = isMaster;
+        reference.fullGraphURI = fullGraphURI;
+        reference.revisionURI = revisionURI;
+        if (!label.equals(reference.label)) {
+            if (reference.label != null) {
+                getList(referencesByLabel, reference.label).remove(referenceURI);
+            }
+            reference.label = label;
+            addToMultiMap(referencesByLabel, label, referenceURI);
+        }
+    }
+
+    /**
+     * Moves a reference to another revision.
+     *
+     * @param referenceURI the reference URI
+     * @param revisionURI the new referenced revision URI
+     */
+    public synchronized void moveReference(String referenceURI, String revisionURI) {
+        RewrittenQueryCache.getInstance().invalidate(revisionGraphURI, referenceURI);
+        if (!loaded) {
+            return;
+        }
+        ReferenceEntry reference = getOrCreateReference(referenceURI);
+        TimeIndex timeIndex = timeIndexes.get(referenceURI);
+        RevisionEntry revision = revisions.get(revisionURI);
+        if (timeIndex != null && revision != null && revision.time != null
+                && revision.derivedFrom.contains(reference.revisionURI)) {
+            // a commit on the reference extends its history
+            timeIndex.add(revision.time, revisionURI);
+        } else {
+            timeIndexes.remove(referenceURI);
+        }
+        reference.revisionURI = revisionURI;
+    }
+
+
+    /**
+     * Records that a reference shares the full graph of its base.
+     *
+     * @param referenceURI the reference URI
+     * @param baseGraphURI the base graph URI
+     * @param overlayAddSetURI the graph with the triples added to the base graph
+     * @param overlayDeleteSetURI the graph with the triples removed from the base graph
+     */
+    public synchronized void setOverlay(String referenceURI, String baseGraphURI, String overlayAddSetURI, String overlayDeleteSetURI) {
+        GraphURIIndex.getInstance().add(overlayAddSetURI, overlayDeleteSetURI);
+        overlayRebases.remove(referenceURI);
+        if (!loaded) {
+            return;
+        }
+        ReferenceEntry reference = getOrCreateReference(referenceURI);
+        reference.baseGraphURI = baseGraphURI;
+        reference.overlayAddSetURI = overlayAddSetURI;
+        reference.overlayDeleteSetURI = overlayDeleteSetURI;
+    }
+
+    /**
+     * Records that a reference was materialized into its own full graph.
+     *
+     * @param referenceURI the reference URI
+     */
+    public synchronized void removeOverlay(String referenceURI) {
+        changedOverlays.remove(referenceURI);
+        overlayRebases.remove(referenceURI);
+        RewrittenQueryCache.getInstance().invalidate(revisionGraphURI, referenceURI);
+        if (!loaded) {
+            return;
+        }
+        ReferenceEntry reference = references.get(referenceURI);
+        if (reference != null) {
+            reference.baseGraphURI = null;
+            reference.overlayAddSetURI = null;
+            reference.overlayDeleteSetURI = null;
+        }
+    }
+
+    /**
+     * Marks the overlay graphs of a reference as changed, so that their size is checked after the write.
+     *
+     * @param referenceURI the reference URI
+     */
+    public synchronized void markOverlayChanged(String referenceURI) {
+        changedOverlays.add(referenceURI);
+    }
+
+    /**
+     * Marks the overlay graphs of a reference as rebased by a commit on its base, so that the number of rebases is
+     * checked after the write.
+     *
+     * @param referenceURI the reference URI
+     */
+    public synchronized void markOverlayRebased(String referenceURI) {
+        Integer rebases = overlayRebases.get(referenceURI);
+        overlayRebases.put(referenceURI, (rebases != null) ? rebases + 1 : 1);
+        changedOverlays.add(referenceURI);
+    }
+
+    /**
+     * Get the number of commits on the base which rebased the overlay of a reference since the index was created.
+     *
+     * @param referenceURI the reference URI
+     * @return the number of rebases
+     */
+    public synchronized int getOverlayRebases(String referenceURI) {
+        Integer rebases = overlayRebases.get(referenceURI);
+        return (rebases != null) ? rebases : 0;
+    }
+
+    /**
+     * Get and reset the references whose overlay graphs were changed since the last call.
+     *
+     * @return list of reference URIs
+     */
+    public synchronized List<String> pollChangedOverlays() {
+        List<String> result = new ArrayList<>(changedOverlays);
+        changedOverlays.clear();
+        return result;
+    }
+
+
+    private RevisionEntry getOrCreateRevision(String uri) {
+        RevisionEntry revision = revisions.get(uri);
+        if (revision == null) {
+            revision = new RevisionEntry(uri);
+            revisions.put(uri, revision);
+        }
+        return revision;
+    }
+
+    private ReferenceEntry getOrCreateReference(String uri) {
+        ReferenceEntry reference = references.get(uri);
+        if (reference == null) {
+            reference = new ReferenceEntry(uri);
+            references.put(uri, reference);
+        }
+        return reference;
+    }
+
+    private static void addToMultiMap(Map<String, List<String>> map, String key, String value) {
+        if (key == null) {
+            return;
+        }
+        List<String> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            map.put(key, list);
+        }
+        if (!list.contains(value)) {
+            list.add(value);
+        }
+    }
+
+    private static List<String> getList(Map<String, List<String>> map, String key) {
+        List<String> list = map.get(key);
+        return (list != null) ? list : new ArrayList<String>();
+    }
+
+
+    /**
+     * Index entry of a revision.
+     */
+    private static class RevisionEntry {
+        private final String uri;
+        private boolean isRevision = false;
+        private String number;
+        private String addSetURI;
+        private String deleteSetURI;
+        private Long time;
+        private final ArrayList<String> derivedFrom = new ArrayList<>(1);
+
+        private RevisionEntry(String uri) {
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * Index entry of a reference (branch or tag).
+     */
+    private static class ReferenceEntry {
+        private final String uri;
+        private boolean isReference = false;
+        private boolean isBranch = false;
+        private boolean isMaster = false;
+        private String label;
+        private String revisionURI;
+        private String fullGraphURI;
+        private String baseGraphURI;
+        private String overlayAddSetURI;
+        private String overlayDeleteSetURI;
+
+        private ReferenceEntry(String uri) {
+            this.uri = uri;
+        }
+    }
+
+
+    /**
+     * Revisions of a reference sorted by their commit time.
+     */
+    private static class TimeIndex {
+        private long[] times = new long[16];
+        private String[] revisionURIs = new String[16];
+        private int size = 0;
+
+        /**
+         * Appends a revision. Times earlier than the last one are raised to it, so the times stay sorted.
+         *
+         * @param time the commit time
+         * @param revisionURI the revision URI
+         */
+        private void add(long time, String revisionURI) {
+            if (size == times.length) {
+                times = Arrays.copyOf(times, size * 2);
+                revisionURIs = Arrays.copyOf(revisionURIs, size * 2);
+            }
+            times[size] = (size > 0) ? Math.max(time, times[size - 1]) : time;
+            revisionURIs[size] = revisionURI;
+            size++;
+        }
+
+        /**
+         * Get the newest revision committed before or at the specified time.
+         *
+         * @param time the time
+         * @return the revision URI or null
+         */
+        private String get(long time) {
+            int low = 0;
+            int high = size - 1;
+            int result = -1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (times[middle] <= time) {
+                    result = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return (result >= 0) ? revisionURIs[result] : null;
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the revision numbers of new revisions.
+ *
+ * Every revised graph has an atomic counter which is initialized once from the store with the maximum of the persisted
+ * high-water mark and the highest revision number in the revision graph. Allocating a number is then a single
+ * increment, so concurrent commits on different branches always get different numbers.
+ *
+ * The high-water mark is stored as rmo:maxRevisionNumber of the graph in the global revision graph. Every commit
+ * persists its number within its own update batch, so the mark is written in the same transaction as the revision.
+ * Numbers of commits which failed are not reused.
+ */
+public class RevisionNumberAllocator {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(RevisionNumberAllocator.class);
+
+    /** The counters of the revised graphs (key: graph name; value: the last allocated revision number). **/
+    private static final HashMap<String, AtomicInteger> counters = new HashMap<>();
+
+
+    /**
+     * The constructor.
+     */
+    private RevisionNumberAllocator() {
+
+    }
+
+    /**
+     * Allocates the next revision number of the specified revision graph. Every call returns a new number.
+     *
+     * @param revisionGraph the revision graph
+     * @return the allocated revision number
+     */
+    public static int allocate(RevisionGraph revisionGraph) {
+        return getCounter(revisionGraph).incrementAndGet();
+    }
+
+    /**
+     * Adds the statement which persists the allocated revision number as high-water mark of the graph to the
+     * specified update batch. The mark is only raised, so batches of concurrent commits can be executed in any order.
+     *
+     * @param batch the update batch
+     * @param graphName the graph name
+     * @param revisionNumber the allocated revision number
+     */
+    public static void persist(UpdateBatch batch, String graphName, String revisionNumber) {
+        batch.add(Config.prefixes + String.format(""
+                + "DELETE { GRAPH <%1$s> { <%2$s> rmo:maxRevisionNumber ?old. } }%n"
+                + "INSERT { GRAPH <%1$s> { <%2$s> rmo:maxRevisionNumber ?new. } }%n"
+                + "WHERE {%n"
+                + "  OPTIONAL { GRAPH <%1$s> { <%2$s> rmo:maxRevisionNumber ?old. } }%n"
+                + "  BIND(IF(BOUND(?old) && ?old > %3$s, ?old, %3$s) AS ?new)%n"
+                + "}", Config.revision_graph, graphName, revisionNumber));
+    }
+
+    /**
+     * Drops the counter of the specified graph. Has to be called if the revision information of the graph was
+     * purged.
+     *
+     * @param graphName the graph name
+     */
+    public static synchronized void reset(String graphName) {
+        counters.remove(graphName);
+    }
+
+    /**
+     * Drops all counters. Necessary if the triplestore was changed without using the commit drafts.
+     */
+    public static synchronized void resetAll() {
+        counters.clear();
+    }
+
+    /**
+     * Get the counter of the specified revision graph and initializes it from the store if necessary.
+     *
+     * @param revisionGraph the revision graph
+     * @return the counter
+     */
+    private static synchronized AtomicInteger getCounter(RevisionGraph revisionGraph) {
+        String graphName = revisionGraph.getGraphName();
+        AtomicInteger counter = counters.get(graphName);
+        if (counter == null) {
+            int highWaterMark = Math.max(readHighWaterMark(graphName), revisionGraph.getIndex().getMaxRevisionNumber());
+            counter = new AtomicInteger(highWaterMark);
+            counters.put(graphName, counter);
+            logger.debug("Revision number counter of graph <" + graphName + "> initialized with " + highWaterMark);
+        }
+        return counter;
+    }
+
+    /**
+     * Reads the persisted high-water mark of the specified graph.
+     *
+     * @param graphName the graph name
+     * @return the high-water mark or -1 if none is persisted
+     */
+    private static int readHighWaterMark(String graphName) {
+        String query = Config.prefixes + String.format(""
+                + "SELECT ?number%n"
+                + "WHERE { GRAPH <%s> { <%s> rmo:maxRevisionNumber ?number. } }", Config.revision_graph, graphName);
+        ResultSet resultSet = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        int highWaterMark = -1;
+        while (resultSet.hasNext()) {
+            QuerySolution qs = resultSet.next();
+            try {
+                highWaterMark = Math.max(highWaterMark, qs.getLiteral("?number").getInt());
+            } catch (RuntimeException e) {
+                logger.warn("Invalid revision number high-water mark of graph <" + graphName + ">");
+            }
+        }
+        return highWaterMark;
+    }
+
+}
@@ -0,0 +1,169 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.management.Config;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor which resolves the revisions of a query concurrently.
+ *
+ * A query can refer to revisions of several revised graphs. Resolving a revision (revision identifier, branch check,
+ * path to the next full graph and possibly the materialization of its full graph) only depends on its own graph, so
+ * the revisions of a query are resolved in parallel and the latency approaches the one of the slowest graph. The
+ * number of threads is limited by the configuration key revision.resolution.threads; 1 resolves all revisions one
+ * after another in the calling thread.
+ */
+public class RevisionResolutionExecutor {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(RevisionResolutionExecutor.class);
+
+    /** The singleton instance. **/
+    private static RevisionResolutionExecutor instance;
+
+    /** The number of threads. **/
+    private final int threads;
+    /** The executor of the resolution tasks (null if all tasks run in the calling thread). **/
+    private final ExecutorService executor;
+
+
+    /**
+     * The constructor.
+     *
+     * @param threads the number of threads
+     */
+    private RevisionResolutionExecutor(final int threads) {
+        this.threads = threads;
+        if (threads > 1) {
+            final AtomicInteger threadNumber = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    Thread thread = new Thread(runnable, "r43ples-revision-resolution-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Get the instance of the revision resolution executor.
+     *
+     * @return the instance
+     */
+    public static synchronized RevisionResolutionExecutor getInstance() {
+        if (instance == null) {
+            instance = new RevisionResolutionExecutor(Config.revision_resolution_threads);
+            logger.debug("Revision resolution executor started with " + instance.threads + " threads");
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the executor. The next call of {@link #getInstance()} creates a new executor with the current
+     * configuration.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null && instance.executor != null) {
+            instance.executor.shutdown();
+        }
+        instance = null;
+    }
+
+    /**
+     * Executes the specified tasks and waits until all of them are completed. The first task is executed in the
+     * calling thread, all others by the threads of the executor.
+     *
+     * @param tasks the tasks
+     * @param <T> the result type of the tasks
+     * @return the results in the order of the tasks
+     * @throws InternalErrorException the first exception thrown by a task
+     */
+    public <T> List<T> invokeAll(final List<? extends Callable<T>> tasks) throws InternalErrorException {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (executor == null || tasks.size() <= 1) {
+            for (Callable<T> task : tasks) {
+                results.add(call(task));
+            }
+            return results;
+        }
+
+        List<Future<T>> futures = new ArrayList<>(tasks.size() - 1);
+        for (Callable<T> task : tasks.subList(1, tasks.size())) {
+            futures.add(executor.submit(task));
+        }
+        Throwable failure = null;
+        try {
+            results.add(tasks.get(0).call());
+        } catch (Exception e) {
+            failure = e;
+        }
+        // wait for all tasks, so no task is still running when the caller cleans up after a failure
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                if (failure == null) {
+                    failure = new InternalErrorException("Resolution of revisions was interrupted");
+                }
+            }
+        }
+        if (failure != null) {
+            throw unwrap(failure);
+        }
+        return results;
+    }
+
+    /**
+     * Executes a task in the calling thread.
+     *
+     * @param task the task
+     * @param <T> the result type of the task
+     * @return the result
+     * @throws InternalErrorException
+     */
+    private static <T> T call(final Callable<T> task) throws InternalErrorException {
+        try {
+            return task.call();
+        } catch (Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Converts the failure of a task into an internal error exception. Runtime exceptions and errors are rethrown.
+     *
+     * @param failure the failure of the task
+     * @return the internal error exception
+     */
+    private static InternalErrorException unwrap(final Throwable failure) {
+        if (failure instanceof InternalErrorException) {
+            return (InternalErrorException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        logger.error("Resolution of revisions failed", failure);
+        return new InternalErrorException("Resolution of revisions failed: " + failure.getMessage());
+    }
+
+}
@@ -0,0 +1,247 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.management.Config;
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded LRU cache of queries rewritten by the SPARQL rewriter.
+ *
+ * The cache maps the normalized query text to the rewritten query, so repeated queries skip parsing and the resolution
+ * of their revisions. Every entry records the references it depends on: the branches and tags named in the query and
+ * the references whose full graphs are joined by the rewritten query. The entry is dropped as soon as one of these
+ * references moves. The number of entries is limited by the configuration key query.cache.maxEntries.
+ */
+public class RewrittenQueryCache {
+
+    /** The logger. **/
+    private static Logger logger = Logger.getLogger(RewrittenQueryCache.class);
+
+    /** The singleton instance. **/
+    private static RewrittenQueryCache instance;
+
+    /** The cached queries in access order (key: rewriting mode and normalized query). **/
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The number of invalidations, used to detect queries which were rewritten while a reference moved. **/
+    private long version = 0;
+
+    /** The number of cache hits. **/
+    private long hits = 0;
+    /** The number of cache misses. **/
+    private long misses = 0;
+    /** The number of invalidated entries. **/
+    private long invalidations = 0;
+
+
+    /**
+     * The constructor.
+     */
+    private RewrittenQueryCache() {
+
+    }
+
+    /**
+     * Get the instance of the rewritten query cache.
+     *
+     * @return the instance
+     */
+    public static synchronized RewrittenQueryCache getInstance() {
+        if (instance == null) {
+            instance = new RewrittenQueryCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Get the cache key of a query. The key consists of the rewriting mode and the query text with all whitespace
+     * outside of string literals collapsed.
+     *
+     * @param query the query
+     * @return the cache key
+     */
+    public static String getKey(final String query) {
+        StringBuilder key = new StringBuilder(query.length() + 8);
+        key.append(Config.query_rewriting_mode).append('\n');
+        char quote = 0;
+        boolean whitespace = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                whitespace = true;
+                continue;
+            }
+            if (whitespace && key.charAt(key.length() - 1) != '\n') {
+                key.append(' ');
+            }
+            whitespace = false;
+            key.append(c);
+            if (quote != 0 && c == '\\' && i + 1 < query.length()) {
+                key.append(query.charAt(++i));
+            } else if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get the rewritten query of a key.
+     *
+     * @param key the cache key
+     * @return the rewritten query or null if it is not cached
+     */
+    public synchronized String get(final String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.rewrittenQuery;
+    }
+
+    /**
+     * Get the current version of the cache. The version has to be read before a query is rewritten and passed to
+     * {@link #put(String, String, Map, long)}.
+     *
+     * @return the version
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stores a rewritten query. The query is not stored if a reference moved since the specified version was read,
+     * because the query could have been rewritten with the old position of the reference.
+     *
+     * @param key the cache key
+     * @param rewrittenQuery the rewritten query
+     * @param references the references the rewritten query depends on (key: revision graph URI; value: reference URIs)
+     * @param version the version of the cache before the query was rewritten
+     */
+    public synchronized void put(final String key, final String rewrittenQuery, final Map<String, ? extends Set<String>> references, final long version) {
+        if (Config.query_cache_maxEntries <= 0 || version != this.version) {
+            return;
+        }
+        Entry entry = new Entry(rewrittenQuery);
+        for (Map.Entry<String, ? extends Set<String>> e : references.entrySet()) {
+            entry.references.put(e.getKey(), new HashSet<>(e.getValue()));
+        }
+        entries.put(key, entry);
+        Iterator<String> it = entries.keySet().iterator();
+        while (entries.size() > Config.query_cache_maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops all entries which depend on the specified reference. Has to be called when a reference moves.
+     *
+     * @param revisionGraphURI the revision graph URI
+     * @param referenceURI the reference URI
+     */
+    public synchronized void invalidate(final String revisionGraphURI, final String referenceURI) {
+        version++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Set<String> references = it.next().references.get(revisionGraphURI);
+            if (references != null && references.contains(referenceURI)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drops all entries which depend on the specified revision graph.
+     *
+     * @param revisionGraphURI the revision graph URI
+     */
+    public synchronized void invalidate(final String revisionGraphURI) {
+        version++;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().references.containsKey(revisionGraphURI)) {
+                it.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * Drops all entries.
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        invalidations += entries.size();
+        entries.clear();
+        logger.debug("Rewritten query cache cleared");
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return the number of hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return the number of misses
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of invalidated entries.
+     *
+     * @return the number of invalidations
+     */
+    public synchronized long getInvalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Get the number of cached queries.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * A rewritten query and the references it depends on.
+     */
+    private static class Entry {
+
+        /** The rewritten query. **/
+        private final String rewrittenQuery;
+        /** The references the rewritten query depends on (key: revision graph URI; value: reference URIs). **/
+        private final HashMap<String, Set<String>> references = new HashMap<>();
+
+        /**
+         * The constructor.
+         *
+         * @param rewrittenQuery the rewritten query
+         */
+        private Entry(final String rewrittenQuery) {
+            this.rewrittenQuery = rewrittenQuery;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package de.tud.plt.r43ples.triplestoreInterface;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -7,8 +8,6 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 
-import javax.ws.rs.core.Response.Status;
-
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -17,7 +16,10 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
 import org.apache.jena.riot.Lang;
 import org.apache.jena.riot.RDFDataMgr;
 import org.apache.log4j.Logger;
@@ -27,6 +29,8 @@ import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
 
+import de.tud.plt.r43ples.management.Config;
+
 
 /** 
  * Provides a interface to the triple store with URI and port specified via init method.
@@ -41,6 +45,12 @@ public class HttpInterface extends TripleStoreInterface {
 	/** The logger. */
 	private static Logger logger = Logger.getLogger(HttpInterface.class);
 	private static String endpoint;
+	/** The endpoint for SPARQL updates. **/
+	private static String updateEndpoint;
+	/** The pooling connection manager shared by all requests. **/
+	private PoolingClientConnectionManager connectionManager;
+	/** The HTTP client which keeps the connections to the endpoint alive. **/
+	private DefaultHttpClient httpClient;
 
 
 	
@@ -55,8 +65,34 @@ public class HttpInterface extends TripleStoreInterface {
 	 * 			password which should be used for authentication
 	 */
 	public HttpInterface(String sparql_endpoint, String sparql_username, String sparql_password) {
+		this(sparql_endpoint, sparql_endpoint, sparql_username, sparql_password);
+	}
+	
+	/**
+	 * The constructor.
+	 * 
+	 * @param sparql_endpoint
+	 * 			URI of the endpoint which used be used for further queries
+	 * @param sparql_update_endpoint
+	 * 			URI of the endpoint which should be used for updates
+	 * @param sparql_username
+	 * 			user name which should be used for authentication
+	 * @param sparql_password
+	 * 			password which should be used for authentication
+	 */
+	public HttpInterface(String sparql_endpoint, String sparql_update_endpoint, String sparql_username, String sparql_password) {
 		credentials = new UsernamePasswordCredentials(sparql_username, sparql_password);
-		endpoint = sparql_endpoint;		
+		endpoint = sparql_endpoint;
+		updateEndpoint = sparql_update_endpoint;
+		
+		connectionManager = new PoolingClientConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(Config.triplestore_http_maxConnectionsPerRoute);
+		connectionManager.setMaxTotal(Config.triplestore_http_maxConnectionsPerRoute * 2);
+		
+		httpClient = new DefaultHttpClient(connectionManager);
+		HttpConnectionParams.setConnectionTimeout(httpClient.getParams(), Config.triplestore_http_connectTimeout);
+		HttpConnectionParams.setSoTimeout(httpClient.getParams(), Config.triplestore_http_socketTimeout);
+		httpClient.getCredentialsProvider().setCredentials(AuthScope.ANY, credentials);
 	}
 	
 	
@@ -74,57 +110,64 @@ public class HttpInterface extends TripleStoreInterface {
     /**
 	 * Executes a SPARQL-query against the triple store with authorization.
 	 * (Based on the source code of the IAF device explorer - created by Sebastian Heinze.)
+	 * The response is read completely so that the connection is released to the pool immediately.
 	 * 
 	 * @param query the SPARQL query
 	 * @param format the format of the result (e.g. HTML, xml/rdf, JSON, ...)
 	 * @return the result of the query in the specified format
 	 */
 	private InputStream executeQueryWithAuthorization(String query, String format) {
-		HttpResponse response = executeQueryWithAuthorizationResponse(query, format);
-		logger.info("Statuscode: " + response.getStatusLine().getStatusCode());
-		try{
-			InputStream in = response.getEntity().getContent();
-			if (response.getStatusLine().getStatusCode() != Status.OK.getStatusCode()) {
-				logger.warn(response.getStatusLine().toString()+"\n"+in);
-				in.close();
-				return null;
-			}
-			return in;
-		} catch (IOException e){
-			e.printStackTrace();
-			return null;
+		logger.debug("Execute query on SPARQL endpoint:\n"+ query);
+		return executeRequest(endpoint, "query", query, format);
+	}
+	
+	/**
+	 * Executes a SPARQL update against the update endpoint of the triple store with authorization.
+	 * 
+	 * @param update the SPARQL update
+	 */
+	private void executeUpdateWithAuthorization(String update) {
+		logger.debug("Execute update on SPARQL endpoint:\n"+ update);
+		InputStream in = executeRequest(updateEndpoint, "update", update, "*/*");
+		if (in != null) {
+			IOUtils.closeQuietly(in);
 		}
 	}
 	
-	 /**
-	 * Executes a SPARQL-query against the triple store with authorization.
-	 * (Based on the source code of the IAF device explorer - created by Sebastian Heinze.)
+	/**
+	 * Posts a SPARQL query or update (SPARQL 1.1 protocol via URL-encoded POST).
 	 * 
-	 * @param query the SPARQL query
-	 * @param format the format of the result (e.g. HTML, xml/rdf, JSON, ...)
-	 * @return the result of the query in the specified format
+	 * @param url the URL of the endpoint
+	 * @param parameter the form parameter ("query" or "update")
+	 * @param content the SPARQL query or update
+	 * @param format the accepted format of the result
+	 * @return the response body or null if the request failed
 	 */
-	private HttpResponse executeQueryWithAuthorizationResponse(String query, String format) {
-		logger.debug("Execute query on SPARQL endpoint:\n"+ query);
-		DefaultHttpClient httpClient = new DefaultHttpClient();
-	    httpClient.getCredentialsProvider().setCredentials(AuthScope.ANY, credentials);
-			
-	    HttpPost request = new HttpPost(endpoint);
+	private InputStream executeRequest(String url, String parameter, String content, String format) {
+	    HttpPost request = new HttpPost(url);
 		
 		List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(1);
-		nameValuePairs.add(new BasicNameValuePair("query", query));
+		nameValuePairs.add(new BasicNameValuePair(parameter, content));
     	try {
 			request.setEntity(new UrlEncodedFormEntity(nameValuePairs, "UTF-8"));
 		} catch (UnsupportedEncodingException e) {
 			e.printStackTrace();
 		}
-    	//request.setHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
     	request.setHeader("Accept", format);
     	
 		//Execute Query
 		try {
-			return httpClient.execute(request);
+			HttpResponse response = httpClient.execute(request);
+			int statusCode = response.getStatusLine().getStatusCode();
+			logger.info("Statuscode: " + statusCode);
+			byte[] body = (response.getEntity() != null) ? EntityUtils.toByteArray(response.getEntity()) : new byte[0];
+			if (statusCode < 200 || statusCode >= 300) {
+				logger.warn(response.getStatusLine().toString()+"\n"+new String(body, "UTF-8"));
+				return null;
+			}
+			return new ByteArrayInputStream(body);
 		} catch (IOException e) {
+			request.abort();
 			e.printStackTrace();
 			return null;
 		}
@@ -132,7 +175,7 @@ public class HttpInterface extends TripleStoreInterface {
 
 	@Override
 	protected void close() {
-		
+		connectionManager.shutdown();
 	}
 
 	@Override
@@ -176,13 +219,12 @@ public class HttpInterface extends TripleStoreInterface {
 
 	@Override
 	public void executeUpdateQuery(String updateQueryString) {
-		executeQueryWithAuthorization(updateQueryString);
-		
+		executeUpdateWithAuthorization(updateQueryString);
 	}
 
 	@Override
 	public void executeCreateGraph(String graph) {
-		executeQueryWithAuthorization("CREATE GRAPH <"+graph+">");
+		executeUpdateWithAuthorization("CREATE GRAPH <"+graph+">");
 	}
 
 	@Override
@@ -1,16 +1,32 @@
 package de.tud.plt.r43ples.triplestoreInterface;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.query.Dataset;
+import com.hp.hpl.jena.query.DatasetFactory;
+import com.hp.hpl.jena.query.Query;
 import com.hp.hpl.jena.query.QueryExecution;
 import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QueryFactory;
 import com.hp.hpl.jena.query.ReadWrite;
 import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
 import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.sparql.core.DatasetGraph;
+import com.hp.hpl.jena.sparql.engine.QueryExecutionBase;
+import com.hp.hpl.jena.sparql.engine.main.QueryEngineMain;
 import com.hp.hpl.jena.tdb.TDBFactory;
 import com.hp.hpl.jena.update.GraphStore;
 import com.hp.hpl.jena.update.GraphStoreFactory;
@@ -18,6 +34,15 @@ import com.hp.hpl.jena.update.UpdateExecutionFactory;
 import com.hp.hpl.jena.update.UpdateFactory;
 import com.hp.hpl.jena.update.UpdateProcessor;
 import com.hp.hpl.jena.update.UpdateRequest;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFDataMgr;
+import org.apache.jena.riot.RDFFormat;
+import org.apache.jena.riot.system.StreamRDF;
+import org.apache.jena.riot.system.StreamRDFBase;
+import org.apache.jena.riot.system.StreamRDFWriter;
+
+import de.tud.plt.r43ples.optimization.RevisionDelta;
+import de.tud.plt.r43ples.optimization.RevisionDeltaDatasetGraph;
 
 
 /** 
@@ -65,19 +90,79 @@ public class JenaTDBInterface extends TripleStoreInterface {
 	
 	/**
 	 * Executes a SELECT query.
+	 * The result set is copied into memory because it has to be consumed before the read transaction ends.
 	 * 
 	 * @param selectQueryString the SELECT query
 	 * @return result set
 	 */
 	@Override
 	public ResultSet executeSelectQuery(String selectQueryString) {
-		dataset.begin(ReadWrite.READ);
 		logger.debug(selectQueryString);
-		QueryExecution qExec = QueryExecutionFactory.create(selectQueryString, dataset);
-
-		ResultSet result = qExec.execSelect();
-		dataset.end();
-		return result;
+		// the query is parsed before the transaction begins, so a syntax error does not leave it open
+		Query query = QueryFactory.create(selectQueryString);
+		boolean transaction = beginRead();
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			return ResultSetFactory.copyResults(qExec.execSelect());
+		} finally {
+			qExec.close();
+			end(transaction);
+		}
+	}
+	
+	/**
+	 * Executes a SELECT query and streams the formatted result to the specified stream.
+	 * The read transaction is kept open until all rows are written.
+	 * 
+	 * @param selectQueryString the SELECT query
+	 * @param format the format
+	 * @param out the stream the result is written to
+	 */
+	@Override
+	public void executeSelectQuery(String selectQueryString, String format, OutputStream out) {
+		logger.debug(selectQueryString);
+		Query query = QueryFactory.create(selectQueryString);
+		dataset.begin(ReadWrite.READ);
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			writeResultSet(qExec.execSelect(), format, out);
+		} finally {
+			qExec.close();
+			dataset.end();
+		}
+	}
+	
+	
+	/**
+	 * Executes a SELECT, CONSTRUCT or ASK query which refers to revisions as virtual named graphs and writes the
+	 * formatted result to the specified stream. The virtual graphs are evaluated on the fly from the full graphs
+	 * and change sets in the read transaction of the query.
+	 * 
+	 * @param sparqlQuery the query
+	 * @param format the result format
+	 * @param out the stream the result is written to
+	 * @param deltas the deltas of the revisions (key: virtual graph URI used in the query)
+	 */
+	public void executeSelectConstructAskQuery(String sparqlQuery, String format, OutputStream out, Map<String, RevisionDelta> deltas) {
+		logger.debug("Query: " + sparqlQuery);
+		Query query = QueryFactory.create(sparqlQuery);
+		dataset.begin(ReadWrite.READ);
+		Dataset revisionDataset = DatasetFactory.create(new RevisionDeltaDatasetGraph(dataset.asDatasetGraph(), deltas));
+		// the general query engine is used because the TDB engine would evaluate the quads directly on the indexes
+		QueryExecution qExec = new QueryExecutionBase(query, revisionDataset, null, QueryEngineMain.getFactory());
+		try {
+			if (query.isAskType())
+				new PrintStream(out, true).print(qExec.execAsk() ? "true" : "false");
+			else if (query.isConstructType())
+				writeModel(qExec.execConstruct(), format, out);
+			else if (query.isDescribeType())
+				writeModel(qExec.execDescribe(), format, out);
+			else
+				writeResultSet(qExec.execSelect(), format, out);
+		} finally {
+			qExec.close();
+			dataset.end();
+		}
 	}
 	
 	
@@ -89,12 +174,76 @@ public class JenaTDBInterface extends TripleStoreInterface {
 	 */
 	@Override
 	public Model executeConstructQuery(String constructQueryString) {
+		Query query = QueryFactory.create(constructQueryString);
+		boolean transaction = beginRead();
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			return qExec.execConstruct();
+		} finally {
+			qExec.close();
+			end(transaction);
+		}
+	}
+	
+	/**
+	 * Executes a CONSTRUCT query and adds the constructed triples to a collection.
+	 * The triples are streamed from the query execution without building a model.
+	 * 
+	 * @param constructQueryString the CONSTRUCT query
+	 * @param triples the collection the triples are added to
+	 */
+	@Override
+	public void executeConstructQuery(String constructQueryString, Collection<Triple> triples) {
+		Query query = QueryFactory.create(constructQueryString);
+		boolean transaction = beginRead();
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			Iterator<Triple> it = qExec.execConstructTriples();
+			while (it.hasNext()) {
+				triples.add(it.next());
+			}
+		} finally {
+			qExec.close();
+			end(transaction);
+		}
+	}
+	
+	/**
+	 * Executes a CONSTRUCT query and writes the formatted result to the specified stream.
+	 * Turtle and N-Triples are streamed triple by triple while the read transaction is open. All other formats
+	 * need the complete model before serialization.
+	 * 
+	 * @param constructQueryString the CONSTRUCT query
+	 * @param format the result format
+	 * @param out the stream the result is written to
+	 */
+	@Override
+	public void executeConstructQuery(String constructQueryString, String format, OutputStream out) {
+		logger.debug("Query: " + constructQueryString);
+		Query query = QueryFactory.create(constructQueryString);
 		dataset.begin(ReadWrite.READ);
-		QueryExecution qExec = QueryExecutionFactory.create(constructQueryString, dataset);
-		Model result = qExec.execConstruct();
-		qExec.close();
-		dataset.end();
-		return result;
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			String formatLowerCase = format.toLowerCase();
+			if (formatLowerCase.contains("turtle") || formatLowerCase.contains("n-triples")) {
+				StreamRDF stream = StreamRDFWriter.getWriterStream(out,
+						formatLowerCase.contains("turtle") ? RDFFormat.TURTLE_BLOCKS : RDFFormat.NTRIPLES);
+				stream.start();
+				for (Map.Entry<String, String> prefix : qExec.getQuery().getPrefixMapping().getNsPrefixMap().entrySet()) {
+					stream.prefix(prefix.getKey(), prefix.getValue());
+				}
+				Iterator<Triple> triples = qExec.execConstructTriples();
+				while (triples.hasNext()) {
+					stream.triple(triples.next());
+				}
+				stream.finish();
+			} else {
+				writeModel(qExec.execConstruct(), format, out);
+			}
+		} finally {
+			qExec.close();
+			dataset.end();
+		}
 	}
 	
 	
@@ -108,12 +257,15 @@ public class JenaTDBInterface extends TripleStoreInterface {
 	@Override
 	public Model executeDescribeQuery(String describeQueryString) {
 		logger.debug("Query: " + describeQueryString);
+		Query query = QueryFactory.create(describeQueryString);
 		dataset.begin(ReadWrite.READ);
-		QueryExecution qExec = QueryExecutionFactory.create(describeQueryString, dataset);
-		Model result = qExec.execDescribe();
-		qExec.close();
-		dataset.end();
-		return result;
+		QueryExecution qExec = QueryExecutionFactory.create(query, dataset);
+		try {
+			return qExec.execDescribe();
+		} finally {
+			qExec.close();
+			dataset.end();
+		}
 	}
 	
 
@@ -125,13 +277,38 @@ public class JenaTDBInterface extends TripleStoreInterface {
 	 */
 	@Override
 	public boolean executeAskQuery(String askQueryString) {
+		Query query = QueryFactory.create(askQueryString);
+		boolean transaction = beginRead();
+		QueryExecution qe = QueryExecutionFactory.create(query, dataset);
+		try {
+			return qe.execAsk();
+		} finally {
+			qe.close();
+			end(transaction);
+		}
+	}
+	
+	/**
+	 * Begins a read transaction unless the current thread is inside a transaction, e.g. while a step of an update
+	 * batch is run. Then the query reads the state written so far in that transaction.
+	 * 
+	 * @return true if a read transaction was begun
+	 */
+	private static boolean beginRead() {
+		if (dataset.isInTransaction())
+			return false;
 		dataset.begin(ReadWrite.READ);
-		QueryExecution qe = QueryExecutionFactory.create(askQueryString, dataset);
-		boolean result = qe.execAsk();
-		qe.close();
-		dataset.end();
-
-		return result;
+		return true;
+	}
+	
+	/**
+	 * Ends a read transaction begun by {@link #beginRead()}.
+	 * 
+	 * @param transaction true if a read transaction was begun
+	 */
+	private static void end(boolean transaction) {
+		if (transaction)
+			dataset.end();
 	}
 	
 	/**
@@ -143,29 +320,123 @@ public class JenaTDBInterface extends TripleStoreInterface {
 	public void executeUpdateQuery(String updateQueryString) {
 		logger.debug("Query:" + updateQueryString);
 		dataset.begin(ReadWrite.WRITE);
-		
-		GraphStore graphStore = GraphStoreFactory.create(dataset) ;
-		
-	    UpdateRequest request = UpdateFactory.create(updateQueryString) ;
-	    UpdateProcessor proc = UpdateExecutionFactory.create(request, graphStore) ;
-	    proc.execute();
-	    dataset.commit();
-		dataset.end();
+		try {
+			GraphStore graphStore = GraphStoreFactory.create(dataset) ;
+			
+		    UpdateRequest request = UpdateFactory.create(updateQueryString) ;
+		    UpdateProcessor proc = UpdateExecutionFactory.create(request, graphStore) ;
+		    proc.execute();
+		    dataset.commit();
+		}
+		finally {
+			dataset.end();
+		}
 	}
-	
 
+	/**
+	 * Executes all operations of an update batch in one write transaction.
+	 * Data changes are streamed from the RIOT parser directly into the named graphs of the dataset without building
+	 * SPARQL update strings. Steps are run inside the transaction. The transaction is aborted if one of the
+	 * operations fails.
+	 *
+	 * @param batch the update batch
+	 */
 	@Override
-	public void executeCreateGraph(String graph) {
+	protected void executeUpdateBatch(UpdateBatch batch) {
 		dataset.begin(ReadWrite.WRITE);
-		
-		GraphStore graphStore = GraphStoreFactory.create(dataset) ;
+		try {
+			GraphStore graphStore = GraphStoreFactory.create(dataset) ;
+			executeOperations(batch, graphStore);
+			dataset.commit();
+		}
+		finally {
+			dataset.end();
+		}
+	}
 
-	    UpdateRequest request = UpdateFactory.create("CREATE GRAPH <"+graph+">") ;
-	    UpdateProcessor proc = UpdateExecutionFactory.create(request, graphStore) ;
-	    proc.execute();
+	/**
+	 * Executes the operations of an update batch in the active write transaction. The operations added by a step
+	 * are executed directly after it.
+	 *
+	 * @param batch the update batch
+	 * @param graphStore the graph store of the active write transaction
+	 */
+	private void executeOperations(UpdateBatch batch, GraphStore graphStore) {
+		for (UpdateBatch.Operation operation : batch.getOperations()) {
+			if (operation.isStep()) {
+				executeOperations(batch.runStep(operation.getStep()), graphStore);
+			} else if (operation.isDataChange()) {
+				logger.debug((operation.isDelete() ? "Delete data from " : "Insert data into ") + operation.getGraphName());
+				applyDataChange(dataset.asDatasetGraph(), operation);
+			} else {
+				logger.debug("Query:" + operation.getUpdateQueryString());
+				UpdateRequest request = UpdateFactory.create(operation.getUpdateQueryString()) ;
+				UpdateExecutionFactory.create(request, graphStore).execute();
+			}
+		}
+	}
 
-	    dataset.commit();
-		dataset.end();
+	/**
+	 * Parses the data of a data change and adds the triples to or deletes them from the named graph.
+	 *
+	 * @param datasetGraph the dataset graph of the active write transaction
+	 * @param operation the data change
+	 */
+	private static void applyDataChange(final DatasetGraph datasetGraph, final UpdateBatch.Operation operation) {
+		final Node graphNode = NodeFactory.createURI(operation.getGraphName());
+		final boolean delete = operation.isDelete();
+		StreamRDF sink = new StreamRDFBase() {
+			@Override
+			public void triple(Triple triple) {
+				if (delete)
+					datasetGraph.delete(graphNode, triple.getSubject(), triple.getPredicate(), triple.getObject());
+				else
+					datasetGraph.add(graphNode, triple.getSubject(), triple.getPredicate(), triple.getObject());
+			}
+		};
+		// Turtle is a superset of N-Triples and also accepts the abbreviations allowed in INSERT DATA
+		RDFDataMgr.parse(sink, new ByteArrayInputStream(operation.getData().getBytes(StandardCharsets.UTF_8)), Lang.TURTLE);
+	}
+
+
+	/**
+	 * Adds the triples directly to the named graph in one write transaction without serializing them.
+	 *
+	 * @param graphName the graph name
+	 * @param triples the triples
+	 */
+	@Override
+	public void insertTriples(String graphName, Collection<Triple> triples) {
+		Node graphNode = NodeFactory.createURI(graphName);
+		dataset.begin(ReadWrite.WRITE);
+		try {
+			DatasetGraph datasetGraph = dataset.asDatasetGraph();
+			for (Triple triple : triples) {
+				datasetGraph.add(graphNode, triple.getSubject(), triple.getPredicate(), triple.getObject());
+			}
+			dataset.commit();
+		}
+		finally {
+			dataset.end();
+		}
+	}
+
+
+	@Override
+	public void executeCreateGraph(String graph) {
+		dataset.begin(ReadWrite.WRITE);
+		try {
+			GraphStore graphStore = GraphStoreFactory.create(dataset) ;
+	
+		    UpdateRequest request = UpdateFactory.create("CREATE GRAPH <"+graph+">") ;
+		    UpdateProcessor proc = UpdateExecutionFactory.create(request, graphStore) ;
+		    proc.execute();
+	
+		    dataset.commit();
+		}
+		finally {
+			dataset.end();
+		}
 	}
 
 	@Override
@@ -1,12 +1,20 @@
 package de.tud.plt.r43ples.triplestoreInterface;
 
 import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.regex.Pattern;
 
 import de.tud.plt.r43ples.management.RevisionManagementOriginal;
+import org.apache.jena.riot.out.NodeFmtLib;
 import org.apache.log4j.Logger;
 
+import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.query.ResultSet;
 import com.hp.hpl.jena.query.ResultSetFormatter;
 import com.hp.hpl.jena.rdf.model.Model;
@@ -43,7 +51,29 @@ public abstract class TripleStoreInterface {
 	protected abstract void close();
 		
 	
+	/**
+	 * Executes a SELECT, CONSTRUCT or ASK query.
+	 * 
+	 * @param sparqlQuery the query
+	 * @param format the result format
+	 * @return formatted result
+	 */
 	public String executeSelectConstructAskQuery(String sparqlQuery, String format) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		executeSelectConstructAskQuery(sparqlQuery, format, baos);
+		String result = baos.toString();
+		logger.debug("Response: " + result);
+		return result;
+	}
+	
+	/**
+	 * Executes a SELECT, CONSTRUCT or ASK query and writes the formatted result to the specified stream.
+	 * 
+	 * @param sparqlQuery the query
+	 * @param format the result format
+	 * @param out the stream the result is written to
+	 */
+	public void executeSelectConstructAskQuery(String sparqlQuery, String format, OutputStream out) {
 		logger.debug("Query: " + sparqlQuery);
 		final int patternModifier = Pattern.DOTALL + Pattern.MULTILINE + Pattern.CASE_INSENSITIVE;
 		final Pattern patternSelectQuery = Pattern.compile(
@@ -55,17 +85,14 @@ public abstract class TripleStoreInterface {
 		final Pattern patternConstructQuery = Pattern.compile(
 				"CONSTRUCT.*WHERE\\s*\\{(?<where>.*)\\}", 
 				patternModifier);
-		String result;
 		if (patternSelectQuery.matcher(sparqlQuery).find())
-			result = executeSelectQuery(sparqlQuery, format);
+			executeSelectQuery(sparqlQuery, format, out);
 		else if (patternAskQuery.matcher(sparqlQuery).find())
-			result = executeAskQuery(sparqlQuery)?"true":"false";
+			new PrintStream(out, true).print(executeAskQuery(sparqlQuery)?"true":"false");
 		else if (patternConstructQuery.matcher(sparqlQuery).find())
-			result = executeConstructQuery(sparqlQuery, format);
+			executeConstructQuery(sparqlQuery, format, out);
 		else
-			result = executeSelectQuery(sparqlQuery, format);
-		logger.debug("Response: " + result);
-		return result;
+			executeSelectQuery(sparqlQuery, format, out);
 	}
 	
 	/**
@@ -86,19 +113,40 @@ public abstract class TripleStoreInterface {
 	 * @return result string in specified format
 	 */
 	public String executeSelectQuery(String selectQueryString, String format) {
-		ResultSet results = executeSelectQuery(selectQueryString);
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		executeSelectQuery(selectQueryString, format, baos);
+		return baos.toString();
+	}
+	
+	/**
+	 * Executes a SELECT query and writes the formatted result to the specified stream.
+	 * 
+	 * @param selectQueryString the SELECT query
+	 * @param format the format
+	 * @param out the stream the result is written to
+	 */
+	public void executeSelectQuery(String selectQueryString, String format, OutputStream out) {
+		writeResultSet(executeSelectQuery(selectQueryString), format, out);
+	}
+	
+	/**
+	 * Writes a result set in the specified format.
+	 * 
+	 * @param results the result set
+	 * @param format the format
+	 * @param out the stream the result is written to
+	 */
+	protected static void writeResultSet(ResultSet results, String format, OutputStream out) {
 		if (format.equals("application/sparql-results+xml") || format.equals("application/xml") || format.equals("text/xml"))
-			ResultSetFormatter.outputAsXML(baos, results);
+			ResultSetFormatter.outputAsXML(out, results);
 		else if (format.equals("text/turtle") )
-			ResultSetFormatter.output(baos, results, ResultsFormat.FMT_RDF_TTL);
+			ResultSetFormatter.output(out, results, ResultsFormat.FMT_RDF_TTL);
 		else if (format.equals("application/json") )
-			ResultSetFormatter.outputAsJSON(baos, results);
+			ResultSetFormatter.outputAsJSON(out, results);
 		else if (format.equals("text/plain") )
-			ResultSetFormatter.out(baos, results);
+			ResultSetFormatter.out(out, results);
 		else
-			ResultSetFormatter.out(baos, results);
-		return baos.toString();
+			ResultSetFormatter.out(out, results);
 	}
 	
 	
@@ -110,30 +158,64 @@ public abstract class TripleStoreInterface {
 	 * @return formatted result
 	 */
 	public String executeConstructQuery(String constructQueryString, String format) {
-		logger.debug("Query: " + constructQueryString);
-		Model result = executeConstructQuery(constructQueryString);
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		
+		executeConstructQuery(constructQueryString, format, baos);
+		logger.debug("Result: " + baos.toString());
+		return baos.toString();
+	}
+	
+	/**
+	 * Executes a CONSTRUCT query and writes the formatted result to the specified stream.
+	 * 
+	 * @param constructQueryString the CONSTRUCT query
+	 * @param format the result format
+	 * @param out the stream the result is written to
+	 */
+	public void executeConstructQuery(String constructQueryString, String format, OutputStream out) {
+		logger.debug("Query: " + constructQueryString);
+		writeModel(executeConstructQuery(constructQueryString), format, out);
+	}
+	
+	/**
+	 * Writes a model in the specified format.
+	 * 
+	 * @param model the model
+	 * @param format the result format
+	 * @param out the stream the result is written to
+	 */
+	protected static void writeModel(Model model, String format, OutputStream out) {
 		if (format.toLowerCase().contains("xml") )
-			result.write(baos, "RDF/XML");
+			model.write(out, "RDF/XML");
 		else if (format.toLowerCase().contains("turtle") )
-			result.write(baos, "Turtle");
+			model.write(out, "Turtle");
 		else if (format.toLowerCase().contains("json") )
-			result.write(baos, "RDF/JSON");
+			model.write(out, "RDF/JSON");
 		else {
 			try {
-				result.write(baos, format);
+				model.write(out, format);
 			}
 			catch (NoWriterForLangException e) {
-				result.write(baos, "Turtle");
+				model.write(out, "Turtle");
 			}
 		}
-		logger.debug("Result: " + baos.toString());
-		return baos.toString();
 	}
 	
 	
 	public abstract Model executeConstructQuery(String constructQueryString) ;
+
+	/**
+	 * Executes a SPARQL construct query and adds the constructed triples to a collection.
+	 * The default implementation reads the constructed model.
+	 *
+	 * @param constructQueryString the SPARQL construct query
+	 * @param triples the collection the triples are added to
+	 */
+	public void executeConstructQuery(String constructQueryString, Collection<Triple> triples) {
+		Iterator<Triple> it = executeConstructQuery(constructQueryString).getGraph().find(null, null, null);
+		while (it.hasNext()) {
+			triples.add(it.next());
+		}
+	}
 	
 	
 	/**
@@ -170,7 +252,108 @@ public abstract class TripleStoreInterface {
 	 */
 	public abstract void executeUpdateQuery(String updateQueryString);
 
-	
+	/**
+	 * Creates a new empty batch of update statements for this triplestore.
+	 *
+	 * @return the update batch
+	 */
+	public UpdateBatch createUpdateBatch() {
+		return new UpdateBatch(this);
+	}
+
+	/**
+	 * Executes all operations of an update batch as one write.
+	 * The default implementation joins the operations into one SPARQL 1.1 update request. Data changes are split
+	 * into INSERT DATA and DELETE DATA statements of up to 500 triples. The request is split at steps, because a
+	 * step has to read the state written by the preceding operations. The batch is therefore only atomic if it has
+	 * no steps and the triplestore applies an update request atomically.
+	 *
+	 * @param batch the update batch
+	 */
+	protected void executeUpdateBatch(UpdateBatch batch) {
+		StringBuilder request = new StringBuilder();
+		appendUpdateBatch(batch, request);
+		if (request.length() > 0)
+			executeUpdateQuery(request.toString());
+	}
+
+	/**
+	 * Appends the operations of an update batch to an update request. The request collected so far is executed
+	 * before a step is run.
+	 *
+	 * @param batch the update batch
+	 * @param request the update request
+	 */
+	private void appendUpdateBatch(UpdateBatch batch, StringBuilder request) {
+		for (UpdateBatch.Operation operation : batch.getOperations()) {
+			if (operation.isStep()) {
+				if (request.length() > 0)
+					executeUpdateQuery(request.toString());
+				request.setLength(0);
+				appendUpdateBatch(batch.runStep(operation.getStep()), request);
+				continue;
+			}
+			List<String> statements = operation.isDataChange()
+					? splitDataChange(operation)
+					: Collections.singletonList(operation.getUpdateQueryString());
+			for (String update : statements) {
+				String statement = update.trim();
+				if (statement.endsWith(";"))
+					statement = statement.substring(0, statement.length() - 1);
+				if (request.length() > 0)
+					request.append(";\n");
+				request.append(statement);
+			}
+		}
+	}
+
+	/**
+	 * Split a data change into INSERT DATA or DELETE DATA statements of up to 500 triple statements.
+	 *
+	 * @param operation the data change
+	 * @return the update statements
+	 */
+	protected static List<String> splitDataChange(UpdateBatch.Operation operation) {
+		final int MAX_STATEMENTS = 500;
+		final String template = operation.isDelete()
+				? "DELETE DATA { GRAPH <%s> { %s } }"
+				: "INSERT DATA { GRAPH <%s> { %s } }";
+		List<String> statements = new ArrayList<>();
+		String[] lines = operation.getData().split("\n");
+		int counter = 0;
+		StringBuilder insert = new StringBuilder();
+
+		for (int i=0; i < lines.length; i++) {
+			insert.append(lines[i]);
+			insert.append("\n");
+			counter++;
+			if (counter == MAX_STATEMENTS-1) {
+				statements.add(String.format(template, operation.getGraphName(), insert));
+				counter = 0;
+				insert = new StringBuilder();
+			}
+		}
+
+		statements.add(String.format(template, operation.getGraphName(), insert));
+		return statements;
+	}
+
+	/**
+	 * Adds triples to a named graph as one write. Used for loading large change sets in chunks.
+	 * The default implementation inserts the triples as N-Triples by an update batch.
+	 *
+	 * @param graphName the graph name
+	 * @param triples the triples
+	 */
+	public void insertTriples(String graphName, Collection<Triple> triples) {
+		StringBuilder data = new StringBuilder();
+		for (Triple triple : triples) {
+			data.append(String.format("%s %s %s .%n", NodeFmtLib.str(triple.getSubject()),
+					NodeFmtLib.str(triple.getPredicate()), NodeFmtLib.str(triple.getObject())));
+		}
+		createUpdateBatch().insertData(graphName, data.toString()).execute();
+	}
+
 	public abstract void executeCreateGraph(String graph) ;
 
 	
@@ -1,6 +1,8 @@
 package de.tud.plt.r43ples.triplestoreInterface;
 
 import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
 import org.apache.log4j.Logger;
 
 /**
@@ -33,7 +35,7 @@ public class TripleStoreInterfaceSingleton {
 			else if (Config.triplestore_type.equals("virtuoso"))
 				triplestore = new VirtuosoInterface(Config.triplestore_url, Config.triplestore_user, Config.triplestore_password);
 			else if (Config.triplestore_type.equals("http"))
-				triplestore = new HttpInterface(Config.triplestore_url, Config.triplestore_user, Config.triplestore_password);
+				triplestore = new HttpInterface(Config.triplestore_url, Config.triplestore_update_url, Config.triplestore_user, Config.triplestore_password);
 			else {
 				logger.error("No triplestore specified in config");
 				System.exit(1);
@@ -50,6 +52,8 @@ public class TripleStoreInterfaceSingleton {
 		if (triplestore!=null) {
 			triplestore.close();
 			triplestore = null;
+			RevisionGraphIndex.invalidateAll();
+			MaterializedRevisionCache.getInstance().clear();
 		}
 	}
 
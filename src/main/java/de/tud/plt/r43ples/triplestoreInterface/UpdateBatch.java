@@ -0,0 +1,277 @@
+package de.tud.plt.r43ples.triplestoreInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Collects SPARQL update statements and data changes which are executed together as one write on the triplestore.
+ * The operations are executed in the order they were added.
+ *
+ * Operations which depend on the data written by the preceding operations (e.g. the normalization of change sets
+ * which are filled by an update statement of the batch) are added as steps. A step is run while the batch is written,
+ * reads the state written so far and adds its operations, which are executed directly after it.
+ *
+ * Changes of in-memory state which describe the written data (e.g. the revision graph index) are collected as
+ * post-commit actions. They are only run after the write succeeded and are dropped if it fails.
+ *
+ * Only the TDB triplestore executes a batch in one transaction. Other triplestores receive the statements as SPARQL
+ * update requests, one per part of the batch between its steps. A batch with steps is therefore not atomic on them:
+ * if a later request fails, the preceding requests stay written and the post-commit actions are not run.
+ */
+public class UpdateBatch {
+
+	/** The triplestore interface which executes the batch. **/
+	private final TripleStoreInterface tripleStoreInterface;
+	/** The collected operations. **/
+	private final List<Operation> operations = new ArrayList<>();
+	/** The actions which are run after the operations were written. **/
+	private final List<Runnable> postCommitActions;
+
+
+	/**
+	 * The constructor.
+	 *
+	 * @param tripleStoreInterface the triplestore interface which executes the batch
+	 */
+	protected UpdateBatch(TripleStoreInterface tripleStoreInterface) {
+		this(tripleStoreInterface, new ArrayList<Runnable>());
+	}
+
+	/**
+	 * The constructor.
+	 *
+	 * @param tripleStoreInterface the triplestore interface which executes the batch
+	 * @param postCommitActions the list the post-commit actions are added to
+	 */
+	private UpdateBatch(TripleStoreInterface tripleStoreInterface, List<Runnable> postCommitActions) {
+		this.tripleStoreInterface = tripleStoreInterface;
+		this.postCommitActions = postCommitActions;
+	}
+
+	/**
+	 * Adds an update statement to the batch.
+	 *
+	 * @param updateQueryString the UPDATE query
+	 * @return this batch
+	 */
+	public UpdateBatch add(String updateQueryString) {
+		operations.add(new Operation(updateQueryString, null, null, false, null));
+		return this;
+	}
+
+	/**
+	 * Adds the insertion of triples into a named graph to the batch.
+	 *
+	 * @param graphName the graph name
+	 * @param dataSetAsNTriples the data to insert as N-Triples
+	 * @return this batch
+	 */
+	public UpdateBatch insertData(String graphName, String dataSetAsNTriples) {
+		operations.add(new Operation(null, graphName, dataSetAsNTriples, false, null));
+		return this;
+	}
+
+	/**
+	 * Adds the deletion of triples from a named graph to the batch.
+	 *
+	 * @param graphName the graph name
+	 * @param dataSetAsNTriples the data to delete as N-Triples
+	 * @return this batch
+	 */
+	public UpdateBatch deleteData(String graphName, String dataSetAsNTriples) {
+		operations.add(new Operation(null, graphName, dataSetAsNTriples, true, null));
+		return this;
+	}
+
+	/**
+	 * Adds a step to the batch. The step is run in the write of the batch after the preceding operations were
+	 * executed, so its queries on the triplestore read their changes.
+	 *
+	 * @param step the step
+	 * @return this batch
+	 */
+	public UpdateBatch addStep(Step step) {
+		operations.add(new Operation(null, null, null, false, step));
+		return this;
+	}
+
+	/**
+	 * Adds an action which is run after all operations of the batch were written successfully. The actions are run
+	 * in the order they were added and are dropped if the write fails.
+	 *
+	 * @param action the action
+	 * @return this batch
+	 */
+	public UpdateBatch addPostCommitAction(Runnable action) {
+		postCommitActions.add(action);
+		return this;
+	}
+
+	/**
+	 * Get the collected operations.
+	 *
+	 * @return the unmodifiable list of operations
+	 */
+	public List<Operation> getOperations() {
+		return Collections.unmodifiableList(operations);
+	}
+
+	/**
+	 * Checks if the batch contains any operation.
+	 *
+	 * @return true if the batch is empty
+	 */
+	public boolean isEmpty() {
+		return operations.isEmpty();
+	}
+
+	/**
+	 * Runs a step while the batch is written.
+	 *
+	 * @param step the step
+	 * @return the batch with the operations added by the step; its post-commit actions belong to this batch
+	 */
+	protected UpdateBatch runStep(Step step) {
+		UpdateBatch stepBatch = new UpdateBatch(tripleStoreInterface, postCommitActions);
+		step.run(stepBatch);
+		return stepBatch;
+	}
+
+	/**
+	 * Executes all collected operations as one write and runs the post-commit actions afterwards. The batch is
+	 * emptied in any case, so the post-commit actions of a failed write are dropped.
+	 */
+	public void execute() {
+		List<Runnable> actions;
+		try {
+			if (!operations.isEmpty()) {
+				tripleStoreInterface.executeUpdateBatch(this);
+			}
+			// the steps may have added post-commit actions
+			actions = new ArrayList<>(postCommitActions);
+		}
+		finally {
+			operations.clear();
+			postCommitActions.clear();
+		}
+		for (Runnable action : actions) {
+			action.run();
+		}
+	}
+
+
+	/**
+	 * A part of an update batch which is run while the batch is written.
+	 */
+	public interface Step {
+
+		/**
+		 * Runs the step. Queries on the triplestore read the changes of the preceding operations of the batch.
+		 *
+		 * @param batch the batch the operations of the step are added to; they are executed directly after the step
+		 */
+		void run(UpdateBatch batch);
+	}
+
+
+	/**
+	 * A single operation of an update batch. It is either a SPARQL update statement, a data change of a named
+	 * graph given as N-Triples or a step.
+	 */
+	public static class Operation {
+
+		/** The update statement or null if the operation is a data change. **/
+		private final String updateQueryString;
+		/** The graph name of the data change. **/
+		private final String graphName;
+		/** The data of the data change as N-Triples. **/
+		private final String data;
+		/** States if the data is deleted from or inserted into the graph. **/
+		private final boolean delete;
+		/** The step or null if the operation is no step. **/
+		private final Step step;
+
+		/**
+		 * The constructor.
+		 *
+		 * @param updateQueryString the update statement or null
+		 * @param graphName the graph name of the data change
+		 * @param data the data of the data change as N-Triples
+		 * @param delete true if the data is deleted from the graph
+		 * @param step the step or null
+		 */
+		private Operation(String updateQueryString, String graphName, String data, boolean delete, Step step) {
+			this.updateQueryString = updateQueryString;
+			this.graphName = graphName;
+			this.data = data;
+			this.delete = delete;
+			this.step = step;
+		}
+
+		/**
+		 * Checks if the operation is a data change.
+		 *
+		 * @return true if the operation is a data change
+		 */
+		public boolean isDataChange() {
+			return updateQueryString == null && step == null;
+		}
+
+		/**
+		 * Checks if the operation is a step.
+		 *
+		 * @return true if the operation is a step
+		 */
+		public boolean isStep() {
+			return step != null;
+		}
+
+		/**
+		 * Get the step.
+		 *
+		 * @return the step or null if the operation is no step
+		 */
+		public Step getStep() {
+			return step;
+		}
+
+		/**
+		 * Get the update statement.
+		 *
+		 * @return the update statement or null if the operation is a data change
+		 */
+		public String getUpdateQueryString() {
+			return updateQueryString;
+		}
+
+		/**
+		 * Get the graph name of the data change.
+		 *
+		 * @return the graph name
+		 */
+		public String getGraphName() {
+			return graphName;
+		}
+
+		/**
+		 * Get the data of the data change.
+		 *
+		 * @return the data as N-Triples
+		 */
+		public String getData() {
+			return data;
+		}
+
+		/**
+		 * Checks if the data is deleted from the graph.
+		 *
+		 * @return true if the data is deleted, false if it is inserted
+		 */
+		public boolean isDelete() {
+			return delete;
+		}
+	}
+
+}
@@ -27,6 +27,8 @@ import com.github.mustachejava.MustacheFactory;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.GitRepositoryState;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
 import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 
 @Path("debug")
@@ -82,6 +84,9 @@ public class Debug {
 			logger.info("Debug query was requested. Query: " + query);
 			if (sparqlQuery.contains("INSERT")) {
 				TripleStoreInterfaceSingleton.get().executeUpdateQuery(query);
+				// revision information could have been changed directly
+				RevisionGraphIndex.invalidateAll();
+				MaterializedRevisionCache.getInstance().invalidateAll();
 				responseBuilder.entity("Query executed");
 			}
 			else {
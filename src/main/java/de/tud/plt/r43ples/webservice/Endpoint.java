@@ -1,31 +1,49 @@
 package de.tud.plt.r43ples.webservice;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.ws.rs.*;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.core.Variant;
 
+import de.tud.plt.r43ples.core.CommitJob;
+import de.tud.plt.r43ples.core.CommitJobExecutor;
 import de.tud.plt.r43ples.core.HeaderInformation;
+import de.tud.plt.r43ples.core.QueryExplanation;
 import de.tud.plt.r43ples.core.R43plesCoreInterface;
 import de.tud.plt.r43ples.core.R43plesCoreSingleton;
 import de.tud.plt.r43ples.existentobjects.InitialCommit;
 import de.tud.plt.r43ples.existentobjects.MergeCommit;
 import de.tud.plt.r43ples.iohelper.JenaModelManagement;
 import de.tud.plt.r43ples.management.*;
+import de.tud.plt.r43ples.optimization.QueryResultCache;
 import org.apache.log4j.Logger;
 
 import com.github.mustachejava.DefaultMustacheFactory;
@@ -57,6 +75,8 @@ public class Endpoint {
 	private UriInfo uriInfo;
 	@Context
 	private Request request;
+	@Context
+	private HttpHeaders headers;
 	
 	
 
@@ -69,6 +89,9 @@ public class Endpoint {
 	static final MediaType APPLICATION_RDF_XML_TYPE = new MediaType("application", "rdf+xml");
 	static final MediaType APPLICATION_SPARQL_RESULTS_XML_TYPE = new MediaType("application", "sparql-results+xml");
 	
+	/** Pattern of the EXPLAIN keyword in front of a query. **/
+	private static final Pattern patternExplain = Pattern.compile("\\s*EXPLAIN\\s+", Pattern.CASE_INSENSITIVE);
+	
 	
 	/**map for client and mergingControlMap
 	 * for each client there is a mergingControlMap**/
@@ -89,6 +112,8 @@ public class Endpoint {
 	 *            the SPARQL query
 	 * @param query_rewriting
 	 * 			  should query rewriting option be used
+	 * @param explain
+	 * 			  (optional) true explains the query instead of executing it, header attaches the explanation to the response
 	 * @return HTTP response
 	 * @throws InternalErrorException 
 	 */
@@ -99,11 +124,12 @@ public class Endpoint {
 			@FormParam("format") final String formatQuery, 
 			@FormParam("query") @DefaultValue("") final String sparqlQuery,
 			@HeaderParam("r43ples-revisiongraph") @DefaultValue("") final String revision_information,
-			@FormParam("query_rewriting") @DefaultValue("") final String query_rewriting) throws InternalErrorException {
+			@FormParam("query_rewriting") @DefaultValue("") final String query_rewriting,
+			@FormParam("explain") @DefaultValue("") final String explain) throws InternalErrorException {
 		try {
 			String format = getFormat(formatQuery);
 			logger.info("SPARQL POST query (format: "+format+", query: "+sparqlQuery +")" + revision_information);
-			return sparql(format, sparqlQuery, revision_information, query_rewriting);
+			return sparql(format, sparqlQuery, revision_information, query_rewriting, explain);
 		} catch (Exception e) {
 			return Response.serverError().status(Response.Status.NOT_ACCEPTABLE).build();
 		}
@@ -132,6 +158,8 @@ public class Endpoint {
 	 * @param revision_information
 	 *            (optional) recent revision information about used revision graphs. If exisitent, commits are only
 	 *            performed if revision information is up to date.
+	 * @param explain
+	 * 			  (optional) true explains the query instead of executing it, header attaches the explanation to the response
 	 * @param sparqlQuery
 	 *            the SPARQL query specified in the HTTP POST body
 	 * @return HTTP response
@@ -142,6 +170,7 @@ public class Endpoint {
 	@Consumes("application/sparql-query")
 	public final Response sparqlPOSTdirectly(
 			@HeaderParam("r43ples-revisiongraph") @DefaultValue("") final String revision_information,
+			@QueryParam("explain") @DefaultValue("") final String explain,
 			final String sparqlQuery) throws InternalErrorException {
 		List<Variant> reqVariants = Variant.mediaTypes(MediaType.TEXT_PLAIN_TYPE, MediaType.TEXT_HTML_TYPE, 
 				MediaType.APPLICATION_JSON_TYPE, TEXT_TURTLE_TYPE, APPLICATION_RDF_XML_TYPE, APPLICATION_SPARQL_RESULTS_XML_TYPE).build();
@@ -152,7 +181,7 @@ public class Endpoint {
     	MediaType reqMediaType = bestVariant.getMediaType();
     	String format = reqMediaType.toString();
 		logger.info("SPARQL POST query directly (format: "+format+", query: "+sparqlQuery +")");
-		return sparql(reqMediaType.toString(), sparqlQuery, revision_information, false);
+		return sparql(reqMediaType.toString(), sparqlQuery, revision_information, false, true, explain);
 	}
 	
 	/**
@@ -170,6 +199,8 @@ public class Endpoint {
 	 *            the SPARQL query
 	 * @param query_rewriting
 	 * 			  should query rewriting option be used
+	 * @param explain
+	 * 			  (optional) true explains the query instead of executing it, header attaches the explanation to the response
 	 * @return HTTP response
 	 * @throws InternalErrorException 
 	 */
@@ -179,7 +210,8 @@ public class Endpoint {
 			@QueryParam("format") final String formatQuery, 
 			@QueryParam("query") @DefaultValue("") final String sparqlQuery,
 			@HeaderParam("r43ples-revisiongraph") @DefaultValue("") final String revision_information,
-			@QueryParam("query_rewriting") @DefaultValue("") final String query_rewriting) throws InternalErrorException {
+			@QueryParam("query_rewriting") @DefaultValue("") final String query_rewriting,
+			@QueryParam("explain") @DefaultValue("") final String explain) throws InternalErrorException {
 		String format;
 		try {
 			format = getFormat(formatQuery);
@@ -195,7 +227,7 @@ public class Endpoint {
 			sparqlQueryDecoded = sparqlQuery;
 		}
 		logger.info("SPARQL GET query (format: "+format+", query: "+sparqlQueryDecoded +")");
-		return sparql(format, sparqlQueryDecoded, revision_information, query_rewriting);
+		return sparql(format, sparqlQueryDecoded, revision_information, query_rewriting, explain);
 	}
 	
 	
@@ -215,10 +247,13 @@ public class Endpoint {
 	 *            performed if revision information is up to date.
 	 * @param query_rewriting
 	 * 			  should query rewriting option be used
+	 * @param streaming
+	 * 			  states if the results of SELECT, ASK and CONSTRUCT queries are streamed to the client (true) or
+	 * 			  returned as string entity (false)
 	 * @return the response
 	 * @throws InternalErrorException 
 	 */
-	private final Response sparql(final String format, final String sparqlQuery, final String revision_information, final boolean query_rewriting) throws InternalErrorException {
+	private final Response sparql(final String format, final String sparqlQuery, final String revision_information, final boolean query_rewriting, final boolean streaming) throws InternalErrorException {
 		if ("".equals(sparqlQuery)) {
 			if (format.contains(MediaType.TEXT_HTML)) {
 				return getHTMLResponse();
@@ -226,7 +261,7 @@ public class Endpoint {
 				return getServiceDescriptionResponse(format);
 			}
 		} else {
-			return getSparqlResponse(format, sparqlQuery, revision_information, query_rewriting);
+			return getSparqlResponse(format, sparqlQuery, revision_information, query_rewriting, streaming);
 		}
 	}
 
@@ -246,7 +281,7 @@ public class Endpoint {
 	 * @throws InternalErrorException
 	 */
 	public final Response sparql(final String format, final String sparqlQuery, final boolean query_rewriting) throws InternalErrorException {
-		return sparql(format, sparqlQuery, null, query_rewriting);
+		return sparql(format, sparqlQuery, null, query_rewriting, false);
 	}
 	
 	/**
@@ -260,15 +295,62 @@ public class Endpoint {
 	 *            performed if revision information is up to date.
 	 * @param query_rewriting
 	 * 			  string determining if query rewriting option be used
+	 * @param explain
+	 * 			  true explains the query instead of executing it, header attaches the explanation to the response
 	 * @return
 	 * @throws InternalErrorException
 	 */
-	private Response sparql(final String format, final String sparqlQuery, final String revision_information, final String query_rewriting) throws InternalErrorException {
+	private Response sparql(final String format, final String sparqlQuery, final String revision_information, final String query_rewriting, final String explain) throws InternalErrorException {
 		String option = query_rewriting.toLowerCase();
 		if (option.equals("on") || option.equals("true") || option.equals("new"))
-			return sparql(format, sparqlQuery, revision_information, true);
+			return sparql(format, sparqlQuery, revision_information, true, true, explain);
 		else
-			return sparql(format, sparqlQuery, revision_information, false);
+			return sparql(format, sparqlQuery, revision_information, false, true, explain);
+	}
+	
+	/**
+	 * Interface for query and update which can explain SELECT, ASK and CONSTRUCT queries.
+	 * A query is explained instead of executed if the explain option is true or the query starts with the keyword
+	 * EXPLAIN. The explain option header executes the query and attaches the explanation as header r43ples-explain.
+	 * 
+	 * @param format
+	 *            mime type for response format
+	 * @param sparqlQuery
+	 *            decoded SPARQL query
+	 * @param revision_information
+	 *            (optional) recent revision information about used revision graphs. If exisitent, commits are only
+	 *            performed if revision information is up to date.
+	 * @param query_rewriting
+	 * 			  should query rewriting option be used
+	 * @param streaming
+	 * 			  states if the results of SELECT, ASK and CONSTRUCT queries are streamed to the client
+	 * @param explain
+	 * 			  true explains the query instead of executing it, header attaches the explanation to the response
+	 * @return the response
+	 * @throws InternalErrorException
+	 */
+	private Response sparql(final String format, final String sparqlQuery, final String revision_information, final boolean query_rewriting,
+			final boolean streaming, final String explain) throws InternalErrorException {
+		String option = explain.toLowerCase();
+		String query = sparqlQuery;
+		Matcher m = patternExplain.matcher(sparqlQuery);
+		if (m.lookingAt()) {
+			query = sparqlQuery.substring(m.end());
+			option = "true";
+		}
+		if (option.equals("on") || option.equals("true")) {
+			return getExplainResponse(query, query_rewriting);
+		}
+		String explanation = null;
+		if (option.equals("header") && new R43plesRequest(query, format).isSelectAskConstructQuery()) {
+			explanation = R43plesCoreSingleton.getInstance()
+					.explainSparqlSelectConstructAskQuery(new R43plesRequest(query, format), query_rewriting).toJson(true);
+		}
+		Response response = sparql(format, query, revision_information, query_rewriting, streaming);
+		if (explanation != null) {
+			return Response.fromResponse(response).header("r43ples-explain", explanation).build();
+		}
+		return response;
 	}
 	
 	/**
@@ -285,12 +367,12 @@ public class Endpoint {
 	 * @throws InternalErrorException 
 	 */
 	public final Response sparql(final String format, final String sparqlQuery) throws InternalErrorException {
-		return sparql(format, sparqlQuery, null, false);
+		return sparql(format, sparqlQuery, null, false, false);
 	}
 	
 	
 	public final Response sparql(final String sparqlQuery) throws InternalErrorException {
-		return sparql("application/xml", sparqlQuery, null, false);
+		return sparql("application/xml", sparqlQuery, null, false, false);
 	}
 	
 	
@@ -353,16 +435,47 @@ public class Endpoint {
 	 * 			string containing the SPARQL query
 	 * @param query_rewriting
 	 * 			  should query rewriting option be used
+	 * @param streaming
+	 * 			  states if the results of SELECT, ASK and CONSTRUCT queries are streamed to the client
 	 * @return HTTP response of evaluating the sparql query 
 	 * @throws InternalErrorException
 	 */
-	private Response getSparqlResponse(String format, String sparqlQuery, final String revision_information, final boolean query_rewriting) throws InternalErrorException {
+	private Response getSparqlResponse(String format, String sparqlQuery, final String revision_information, final boolean query_rewriting, final boolean streaming) throws InternalErrorException {
 		logger.info(String.format("SPARQL request (format=%s, query_rewriting=%s, header=%s) -> %n %s", format, query_rewriting,revision_information, sparqlQuery));
 
 		R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
 
 		R43plesRequest request = new R43plesRequest(sparqlQuery, format, revision_information);
 
+		// Memento (RFC 7089): the branches are resolved to their revisions at the requested point in time
+		Date acceptDatetime = null;
+		if (request.isSelectAskConstructQuery()) {
+			String acceptDatetimeHeader = (headers != null) ? headers.getHeaderString("Accept-Datetime") : null;
+			if (acceptDatetimeHeader != null) {
+				acceptDatetime = parseHttpDate(acceptDatetimeHeader);
+				if (acceptDatetime == null) {
+					return Response.status(Response.Status.BAD_REQUEST)
+							.entity("Invalid Accept-Datetime: " + acceptDatetimeHeader).type(MediaType.TEXT_PLAIN).build();
+				}
+			}
+			request.resolveRevisionTimes(acceptDatetime);
+		}
+
+		if (request.isSelectAskConstructQuery() && !format.equals("text/html") && Config.query_result_cache_maxBytes > 0) {
+			TreeMap<String, TreeSet<String>> pinnedRevisions = QueryResultCache.getPinnedRevisions(request.query_sparql);
+			if (pinnedRevisions != null) {
+				return addMementoHeaders(getPinnedSparqlResponse(request, query_rewriting, streaming, pinnedRevisions), request, acceptDatetime);
+			}
+		}
+
+		if (streaming && request.isSelectAskConstructQuery() && !format.equals("text/html")) {
+			return addMementoHeaders(getStreamingSparqlResponse(request, query_rewriting), request, acceptDatetime);
+		}
+
+		if (CommitJobExecutor.isCommitRequest(request) && isRespondAsyncPreferred()) {
+			return getAsyncCommitResponse(request);
+		}
+
 		String result;
 		if (request.isSelectAskConstructQuery()) {
 			result = r43plesCore.getSparqlSelectConstructAskResponse(request, query_rewriting);
@@ -409,11 +522,182 @@ public class Endpoint {
 		responseBuilder.type(format);
 		HeaderInformation hi = new HeaderInformation();
 		responseBuilder.header("r43ples-revisiongraph", hi.getResponseHeaderFromQuery(sparqlQuery));
+		return addMementoHeaders(responseBuilder.build(), request, acceptDatetime);
+	}
+
+
+	/**
+	 * Checks if the client prefers an asynchronous response (RFC 7240: Prefer: respond-async).
+	 * 
+	 * @return true if the Prefer header contains the respond-async preference
+	 */
+	private boolean isRespondAsyncPreferred() {
+		List<String> preferHeaders = (headers != null) ? headers.getRequestHeader("Prefer") : null;
+		if (preferHeaders == null) {
+			return false;
+		}
+		for (String preferHeader : preferHeaders) {
+			for (String preference : preferHeader.split(",")) {
+				if (preference.split(";")[0].trim().equalsIgnoreCase("respond-async")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+
+	/**
+	 * Submits a commit as job to the commit job executor. The response (202 Accepted) refers to the job resource
+	 * which reports the progress and the created revisions.
+	 * 
+	 * @param request the R43ples request
+	 * @return the HTTP response (503 if too many jobs are pending)
+	 */
+	private Response getAsyncCommitResponse(final R43plesRequest request) {
+		CommitJob job = CommitJobExecutor.getInstance().submit(request);
+		if (job == null) {
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).header("Retry-After", 1)
+					.entity("Too many pending commit jobs").type(MediaType.TEXT_PLAIN).build();
+		}
+		URI location = uriInfo.getBaseUriBuilder().path(Jobs.class).path(job.getId()).build();
+		return Response.status(Response.Status.ACCEPTED)
+				.location(location)
+				.header("Preference-Applied", "respond-async")
+				.entity(job.toJson())
+				.type(MediaType.APPLICATION_JSON)
+				.build();
+	}
+
+
+	/**
+	 * Parses a date in the HTTP format (RFC 1123), e.g. Thu, 01 Jan 2026 00:00:00 GMT.
+	 * 
+	 * @param value the header value
+	 * @return the date or null if the value is no valid date
+	 */
+	private static Date parseHttpDate(final String value) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(value.trim());
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+
+	/**
+	 * Adds the Memento headers to the response of a query which was evaluated at the point in time requested by the
+	 * Accept-Datetime header. Memento-Datetime states the commit time of the newest revision the query was evaluated on.
+	 * 
+	 * @param response the response
+	 * @param r43plesRequest the R43ples request
+	 * @param acceptDatetime the requested point in time (null if the header was not sent)
+	 * @return the response with Memento headers
+	 */
+	private static Response addMementoHeaders(final Response response, final R43plesRequest r43plesRequest, final Date acceptDatetime) {
+		if (acceptDatetime == null) {
+			return response;
+		}
+		ResponseBuilder responseBuilder = Response.fromResponse(response).header("Vary", "accept-datetime");
+		if (r43plesRequest.mementoDatetime != null) {
+			SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			format.setTimeZone(TimeZone.getTimeZone("GMT"));
+			responseBuilder.header("Memento-Datetime", format.format(r43plesRequest.mementoDatetime));
+		}
 		return responseBuilder.build();
 	}
 
 
 	
+	/**
+	 * Creates the response of a SELECT, ASK or CONSTRUCT query which is streamed to the client.
+	 * The query is evaluated while the response is written, so the result is never held completely in memory.
+	 * 
+	 * @param request the R43ples request
+	 * @param query_rewriting should query rewriting option be used
+	 * @return HTTP response with streamed entity
+	 */
+	private Response getStreamingSparqlResponse(final R43plesRequest request, final boolean query_rewriting) {
+		final R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+		StreamingOutput stream = new StreamingOutput() {
+			@Override
+			public void write(OutputStream output) throws IOException, WebApplicationException {
+				try {
+					r43plesCore.writeSparqlSelectConstructAskResponse(request, query_rewriting, output);
+				} catch (InternalErrorException e) {
+					throw new WebApplicationException(e);
+				}
+				output.flush();
+			}
+		};
+		ResponseBuilder responseBuilder = Response.ok(stream);
+		responseBuilder.type(request.format);
+		HeaderInformation hi = new HeaderInformation();
+		responseBuilder.header("r43ples-revisiongraph", hi.getResponseHeaderFromQuery(request.query_sparql));
+		return responseBuilder.build();
+	}
+
+
+	/**
+	 * Creates the response of a SELECT, ASK or CONSTRUCT query which pins every graph to a revision number.
+	 * The serialized result is taken from the {@link QueryResultCache} and is only evaluated if it is not cached.
+	 * The response carries a strong ETag, so clients which send a matching If-None-Match header get 304 (Not Modified).
+	 * 
+	 * @param r43plesRequest the R43ples request
+	 * @param query_rewriting should query rewriting option be used
+	 * @param streaming states if the result is returned as byte stream (true) or as string entity (false)
+	 * @param pinnedRevisions the pinned revisions of the query
+	 * @return HTTP response
+	 * @throws InternalErrorException
+	 */
+	private Response getPinnedSparqlResponse(final R43plesRequest r43plesRequest, final boolean query_rewriting, final boolean streaming,
+			final TreeMap<String, TreeSet<String>> pinnedRevisions) throws InternalErrorException {
+		QueryResultCache cache = QueryResultCache.getInstance();
+		String key = QueryResultCache.getKey(r43plesRequest.query_sparql, r43plesRequest.format, query_rewriting, pinnedRevisions);
+		QueryResultCache.CachedResult result = cache.get(key);
+		if (result == null) {
+			long version = cache.getVersion();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			R43plesCoreSingleton.getInstance().writeSparqlSelectConstructAskResponse(r43plesRequest, query_rewriting, baos);
+			result = cache.put(key, pinnedRevisions.keySet(), baos.toByteArray(), version);
+		} else {
+			logger.debug("Result of pinned query taken from cache");
+		}
+
+		EntityTag entityTag = new EntityTag(result.getEntityTag());
+		ResponseBuilder responseBuilder = (request != null) ? request.evaluatePreconditions(entityTag) : null;
+		if (responseBuilder == null) {
+			responseBuilder = Response.ok(streaming ? result.getResult() : result.getResultAsString());
+			responseBuilder.type(r43plesRequest.format);
+		}
+		responseBuilder.tag(entityTag);
+		HeaderInformation hi = new HeaderInformation();
+		responseBuilder.header("r43ples-revisiongraph", hi.getResponseHeaderFromQuery(r43plesRequest.query_sparql));
+		return responseBuilder.build();
+	}
+
+
+	/**
+	 * Creates the response which explains the evaluation of a SELECT, ASK or CONSTRUCT query without executing it.
+	 * 
+	 * @param sparqlQuery the SPARQL query
+	 * @param query_rewriting should query rewriting option be used
+	 * @return HTTP response with the explanation as JSON
+	 * @throws InternalErrorException
+	 */
+	private Response getExplainResponse(final String sparqlQuery, final boolean query_rewriting) throws InternalErrorException {
+		logger.info("Explain query: " + sparqlQuery);
+		R43plesRequest request = new R43plesRequest(sparqlQuery, MediaType.APPLICATION_JSON);
+		if (!request.isSelectAskConstructQuery()) {
+			throw new QueryErrorException("Only SELECT, ASK and CONSTRUCT queries can be explained");
+		}
+		QueryExplanation explanation = R43plesCoreSingleton.getInstance().explainSparqlSelectConstructAskQuery(request, query_rewriting);
+		return Response.ok(explanation.toJson(false)).type(MediaType.APPLICATION_JSON).build();
+	}
+
+
 	/**
 	 * Provides the SPARQL Endpoint description of the original sparql endpoint
 	 * with the additional R43ples feature (sd:feature) and replaced URIs.
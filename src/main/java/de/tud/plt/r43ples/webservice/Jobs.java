@@ -0,0 +1,42 @@
+package de.tud.plt.r43ples.webservice;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.log4j.Logger;
+
+import de.tud.plt.r43ples.core.CommitJob;
+import de.tud.plt.r43ples.core.CommitJobExecutor;
+
+/**
+ * REST services for the status of asynchronous commits (requested with the header Prefer: respond-async)
+ */
+@Path("jobs")
+public class Jobs {
+	
+	private final static Logger logger = Logger.getLogger(Jobs.class);
+	
+	/**
+	 * Get the status of a commit job. Clients poll this resource until the status is COMPLETED or FAILED.
+	 * 
+	 * @param id the job identifier
+	 * @return the job as JSON (404 if the job is unknown or was already removed)
+	 */
+	@GET
+	@Path("{id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response getJob(@PathParam("id") final String id) {
+		logger.debug("Get commit job " + id);
+		CommitJob job = CommitJobExecutor.getInstance().getJob(id);
+		if (job == null) {
+			return Response.status(Response.Status.NOT_FOUND)
+					.entity("Unknown commit job " + id).type(MediaType.TEXT_PLAIN).build();
+		}
+		return Response.ok(job.toJson(), MediaType.APPLICATION_JSON).build();
+	}
+
+}
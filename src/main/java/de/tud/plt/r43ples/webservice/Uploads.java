@@ -0,0 +1,248 @@
+package de.tud.plt.r43ples.webservice;
+
+import java.io.InputStream;
+import java.net.URI;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.UriInfo;
+
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RDFLanguages;
+import org.apache.jena.riot.RiotException;
+import org.apache.log4j.Logger;
+
+import de.tud.plt.r43ples.core.BulkUpload;
+import de.tud.plt.r43ples.core.BulkUploadManager;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+
+/**
+ * REST services for bulk uploads of large add and delete sets.
+ *
+ * An upload is created for a branch (POST uploads?graph=...&branch=...), the change sets are streamed as
+ * N-Triples or N-Quads, optionally gzip-compressed, in one or more parts (POST uploads/{id}/add and
+ * POST uploads/{id}/delete), and the new revision is created by POST uploads/{id}/commit.
+ * GET uploads/{id} reports the progress.
+ */
+@Path("uploads")
+public class Uploads {
+
+	@Context UriInfo uriInfo;
+
+	private final static Logger logger = Logger.getLogger(Uploads.class);
+
+	/**
+	 * Creates a bulk upload for a branch.
+	 *
+	 * @param graphName the graph name
+	 * @param branch the branch which should contain the new revision
+	 * @param user the user
+	 * @param message the commit message
+	 * @return the upload as JSON (201 with the location of the upload)
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response createUpload(
+			@QueryParam("graph") final String graphName,
+			@QueryParam("branch") @DefaultValue("master") final String branch,
+			@QueryParam("user") @DefaultValue("bulk upload") final String user,
+			@QueryParam("message") @DefaultValue("bulk upload commit") final String message) {
+		if (graphName == null || graphName.isEmpty()) {
+			return error(Response.Status.BAD_REQUEST, "Parameter graph is missing");
+		}
+		BulkUpload upload;
+		try {
+			upload = BulkUploadManager.getInstance().create(graphName, branch, user, message);
+		} catch (InternalErrorException e) {
+			return error(Response.Status.BAD_REQUEST, e.getMessage());
+		}
+		if (upload == null) {
+			return error(Response.Status.SERVICE_UNAVAILABLE, "Too many open bulk uploads");
+		}
+		URI location = uriInfo.getBaseUriBuilder().path(Uploads.class).path(upload.getId()).build();
+		return Response.created(location).entity(upload.toJson()).type(MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Get the status and progress of a bulk upload.
+	 *
+	 * @param id the upload identifier
+	 * @return the upload as JSON (404 if the upload is unknown)
+	 */
+	@GET
+	@Path("{id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response getUpload(@PathParam("id") final String id) {
+		BulkUpload upload = BulkUploadManager.getInstance().getUpload(id);
+		if (upload == null) {
+			return error(Response.Status.NOT_FOUND, "Unknown bulk upload " + id);
+		}
+		return Response.ok(upload.toJson(), MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Streams a part of the add set into the upload.
+	 *
+	 * @param id the upload identifier
+	 * @param contentType the content type (application/n-triples or application/n-quads; application/gzip and
+	 * 			application/octet-stream use the format parameter)
+	 * @param format the format of a compressed stream (default: application/n-triples)
+	 * @param in the stream
+	 * @return the upload as JSON
+	 */
+	@POST
+	@Path("{id}/add")
+	@Consumes(MediaType.WILDCARD)
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response loadAddSet(@PathParam("id") final String id,
+			@HeaderParam("Content-Type") final String contentType,
+			@QueryParam("format") @DefaultValue("") final String format,
+			final InputStream in) {
+		return load(id, contentType, format, in, true);
+	}
+
+	/**
+	 * Streams a part of the delete set into the upload.
+	 *
+	 * @param id the upload identifier
+	 * @param contentType the content type (application/n-triples or application/n-quads; application/gzip and
+	 * 			application/octet-stream use the format parameter)
+	 * @param format the format of a compressed stream (default: application/n-triples)
+	 * @param in the stream
+	 * @return the upload as JSON
+	 */
+	@POST
+	@Path("{id}/delete")
+	@Consumes(MediaType.WILDCARD)
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response loadDeleteSet(@PathParam("id") final String id,
+			@HeaderParam("Content-Type") final String contentType,
+			@QueryParam("format") @DefaultValue("") final String format,
+			final InputStream in) {
+		return load(id, contentType, format, in, false);
+	}
+
+	/**
+	 * Creates the new revision from the uploaded change sets.
+	 *
+	 * @param id the upload identifier
+	 * @return the upload as JSON with the identifier of the new revision
+	 * @throws InternalErrorException
+	 */
+	@POST
+	@Path("{id}/commit")
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response commit(@PathParam("id") final String id) throws InternalErrorException {
+		BulkUpload upload = BulkUploadManager.getInstance().getUpload(id);
+		if (upload == null) {
+			return error(Response.Status.NOT_FOUND, "Unknown bulk upload " + id);
+		}
+		try {
+			upload.commit();
+		} catch (IllegalStateException e) {
+			return error(Response.Status.CONFLICT, e.getMessage());
+		}
+		return Response.ok(upload.toJson(), MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Aborts a bulk upload and drops the uploaded change sets.
+	 *
+	 * @param id the upload identifier
+	 * @return the upload as JSON
+	 */
+	@DELETE
+	@Path("{id}")
+	@Produces(MediaType.APPLICATION_JSON)
+	public final Response abort(@PathParam("id") final String id) {
+		BulkUpload upload = BulkUploadManager.getInstance().getUpload(id);
+		if (upload == null) {
+			return error(Response.Status.NOT_FOUND, "Unknown bulk upload " + id);
+		}
+		try {
+			upload.abort();
+		} catch (IllegalStateException e) {
+			return error(Response.Status.CONFLICT, e.getMessage());
+		}
+		return Response.ok(upload.toJson(), MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Streams a part of a change set into the upload.
+	 *
+	 * @param id the upload identifier
+	 * @param contentType the content type
+	 * @param format the format of a compressed stream
+	 * @param in the stream
+	 * @param addSet true for the add set, false for the delete set
+	 * @return the upload as JSON
+	 */
+	private Response load(final String id, final String contentType, final String format, final InputStream in, final boolean addSet) {
+		BulkUpload upload = BulkUploadManager.getInstance().getUpload(id);
+		if (upload == null) {
+			return error(Response.Status.NOT_FOUND, "Unknown bulk upload " + id);
+		}
+		Lang lang = getLang(contentType, format);
+		if (lang == null) {
+			return error(Response.Status.UNSUPPORTED_MEDIA_TYPE, "Change sets have to be sent as application/n-triples or application/n-quads");
+		}
+		logger.info(String.format("Bulk upload %s: load %s set as %s", id, addSet ? "add" : "delete", lang.getName()));
+		try {
+			if (addSet) {
+				upload.loadAddSet(in, lang);
+			} else {
+				upload.loadDeleteSet(in, lang);
+			}
+		} catch (IllegalStateException e) {
+			return error(Response.Status.CONFLICT, e.getMessage());
+		} catch (RiotException | InternalErrorException e) {
+			return error(Response.Status.BAD_REQUEST, e.getMessage());
+		}
+		return Response.ok(upload.toJson(), MediaType.APPLICATION_JSON).build();
+	}
+
+	/**
+	 * Get the language of a change set. Compressed streams are described by the format parameter.
+	 *
+	 * @param contentType the content type
+	 * @param format the format parameter
+	 * @return N-Triples, N-Quads or null if the format is not supported
+	 */
+	private static Lang getLang(final String contentType, final String format) {
+		String type = (contentType == null) ? "" : contentType.split(";")[0].trim().toLowerCase();
+		if (!format.isEmpty()) {
+			type = format;
+		} else if (type.isEmpty() || type.equals("application/gzip") || type.equals("application/x-gzip")
+				|| type.equals(MediaType.APPLICATION_OCTET_STREAM) || type.equals(MediaType.TEXT_PLAIN)) {
+			return Lang.NTRIPLES;
+		}
+		Lang lang = RDFLanguages.contentTypeToLang(type);
+		if (Lang.NTRIPLES.equals(lang) || Lang.NQUADS.equals(lang)) {
+			return lang;
+		}
+		return null;
+	}
+
+	/**
+	 * Creates an error response.
+	 *
+	 * @param status the HTTP status
+	 * @param message the error message
+	 * @return the response
+	 */
+	private static Response error(final Response.Status status, final String message) {
+		return Response.status(status).entity(message).type(MediaType.TEXT_PLAIN).build();
+	}
+
+}
@@ -1,6 +1,10 @@
 package de.tud.plt.r43ples.client;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.junit.After;
@@ -12,6 +16,7 @@ import org.junit.Test;
 
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 
 public class TestConsoleClient {
 
@@ -43,5 +48,20 @@ public class TestConsoleClient {
 		String reference = graph.getReferenceGraph("master");
 		Assert.assertEquals("http://test.com", reference);
 	}
+	
+	@Test
+	public final void testMainAddSet() throws ConfigurationException, IOException, InternalErrorException {
+		ConsoleClient.main("--new --graph http://test.com".split(" "));
+		File addSet = File.createTempFile("r43ples-add-set", ".nt.gz");
+		addSet.deleteOnExit();
+		try (GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(addSet))) {
+			out.write("<http://test.com/s> <http://test.com/p> \"o\" .\n".getBytes(StandardCharsets.UTF_8));
+		}
+		ConsoleClient.main(("--graph http://test.com --add-set " + addSet.getPath()).split(" "));
+		RevisionGraph graph = new RevisionGraph("http://test.com");
+		Assert.assertEquals("1", graph.getRevisionIdentifier("master"));
+		Assert.assertTrue(TripleStoreInterfaceSingleton.get().executeAskQuery(
+				"ASK { GRAPH <http://test.com> { <http://test.com/s> <http://test.com/p> \"o\" } }"));
+	}
 
 }
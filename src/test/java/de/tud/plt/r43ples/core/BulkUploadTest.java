@@ -0,0 +1,154 @@
+package de.tud.plt.r43ples.core;
+
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.apache.jena.riot.Lang;
+import org.apache.jena.riot.RiotException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+public class BulkUploadTest {
+
+    private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+    private DataSetGenerationResult ds;
+
+
+    @Before
+    public void setUp() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        ds = SampleDataSet.createSampleDataset1();
+        Config.upload_chunkSize = 2;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * Compressed N-Triples and N-Quads are loaded in chunks and committed as one normalized revision.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUpload() throws Exception {
+        R43plesCoreSingleton.getInstance().createUpdateCommit(ds.graphName, testS + "\"A\" .\n" + testS + "\"B\" .\n", "",
+                "butler", "test commit", "master");
+
+        BulkUpload upload = BulkUploadManager.getInstance().create(ds.graphName, "master", "butler", "bulk upload");
+        upload.loadAddSet(gzip(testS + "\"A\" .\n" + testS + "\"C\" .\n" + testS + "\"D\" .\n"), Lang.NTRIPLES);
+        upload.loadAddSet(gzip(testS + "\"E\" .\n"), Lang.NTRIPLES);
+        upload.loadDeleteSet(stream(testS + "\"B\" .\n" + testS + "\"X\" <" + ds.graphName + "> .\n"), Lang.NQUADS);
+        Assert.assertEquals(BulkUpload.Status.OPEN, upload.getStatus());
+        Assert.assertEquals(4, upload.getAddTriples());
+        Assert.assertEquals(2, upload.getDeleteTriples());
+        Assert.assertTrue(upload.getBytesRead() > 0);
+
+        UpdateCommit commit = upload.commit();
+        Assert.assertEquals(BulkUpload.Status.COMMITTED, upload.getStatus());
+        Assert.assertEquals(commit.getGeneratedRevision().getRevisionIdentifier(), upload.getRevision());
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        Assert.assertEquals(upload.getRevision(), graph.getRevisionIdentifier("master"));
+        Assert.assertEquals(Arrays.asList("A", "C", "D", "E"), getObjects(ds.graphName));
+        Assert.assertEquals(Arrays.asList("C", "D", "E"), getObjects(commit.getGeneratedRevision().getAddSetURI()));
+        Assert.assertEquals(Collections.singletonList("B"), getObjects(commit.getGeneratedRevision().getDeleteSetURI()));
+        Assert.assertSame(upload, BulkUploadManager.getInstance().getUpload(upload.getId()));
+    }
+
+    /**
+     * An upload whose change set can not be parsed fails and creates no revision.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFailedUpload() throws Exception {
+        String head = new RevisionGraph(ds.graphName).getRevisionIdentifier("master");
+        BulkUpload upload = BulkUploadManager.getInstance().create(ds.graphName, "master", "butler", "bulk upload");
+        try {
+            upload.loadAddSet(stream(testS + "\"A\" .\n" + testS + "\"B\" <http://example.com/otherGraph> .\n"), Lang.NQUADS);
+            Assert.fail();
+        } catch (RiotException e) {
+            Assert.assertEquals(BulkUpload.Status.FAILED, upload.getStatus());
+            Assert.assertNotNull(upload.getMessage());
+        }
+        try {
+            upload.commit();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(head, new RevisionGraph(ds.graphName).getRevisionIdentifier("master"));
+        }
+        Assert.assertEquals(Collections.<String>emptyList(), getObjects(ds.graphName + "-upload-" + upload.getId() + "-addSet"));
+    }
+
+    /**
+     * Uploads can only be created for existing branches.
+     *
+     * @throws Exception
+     */
+    @Test(expected = InternalErrorException.class)
+    public void testUnknownBranch() throws Exception {
+        BulkUploadManager.getInstance().create(ds.graphName, "unknown-branch", "butler", "bulk upload");
+    }
+
+    /**
+     * Get a stream of a string.
+     *
+     * @param content the content
+     * @return the stream
+     */
+    private static InputStream stream(final String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Get a gzip-compressed stream of a string.
+     *
+     * @param content the content
+     * @return the compressed stream
+     * @throws IOException
+     */
+    private static InputStream gzip(final String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return new ByteArrayInputStream(bytes.toByteArray());
+    }
+
+    /**
+     * Get the objects of the test predicate in a graph.
+     *
+     * @param graphName the graph name
+     * @return the sorted objects
+     */
+    private List<String> getObjects(final String graphName) {
+        String query = String.format("SELECT ?o WHERE { GRAPH <%s> { ?s <http://example.com/testP> ?o } } ORDER BY ?o", graphName);
+        List<String> objects = new ArrayList<>();
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        while (results.hasNext()) {
+            objects.add(results.next().getLiteral("o").getLexicalForm());
+        }
+        return objects;
+    }
+
+}
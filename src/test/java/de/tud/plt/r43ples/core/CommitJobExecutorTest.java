@@ -0,0 +1,102 @@
+package de.tud.plt.r43ples.core;
+
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CommitJobExecutorTest {
+
+    private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+    private DataSetGenerationResult ds;
+
+
+    @Before
+    public void setUp() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        ds = SampleDataSet.createSampleDataset1();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CommitJobExecutor.shutdown();
+    }
+
+    /**
+     * Jobs on the same graph are executed in the order they were submitted.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testOrderPerGraph() throws Exception {
+        List<CommitJob> jobs = new ArrayList<>();
+        for (String object : new String[]{"A", "B", "C", "D"}) {
+            jobs.add(submit("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"" + object + "\". } }"));
+        }
+        Assert.assertTrue(jobs.get(jobs.size() - 1).getJobsAhead() <= jobs.size() - 1);
+
+        int previous = Integer.parseInt(ds.revisions.get("master-5"));
+        for (CommitJob job : jobs) {
+            awaitFinished(job);
+            Assert.assertEquals(CommitJob.Status.COMPLETED, job.getStatus());
+            Assert.assertEquals(0, job.getJobsAhead());
+            int revision = Integer.parseInt(job.getRevisions().get(ds.graphName).get(0));
+            Assert.assertTrue(revision > previous);
+            previous = revision;
+        }
+        Assert.assertSame(jobs.get(0), CommitJobExecutor.getInstance().getJob(jobs.get(0).getId()));
+    }
+
+    /**
+     * A failed commit is reported by the job and does not block the following jobs on the graph.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testFailedJob() throws Exception {
+        CommitJob failed = submit("INSERT DATA { GRAPH <%s> REVISION \"unknown-branch\" { " + testS + "\"A\". } }");
+        CommitJob completed = submit("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }");
+        awaitFinished(failed);
+        awaitFinished(completed);
+        Assert.assertEquals(CommitJob.Status.FAILED, failed.getStatus());
+        Assert.assertNotNull(failed.getMessage());
+        Assert.assertEquals(CommitJob.Status.COMPLETED, completed.getStatus());
+        Assert.assertNotNull(completed.getFinished());
+    }
+
+    /**
+     * Submits an update query on the data set as job.
+     *
+     * @param template the query template with a placeholder for the graph name
+     * @return the job
+     */
+    private CommitJob submit(final String template) {
+        String query = "USER \"butler\" MESSAGE \"test commit\" " + String.format(template, ds.graphName);
+        CommitJob job = CommitJobExecutor.getInstance().submit(new R43plesRequest(query, "text/turtle"));
+        Assert.assertNotNull(job);
+        Assert.assertEquals(ds.graphName, job.getGraphNames().get(0));
+        return job;
+    }
+
+    /**
+     * Waits until a job is finished.
+     *
+     * @param job the job
+     * @throws InterruptedException
+     */
+    private void awaitFinished(final CommitJob job) throws InterruptedException {
+        for (int i = 0; i < 200 && !job.isFinished(); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(job.isFinished());
+    }
+
+}
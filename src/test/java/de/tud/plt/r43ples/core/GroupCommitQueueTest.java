@@ -0,0 +1,191 @@
+package de.tud.plt.r43ples.core;
+
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.existentobjects.UpdateCommit;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class GroupCommitQueueTest {
+
+    private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+    private DataSetGenerationResult ds;
+
+
+    @Before
+    public void setUp() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        ds = SampleDataSet.createSampleDataset1();
+        Config.commit_group_window = 500;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * Concurrent data updates of a branch are written by one group and still get one revision each.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        GroupCommitQueue queue = GroupCommitQueue.getInstance();
+        long groups = queue.getGroups();
+        long groupedCommits = queue.getGroupedCommits();
+
+        List<String> updates = Arrays.asList(
+                "INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }",
+                "INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"B\". } }",
+                "INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"C\". } }",
+                "INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"D\". } }");
+        List<UpdateCommit> commits = updateConcurrently(updates);
+
+        Assert.assertEquals(groups + 1, queue.getGroups());
+        Assert.assertEquals(groupedCommits + updates.size(), queue.getGroupedCommits());
+        Set<String> revisions = new HashSet<>();
+        for (UpdateCommit commit : commits) {
+            revisions.add(commit.getGeneratedRevision().getRevisionIdentifier());
+        }
+        Assert.assertEquals(updates.size(), revisions.size());
+        Assert.assertEquals(Arrays.asList("A", "B", "C", "D"), getObjects(ds.graphName));
+
+        // the revisions form a chain starting at the former head of master
+        Set<String> derivedFrom = new HashSet<>();
+        for (UpdateCommit commit : commits) {
+            derivedFrom.add(commit.getUsedRevision().getRevisionIdentifier());
+        }
+        Assert.assertTrue(derivedFrom.contains(ds.revisions.get("master-5")));
+        derivedFrom.remove(ds.revisions.get("master-5"));
+        Assert.assertTrue(revisions.containsAll(derivedFrom));
+        Assert.assertEquals(updates.size() - 1, derivedFrom.size());
+    }
+
+    /**
+     * The change sets of a group are normalized against the changes of the preceding updates of the group.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNormalizationWithinGroup() throws Exception {
+        Config.commit_group_window = 0;
+        update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }");
+        Config.commit_group_window = 100000;
+        Config.commit_group_maxSize = 2;
+
+        // the group is written as soon as it contains two updates
+        UpdateCommit first = update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". " + testS + "\"B\". } }",
+                "DELETE DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"B\". " + testS + "\"X\". } }").get(0);
+        Assert.assertEquals(Arrays.asList("A"), getObjects(ds.graphName));
+        Assert.assertEquals(Arrays.asList("B"), getObjects(first.getGeneratedRevision().getAddSetURI()));
+    }
+
+    /**
+     * Updates with a WHERE clause are not grouped.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testUngroupedUpdate() throws Exception {
+        String query = String.format("DELETE { GRAPH <%1$s> REVISION \"master\" { ?s ?p ?o } } "
+                + "WHERE { GRAPH <%1$s> REVISION \"master\" { ?s ?p ?o } }", ds.graphName);
+        Assert.assertNull(new UpdateCommitDraft(new R43plesRequest(query, "text/turtle")).getGroupCommitKey());
+        query = String.format("INSERT DATA { GRAPH <%s> REVISION \"%s\" { " + testS + "\"A\". } }",
+                ds.graphName, ds.revisions.get("master-5"));
+        Assert.assertNull(new UpdateCommitDraft(new R43plesRequest(query, "text/turtle")).getGroupCommitKey());
+        query = String.format("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }", ds.graphName);
+        Assert.assertNotNull(new UpdateCommitDraft(new R43plesRequest(query, "text/turtle")).getGroupCommitKey());
+    }
+
+    /**
+     * Executes update queries on the data set. Every query is started a moment after the previous one, so they join
+     * a group in the order of the templates.
+     *
+     * @param templates the query templates with a placeholder for the graph name
+     * @return the commits in the order of the templates
+     * @throws Exception
+     */
+    private List<UpdateCommit> update(final String... templates) throws Exception {
+        return updateConcurrently(Arrays.asList(templates), 200);
+    }
+
+    /**
+     * Executes update queries concurrently on the data set.
+     *
+     * @param templates the query templates with a placeholder for the graph name
+     * @return the commits in the order of the templates
+     * @throws Exception
+     */
+    private List<UpdateCommit> updateConcurrently(final List<String> templates) throws Exception {
+        return updateConcurrently(templates, 0);
+    }
+
+    /**
+     * Executes update queries concurrently on the data set.
+     *
+     * @param templates the query templates with a placeholder for the graph name
+     * @param delay the delay between the start of two queries in milliseconds
+     * @return the commits in the order of the templates
+     * @throws Exception
+     */
+    private List<UpdateCommit> updateConcurrently(final List<String> templates, final long delay) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(templates.size());
+        try {
+            List<Future<ArrayList<UpdateCommit>>> futures = new ArrayList<>();
+            for (String template : templates) {
+                if (!futures.isEmpty()) {
+                    Thread.sleep(delay);
+                }
+                final String query = "USER \"butler\" MESSAGE \"test commit\" " + String.format(template, ds.graphName);
+                futures.add(executor.submit(new Callable<ArrayList<UpdateCommit>>() {
+                    @Override
+                    public ArrayList<UpdateCommit> call() throws Exception {
+                        return R43plesCoreSingleton.getInstance().createUpdateCommit(new R43plesRequest(query, "text/turtle"));
+                    }
+                }));
+            }
+            List<UpdateCommit> commits = new ArrayList<>();
+            for (Future<ArrayList<UpdateCommit>> future : futures) {
+                commits.add(future.get().get(0));
+            }
+            return commits;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Get the objects of the test predicate in a graph.
+     *
+     * @param graphName the graph name
+     * @return the sorted objects
+     */
+    private List<String> getObjects(final String graphName) {
+        String query = String.format("SELECT ?o WHERE { GRAPH <%s> { ?s <http://example.com/testP> ?o } } ORDER BY ?o", graphName);
+        List<String> objects = new ArrayList<>();
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        while (results.hasNext()) {
+            objects.add(results.next().getLiteral("o").getLexicalForm());
+        }
+        return objects;
+    }
+
+}
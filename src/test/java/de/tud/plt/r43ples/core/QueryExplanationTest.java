@@ -0,0 +1,93 @@
+package de.tud.plt.r43ples.core;
+
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryExplanationTest {
+
+    private DataSetGenerationResult ds;
+
+
+    @Before
+    public void setUp() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        ds = SampleDataSet.createSampleDataset1();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * An old revision is evaluated from the change sets on the path to the head of master.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExplainRevision() throws Exception {
+        Config.revision_query_engine = "delta";
+        String query = String.format("SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }",
+                ds.graphName, ds.revisions.get("master-2"));
+        QueryExplanation explanation = QueryExplanation.explain(query, false);
+
+        Assert.assertEquals("classic-delta", explanation.getEvaluation());
+        Assert.assertEquals(1, explanation.getGraphs().size());
+        QueryExplanation.GraphExplanation graph = explanation.getGraphs().get(0);
+        Assert.assertEquals(ds.revisions.get("master-2"), graph.getRevisionNumber());
+        Assert.assertFalse(graph.isReference());
+        Assert.assertEquals(3, graph.getPathLength());
+        Assert.assertEquals(3, graph.getChangeSets().size());
+        Assert.assertEquals(ds.revisions.get("master-3"), graph.getChangeSets().get(0).getRevisionNumber());
+        Assert.assertEquals("delta", graph.getStrategy());
+        Assert.assertFalse(graph.isMaterialization());
+        Assert.assertTrue(graph.getEstimatedChangeSetTriples() > 0);
+        Assert.assertNull(explanation.getRewrittenQuery());
+        Assert.assertTrue(explanation.getAlgebra().contains(ds.graphName));
+        Assert.assertTrue(explanation.getTimings().containsKey("total"));
+
+        // FROM clauses are materialized by the classic evaluation
+        MaterializedRevisionCache.getInstance().invalidateAll();
+        query = String.format("SELECT * FROM <%s> REVISION \"%s\" WHERE { ?s ?p ?o }",
+                ds.graphName, ds.revisions.get("master-2"));
+        graph = QueryExplanation.explain(query, false).getGraphs().get(0);
+        Assert.assertEquals("materialize", graph.getStrategy());
+        Assert.assertTrue(graph.isMaterialization());
+    }
+
+    /**
+     * The explanation of query rewriting contains the rewritten query.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testExplainRewriting() throws Exception {
+        String query = String.format("SELECT * WHERE { GRAPH <%1$s> REVISION \"master\" { ?s ?p ?o } "
+                + "GRAPH <%1$s> REVISION \"%2$s\" { ?s ?p ?o } }", ds.graphName, ds.revisions.get("master-4"));
+        QueryExplanation explanation = QueryExplanation.explain(query, true);
+
+        Assert.assertEquals("rewriting-" + Config.query_rewriting_mode, explanation.getEvaluation());
+        Assert.assertNotNull(explanation.getRewrittenQuery());
+        Assert.assertNotNull(explanation.getAlgebra());
+        Assert.assertEquals(2, explanation.getGraphs().size());
+        QueryExplanation.GraphExplanation master = explanation.getGraphs().get(0);
+        Assert.assertTrue(master.isReference());
+        Assert.assertEquals(ds.revisions.get("master-5"), master.getRevisionNumber());
+        Assert.assertEquals(0, master.getPathLength());
+        QueryExplanation.GraphExplanation revision = explanation.getGraphs().get(1);
+        Assert.assertEquals("rewriting", revision.getStrategy());
+        Assert.assertEquals(1, revision.getPathLength());
+
+        String json = explanation.toJson(true);
+        Assert.assertTrue(json.contains("\"rewrittenQuery\""));
+        Assert.assertTrue(json.contains("\"pathLength\":1"));
+        Assert.assertFalse(json.contains("\n"));
+    }
+
+}
@@ -18,6 +18,7 @@ import de.tud.plt.r43ples.iohelper.JenaModelManagement;
 import de.tud.plt.r43ples.iohelper.ResourceManagement;
 import de.tud.plt.r43ples.management.Config;
 import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.optimization.MaterializedRevisionCache;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -158,4 +159,21 @@ public class R43plesCoreTest extends R43plesTest {
         Assert.assertTrue(this.check_isomorphism(content_actual, content_expected));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void queryOldRevisionTwice() throws Exception {
+        String graphName = SampleDataSet.createSampleDataset1().graphName;
+        MaterializedRevisionCache cache = MaterializedRevisionCache.getInstance();
+
+        // revisions are only materialized if they are not evaluated from the change sets
+        Config.revision_query_engine = "materialize";
+
+        String query = String.format("CONSTRUCT {?s ?p ?o} WHERE { GRAPH <%s> REVISION \"2\" {?s ?p ?o} }", graphName);
+        String result_first = core.getSparqlSelectConstructAskResponse(new R43plesRequest(query, "text/turtle"), false);
+        long hits = cache.getHits();
+        String result_second = core.getSparqlSelectConstructAskResponse(new R43plesRequest(query, "text/turtle"), false);
+
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertTrue(this.check_isomorphism(result_first, result_second));
+    }
+
+}
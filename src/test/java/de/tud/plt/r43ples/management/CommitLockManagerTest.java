@@ -0,0 +1,155 @@
+package de.tud.plt.r43ples.management;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.optimization.RevisionGraphIndex;
+
+public class CommitLockManagerTest {
+
+	private static final String user = "butler";
+	private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+	private DataSetGenerationResult ds;
+	private DataSetGenerationResult ds1;
+
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		Config.readConfig("r43ples.test.conf");
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		ds = SampleDataSet.createSampleDataSetMerging();
+		ds1 = SampleDataSet.createSampleDataset1();
+	}
+
+	/**
+	 * Concurrent commits on the same branch must all be applied on top of each other.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testConcurrentCommitsOnSameBranch() throws Exception {
+		RevisionGraph graph = new RevisionGraph(ds.graphName);
+		int maxRevisionNumber = graph.getIndex().getMaxRevisionNumber();
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<Object>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			final String branch = (i % 2 == 0) ? "b1" : "b2";
+			final String prefix = "T" + i + "-";
+			futures.add(executor.submit(new Callable<Object>() {
+				@Override
+				public Object call() throws Exception {
+					for (int j = 0; j < 3; j++) {
+						R43plesCoreSingleton.getInstance().createUpdateCommit(ds.graphName,
+								testS + "\"" + prefix + j + "\". \n", null, user, "Concurrent commit", branch);
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Object> future : futures) {
+			future.get(60, TimeUnit.SECONDS);
+		}
+		executor.shutdown();
+
+		Assert.assertEquals(4 + 6, getObjects("b1").size());
+		Assert.assertEquals(6 + 6, getObjects("b2").size());
+		Assert.assertTrue(getObjects("b1").contains("T2-2"));
+		Assert.assertFalse(getObjects("b1").contains("T1-2"));
+
+		// every commit got its own revision
+		RevisionGraph reloaded = new RevisionGraph(ds.graphName);
+		RevisionGraphIndex.invalidate(reloaded.getRevisionGraphUri());
+		Assert.assertEquals(maxRevisionNumber + 12, reloaded.getIndex().getMaxRevisionNumber());
+	}
+
+	/**
+	 * Exclusive locks of a revision graph block commits on its branches but not commits on other graphs.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testLockScopes() throws Exception {
+		final RevisionGraph graph = new RevisionGraph(ds.graphName);
+		final RevisionGraph graph1 = new RevisionGraph(ds1.graphName);
+		final CommitLockManager manager = CommitLockManager.getInstance();
+		long contendedAcquisitions = manager.getContendedAcquisitions();
+
+		CommitLock lock = manager.createLock().addRevisionGraph(graph.getRevisionGraphUri());
+		lock.acquire();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Future<Object> otherGraph = executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				CommitLock branchLock = manager.createLock().addBranch(graph1.getRevisionGraphUri(), graph1.getBranchUri("master"));
+				branchLock.acquire();
+				branchLock.release();
+				return null;
+			}
+		});
+		Future<Object> sameGraph = executor.submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				CommitLock branchLock = manager.createLock().addBranch(graph.getRevisionGraphUri(), graph.getBranchUri("b1"));
+				branchLock.acquire();
+				branchLock.release();
+				return null;
+			}
+		});
+		try {
+			otherGraph.get(10, TimeUnit.SECONDS);
+			Thread.sleep(200);
+			Assert.assertFalse(sameGraph.isDone());
+		} finally {
+			lock.release();
+		}
+		sameGraph.get(10, TimeUnit.SECONDS);
+		executor.shutdown();
+
+		Assert.assertTrue(manager.getContendedAcquisitions() > contendedAcquisitions);
+		Assert.assertTrue(manager.getWaitTime(graph.getRevisionGraphUri()) > 0);
+	}
+
+	/**
+	 * Queries the objects of the test subject in the specified revision.
+	 *
+	 * @param revision the revision identifier
+	 * @return the objects
+	 * @throws InternalErrorException
+	 */
+	private List<String> getObjects(String revision) throws InternalErrorException {
+		String query = String.format("SELECT ?o WHERE { GRAPH <%s> REVISION \"%s\" { <http://example.com/testS> <http://example.com/testP> ?o } }",
+				ds.graphName, revision);
+		String result = R43plesCoreSingleton.getInstance().getSparqlSelectConstructAskResponse(
+				new R43plesRequest(query, "application/sparql-results+xml"), false);
+		ResultSet resultSet = ResultSetFactory.fromXML(result);
+		List<String> objects = new ArrayList<>();
+		while (resultSet.hasNext()) {
+			objects.add(resultSet.next().getLiteral("o").getLexicalForm());
+		}
+		return objects;
+	}
+}
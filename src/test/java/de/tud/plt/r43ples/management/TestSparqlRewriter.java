@@ -3,6 +3,16 @@
  */
 package de.tud.plt.r43ples.management;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
 import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
 import de.tud.plt.r43ples.dataset.SampleDataSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
@@ -69,5 +79,201 @@ public class TestSparqlRewriter {
 				ds.revisions.get("master-5"), ds.revisions.get("master-4"), ds.revisions.get("master-3"));
 		Assert.assertEquals(expected, result);
 	}
+	
+	/**
+	 * The rewriting with VALUES blocks binds the change sets of the revision path without property paths and
+	 * returns the same results as the query on the materialized revisions.
+	 * @throws InternalErrorException 
+	 */
+	@Test
+	public final void testRewriteQueryValues() throws InternalErrorException {
+		String mode = Config.query_rewriting_mode;
+		Config.query_rewriting_mode = "values";
+		try {
+			String query = String.format("PREFIX : <http://test.com/> "
+					+ "SELECT ?s ?o "
+					+ "WHERE {"
+					+ "  GRAPH <%s> REVISION \"%s\" {?s :knows ?o }"
+					+ "}",
+					ds.graphName, ds.revisions.get("master-2"));
+			String result = SparqlRewriter.rewriteQuery(query);
+			Assert.assertTrue(result.contains("VALUES"));
+			Assert.assertFalse(result.contains("wasDerivedFrom"));
+
+			Set<Set<String>> contents = new HashSet<Set<String>>();
+			for (int i = 0; i <= 5; i++) {
+				query = String.format("SELECT ?s ?p ?o WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }",
+						ds.graphName, ds.revisions.get("master-" + i));
+				Set<String> expected = getResult(query, false);
+				Assert.assertEquals("revision master-" + i, expected, getResult(query, true));
+				contents.add(expected);
+			}
+			Assert.assertEquals(6, contents.size());
+		} finally {
+			Config.query_rewriting_mode = mode;
+		}
+	}
+	
+	@Test
+	public final void testRewriteQueryValuesWithoutDistinct() throws InternalErrorException {
+		String mode = Config.query_rewriting_mode;
+		Config.query_rewriting_mode = "values";
+		try {
+			String query = String.format("SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }",
+					ds.graphName, ds.revisions.get("master-2"));
+			String result = SparqlRewriter.rewriteQuery(query);
+			Assert.assertFalse(result.contains("DISTINCT"));
+			Assert.assertFalse(result.contains("SELECT *"));
+
+			query = String.format("SELECT DISTINCT ?s WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }",
+					ds.graphName, ds.revisions.get("master-2"));
+			Assert.assertTrue(SparqlRewriter.rewriteQuery(query).contains("DISTINCT"));
+
+			for (int i = 0; i <= 5; i++) {
+				query = String.format("SELECT ?s ?p ?o ?p2 ?o2 "
+						+ "WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s ?p ?o. ?s ?p2 ?o2 } }",
+						ds.graphName, ds.revisions.get("master-" + i));
+				Assert.assertEquals("revision master-" + i, getResultList(query, false), getResultList(query, true));
+			}
+		} finally {
+			Config.query_rewriting_mode = mode;
+		}
+	}
+	
+	/**
+	 * OPTIONAL, EXISTS, subqueries, BIND, VALUES and FROM clauses with revisions are rewritten and return the same
+	 * results as the queries on the materialized revisions.
+	 * 
+	 * @throws InternalErrorException
+	 */
+	@Test
+	public final void testRewriteQueryElements() throws InternalErrorException {
+		String mode = Config.query_rewriting_mode;
+		try {
+			for (String rewritingMode : new String[] { "values", "path" }) {
+				Config.query_rewriting_mode = rewritingMode;
+				for (int i = 1; i <= 4; i++) {
+					String revision = ds.revisions.get("master-" + i);
+					String[] queries = new String[] {
+							"SELECT ?s ?o ?o2 WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o OPTIONAL { ?o :knows ?o2 } } }",
+							"SELECT ?s ?o WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o } "
+									+ "FILTER NOT EXISTS { GRAPH <%1$s> REVISION \"master\" { ?s :knows ?o } } }",
+							"SELECT ?s ?o WHERE { GRAPH <%1$s> REVISION \"master\" { ?s :knows ?o } "
+									+ "FILTER (EXISTS { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o } }) }",
+							"SELECT ?s ?n WHERE { { SELECT ?s (COUNT(?o) AS ?n) "
+									+ "WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o } } GROUP BY ?s } }",
+							"SELECT ?s ?o ?name WHERE { VALUES ?s { :Adam :Carlos } "
+									+ "GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o BIND (STR(?o) AS ?name) } }",
+							"SELECT ?s ?o FROM <%1$s> REVISION \"%2$s\" WHERE { ?s :knows ?o }" };
+					int solutions = 0;
+					for (String query : queries) {
+						query = String.format("PREFIX : <http://test.com/> " + query, ds.graphName, revision);
+						Set<String> expected = getResult(query, false);
+						Assert.assertEquals(rewritingMode + ": " + query, expected, getResult(query, true));
+						solutions += expected.size();
+						if (rewritingMode.equals("values"))
+							Assert.assertEquals(query, getResultList(query, false), getResultList(query, true));
+					}
+					Assert.assertTrue(solutions > queries.length);
+					
+					String query = String.format("PREFIX : <http://test.com/> SELECT ?s ?o FROM NAMED <%1$s> REVISION \"%2$s\" "
+							+ "WHERE { GRAPH <%1$s> { ?s :knows ?o } }", ds.graphName, revision);
+					String query_expected = String.format("PREFIX : <http://test.com/> SELECT ?s ?o "
+							+ "WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o } }", ds.graphName, revision);
+					Assert.assertFalse(SparqlRewriter.rewriteQuery(query).contains("FROM"));
+					Assert.assertEquals(rewritingMode + ": " + query, getResult(query_expected, false), getResult(query, true));
+				}
+			}
+		} finally {
+			Config.query_rewriting_mode = mode;
+		}
+	}
+	
+	/**
+	 * Filters of a group are pushed into its rewritten triple patterns: constants of equality filters are placed
+	 * into the triple patterns and filters on the variables of a single triple pattern are evaluated directly on
+	 * its matches. The results stay the same.
+	 * 
+	 * @throws InternalErrorException
+	 */
+	@Test
+	public final void testRewriteQueryFilterPushdown() throws InternalErrorException {
+		String mode = Config.query_rewriting_mode;
+		try {
+			for (String rewritingMode : new String[] { "values", "path" }) {
+				Config.query_rewriting_mode = rewritingMode;
+				
+				String query = String.format("PREFIX : <http://test.com/> SELECT ?s ?o "
+						+ "WHERE { GRAPH <%s> REVISION \"%s\" { ?s :knows ?o FILTER (?o = :Freddy) } }",
+						ds.graphName, ds.revisions.get("master-2"));
+				Assert.assertTrue(SparqlRewriter.rewriteQuery(query).matches("(?s).*:knows\\s+:Freddy.*"));
+				
+				query = String.format("PREFIX : <http://test.com/> SELECT ?s ?o "
+						+ "WHERE { GRAPH <%s> REVISION \"%s\" { ?s :knows ?o } FILTER (STR(?o) != \"http://test.com/Danny\") }",
+						ds.graphName, ds.revisions.get("master-2"));
+				String result = SparqlRewriter.rewriteQuery(query);
+				Assert.assertTrue(result.indexOf("!=") != result.lastIndexOf("!="));
+				
+				for (int i = 1; i <= 4; i++) {
+					String revision = ds.revisions.get("master-" + i);
+					String[] queries = new String[] {
+							"SELECT ?s ?o WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o FILTER (?o = :Freddy) } }",
+							"SELECT ?s ?o ?o2 WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o. ?o :knows ?o2 } "
+									+ "FILTER (sameTerm(?s, :Adam) && STR(?o2) != \"http://test.com/Danny\") }",
+							"SELECT ?s ?o ?o2 WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o "
+									+ "OPTIONAL { ?o :knows ?o2 } } FILTER (?o2 = :Emma) }",
+							"SELECT ?s ?o WHERE { GRAPH <%1$s> REVISION \"%2$s\" { { ?s :knows ?o } UNION { ?o :knows ?s } "
+									+ "FILTER (?s = :Carlos) } }",
+							"SELECT ?s ?o WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s :knows ?o } "
+									+ "FILTER (?o = :Freddy || ?s = :Carlos) } ORDER BY ?s ?o LIMIT 2" };
+					for (String q : queries) {
+						q = String.format("PREFIX : <http://test.com/> " + q, ds.graphName, revision);
+						Assert.assertEquals(rewritingMode + ": " + q, getResult(q, false), getResult(q, true));
+					}
+				}
+			}
+		} finally {
+			Config.query_rewriting_mode = mode;
+		}
+	}
+	
+	/**
+	 * Executes a query and returns the solutions including duplicates in sorted order.
+	 * 
+	 * @param query the query
+	 * @param query_rewriting should query rewriting option be used
+	 * @return the sorted solutions
+	 * @throws InternalErrorException
+	 */
+	private List<String> getResultList(final String query, final boolean query_rewriting) throws InternalErrorException {
+		String result = R43plesCoreSingleton.getInstance().getSparqlSelectConstructAskResponse(
+				new R43plesRequest(query, "application/sparql-results+xml"), query_rewriting);
+		ResultSet resultSet = ResultSetFactory.fromXML(result);
+		List<String> solutions = new ArrayList<String>();
+		while (resultSet.hasNext()) {
+			solutions.add(resultSet.next().toString());
+		}
+		Collections.sort(solutions);
+		return solutions;
+	}
+	
+	/**
+	 * Executes a query and returns the solutions.
+	 * 
+	 * @param query the query
+	 * @param query_rewriting should query rewriting option be used
+	 * @return the solutions
+	 * @throws InternalErrorException
+	 */
+	private Set<String> getResult(final String query, final boolean query_rewriting) throws InternalErrorException {
+		String result = R43plesCoreSingleton.getInstance().getSparqlSelectConstructAskResponse(
+				new R43plesRequest(query, "application/sparql-results+xml"), query_rewriting);
+		ResultSet resultSet = ResultSetFactory.fromXML(result);
+		Set<String> solutions = new HashSet<String>();
+		while (resultSet.hasNext()) {
+			solutions.add(resultSet.next().toString());
+		}
+		return solutions;
+	}
 
 }
@@ -24,6 +24,7 @@ import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
 import de.tud.plt.r43ples.dataset.SampleDataSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
 import de.tud.plt.r43ples.iohelper.ResourceManagement;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
 import de.tud.plt.r43ples.webservice.Endpoint;
 
 public class TestUpdate extends R43plesTest {
@@ -147,6 +148,30 @@ public class TestUpdate extends R43plesTest {
 		assertTrue(check_isomorphism(result, "TURTLE", expected, "TURTLE"));
 	}
 	
+	@Test
+	public void testUpdateWhereOldRevision() throws InternalErrorException {
+		TripleStoreInterfaceSingleton.get().executeUpdateQuery("DROP SILENT GRAPH <" + dsm.graphName + "-temp>");
+
+		// the WHERE clause on an old revision of MASTER adds its objects to B2
+		String query_update = String.format(""
+				+ "USER \"shensel\" %n"
+				+ "MESSAGE \"copy objects of an old revision to B2.\" %n"
+				+ "INSERT { GRAPH <%1$s> REVISION \"B2\" {"
+				+ " <http://example.com/newTestS> <http://example.com/newTestP> ?o."
+				+ "} } %n"
+				+ "WHERE { GRAPH <%1$s> REVISION \"%2$s\" {"
+				+ "	<http://example.com/testS> <http://example.com/testP> ?o"
+				+ "} }",
+				dsm.graphName, dsm.revisions.get("master-1"));
+		ep.sparql(format, query_update);
+
+		String result = ep.sparql("text/turtle", createConstructQuery(dsm.graphName, "B2")).getEntity().toString();
+		Assert.assertThat(result, containsString("newTestS"));
+		Assert.assertThat(result, containsString("\"C\""));
+		// no temporary copy of the graph is created
+		Assert.assertFalse(RevisionManagementOriginal.checkGraphExistence(dsm.graphName + "-temp"));
+	}
+	
 	@Test
 	public void testConstructQuery() throws InternalErrorException, IOException {
 		String query = String.format(""
@@ -0,0 +1,300 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import de.tud.plt.r43ples.core.R43plesCoreInterface;
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BranchOverlayTest {
+
+    private static final String user = "butler";
+    private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        Config.branch_overlay_maxTriples = 100000;
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @AfterClass
+    public static void tearDownAfterClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataSetMerging();
+    }
+
+    /**
+     * Branches share the full graph of MASTER and resolve their content through base and overlay.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testBranchSharesFullGraph() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        RevisionGraphIndex index = graph.getIndex();
+        String branchUri = graph.getBranchUri("b1");
+
+        Assert.assertTrue(index.isOverlay(branchUri));
+        Assert.assertEquals(ds.graphName, index.getBaseGraphURI(branchUri));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1"));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2"));
+        // queries do not materialize the branch
+        Assert.assertTrue(index.isOverlay(branchUri));
+    }
+
+    /**
+     * Commits on MASTER must not change the content of the branches which share its full graph.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testCommitOnBase() throws InternalErrorException {
+        R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+        r43plesCore.createUpdateCommit(ds.graphName, testS + "\"K\". \n" + testS + "\"E\". \n",
+                testS + "\"B\". \n" + testS + "\"A\". \n", user, "Commit to master", "master");
+
+        Assert.assertEquals(Arrays.asList("C", "E", "K"), getObjects("master"));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1"));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2"));
+
+        // the index reloaded from the triplestore knows the overlays
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        RevisionGraphIndex.invalidate(graph.getRevisionGraphUri());
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b2")));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2"));
+    }
+
+    /**
+     * Materialized branches and new branches of branches keep the content.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testMaterialize() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+        r43plesCore.createReferenceCommit(ds.graphName, "b3", ds.revisions.get("b1-1"), user, "Branch of b1", true);
+        String branchUri = graph.getBranchUri("b3");
+        Assert.assertTrue(graph.getIndex().isOverlay(branchUri));
+        Assert.assertEquals(ds.graphName, graph.getIndex().getBaseGraphURI(branchUri));
+        Assert.assertEquals(ds.graphName, graph.getReferenceGraph("b3"));
+
+        BranchOverlay.materialize(graph.getRevisionGraphUri(), branchUri);
+        Assert.assertEquals(branchUri, graph.getReferenceGraph("b3"));
+        Assert.assertFalse(graph.getIndex().isOverlay(branchUri));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b3"));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1"));
+    }
+
+    /**
+     * Rewritten queries, FROM clauses and revisions whose path ends at a branch use the overlay of the branch.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testQueriesDoNotMaterialize() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1", true));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2", true));
+        Assert.assertEquals(Arrays.asList("B", "C", "D", "E"), getObjects(ds.revisions.get("b1-0"), true));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H"), getObjects(ds.revisions.get("b2-0"), true));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H"), getObjects(ds.revisions.get("b2-0"), false));
+
+        String query = String.format("SELECT ?o FROM <%s> REVISION \"b1\" WHERE { <http://example.com/testS> <http://example.com/testP> ?o } ORDER BY ?o",
+                ds.graphName);
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), selectObjects(query, false));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), selectObjects(query, true));
+
+        Assert.assertEquals(ds.graphName, graph.getReferenceGraph("b1"));
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b1")));
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b2")));
+    }
+
+    /**
+     * Updates whose WHERE clause refers to a branch are evaluated on its overlay and do not create the full graph of
+     * the branch, also if the pattern can not be rewritten (property path).
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testUpdateWithWhere() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        String branchUri = graph.getBranchUri("b1");
+        String fullGraphUri = graph.getIndex().getFullGraphURI(branchUri);
+        String template = "USER \"%s\" MESSAGE \"Update with where\" "
+                + "PREFIX ex: <http://example.com/> "
+                + "DELETE { GRAPH <%s> REVISION \"b1\" { ex:testS ex:testP \"G\" } } "
+                + "INSERT { GRAPH <%s> REVISION \"b1\" { ex:testS ex:testP ?x } } "
+                + "WHERE { GRAPH <%s> REVISION \"b1\" { ex:testS %s ?o FILTER(?o = \"%s\") BIND(CONCAT(?o, \"%s\") AS ?x) } }";
+
+        R43plesCoreSingleton.getInstance().createUpdateCommit(new R43plesRequest(
+                String.format(template, user, ds.graphName, ds.graphName, ds.graphName, "ex:testP", "E", "1"), "text/turtle"));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "E1"), getObjects("b1"));
+        Assert.assertTrue(graph.getIndex().isOverlay(branchUri));
+
+        R43plesCoreSingleton.getInstance().createUpdateCommit(new R43plesRequest(
+                String.format(template, user, ds.graphName, ds.graphName, ds.graphName, "ex:testP+", "C", "2"), "text/turtle"));
+        Assert.assertEquals(Arrays.asList("B", "C", "C2", "E", "E1"), getObjects("b1"));
+        Assert.assertTrue(graph.getIndex().isOverlay(branchUri));
+
+        Assert.assertFalse(TripleStoreInterfaceSingleton.get().executeAskQuery(
+                String.format("ASK { GRAPH <%s> { ?s ?p ?o } }", fullGraphUri)));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2"));
+    }
+
+    /**
+     * Fast forward merges of a branch into its base apply the overlay to the base.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testFastForwardMerge() throws InternalErrorException {
+        R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+        r43plesCore.createReferenceCommit(ds.graphName, "b3", ds.revisions.get("master-1"), user, "Branch of master", true);
+        r43plesCore.createUpdateCommit(ds.graphName, testS + "\"X\". \n", testS + "\"A\". \n", user, "Commit to b3", "b3");
+
+        String query = String.format("USER \"%s\" MESSAGE \"Merge b3\" MERGE GRAPH <%s> BRANCH \"b3\" INTO BRANCH \"master\"", user, ds.graphName);
+        r43plesCore.createMergeCommit(new R43plesRequest(query, "text/turtle"));
+
+        Assert.assertEquals(Arrays.asList("B", "C", "X"), getObjects("master"));
+        Assert.assertEquals(Arrays.asList("B", "C", "X"), getObjects("b3"));
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b3")));
+        Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1"));
+        Assert.assertEquals(Arrays.asList("A", "B", "D", "H", "I", "J"), getObjects("b2"));
+    }
+
+    /**
+     * Branches whose overlay exceeds the configured size are materialized after the commit.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testThreshold() throws InternalErrorException {
+        long maxTriples = Config.branch_overlay_maxTriples;
+        try {
+            Config.branch_overlay_maxTriples = 3;
+            R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+            r43plesCore.createUpdateCommit(ds.graphName, testS + "\"Y\". \n", null, user, "Commit to b1", "b1");
+
+            RevisionGraph graph = new RevisionGraph(ds.graphName);
+            Assert.assertFalse(graph.getIndex().isOverlay(graph.getBranchUri("b1")));
+            Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b2")));
+            Assert.assertEquals(Arrays.asList("B", "C", "E", "G", "Y"), getObjects("b1"));
+        } finally {
+            Config.branch_overlay_maxTriples = maxTriples;
+        }
+    }
+
+    /**
+     * Branches sharing the full graph of MASTER are materialized once commits on MASTER rebased them more often than
+     * configured, so the cost of a commit on MASTER does not keep growing with the number of branches.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testManyBranches() throws InternalErrorException {
+        int maxRebases = Config.branch_overlay_maxRebases;
+        try {
+            Config.branch_overlay_maxRebases = 2;
+            R43plesCoreInterface r43plesCore = R43plesCoreSingleton.getInstance();
+            RevisionGraph graph = new RevisionGraph(ds.graphName);
+            String masterRevision = graph.getRevisionIdentifier("master");
+            List<String> content = getObjects("master");
+            List<String> branchUris = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                r43plesCore.createReferenceCommit(ds.graphName, "many-" + i, masterRevision, user, "Branch of master", true);
+                branchUris.add(graph.getBranchUri("many-" + i));
+            }
+
+            for (int i = 0; i < 3; i++) {
+                r43plesCore.createUpdateCommit(ds.graphName, testS + "\"M" + i + "\". \n", null, user, "Commit to master", "master");
+                for (String branchUri : branchUris) {
+                    Assert.assertEquals(i < 2, graph.getIndex().isOverlay(branchUri));
+                }
+            }
+            Assert.assertFalse(graph.getIndex().isOverlay(graph.getBranchUri("b1")));
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(content, getObjects("many-" + i));
+            }
+            Assert.assertEquals(Arrays.asList("B", "C", "E", "G"), getObjects("b1"));
+        } finally {
+            Config.branch_overlay_maxRebases = maxRebases;
+        }
+    }
+
+    /**
+     * Queries the objects of the test subject in the specified revision.
+     *
+     * @param revision the revision identifier
+     * @return the sorted objects
+     * @throws InternalErrorException
+     */
+    private List<String> getObjects(String revision) throws InternalErrorException {
+        return getObjects(revision, false);
+    }
+
+    /**
+     * Queries the objects of the test subject in the specified revision.
+     *
+     * @param revision the revision identifier
+     * @param query_rewriting option if query rewriting should be enabled
+     * @return the sorted objects
+     * @throws InternalErrorException
+     */
+    private List<String> getObjects(String revision, boolean query_rewriting) throws InternalErrorException {
+        String query = String.format("SELECT ?o WHERE { GRAPH <%s> REVISION \"%s\" { <http://example.com/testS> <http://example.com/testP> ?o } } ORDER BY ?o",
+                ds.graphName, revision);
+        return selectObjects(query, query_rewriting);
+    }
+
+    /**
+     * Executes a query which selects ?o.
+     *
+     * @param query the R43ples query
+     * @param query_rewriting option if query rewriting should be enabled
+     * @return the objects
+     * @throws InternalErrorException
+     */
+    private List<String> selectObjects(String query, boolean query_rewriting) throws InternalErrorException {
+        String result = R43plesCoreSingleton.getInstance().getSparqlSelectConstructAskResponse(
+                new R43plesRequest(query, "application/sparql-results+xml"), query_rewriting);
+        ResultSet resultSet = ResultSetFactory.fromXML(result);
+        List<String> objects = new ArrayList<>();
+        while (resultSet.hasNext()) {
+            objects.add(resultSet.next().getLiteral("o").getLexicalForm());
+        }
+        return objects;
+    }
+}
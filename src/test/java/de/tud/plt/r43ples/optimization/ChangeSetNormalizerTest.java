@@ -0,0 +1,146 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.ResultSet;
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ChangeSetNormalizerTest {
+
+    private static final String testS = "<http://example.com/testS> <http://example.com/testP> ";
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataset1();
+    }
+
+    /**
+     * Triples which are already contained are removed from the add set and triples which are not contained are
+     * removed from the delete set.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testNormalization() throws InternalErrorException {
+        update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }");
+
+        Revision revision = update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". " + testS + "\"B\". } }");
+        Assert.assertEquals(Collections.singletonList("B"), getObjects(revision.getAddSetURI()));
+        Assert.assertEquals(Arrays.asList("A", "B"), getObjects(ds.graphName));
+
+        revision = update("DELETE DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"B\". " + testS + "\"X\". } }");
+        Assert.assertEquals(Collections.singletonList("B"), getObjects(revision.getDeleteSetURI()));
+        Assert.assertEquals(Collections.singletonList("A"), getObjects(ds.graphName));
+    }
+
+    /**
+     * Change sets with blank nodes are normalized by SPARQL updates.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testBlankNodes() throws InternalErrorException {
+        update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "[ <http://example.com/testP> \"C\" ]. " + testS + "\"D\". } }");
+        Assert.assertEquals(Arrays.asList("C", "D"), getObjects(ds.graphName));
+    }
+
+    /**
+     * The change set is normalized in the write of the batch which fills it. A failed batch leaves neither the change
+     * set nor the changed content.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testNormalizationInBatch() throws InternalErrorException {
+        update("INSERT DATA { GRAPH <%s> REVISION \"master\" { " + testS + "\"A\". } }");
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        String addSetURI = ds.graphName + "-batch-addSet";
+        String deleteSetURI = ds.graphName + "-batch-deleteSet";
+        TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", addSetURI));
+        TripleStoreInterfaceSingleton.get().executeUpdateQuery(String.format("DROP SILENT GRAPH <%s>", deleteSetURI));
+
+        UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+        batch.insertData(addSetURI, testS + "\"A\" .\n" + testS + "\"B\" .\n");
+        ChangeSetNormalizer.normalizeAndApply(batch, graph.getRevisionGraphUri(), graph.getBranchUri("master"), addSetURI, deleteSetURI);
+        batch.addStep(new UpdateBatch.Step() {
+            @Override
+            public void run(UpdateBatch stepBatch) {
+                throw new IllegalStateException("failing step");
+            }
+        });
+        try {
+            batch.execute();
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(Collections.<String>emptyList(), getObjects(addSetURI));
+            Assert.assertEquals(Collections.singletonList("A"), getObjects(ds.graphName));
+        }
+
+        batch.insertData(addSetURI, testS + "\"A\" .\n" + testS + "\"B\" .\n");
+        ChangeSetNormalizer.normalizeAndApply(batch, graph.getRevisionGraphUri(), graph.getBranchUri("master"), addSetURI, deleteSetURI);
+        batch.execute();
+        Assert.assertEquals(Collections.singletonList("B"), getObjects(addSetURI));
+        Assert.assertEquals(Arrays.asList("A", "B"), getObjects(ds.graphName));
+    }
+
+    /**
+     * Executes an update query on the data set.
+     *
+     * @param template the query template with a placeholder for the graph name
+     * @return the generated revision
+     * @throws InternalErrorException
+     */
+    private Revision update(final String template) throws InternalErrorException {
+        String query = "USER \"butler\" MESSAGE \"test commit\" " + String.format(template, ds.graphName);
+        R43plesCoreSingleton.getInstance().createUpdateCommit(new R43plesRequest(query, "text/turtle"));
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        return graph.getRevision(graph.getRevisionIdentifier("master"));
+    }
+
+    /**
+     * Get the objects of the test predicate in a graph.
+     *
+     * @param graphName the graph name
+     * @return the sorted objects
+     */
+    private List<String> getObjects(final String graphName) {
+        String query = String.format("SELECT ?o WHERE { GRAPH <%s> { ?s <http://example.com/testP> ?o FILTER isLiteral(?o) } } ORDER BY ?o", graphName);
+        List<String> objects = new ArrayList<>();
+        ResultSet results = TripleStoreInterfaceSingleton.get().executeSelectQuery(query);
+        while (results.hasNext()) {
+            objects.add(results.next().getLiteral("o").getLexicalForm());
+        }
+        return objects;
+    }
+
+}
@@ -0,0 +1,80 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.Revision;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class GraphURIIndexTest {
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataSetMerging();
+    }
+
+    /**
+     * The index seeded from the triplestore contains the graphs of the revision graph and is maintained by commits.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testSeedAndCommit() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        GraphURIIndex index = GraphURIIndex.getInstance();
+        index.invalidate();
+
+        Assert.assertTrue(index.contains(ds.graphName));
+        Assert.assertTrue(index.contains(graph.getRevisionGraphUri()));
+        Assert.assertTrue(index.contains(graph.getRevision(ds.revisions.get("b1-1")).getAddSetURI()));
+        Assert.assertFalse(index.contains(ds.graphName + "-unused"));
+
+        R43plesCoreSingleton.getInstance().createUpdateCommit(ds.graphName,
+                "<http://example.com/testS> <http://example.com/testP> \"X\". \n", null, "butler", "Commit", "master");
+        Revision revision = graph.getRevision(graph.getRevisionIdentifier("master"));
+        Assert.assertTrue(index.contains(revision.getAddSetURI()));
+        Assert.assertTrue(index.contains(revision.getDeleteSetURI()));
+
+        // the maintained index matches the seeded one
+        int size = index.size();
+        index.invalidate();
+        Assert.assertEquals(size, index.size());
+        Assert.assertTrue(index.contains(revision.getAddSetURI()));
+    }
+
+    /**
+     * Purged graphs are removed from the index.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testPurge() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        String revisionGraphURI = graph.getRevisionGraphUri();
+        Assert.assertTrue(GraphURIIndex.getInstance().contains(revisionGraphURI));
+
+        graph.purgeRevisionInformation();
+        Assert.assertFalse(GraphURIIndex.getInstance().contains(revisionGraphURI));
+        Assert.assertFalse(GraphURIIndex.getInstance().contains(ds.graphName));
+    }
+}
@@ -0,0 +1,148 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.webservice.Endpoint;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.ws.rs.core.Response;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+public class QueryResultCacheTest {
+
+    private static final String format = "application/sparql-results+xml";
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataset1();
+        QueryResultCache.getInstance().invalidateAll();
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * Only queries whose triple patterns are all evaluated on revision numbers are pinned.
+     */
+    @Test
+    public final void testPinnedRevisions() {
+        String revision = ds.revisions.get("master-2");
+        TreeMap<String, TreeSet<String>> pinned = QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }", ds.graphName, revision));
+        Assert.assertNotNull(pinned);
+        Assert.assertEquals(Collections.singleton(revision), pinned.get(ds.graphName));
+
+        Assert.assertNotNull(QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * FROM <%s> REVISION \"%s\" WHERE { ?s ?p ?o FILTER NOT EXISTS { ?o ?p ?s } }", ds.graphName, revision)));
+
+        // branches can move
+        Assert.assertNull(QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * WHERE { GRAPH <%s> REVISION \"master\" { ?s ?p ?o } }", ds.graphName)));
+        // unknown revision
+        Assert.assertNull(QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * WHERE { GRAPH <%s> REVISION \"4711\" { ?s ?p ?o } }", ds.graphName)));
+        // triple pattern on the default graph
+        Assert.assertNull(QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * WHERE { ?x ?y ?z GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }", ds.graphName, revision)));
+        // graph without revision
+        Assert.assertNull(QueryResultCache.getPinnedRevisions(String.format(
+                "SELECT * WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s ?p ?o } GRAPH <%1$s> { ?o ?p ?s } }", ds.graphName, revision)));
+        Assert.assertNull(QueryResultCache.getPinnedRevisions("SELECT * WHERE { ?s ?p ?o }"));
+    }
+
+    /**
+     * Repeated pinned queries are answered from the cache.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testHit() throws InternalErrorException {
+        QueryResultCache cache = QueryResultCache.getInstance();
+        String query = String.format("SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } } ORDER BY ?s ?p ?o",
+                ds.graphName, ds.revisions.get("master-2"));
+        Endpoint endpoint = new Endpoint();
+        Response response = endpoint.sparql(format, query);
+        Assert.assertNotNull(response.getEntityTag());
+        Assert.assertEquals(1, cache.size());
+
+        long hits = cache.getHits();
+        Response cachedResponse = endpoint.sparql(format, query);
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(response.getEntity(), cachedResponse.getEntity());
+        Assert.assertEquals(response.getEntityTag(), cachedResponse.getEntityTag());
+
+        // a query on a branch is not cached
+        endpoint.sparql(format, String.format("SELECT * WHERE { GRAPH <%s> REVISION \"master\" { ?s ?p ?o } }", ds.graphName));
+        Assert.assertEquals(1, cache.size());
+    }
+
+    /**
+     * The least recently used results are evicted when the cache exceeds its size.
+     */
+    @Test
+    public final void testEviction() {
+        Config.query_result_cache_maxBytes = 10;
+        QueryResultCache cache = QueryResultCache.getInstance();
+        long evictions = cache.getEvictions();
+        cache.put("a", Collections.singleton("g"), new byte[4], cache.getVersion());
+        cache.put("b", Collections.singleton("g"), new byte[4], cache.getVersion());
+        cache.get("a");
+        cache.put("c", Collections.singleton("g"), new byte[4], cache.getVersion());
+        Assert.assertEquals(evictions + 1, cache.getEvictions());
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(8, cache.getCachedBytes());
+
+        // results larger than the cache are not stored
+        QueryResultCache.CachedResult result = cache.put("d", Collections.singleton("g"), new byte[11], cache.getVersion());
+        Assert.assertNotNull(result.getEntityTag());
+        Assert.assertNull(cache.get("d"));
+    }
+
+    /**
+     * Results are dropped when their graph is purged.
+     */
+    @Test
+    public final void testInvalidationOnPurge() {
+        QueryResultCache cache = QueryResultCache.getInstance();
+        long version = cache.getVersion();
+        cache.put("a", Collections.singleton(ds.graphName), new byte[4], version);
+        cache.put("b", Collections.singleton("http://test.com/other"), new byte[4], version);
+        new RevisionGraph(ds.graphName).purgeRevisionInformation();
+        Assert.assertNull(cache.get("a"));
+        Assert.assertNotNull(cache.get("b"));
+
+        // results evaluated before the purge are not stored
+        cache.put("c", Collections.singleton(ds.graphName), new byte[4], version);
+        Assert.assertNull(cache.get("c"));
+    }
+
+}
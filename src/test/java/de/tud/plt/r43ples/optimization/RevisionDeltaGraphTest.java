@@ -0,0 +1,126 @@
+package de.tud.plt.r43ples.optimization;
+
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.query.ResultSetFactory;
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+public class RevisionDeltaGraphTest {
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * Revisions evaluated from the change sets have the same content as the materialized revisions.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testLinearRevisions() throws InternalErrorException {
+        DataSetGenerationResult ds = SampleDataSet.createSampleDataset1();
+        HashSet<List<String>> contents = new HashSet<>();
+        for (int i = 0; i <= 5; i++) {
+            String query = String.format("SELECT ?s ?p ?o WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } } ORDER BY ?s ?p ?o",
+                    ds.graphName, ds.revisions.get("master-" + i));
+            contents.add(assertSameResult(query));
+        }
+        Assert.assertEquals(6, contents.size());
+    }
+
+    /**
+     * Joins over revisions of several branches are free of duplicates.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testBranches() throws InternalErrorException {
+        DataSetGenerationResult ds = SampleDataSet.createSampleDataSetMerging();
+        for (String revision : new String[] { "master-1", "b1-0", "b1-1", "b2-0", "b2-1" }) {
+            String query = String.format("SELECT ?s ?o ?o2 WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o. ?s ?p2 ?o2. } }",
+                    ds.graphName, ds.revisions.get(revision));
+            List<String> result = assertSameResult(query);
+            Assert.assertFalse(result.isEmpty());
+            Assert.assertEquals(new HashSet<>(result).size(), result.size());
+        }
+    }
+
+    /**
+     * Revisions whose path ends at a branch which shares the full graph of its base are evaluated on the overlay.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testOverlayBranches() throws InternalErrorException {
+        Config.branch_overlay_maxTriples = 100000;
+        DataSetGenerationResult ds = SampleDataSet.createSampleDataSetMerging();
+        for (String revision : new String[] { "b1-0", "b2-0", "b2-1" }) {
+            String query = String.format("SELECT ?o WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } } ORDER BY ?o",
+                    ds.graphName, ds.revisions.get(revision));
+            Assert.assertFalse(assertSameResult(query).isEmpty());
+        }
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b1")));
+        Assert.assertTrue(graph.getIndex().isOverlay(graph.getBranchUri("b2")));
+    }
+
+    /**
+     * Executes the query with the delta engine and with materialized revisions and compares the solutions.
+     *
+     * @param query the query
+     * @return the solutions of the delta engine
+     * @throws InternalErrorException
+     */
+    private List<String> assertSameResult(final String query) throws InternalErrorException {
+        Config.revision_query_engine = "delta";
+        List<String> delta = getSolutions(query);
+        Config.revision_query_engine = "materialize";
+        List<String> materialized = getSolutions(query);
+        Assert.assertEquals(query, materialized.size(), delta.size());
+        Assert.assertEquals(query, new HashSet<>(materialized), new HashSet<>(delta));
+        return delta;
+    }
+
+    /**
+     * Executes a query and returns the solutions.
+     *
+     * @param query the query
+     * @return the solutions
+     * @throws InternalErrorException
+     */
+    private List<String> getSolutions(final String query) throws InternalErrorException {
+        String result = R43plesCoreSingleton.getInstance().getSparqlSelectConstructAskResponse(
+                new R43plesRequest(query, "application/sparql-results+xml"), false);
+        ResultSet resultSet = ResultSetFactory.fromXML(result);
+        List<String> solutions = new ArrayList<>();
+        while (resultSet.hasNext()) {
+            solutions.add(resultSet.next().toString());
+        }
+        return solutions;
+    }
+}
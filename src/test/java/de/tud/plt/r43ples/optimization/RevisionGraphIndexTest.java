@@ -0,0 +1,154 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.R43plesRequest;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import de.tud.plt.r43ples.triplestoreInterface.UpdateBatch;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+public class RevisionGraphIndexTest {
+
+    private static DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        ds = SampleDataSet.createSampleDataSetMerging();
+    }
+
+    /**
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testLookups() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+
+        Assert.assertEquals(new ArrayList<>(Arrays.asList("b1", "b2", "master")), graph.getAllBranchNames());
+        Assert.assertTrue(graph.hasBranch("b1"));
+        Assert.assertTrue(graph.hasReference("b2"));
+        Assert.assertFalse(graph.hasReference("b3"));
+        Assert.assertEquals(ds.revisions.get("b2-2"), graph.getRevisionIdentifier("b2"));
+        Assert.assertEquals(ds.revisions.get("master-1"), graph.getMasterRevision().getRevisionIdentifier());
+        Assert.assertEquals(ds.graphName, graph.getReferenceGraph("master"));
+        Assert.assertEquals(graph.getRevisionUri(ds.revisions.get("b1-0")),
+                graph.getRevision(ds.revisions.get("b1-1")).getDerivedFromRevision().getRevisionURI());
+    }
+
+    /**
+     * The index maintained in place by the commits has to be equal to the index loaded from the triplestore.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testInPlaceUpdatesMatchReload() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        int maxRevisionNumber = graph.getIndex().getMaxRevisionNumber();
+        String branchUri = graph.getBranchUri("b1");
+        String revisionUri = graph.getRevisionUri("b2");
+        String fullGraphUri = graph.getFullGraphUri(branchUri);
+
+        RevisionGraphIndex.invalidate(graph.getRevisionGraphUri());
+
+        Assert.assertEquals(maxRevisionNumber, graph.getIndex().getMaxRevisionNumber());
+        Assert.assertEquals(branchUri, graph.getBranchUri("b1"));
+        Assert.assertEquals(revisionUri, graph.getRevisionUri("b2"));
+        Assert.assertEquals(fullGraphUri, graph.getFullGraphUri(branchUri));
+    }
+
+    /**
+     * The revision a branch pointed to at a point in time is found in the time index, which is extended by commits
+     * and rebuilt from the commit times stored in the triplestore.
+     *
+     * @throws Exception
+     */
+    @Test
+    public final void testRevisionAtTime() throws Exception {
+        DataSetGenerationResult ds1 = SampleDataSet.createSampleDataset1();
+        RevisionGraph graph = new RevisionGraph(ds1.graphName);
+        String oldRevision = ds1.revisions.get("master-5");
+        Date firstTime = graph.getRevisionTime(ds1.revisions.get("master-0"));
+        Assert.assertNotNull(firstTime);
+        Assert.assertEquals(oldRevision, graph.getRevisionIdentifierAtTime("master", new Date()));
+
+        Thread.sleep(20);
+        Date between = new Date();
+        Thread.sleep(20);
+        R43plesCoreSingleton.getInstance().createUpdateCommit(ds1.graphName,
+                "<http://example.com/testS> <http://example.com/testP> \"T\". \n", "", "butler", "Commit to master", "master");
+        String newRevision = graph.getRevisionIdentifier("master");
+
+        Assert.assertEquals(oldRevision, graph.getRevisionIdentifierAtTime("master", between));
+        Assert.assertEquals(newRevision, graph.getRevisionIdentifierAtTime("master", new Date()));
+        try {
+            graph.getRevisionIdentifierAtTime("master", new Date(firstTime.getTime() - 1));
+            Assert.fail("no revision expected");
+        } catch (InternalErrorException e) {
+            // the graph did not exist at that time
+        }
+
+        // the same revisions are found after reloading the index
+        RevisionGraphIndex.invalidate(graph.getRevisionGraphUri());
+        Assert.assertEquals(firstTime, graph.getRevisionTime(ds1.revisions.get("master-0")));
+        Assert.assertEquals(oldRevision, graph.getRevisionIdentifierAtTime("master", between));
+        Assert.assertEquals(newRevision, graph.getRevisionIdentifierAtTime("master", new Date()));
+
+        // AT clauses and the point in time of the request are resolved to revision numbers
+        String at = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS").format(between);
+        Assert.assertEquals(String.format("SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o } }", ds1.graphName, oldRevision),
+                R43plesRequest.resolveRevisionTimes(String.format(
+                        "SELECT * WHERE { GRAPH <%s> REVISION AT \"%s\" { ?s ?p ?o } }", ds1.graphName, at), null));
+        R43plesRequest request = new R43plesRequest(String.format(
+                "SELECT * FROM <%1$s> REVISION \"master\" WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s ?p ?o } }",
+                ds1.graphName, ds1.revisions.get("master-2")), "text/turtle");
+        request.resolveRevisionTimes(between);
+        Assert.assertEquals(String.format("SELECT * FROM <%1$s> REVISION \"%3$s\" WHERE { GRAPH <%1$s> REVISION \"%2$s\" { ?s ?p ?o } }",
+                ds1.graphName, ds1.revisions.get("master-2"), oldRevision), request.query_sparql);
+        Assert.assertEquals(graph.getRevisionTime(oldRevision), request.mementoDatetime);
+    }
+
+    /**
+     * The index is only changed by the post-commit actions of an update batch, so a failed write leaves it unchanged.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testIndexChangedAfterWrite() throws InternalErrorException {
+        DataSetGenerationResult ds1 = SampleDataSet.createSampleDataset1();
+        RevisionGraph graph = new RevisionGraph(ds1.graphName);
+        String revisionGraphURI = graph.getRevisionGraphUri();
+        String referenceURI = graph.getBranchUri("master") + "-test";
+
+        UpdateBatch batch = TripleStoreInterfaceSingleton.get().createUpdateBatch();
+        BranchOverlay.createOverlay(batch, revisionGraphURI, referenceURI, graph.getBranchUri("master"));
+        batch.add("INSERT DATA { GRAPH <http://example.com/test> { <http://example.com/s> } }");
+        Assert.assertFalse(graph.getIndex().isOverlay(referenceURI));
+        try {
+            batch.execute();
+            Assert.fail("invalid update expected");
+        } catch (RuntimeException e) {
+            // the write is aborted
+        }
+        Assert.assertFalse(graph.getIndex().isOverlay(referenceURI));
+
+        BranchOverlay.createOverlay(batch, revisionGraphURI, referenceURI, graph.getBranchUri("master"));
+        batch.execute();
+        Assert.assertTrue(graph.getIndex().isOverlay(referenceURI));
+        Assert.assertEquals(ds1.graphName, graph.getIndex().getBaseGraphURI(referenceURI));
+    }
+}
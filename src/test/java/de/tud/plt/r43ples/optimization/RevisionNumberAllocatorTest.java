@@ -0,0 +1,75 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.existentobjects.RevisionGraph;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.triplestoreInterface.TripleStoreInterfaceSingleton;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.HashSet;
+
+public class RevisionNumberAllocatorTest {
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataSetMerging();
+    }
+
+    /**
+     * Every allocation returns a new number.
+     */
+    @Test
+    public final void testUniqueNumbers() {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        int maxRevisionNumber = graph.getIndex().getMaxRevisionNumber();
+
+        HashSet<String> identifiers = new HashSet<>();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(identifiers.add(graph.getNextRevisionIdentifier()));
+        }
+        Assert.assertTrue(identifiers.contains(String.valueOf(maxRevisionNumber + 1)));
+    }
+
+    /**
+     * The high-water mark is persisted by the commits, so the counter continues after the last committed revision when
+     * it is initialized again.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testPersistedHighWaterMark() throws InternalErrorException {
+        RevisionGraph graph = new RevisionGraph(ds.graphName);
+        R43plesCoreSingleton.getInstance().createUpdateCommit(ds.graphName,
+                "<http://example.com/testS> <http://example.com/testP> \"X\". \n", null, "butler", "Commit", "master");
+        String committed = graph.getRevisionIdentifier("master");
+        Assert.assertTrue(TripleStoreInterfaceSingleton.get().executeAskQuery(Config.prefixes + String.format(
+                "ASK { GRAPH <%s> { <%s> rmo:maxRevisionNumber %s. } }", Config.revision_graph, ds.graphName, committed)));
+
+        graph.getNextRevisionIdentifier();
+        RevisionNumberAllocator.resetAll();
+        RevisionGraphIndex.invalidate(graph.getRevisionGraphUri());
+
+        int next = Integer.parseInt(graph.getNextRevisionIdentifier());
+        Assert.assertEquals(Integer.parseInt(committed) + 1, next);
+    }
+}
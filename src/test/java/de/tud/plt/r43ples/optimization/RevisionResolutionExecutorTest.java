@@ -0,0 +1,120 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.management.Config;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RevisionResolutionExecutorTest {
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * Restores the configured executor.
+     *
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+        RevisionResolutionExecutor.shutdown();
+    }
+
+    /**
+     * The results are returned in the order of the tasks although the tasks run concurrently. All tasks wait for each
+     * other, so the test only completes if they run at the same time.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public void testConcurrentResolution() throws InternalErrorException {
+        Config.revision_resolution_threads = 3;
+        RevisionResolutionExecutor.shutdown();
+
+        final CountDownLatch latch = new CountDownLatch(3);
+        List<Callable<String>> tasks = new ArrayList<>();
+        for (final String result : Arrays.asList("a", "b", "c")) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    latch.countDown();
+                    Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+                    return result;
+                }
+            });
+        }
+        Assert.assertEquals(Arrays.asList("a", "b", "c"), RevisionResolutionExecutor.getInstance().invokeAll(tasks));
+    }
+
+    /**
+     * The failure of a task is thrown to the caller after all tasks are completed.
+     */
+    @Test
+    public void testFailure() {
+        Config.revision_resolution_threads = 2;
+        RevisionResolutionExecutor.shutdown();
+
+        final CountDownLatch completed = new CountDownLatch(1);
+        List<Callable<String>> tasks = new ArrayList<>();
+        tasks.add(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                throw new InternalErrorException("revision not found");
+            }
+        });
+        tasks.add(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                Thread.sleep(100);
+                completed.countDown();
+                return "b";
+            }
+        });
+        try {
+            RevisionResolutionExecutor.getInstance().invokeAll(tasks);
+            Assert.fail("exception expected");
+        } catch (InternalErrorException e) {
+            Assert.assertEquals("revision not found", e.getMessage());
+        }
+        Assert.assertEquals(0, completed.getCount());
+    }
+
+    /**
+     * With a single thread all tasks are executed one after another in the calling thread.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public void testSequentialResolution() throws InternalErrorException {
+        Config.revision_resolution_threads = 1;
+        RevisionResolutionExecutor.shutdown();
+
+        final Thread caller = Thread.currentThread();
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return Thread.currentThread() == caller;
+                }
+            });
+        }
+        Assert.assertEquals(Arrays.asList(true, true, true), RevisionResolutionExecutor.getInstance().invokeAll(tasks));
+    }
+
+}
@@ -0,0 +1,101 @@
+package de.tud.plt.r43ples.optimization;
+
+import de.tud.plt.r43ples.core.R43plesCoreSingleton;
+import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
+import de.tud.plt.r43ples.dataset.SampleDataSet;
+import de.tud.plt.r43ples.exception.InternalErrorException;
+import de.tud.plt.r43ples.management.Config;
+import de.tud.plt.r43ples.management.SparqlRewriter;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RewrittenQueryCacheTest {
+
+    private DataSetGenerationResult ds;
+
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @BeforeClass
+    public static void setUpBeforeClass() throws Exception {
+        Config.readConfig("r43ples.test.conf");
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        ds = SampleDataSet.createSampleDataset1();
+        RewrittenQueryCache.getInstance().invalidateAll();
+    }
+
+    /**
+     * Queries which only differ in whitespace are rewritten once.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testHit() throws InternalErrorException {
+        RewrittenQueryCache cache = RewrittenQueryCache.getInstance();
+        long hits = cache.getHits();
+
+        String result = SparqlRewriter.rewriteQuery(getQuery(ds.revisions.get("master-2"), " "));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals(result, SparqlRewriter.rewriteQuery(getQuery(ds.revisions.get("master-2"), "\n\t  ")));
+        Assert.assertEquals(hits + 1, cache.getHits());
+        Assert.assertEquals(1, cache.size());
+    }
+
+    /**
+     * Whitespace in string literals is part of the key.
+     */
+    @Test
+    public final void testKey() {
+        Assert.assertEquals(RewrittenQueryCache.getKey("SELECT *  WHERE\n{ ?s ?p \"a  b\" }"),
+                RewrittenQueryCache.getKey(" SELECT * WHERE { ?s ?p \"a  b\" } "));
+        Assert.assertNotEquals(RewrittenQueryCache.getKey("SELECT * WHERE { ?s ?p \"a  b\" }"),
+                RewrittenQueryCache.getKey("SELECT * WHERE { ?s ?p \"a b\" }"));
+        Assert.assertNotEquals(RewrittenQueryCache.getKey("SELECT * WHERE { ?s ?p \"a\\\"  b\" }"),
+                RewrittenQueryCache.getKey("SELECT * WHERE { ?s ?p \"a\\\" b\" }"));
+    }
+
+    /**
+     * Entries are dropped when a branch they depend on moves.
+     *
+     * @throws InternalErrorException
+     */
+    @Test
+    public final void testInvalidationOnCommit() throws InternalErrorException {
+        RewrittenQueryCache cache = RewrittenQueryCache.getInstance();
+        String query = getQuery(ds.revisions.get("master-2"), " ");
+        String queryMaster = getQuery("master", " ");
+        String result = SparqlRewriter.rewriteQuery(query);
+        SparqlRewriter.rewriteQuery(queryMaster);
+        Assert.assertEquals(2, cache.size());
+
+        R43plesCoreSingleton.getInstance().createUpdateCommit(ds.graphName,
+                "<http://test.com/Adam> <http://test.com/knows> <http://test.com/Zoe>. \n", null, "butler", "Commit", "master");
+        Assert.assertEquals(0, cache.size());
+
+        // the path of the old revision now ends at the new head of the branch
+        long misses = cache.getMisses();
+        Assert.assertNotEquals(result, SparqlRewriter.rewriteQuery(query));
+        Assert.assertEquals(misses + 1, cache.getMisses());
+    }
+
+    /**
+     * Creates a query on the specified revision.
+     *
+     * @param revision the revision identifier
+     * @param whitespace the whitespace between the tokens
+     * @return the query
+     */
+    private String getQuery(final String revision, final String whitespace) {
+        return String.format("PREFIX : <http://test.com/>%1$sSELECT ?s ?o%1$sWHERE {%1$sGRAPH <%2$s> REVISION \"%3$s\" {?s :knows ?o }%1$s}",
+                whitespace, ds.graphName, revision);
+    }
+}
@@ -1,5 +1,7 @@
 package de.tud.plt.r43ples.webservice;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import de.tud.plt.r43ples.dataset.DataSetGenerationResult;
 import de.tud.plt.r43ples.dataset.SampleDataSet;
 import de.tud.plt.r43ples.exception.InternalErrorException;
@@ -20,9 +22,12 @@ import javax.ws.rs.client.Entity;
 import javax.ws.rs.core.Application;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXMLEqual;
 import static org.hamcrest.core.StringContains.containsString;
@@ -39,7 +44,7 @@ public class EndpointJerseyTest extends JerseyTest {
 	
     @Override
     protected Application configure() {
-        return new ResourceConfig(Endpoint.class, Misc.class, Merging.class);
+        return new ResourceConfig(Endpoint.class, Misc.class, Merging.class, Jobs.class, Uploads.class);
     }
     
 	@BeforeClass
@@ -99,6 +104,150 @@ public class EndpointJerseyTest extends JerseyTest {
 	}
 	
 	
+	@Test
+	public void testSelectPinnedRevisionNotModified() throws SAXException, IOException {
+		String query = String.format(""
+				+ "SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o. } }"
+				+ "ORDER BY ?s ?p ?o", ds1.graphName, ds1.revisions.get("master-3"));
+		Response response = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format).request().get();
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertNotNull(response.getEntityTag());
+		Assert.assertFalse(response.getEntityTag().isWeak());
+		String result = response.readEntity(String.class);
+		Assert.assertThat(result, containsString("http://test.com/Adam"));
+
+		Response notModified = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format).request()
+				.header("If-None-Match", "\"" + response.getEntityTag().getValue() + "\"").get();
+		Assert.assertEquals(304, notModified.getStatus());
+		Assert.assertEquals(response.getEntityTag(), notModified.getEntityTag());
+
+		Response modified = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format).request()
+				.header("If-None-Match", "\"outdated\"").get();
+		Assert.assertEquals(200, modified.getStatus());
+		Assert.assertEquals(result, modified.readEntity(String.class));
+	}
+	
+	
+	@Test
+	public void testExplain() throws IOException {
+		String query = String.format(""
+				+ "SELECT * WHERE { GRAPH <%s> REVISION \"%s\" { ?s ?p ?o. } }", ds1.graphName, ds1.revisions.get("master-2"));
+		Response response = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format)
+				.queryParam("explain", "true").request().get();
+		Assert.assertEquals(MediaType.APPLICATION_JSON_TYPE, response.getMediaType());
+		String result = response.readEntity(String.class);
+		Assert.assertThat(result, containsString("\"pathLength\""));
+		Assert.assertThat(result, containsString("\"timings\""));
+
+		result = target("sparql").queryParam("query", URLEncoder.encode("EXPLAIN " + query, "UTF-8")).queryParam("format", format)
+				.request().get(String.class);
+		Assert.assertThat(result, containsString("\"algebra\""));
+
+		response = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format)
+				.queryParam("explain", "header").request().get();
+		Assert.assertThat(response.getHeaderString("r43ples-explain"), containsString("\"changeSets\""));
+		Assert.assertThat(response.readEntity(String.class), containsString("http://test.com/Adam"));
+	}
+	
+	
+	@Test
+	public void testAcceptDatetime() throws IOException {
+		String query = String.format(""
+				+ "SELECT * WHERE { GRAPH <%s> REVISION \"master\" { ?s ?p ?o. } }", ds1.graphName);
+		Response response = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format)
+				.request().header("Accept-Datetime", "Thu, 31 Dec 2099 23:59:59 GMT").get();
+		Assert.assertEquals(200, response.getStatus());
+		Assert.assertEquals("accept-datetime", response.getHeaderString("Vary"));
+		Assert.assertNotNull(response.getHeaderString("Memento-Datetime"));
+		Assert.assertThat(response.readEntity(String.class), containsString("http://test.com/Adam"));
+
+		response = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format)
+				.request().header("Accept-Datetime", "yesterday").get();
+		Assert.assertEquals(400, response.getStatus());
+	}
+	
+	
+	@Test
+	public void testAsyncCommit() throws IOException, InterruptedException {
+		String graphName = "http://test.com/r43ples-dev-async";
+		target("sparql").request().post(Entity.entity("DROP SILENT GRAPH <" + graphName + ">", "application/sparql-query")).close();
+
+		// jobs on the same graph are executed in the order they were submitted
+		Response created = target("sparql").request(MediaType.TEXT_PLAIN).header("Prefer", "respond-async")
+				.post(Entity.entity("CREATE SILENT GRAPH <" + graphName + ">", "application/sparql-query"));
+		Assert.assertEquals(202, created.getStatus());
+		Response updated = target("sparql").request(MediaType.TEXT_PLAIN).header("Prefer", "respond-async, wait=0")
+				.post(Entity.entity("USER \"butler\" MESSAGE \"async commit\" INSERT DATA { GRAPH <" + graphName + "> REVISION \"master\" { "
+						+ "<http://test.com/Async> <http://test.com/knows> <http://test.com/Job> . } }", "application/sparql-query"));
+		Assert.assertEquals(202, updated.getStatus());
+		Assert.assertEquals("respond-async", updated.getHeaderString("Preference-Applied"));
+		Assert.assertNotNull(updated.getLocation());
+
+		JsonNode job = new ObjectMapper().readTree(updated.readEntity(String.class));
+		String path = "jobs/" + job.get("id").asText();
+		for (int i = 0; i < 100 && !job.get("status").asText().matches("COMPLETED|FAILED"); i++) {
+			Thread.sleep(100);
+			job = new ObjectMapper().readTree(target(path).request().get(String.class));
+		}
+		Assert.assertEquals("COMPLETED", job.get("status").asText());
+		Assert.assertEquals("1", job.get("revisions").get(graphName).get(0).asText());
+		Assert.assertEquals(0, job.get("jobsAhead").asInt());
+
+		JsonNode createJob = new ObjectMapper().readTree(target("jobs/" + new ObjectMapper().readTree(created.readEntity(String.class)).get("id").asText()).request().get(String.class));
+		Assert.assertEquals("COMPLETED", createJob.get("status").asText());
+		Assert.assertEquals("0", createJob.get("revisions").get(graphName).get(0).asText());
+
+		String query = "SELECT * WHERE { GRAPH <" + graphName + "> REVISION \"master\" { ?s ?p ?o. } }";
+		String result = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format).request().get(String.class);
+		Assert.assertThat(result, containsString("http://test.com/Async"));
+
+		Assert.assertEquals(404, target("jobs/unknown").request().get().getStatus());
+	}
+	
+	
+	@Test
+	public void testBulkUpload() throws IOException {
+		String graphName = "http://test.com/r43ples-dev-upload";
+		target("sparql").request().post(Entity.entity("DROP SILENT GRAPH <" + graphName + ">", "application/sparql-query")).close();
+		target("sparql").request().post(Entity.entity("CREATE SILENT GRAPH <" + graphName + ">", "application/sparql-query")).close();
+
+		Response created = target("uploads").queryParam("graph", graphName).queryParam("user", "butler").request()
+				.post(Entity.text(""));
+		Assert.assertEquals(201, created.getStatus());
+		Assert.assertNotNull(created.getLocation());
+		String path = "uploads/" + new ObjectMapper().readTree(created.readEntity(String.class)).get("id").asText();
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+			out.write("<http://test.com/Bulk> <http://test.com/knows> <http://test.com/Upload> .\n".getBytes(StandardCharsets.UTF_8));
+		}
+		Response loaded = target(path + "/add").request().post(Entity.entity(bytes.toByteArray(), "application/gzip"));
+		Assert.assertEquals(200, loaded.getStatus());
+		Assert.assertEquals(1, new ObjectMapper().readTree(loaded.readEntity(String.class)).get("addTriples").asInt());
+		Assert.assertEquals(415, target(path + "/delete").request().post(Entity.entity("{}", MediaType.APPLICATION_JSON)).getStatus());
+		Assert.assertEquals(400, target(path + "/delete").request().post(Entity.entity("no triples", "application/n-triples")).getStatus());
+
+		// the upload failed, so a new one is needed
+		Assert.assertEquals("FAILED", new ObjectMapper().readTree(target(path).request().get(String.class)).get("status").asText());
+		created = target("uploads").queryParam("graph", graphName).request().post(Entity.text(""));
+		path = "uploads/" + new ObjectMapper().readTree(created.readEntity(String.class)).get("id").asText();
+		target(path + "/add").request().post(Entity.entity(bytes.toByteArray(), "application/gzip")).close();
+		Response committed = target(path + "/commit").request().post(Entity.text(""));
+		Assert.assertEquals(200, committed.getStatus());
+		JsonNode upload = new ObjectMapper().readTree(committed.readEntity(String.class));
+		Assert.assertEquals("COMMITTED", upload.get("status").asText());
+		Assert.assertEquals("1", upload.get("revision").asText());
+		Assert.assertEquals(409, target(path + "/commit").request().post(Entity.text("")).getStatus());
+
+		String query = "SELECT * WHERE { GRAPH <" + graphName + "> REVISION \"master\" { ?s ?p ?o. } }";
+		String result = target("sparql").queryParam("query", URLEncoder.encode(query, "UTF-8")).queryParam("format", format).request().get(String.class);
+		Assert.assertThat(result, containsString("http://test.com/Bulk"));
+
+		Assert.assertEquals(400, target("uploads").queryParam("graph", "http://test.com/unknown-graph").request().post(Entity.text("")).getStatus());
+		Assert.assertEquals(404, target("uploads/unknown").request().get().getStatus());
+	}
+	
+	
 	@Test
 	public void testSelectSparqlUnion() throws SAXException, IOException {		
 		String result = target("sparql").